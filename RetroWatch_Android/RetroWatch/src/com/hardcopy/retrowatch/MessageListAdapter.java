@@ -18,6 +18,7 @@ package com.hardcopy.retrowatch;
 
 import java.util.ArrayList;
 
+import com.hardcopy.retrowatch.contents.objects.ContentDelta;
 import com.hardcopy.retrowatch.contents.objects.ContentObject;
 import com.hardcopy.retrowatch.contents.objects.FilterObject;
 import com.hardcopy.retrowatch.utils.Utils;
@@ -64,6 +65,30 @@ public class MessageListAdapter extends ArrayAdapter<ContentObject> implements I
 			addMessage(itemList.get(i));
 	}
 	
+	/**
+	 * Apply changes of content list. Can be applied more than once.
+	 */
+	public void applyDelta(ContentDelta delta) {
+		for(ContentObject co : delta.mRemoved) {
+			int index = indexOfInstance(co);
+			if(index > -1)
+				mMessageList.remove(index);
+		}
+		for(ContentObject co : delta.mAdded) {
+			if(indexOfInstance(co) < 0)
+				mMessageList.add(co);
+		}
+		// Changed objects are same instances. Just redraw.
+	}
+	
+	private int indexOfInstance(ContentObject co) {
+		for(int i = mMessageList.size() - 1; -1 < i; i--) {
+			if(mMessageList.get(i) == co)
+				return i;
+		}
+		return -1;
+	}
+	
 	public void deleteMessage(int id) {
 		for(int i = mMessageList.size() - 1; -1 < i; i--) {
 			ContentObject co = mMessageList.get(i);
@@ -18,6 +18,7 @@ package com.hardcopy.retrowatch;
 
 import java.util.ArrayList;
 
+import com.hardcopy.retrowatch.contents.objects.ContentDelta;
 import com.hardcopy.retrowatch.contents.objects.ContentObject;
 import com.hardcopy.retrowatch.utils.Logs;
 
@@ -89,6 +90,14 @@ public class MessageListFragment extends Fragment implements IAdapterListener {
 		}
 	}
 	
+	public void applyContentDelta(ContentDelta delta) {
+		if(mMessageListAdapter == null) return;
+		if(delta != null) {
+			mMessageListAdapter.applyDelta(delta);
+			mMessageListAdapter.notifyDataSetChanged();
+		}
+	}
+	
 	public void deleteMessage(int id) {
 		if(mMessageListAdapter == null) return;
 		mMessageListAdapter.deleteMessage(id);
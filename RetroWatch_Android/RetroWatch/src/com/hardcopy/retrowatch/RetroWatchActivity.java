@@ -21,6 +21,7 @@ import java.util.Timer;
 import java.util.TimerTask;
 
 import com.hardcopy.retrowatch.contents.objects.CPObject;
+import com.hardcopy.retrowatch.contents.objects.ContentDelta;
 import com.hardcopy.retrowatch.contents.objects.ContentObject;
 import com.hardcopy.retrowatch.contents.objects.FilterObject;
 import com.hardcopy.retrowatch.service.RetroWatchService;
@@ -199,7 +200,7 @@ public class RetroWatchActivity extends FragmentActivity implements ActionBar.Ta
 			return true;
 		case R.id.action_send_all:
 			// Send all available contents to watch
-			mService.reserveRemoteUpdate(100);
+			mService.reserveFullRemoteUpdate(100);
 			return true;
 		/* Disabled:
 		case R.id.action_discoverable:
@@ -600,85 +601,23 @@ public class RetroWatchActivity extends FragmentActivity implements ActionBar.Ta
 			////////////////////////////////////////////
 			// Contents changed
 			////////////////////////////////////////////
-			case Constants.MESSAGE_ADD_NOTIFICATION:
+			case Constants.MESSAGE_CONTENT_CHANGED:
 			{
-				ContentObject obj = (ContentObject)msg.obj;
 				MessageListFragment frg = (MessageListFragment) mSectionsPagerAdapter.getItem(RetroWatchFragmentAdapter.FRAGMENT_POS_MESSAGE_LIST);
-				if(frg != null)
-					frg.addMessage(obj);
+				if(frg != null && msg.obj != null)
+					frg.applyContentDelta((ContentDelta)msg.obj);
 				break;
 			}
 			
+			// Message list is updated with MESSAGE_CONTENT_CHANGED
+			case Constants.MESSAGE_ADD_NOTIFICATION:
 			case Constants.MESSAGE_DELETE_NOTIFICATION:
-			{
-				int _id = msg.arg1;
-				MessageListFragment frg = (MessageListFragment) mSectionsPagerAdapter.getItem(RetroWatchFragmentAdapter.FRAGMENT_POS_MESSAGE_LIST);
-				if(frg != null)
-					frg.deleteMessage(_id);
-				break;
-			}
-			
 			case Constants.MESSAGE_GMAIL_UPDATED:
-			{
-				ContentObject obj = null;
-				if(msg.obj != null) {
-					obj = (ContentObject)msg.obj;
-				}
-				MessageListFragment frg = (MessageListFragment) mSectionsPagerAdapter.getItem(RetroWatchFragmentAdapter.FRAGMENT_POS_MESSAGE_LIST);
-				if(frg != null) {
-					frg.deleteMessageByTypeAndName(ContentObject.CONTENT_TYPE_MESSAGING, ContentObject.GMAIL_PACKAGE_NAME);
-					frg.addMessage(obj);
-				}
-				break;
-			}
-			
-			// Disable: this case is deprecated
-			case Constants.MESSAGE_SMS_RECEIVED:
-			{
-				ContentObject obj = null;
-				if(msg.obj != null) {
-					obj = (ContentObject)msg.obj;
-				}
-				MessageListFragment frg = (MessageListFragment) mSectionsPagerAdapter.getItem(RetroWatchFragmentAdapter.FRAGMENT_POS_MESSAGE_LIST);
-				if(frg != null) {
-					frg.deleteMessageByTypeAndName(ContentObject.CONTENT_TYPE_MESSAGING, ContentObject.SMS_PACKAGE_NAME);
-					frg.addMessage(obj);
-				}
-				break;
-			}
-			
+			case Constants.MESSAGE_SMS_RECEIVED:		// Deprecated
 			case Constants.MESSAGE_CALL_STATE_RECEIVED:
 			case Constants.MESSAGE_RF_STATE_RECEIVED:
-			{
-				ContentObject obj = null;
-				if(msg.obj != null) {
-					obj = (ContentObject)msg.obj;
-				}
-				MessageListFragment frg = (MessageListFragment) mSectionsPagerAdapter.getItem(RetroWatchFragmentAdapter.FRAGMENT_POS_MESSAGE_LIST);
-				if(frg != null) {
-					if(msg.what == Constants.MESSAGE_CALL_STATE_RECEIVED)
-						frg.deleteMessageByTypeAndName(ContentObject.CONTENT_TYPE_EMERGENCY, ContentObject.TELEPHONY_CALL_PACKAGE_NAME);
-					else
-						frg.deleteMessageByTypeAndName(ContentObject.CONTENT_TYPE_EMERGENCY, ContentObject.TELEPHONY_RF_PACKAGE_NAME);
-					frg.addMessage(obj);
-				}
-				break;
-			}
-			
 			case Constants.MESSAGE_FEED_UPDATED:
-			{
-				ArrayList<ContentObject> feedList = null;
-				if(msg.obj != null) {
-					feedList = (ArrayList<ContentObject>)msg.obj;
-				}
-				MessageListFragment frg = (MessageListFragment) mSectionsPagerAdapter.getItem(RetroWatchFragmentAdapter.FRAGMENT_POS_MESSAGE_LIST);
-				if(frg != null) {
-					frg.deleteMessageByType(ContentObject.CONTENT_TYPE_FEED);
-					if(feedList != null && feedList.size() > 0)
-						frg.addMessageAll(feedList);
-				}
 				break;
-			}
 			
 			default:
 				break;
@@ -19,28 +19,29 @@ package com.hardcopy.retrowatch.connectivity;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.hardcopy.retrowatch.utils.Constants;
 import com.hardcopy.retrowatch.utils.Logs;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothServerSocket;
-import android.bluetooth.BluetoothSocket;
 import android.content.Context;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-import android.util.Log;
 
 /**
  * This class does all the work for setting up and managing Bluetooth
  * connections with other devices. It has a thread that listens for
  * incoming connections, a thread for connecting with a device, and a
  * thread for performing data transmissions when connected.
+ * Sockets are made by IBluetoothSocketFactory.
  */
 public class BluetoothManager {
 	
@@ -59,27 +60,33 @@ public class BluetoothManager {
     public static final int MESSAGE_WRITE = 3;
     public static final int MESSAGE_DEVICE_NAME = 4;
     public static final int MESSAGE_TOAST = 5;
+    public static final int MESSAGE_WRITE_QUEUE_DRAINED = 6;
+    public static final int MESSAGE_DELIVERY_FAILED = 7;
     
-    // Name for the SDP record when creating server socket
-    private static final String NAME = "BluetoothManager";
-
-    // Unique UUID for this application
-    private static final UUID MY_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
-
     // Member fields
-    private final BluetoothAdapter mAdapter;
+    private final IBluetoothSocketFactory mSocketFactory;
     private final Handler mHandler;
-    private AcceptThread mAcceptThread;
-    private ConnectThread mConnectThread;
-    private ConnectedThread mConnectedThread;
+    private AcceptTask mAcceptTask;
+    private ConnectTask mConnectTask;
+    private ConnectedTask mConnectedTask;
     private int mState;
-
-    private static final long RECONNECT_DELAY_MAX = 60*60*1000;
-    private static final long RECONNECT_DELAY = 60*1000;
     
-    private long mReconnectDelay = RECONNECT_DELAY;
-    private Timer mConnectTimer = null;
+    // Blocking socket I/O runs on this executor : accept, connect, read and write tasks at most.
+    // Sockets have no non-blocking API. Cancel closes the socket and the blocked task returns.
+    private static final int IO_THREAD_COUNT = 4;
+    private static final long IO_THREAD_KEEP_ALIVE = 30;	// seconds
+    private ExecutorService mExecutor = null;
+    
+    // Measured times of the last connection (ms)
+    private long mLastConnectTime = -1;
+    private long mLastTeardownTime = -1;
+
+    // Auto reconnect : only one retry is reserved at a time
+    private final ReconnectPolicy mReconnectPolicy = new ReconnectPolicy();
+    private final Runnable mReconnectRunnable = new ReconnectRunnable();
+    private boolean mIsReconnectReserved = false;
     private boolean mIsServiceStopped = false;
+    private String mLastAddress = null;		// Device of the last connect()
     
 
     /**
@@ -88,7 +95,15 @@ public class BluetoothManager {
      * @param handler  A Handler to send messages back to the UI Activity
      */
     public BluetoothManager(Context context, Handler handler) {
-        mAdapter = BluetoothAdapter.getDefaultAdapter();
+        this(new RfcommSocketFactory(BluetoothAdapter.getDefaultAdapter()), handler);
+    }
+
+    /**
+     * @param socketFactory  Makes sockets of outgoing and incoming connections
+     * @param handler        A Handler to send messages back to. Can be null if message methods are overridden.
+     */
+    BluetoothManager(IBluetoothSocketFactory socketFactory, Handler handler) {
+        mSocketFactory = socketFactory;
         mState = STATE_NONE;
         mHandler = handler;
     }
@@ -101,11 +116,13 @@ public class BluetoothManager {
         Logs.d(TAG, "setState() " + mState + " -> " + state);
         mState = state;
         
-        if(mState == STATE_CONNECTED)
+        if(mState == STATE_CONNECTED) {
         	cancelRetryConnect();
+        	mReconnectPolicy.reset();
+        }
 
         // Give the new state to the Handler so the UI Activity can update
-        mHandler.obtainMessage(MESSAGE_STATE_CHANGE, state, -1).sendToTarget();
+        sendMessage(MESSAGE_STATE_CHANGE, state, -1, null);
     }
 
     /**
@@ -115,82 +132,94 @@ public class BluetoothManager {
     }
     
 	public void requestBleStatusReport() {
-		mHandler.obtainMessage(MESSAGE_STATE_CHANGE, mState, 0).sendToTarget();
+		sendMessage(MESSAGE_STATE_CHANGE, getState(), 0, null);
 	}
 
     /**
-     * Start the chat service. Specifically start AcceptThread to begin a
+     * Start the chat service. Specifically start AcceptTask to begin a
      * session in listening (server) mode. Called by the Activity onResume() */
     public synchronized void start() {
         Logs.d(TAG, "Starting BluetoothManager...");
 
         // Cancel any thread attempting to make a connection
-        if (mConnectThread != null) {mConnectThread.cancel(); mConnectThread = null;}
+        if (mConnectTask != null) {mConnectTask.cancel(); mConnectTask = null;}
 
         // Cancel any thread currently running a connection
-        if (mConnectedThread != null) {mConnectedThread.cancel(); mConnectedThread = null;}
+        if (mConnectedTask != null) {mConnectedTask.cancel(); mConnectedTask = null;}
 
         // Start the thread to listen on a BluetoothServerSocket
-        if (mAcceptThread == null) {
-            mAcceptThread = new AcceptThread();
-            mAcceptThread.start();
+        if (mAcceptTask == null) {
+            mAcceptTask = new AcceptTask();
+            getExecutor().execute(mAcceptTask);
         }
         setState(STATE_LISTEN);
         mIsServiceStopped = false;
     }
 
     /**
-     * Start the ConnectThread to initiate a connection to a remote device.
+     * Start the ConnectTask to initiate a connection to a remote device.
      * @param device  The BluetoothDevice to connect
      */
-    public synchronized void connect(BluetoothDevice device) {
-        Logs.d(TAG, "Connecting to: " + device);
+    public void connect(BluetoothDevice device) {
+        connect(device.getAddress());
+    }
+
+    /**
+     * Start the ConnectTask to initiate a connection to a remote device.
+     * @param address  MAC address of the device to connect
+     */
+    public synchronized void connect(String address) {
+        Logs.d(TAG, "Connecting to: " + address);
         
         if (mState == STATE_CONNECTED)
         	return;
 
         // Cancel any thread attempting to make a connection
-        if (mState == STATE_CONNECTING) {
-            if (mConnectThread != null) {mConnectThread.cancel(); mConnectThread = null;}
+        if (mState == STATE_CONNECTING && mConnectTask != null) {
+            // Don't start the same attempt twice
+            if (mConnectTask.isConnecting(address)) {
+                Logs.d(TAG, "Already connecting to: " + address);
+                return;
+            }
+            mConnectTask.cancel();
+            mConnectTask = null;
         }
+        
+        // This attempt replaces reserved retry
+        cancelRetryConnect();
 
         // Cancel any thread currently running a connection
-        if (mConnectedThread != null) {mConnectedThread.cancel(); mConnectedThread = null;}
+        if (mConnectedTask != null) {mConnectedTask.cancel(); mConnectedTask = null;}
 
         // Start the thread to connect with the given device
-        mConnectThread = new ConnectThread(device);
-        mConnectThread.start();
+        mLastAddress = address;
+        mConnectTask = new ConnectTask(address);
+        getExecutor().execute(mConnectTask);
         setState(STATE_CONNECTING);
     }
 
     /**
-     * Start the ConnectedThread to begin managing a Bluetooth connection
-     * @param socket  The BluetoothSocket on which the connection was made
-     * @param device  The BluetoothDevice that has been connected
+     * Start the ConnectedTask to begin managing a Bluetooth connection
+     * @param socket  The socket on which the connection was made
      */
-    public synchronized void connected(BluetoothSocket socket, BluetoothDevice device) {
+    public synchronized void connected(IBluetoothSocket socket) {
     	Logs.d(TAG, "connected");
 
         // Cancel the thread that completed the connection
-        if (mConnectThread != null) {mConnectThread.cancel(); mConnectThread = null;}
+        if (mConnectTask != null) {mConnectTask.cancel(); mConnectTask = null;}
 
         // Cancel any thread currently running a connection
-        if (mConnectedThread != null) {mConnectedThread.cancel(); mConnectedThread = null;}
+        if (mConnectedTask != null) {mConnectedTask.cancel(); mConnectedTask = null;}
 
         // Cancel the accept thread because we only want to connect to one device
-        if (mAcceptThread != null) {mAcceptThread.cancel(); mAcceptThread = null;}
+        if (mAcceptTask != null) {mAcceptTask.cancel(); mAcceptTask = null;}
 
         // Start the thread to manage the connection and perform transmissions
-        mConnectedThread = new ConnectedThread(socket);
-        mConnectedThread.start();
+        mConnectedTask = new ConnectedTask(socket);
+        getExecutor().execute(mConnectedTask);
 
         // Send the name of the connected device back to the UI Activity
-        Message msg = mHandler.obtainMessage(MESSAGE_DEVICE_NAME);
-        Bundle bundle = new Bundle();
-        bundle.putString(Constants.SERVICE_HANDLER_MSG_KEY_DEVICE_ADDRESS, device.getAddress());
-        bundle.putString(Constants.SERVICE_HANDLER_MSG_KEY_DEVICE_NAME, device.getName());
-        msg.setData(bundle);
-        mHandler.sendMessage(msg);
+        sendDeviceName(socket.getRemoteAddress(), socket.getRemoteName());
 
         setState(STATE_CONNECTED);
     }
@@ -200,30 +229,168 @@ public class BluetoothManager {
      */
     public synchronized void stop() {
         Logs.d(TAG, "stop");
-        if (mConnectThread != null) {mConnectThread.cancel(); mConnectThread = null;}
-        if (mConnectedThread != null) {mConnectedThread.cancel(); mConnectedThread = null;}
-        if (mAcceptThread != null) {mAcceptThread.cancel(); mAcceptThread = null;}
+        if (mConnectTask != null) {mConnectTask.cancel(); mConnectTask = null;}
+        if (mConnectedTask != null) {mConnectedTask.cancel(); mConnectedTask = null;}
+        if (mAcceptTask != null) {mAcceptTask.cancel(); mAcceptTask = null;}
         setState(STATE_NONE);
         
         mIsServiceStopped = true;
         cancelRetryConnect();
+        
+        // Cancelled tasks return soon. Idle threads are released after that.
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+            mExecutor = null;
+        }
+    }
+    
+    /**
+     * @return  Time from connect() to connected state of the last outgoing connection. -1 if not measured.
+     */
+    public synchronized long getLastConnectTime() {
+        return mLastConnectTime;
+    }
+    
+    /**
+     * @return  Time from cancel to the end of the last connected task. -1 if not measured.
+     */
+    public synchronized long getLastTeardownTime() {
+        return mLastTeardownTime;
+    }
+    
+    /**
+     * Executor is created on demand and shut down by stop().
+     */
+    private synchronized ExecutorService getExecutor() {
+        if (mExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(IO_THREAD_COUNT, IO_THREAD_COUNT,
+                    IO_THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new IoThreadFactory());
+            executor.allowCoreThreadTimeOut(true);
+            mExecutor = executor;
+        }
+        return mExecutor;
     }
 
     /**
-     * Write to the ConnectedThread in an unsynchronized manner
+     * Queue bytes to the ConnectedTask with normal priority.
      * @param out The bytes to write
-     * @see ConnectedThread#write(byte[])
+     * @see ConnectedTask#write(byte[], int, int)
+     */
+    public int write(byte[] out) {
+        return write(out, WriteQueue.PRIORITY_NORMAL, WriteQueue.KEY_NONE);
+    }
+
+    /**
+     * Queue bytes to the ConnectedTask. Returns immediately, writer thread sends the bytes.
+     * @param out       The bytes to write
+     * @param priority  WriteQueue.PRIORITY_xxx
+     * @param key       Coalescing key. Pending bytes with same key are replaced.
+     * @return          WriteQueue.RESULT_xxx. RESULT_FULL and RESULT_CLOSED mean the bytes are dropped.
      */
-    public void write(byte[] out) {
+    public int write(byte[] out, int priority, int key) {
+        return write(out, 0, out.length, priority, key);
+    }
+
+    /**
+     * Queue a copy of out[offset ~ offset+length]. Caller can reuse the array after this returns.
+     */
+    public int write(byte[] out, int offset, int length, int priority, int key) {
         // Create temporary object
-        ConnectedThread r;
-        // Synchronize a copy of the ConnectedThread
+        ConnectedTask r;
+        // Synchronize a copy of the ConnectedTask
+        synchronized (this) {
+            if (mState != STATE_CONNECTED) return WriteQueue.RESULT_CLOSED;
+            r = mConnectedTask;
+        }
+        return r.write(out, offset, length, priority, key);
+    }
+
+    /**
+     * Drop pending writes in the key group. (key & keyMask) == keyGroup
+     */
+    public void removePendingWrites(int keyMask, int keyGroup) {
+        ConnectedTask r;
+        synchronized (this) {
+            if (mState != STATE_CONNECTED) return;
+            r = mConnectedTask;
+        }
+        r.removePendingWrites(keyMask, keyGroup);
+    }
+
+    /**
+     * @return  Write counters of current connection (flush count, batch size...). null if not connected.
+     */
+    public WriteMetrics getWriteMetrics() {
+        ConnectedTask r;
+        synchronized (this) {
+            if (mState != STATE_CONNECTED) return null;
+            r = mConnectedTask;
+        }
+        return r.getWriteMetrics();
+    }
+
+    /**
+     * @return  true if write queue rejected bytes and didn't drain yet.
+     *          MESSAGE_WRITE_QUEUE_DRAINED is sent when it drains.
+     */
+    public boolean isWriteCongested() {
+        ConnectedTask r;
+        synchronized (this) {
+            if (mState != STATE_CONNECTED) return false;
+            r = mConnectedTask;
+        }
+        return r.isWriteCongested();
+    }
+
+    /**
+     * Send a probe packet wrapped as reliable frame. Watch firmware which supports
+     * reliable frames acknowledges it and writes switch to reliable mode.
+     * Older firmware just handles the packet inside.
+     */
+    public void probeReliableMode(byte[] probe) {
+        ConnectedTask r;
+        synchronized (this) {
+            if (mState != STATE_CONNECTED) return;
+            r = mConnectedTask;
+        }
+        r.probeReliableMode(probe);
+    }
+
+    /**
+     * Watch acknowledged reliable frames up to seq.
+     */
+    public void onAck(int seq) {
+        ConnectedTask r;
+        synchronized (this) {
+            if (mState != STATE_CONNECTED) return;
+            r = mConnectedTask;
+        }
+        r.onAck(seq);
+    }
+
+    /**
+     * Watch received a broken reliable frame.
+     */
+    public void onNak(int seq) {
+        ConnectedTask r;
         synchronized (this) {
             if (mState != STATE_CONNECTED) return;
-            r = mConnectedThread;
+            r = mConnectedTask;
+        }
+        r.onNak(seq);
+    }
+
+    /**
+     * @return  true if watch acknowledges every packet. Duplicated commands are not needed.
+     */
+    public boolean isReliableMode() {
+        ConnectedTask r;
+        synchronized (this) {
+            if (mState != STATE_CONNECTED) return false;
+            r = mConnectedTask;
         }
-        // Perform the write unsynchronized
-        r.write(out);
+        return r.isReliableMode();
     }
 
     /**
@@ -234,11 +401,7 @@ public class BluetoothManager {
         setState(STATE_LISTEN);
 
         // Send a failure message back to the Activity
-        Message msg = mHandler.obtainMessage(MESSAGE_TOAST);
-        Bundle bundle = new Bundle();
-        bundle.putString(Constants.SERVICE_HANDLER_MSG_KEY_TOAST, "Unable to connect device");
-        msg.setData(bundle);
-        mHandler.sendMessage(msg);
+        sendToast("Unable to connect device");
         
         // Reserve re-connect timer
         reserveRetryConnect();
@@ -252,63 +415,111 @@ public class BluetoothManager {
         setState(STATE_LISTEN);
 
         // Send a failure message back to the Activity
-        Message msg = mHandler.obtainMessage(MESSAGE_TOAST);
-        Bundle bundle = new Bundle();
-        bundle.putString(Constants.SERVICE_HANDLER_MSG_KEY_TOAST, "Device connection was lost");
-        msg.setData(bundle);
-        mHandler.sendMessage(msg);
+        sendToast("Device connection was lost");
         
         // Reserve re-connect timer
         reserveRetryConnect();
     }
     
-    private void reserveRetryConnect() {
+    /**
+     * Connect to the last device now, without waiting reserved retry.
+     * Call when the device is likely available again (ex: ACL connected broadcast).
+     */
+    public synchronized void reconnectNow() {
+    	if(mIsServiceStopped || mState == STATE_CONNECTED || mState == STATE_CONNECTING)
+    		return;
+    	Logs.d(TAG, "reconnectNow()");
+    	mReconnectPolicy.reset();
+    	cancelRetryConnect();
+    	connectLastDevice();
+    }
+    
+    /**
+     * Reserve a retry with exponential backoff. Replaces the retry already reserved.
+     */
+    private synchronized void reserveRetryConnect() {
     	if(mIsServiceStopped)
     		return;
     	
-        mReconnectDelay = mReconnectDelay * 2;
-        if(mReconnectDelay > RECONNECT_DELAY_MAX)
-        	mReconnectDelay = RECONNECT_DELAY_MAX;
-        
-		if(mConnectTimer != null) {
-			try {
-				mConnectTimer.cancel();
-			} catch (IllegalStateException e) {
-				e.printStackTrace();
-			}
-		}
-		mConnectTimer = new Timer();
-		mConnectTimer.schedule(new ConnectTimerTask(), mReconnectDelay);
+    	long delay = mReconnectPolicy.nextDelay();
+    	Logs.d(TAG, "Retry connect after " + delay + "ms (attempt " + mReconnectPolicy.getAttempts() + ")");
+    	removeRetry(mReconnectRunnable);
+    	postRetry(mReconnectRunnable, delay);
+    	mIsReconnectReserved = true;
     }
     
-    private void cancelRetryConnect() {
-    	if(mConnectTimer != null) {
-			try {
-				mConnectTimer.cancel();
-				mConnectTimer.purge();
-			} catch (IllegalStateException e) {
-				e.printStackTrace();
-			}
-			mConnectTimer = null;
-			mReconnectDelay = RECONNECT_DELAY;
+    private synchronized void cancelRetryConnect() {
+    	if(mIsReconnectReserved) {
+    		removeRetry(mReconnectRunnable);
+    		mIsReconnectReserved = false;
     	}
     }
+    
+    /**
+     * Connect to the saved device, or to the device of the last connect() if nothing is saved.
+     * @return	false if there's no device to connect
+     */
+    private synchronized boolean connectLastDevice() {
+		ConnectionInfo cInfo = ConnectionInfo.getInstance(null);
+		String address = (cInfo == null ? null : cInfo.getDeviceAddress());
+		if(address == null)
+			address = mLastAddress;
+		if(address == null)
+			return false;
+		
+		connect(address);
+		return true;
+    }
+
+    /*****************************************************
+     *		Messages to handler
+     *		Package-private, so tests can run without Handler.
+     ******************************************************/
+
+    void sendMessage(int what, int arg1, int arg2, Object obj) {
+        mHandler.obtainMessage(what, arg1, arg2, obj).sendToTarget();
+    }
+
+    void sendDeviceName(String address, String name) {
+        Message msg = mHandler.obtainMessage(MESSAGE_DEVICE_NAME);
+        Bundle bundle = new Bundle();
+        bundle.putString(Constants.SERVICE_HANDLER_MSG_KEY_DEVICE_ADDRESS, address);
+        bundle.putString(Constants.SERVICE_HANDLER_MSG_KEY_DEVICE_NAME, name);
+        msg.setData(bundle);
+        mHandler.sendMessage(msg);
+    }
+
+    void sendToast(String text) {
+        Message msg = mHandler.obtainMessage(MESSAGE_TOAST);
+        Bundle bundle = new Bundle();
+        bundle.putString(Constants.SERVICE_HANDLER_MSG_KEY_TOAST, text);
+        msg.setData(bundle);
+        mHandler.sendMessage(msg);
+    }
+
+    void postRetry(Runnable retry, long delay) {
+        mHandler.postDelayed(retry, delay);
+    }
+
+    void removeRetry(Runnable retry) {
+        mHandler.removeCallbacks(retry);
+    }
 
     /**
      * This thread runs while listening for incoming connections. It behaves
      * like a server-side client. It runs until a connection is accepted
      * (or until cancelled).
      */
-    private class AcceptThread extends Thread {
+    private class AcceptTask implements Runnable {
         // The local server socket
-        private final BluetoothServerSocket mmServerSocket;
+        private final IBluetoothServerSocket mmServerSocket;
 
-        public AcceptThread() {
-            BluetoothServerSocket tmp = null;
+        public AcceptTask() {
+            IBluetoothServerSocket tmp = null;
 
             // Create a new listening server socket
             try {
-                tmp = mAdapter.listenUsingRfcommWithServiceRecord(NAME, MY_UUID);
+                tmp = mSocketFactory.listen();
             } catch (IOException e) {
                 Logs.e(TAG, "listen() failed" + e.toString());
             }
@@ -316,19 +527,19 @@ public class BluetoothManager {
         }
 
         public void run() {
-            Logs.d(TAG, "BEGIN mAcceptThread" + this);
-            setName("AcceptThread");
-            BluetoothSocket socket = null;
+            Logs.d(TAG, "BEGIN mAcceptTask" + this);
+            IBluetoothSocket socket = null;
 
             // Listen to the server socket if we're not connected
             while (mState != STATE_CONNECTED) {
                 try {
                     // This is a blocking call and will only return on a
                     // successful connection or an exception
-                	if(mmServerSocket != null)
-                		socket = mmServerSocket.accept();
+                	if(mmServerSocket == null)
+                		break;
+                	socket = mmServerSocket.accept();
                 } catch (IOException e) {
-                    Log.e(TAG, "accept() failed", e);
+                    Logs.e(TAG, "accept() failed" + e.toString());
                     break;
                 }
 
@@ -339,7 +550,7 @@ public class BluetoothManager {
                         case STATE_LISTEN:
                         case STATE_CONNECTING:
                             // Situation normal. Start the connected thread.
-                            connected(socket, socket.getRemoteDevice());
+                            connected(socket);
                             break;
                         case STATE_NONE:
                         case STATE_CONNECTED:
@@ -347,14 +558,14 @@ public class BluetoothManager {
                             try {
                                 socket.close();
                             } catch (IOException e) {
-                                Log.e(TAG, "Could not close unwanted socket", e);
+                                Logs.e(TAG, "Could not close unwanted socket" + e.toString());
                             }
                             break;
                         }
                     }
                 }
             }
-            Logs.i(TAG, "END mAcceptThread");
+            Logs.i(TAG, "END mAcceptTask");
         }
 
         public void cancel() {
@@ -366,7 +577,7 @@ public class BluetoothManager {
                 Logs.e(TAG, "close() of server failed" + e.toString());
             }
         }
-    }	// End of class AcceptThread
+    }	// End of class AcceptTask
 
 
     /**
@@ -374,78 +585,110 @@ public class BluetoothManager {
      * with a device. It runs straight through; the connection either
      * succeeds or fails.
      */
-    private class ConnectThread extends Thread {
-        private final BluetoothSocket mmSocket;
-        private final BluetoothDevice mmDevice;
+    private class ConnectTask implements Runnable {
+        private final IBluetoothSocket mmSocket;
+        private final String mmAddress;
+        private final long mmStartTime = System.currentTimeMillis();
+        private volatile boolean mmCancelled = false;	// Closed by cancel(). Not a failed attempt.
 
-        public ConnectThread(BluetoothDevice device) {
-            mmDevice = device;
-            BluetoothSocket tmp = null;
+        public ConnectTask(String address) {
+            mmAddress = address;
+            IBluetoothSocket tmp = null;
 
-            // Get a BluetoothSocket for a connection with the
-            // given BluetoothDevice
+            // Get a socket for a connection with the given device
             try {
-                tmp = device.createRfcommSocketToServiceRecord(MY_UUID);
+                tmp = mSocketFactory.createSocket(address);
             } catch (IOException e) {
-                Log.e(TAG, "create() failed", e);
+                Logs.e(TAG, "create() failed" + e.toString());
             }
             mmSocket = tmp;
         }
 
         public void run() {
-            Log.i(TAG, "BEGIN mConnectThread");
-            setName("ConnectThread");
+            Logs.i(TAG, "BEGIN mConnectTask");
 
             // Always cancel discovery because it will slow down a connection
-            mAdapter.cancelDiscovery();
+            mSocketFactory.cancelDiscovery();
 
             // Make a connection to the BluetoothSocket
             try {
+                if (mmSocket == null)
+                    throw new IOException("No socket");
                 // This is a blocking call and will only return on a
                 // successful connection or an exception
                 mmSocket.connect();
             } catch (IOException e) {
-                connectionFailed();
                 // Close the socket
                 try {
-                    mmSocket.close();
+                    if (mmSocket != null)
+                        mmSocket.close();
                 } catch (IOException e2) {
-                    Log.e(TAG, "unable to close() socket during connection failure", e2);
+                    Logs.e(TAG, "unable to close() socket during connection failure" + e2.toString());
+                }
+                // Report and restart at once. A new attempt can't start in between and be cancelled by start().
+                synchronized (BluetoothManager.this) {
+                    if (mmCancelled || mConnectTask != this) {
+                        // Replaced by another connect() or stopped. Whoever cancelled owns the state.
+                        Logs.d(TAG, "Connect to " + mmAddress + " cancelled");
+                        return;
+                    }
+                    mConnectTask = null;
+                    connectionFailed();
+                    // Start the service over to restart listening mode
+                    BluetoothManager.this.start();
                 }
-                // Start the service over to restart listening mode
-                BluetoothManager.this.start();
                 return;
             }
 
-            // Reset the ConnectThread because we're done
+            // Reset the ConnectTask because we're done
             synchronized (BluetoothManager.this) {
-                mConnectThread = null;
+                if (mmCancelled || mConnectTask != this) {
+                    // Cancelled right after connect() returned
+                    try {
+                        mmSocket.close();
+                    } catch (IOException e) {
+                        Logs.e(TAG, "close() of connect socket failed" + e.toString());
+                    }
+                    return;
+                }
+                mConnectTask = null;
+                mLastConnectTime = System.currentTimeMillis() - mmStartTime;
+                Logs.d(TAG, "Connected in " + mLastConnectTime + "ms");
+
+                // Start the connected thread
+                connected(mmSocket);
             }
+        }
 
-            // Start the connected thread
-            connected(mmSocket, mmDevice);
+        public boolean isConnecting(String address) {
+            return address != null && address.equals(mmAddress);
         }
 
         public void cancel() {
+            mmCancelled = true;
             try {
-                mmSocket.close();
+                if (mmSocket != null)
+                    mmSocket.close();
             } catch (IOException e) {
-                Log.e(TAG, "close() of connect socket failed", e);
+                Logs.e(TAG, "close() of connect socket failed" + e.toString());
             }
         }
-    }	// End of class ConnectThread
+    }	// End of class ConnectTask
 
     /**
      * This thread runs during a connection with a remote device.
-     * It handles all incoming and outgoing transmissions.
+     * It handles all incoming transmissions. Outgoing transmissions are
+     * queued to the WriteQueue which has its own writer thread.
      */
-    private class ConnectedThread extends Thread {
-        private final BluetoothSocket mmSocket;
+    private class ConnectedTask implements Runnable, IWriteQueueListener {
+        private final IBluetoothSocket mmSocket;
         private final InputStream mmInStream;
         private final OutputStream mmOutStream;
+        private final WriteQueue mmWriteQueue;
+        private volatile long mmCancelTime = -1;	// Set by cancel(). Read error after cancel is not a lost connection.
 
-        public ConnectedThread(BluetoothSocket socket) {
-            Log.d(TAG, "create ConnectedThread");
+        public ConnectedTask(IBluetoothSocket socket) {
+            Logs.d(TAG, "create ConnectedTask");
             mmSocket = socket;
             InputStream tmpIn = null;
             OutputStream tmpOut = null;
@@ -455,15 +698,17 @@ public class BluetoothManager {
                 tmpIn = socket.getInputStream();
                 tmpOut = socket.getOutputStream();
             } catch (IOException e) {
-                Log.e(TAG, "temp sockets not created", e);
+                Logs.e(TAG, "temp sockets not created" + e.toString());
             }
 
             mmInStream = tmpIn;
             mmOutStream = tmpOut;
+            mmWriteQueue = new WriteQueue(mmOutStream, WriteQueue.DEFAULT_CAPACITY, this);
         }
 
         public void run() {
-            Log.i(TAG, "BEGIN mConnectedThread");
+            Logs.i(TAG, "BEGIN mConnectedTask");
+            mmWriteQueue.start(getExecutor());
             byte[] buffer = new byte[1024];
             int bytes;
 
@@ -472,12 +717,27 @@ public class BluetoothManager {
                 try {
                     // Read from the InputStream
                     bytes = mmInStream.read(buffer);
-
-                    // Send the obtained bytes to the main thread
-                    mHandler.obtainMessage(MESSAGE_READ, bytes, -1, buffer)
-                            .sendToTarget();
+                    if (bytes < 0)
+                        throw new IOException("End of stream");
+                    if (bytes == 0)
+                        continue;
+
+                    // Send a copy of the obtained bytes. Next read overwrites the buffer.
+                    byte[] received = new byte[bytes];
+                    System.arraycopy(buffer, 0, received, 0, bytes);
+                    sendMessage(MESSAGE_READ, bytes, -1, received);
                 } catch (IOException e) {
-                    Log.e(TAG, "disconnected", e);
+                    if (mmCancelTime > -1) {
+                        // Closed by cancel()
+                        long teardown = System.currentTimeMillis() - mmCancelTime;
+                        synchronized (BluetoothManager.this) {
+                            mLastTeardownTime = teardown;
+                        }
+                        Logs.d(TAG, "Connection closed in " + teardown + "ms");
+                        break;
+                    }
+                    Logs.e(TAG, "disconnected" + e.toString());
+                    mmWriteQueue.close();
                     connectionLost();
                     break;
                 }
@@ -485,64 +745,105 @@ public class BluetoothManager {
         }
 
         /**
-         * Write to the connected OutStream.
+         * Queue bytes to write to the connected OutStream.
          * @param buffer  The bytes to write
          */
-        public void write(byte[] buffer) {
-            try {
-                mmOutStream.write(buffer);
+        public int write(byte[] buffer, int offset, int length, int priority, int key) {
+            int result = mmWriteQueue.offer(buffer, offset, length, priority, key);
+            if(result == WriteQueue.RESULT_FULL)
+                Logs.e(TAG, "Write queue is full. Packet dropped.");
+            return result;
+        }
 
-                // Disabled: Share the sent message back to the main thread
-                // mHandler.obtainMessage(Constants.MESSAGE_WRITE, -1, -1, buffer)
-                //        .sendToTarget();
-            } catch (IOException e) {
-                Logs.e(TAG, "Exception during write");
-            }
+        public void removePendingWrites(int keyMask, int keyGroup) {
+            mmWriteQueue.removeKeyGroup(keyMask, keyGroup);
+        }
+
+        public boolean isWriteCongested() {
+            return mmWriteQueue.isCongested();
+        }
+
+        public WriteMetrics getWriteMetrics() {
+            return mmWriteQueue.getMetrics();
+        }
+
+        public void probeReliableMode(byte[] probe) {
+            mmWriteQueue.offerProbe(probe);
+        }
+
+        public void onAck(int seq) {
+            mmWriteQueue.onAck(seq);
+        }
+
+        public void onNak(int seq) {
+            mmWriteQueue.onNak(seq);
+        }
+
+        public boolean isReliableMode() {
+            return mmWriteQueue.isReliable();
         }
 
         public void cancel() {
+            mmCancelTime = System.currentTimeMillis();
+            Logs.d(TAG, "Write metrics : " + mmWriteQueue.getMetrics().toString());
+            mmWriteQueue.close();
             try {
                 mmSocket.close();
             } catch (IOException e) {
                 Logs.e(TAG, "close() of connect socket failed");
             }
         }
+
+        @Override
+        public void OnWriteError(IOException e) {
+            Logs.e(TAG, "Exception during write");
+            // Closing socket breaks blocking read. Read loop reports connection lost.
+            try {
+                mmSocket.close();
+            } catch (IOException e2) {
+                Logs.e(TAG, "close() of connect socket failed");
+            }
+        }
+
+        @Override
+        public void OnWriteQueueDrained() {
+            sendMessage(MESSAGE_WRITE_QUEUE_DRAINED, -1, -1, null);
+        }
+
+        @Override
+        public void OnDeliveryFailed() {
+            Logs.e(TAG, "Watch didn't acknowledge packets. Reliable mode stopped.");
+            sendMessage(MESSAGE_DELIVERY_FAILED, -1, -1, null);
+        }
         
-    }	// End of class ConnectedThread
+    }	// End of class ConnectedTask
     
     /**
-     * Auto connect timer
+     * Names I/O threads for debugging
      */
-	private class ConnectTimerTask extends TimerTask {
-		public ConnectTimerTask() {}
-		
+    private static class IoThreadFactory implements ThreadFactory {
+        private final AtomicInteger mmCount = new AtomicInteger(1);
+        
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "BluetoothIO-" + mmCount.getAndIncrement());
+        }
+    }
+    
+    /**
+     * Reserved retry. Runs on the handler thread.
+     */
+	private class ReconnectRunnable implements Runnable {
 		public void run() {
-	    	if(mIsServiceStopped)
-	    		return;
-			
-			mHandler.post(new Runnable() {
-				public void run() {
-			    	if(getState() == STATE_CONNECTED || getState() == STATE_CONNECTING)
-			    		return;
-			    	
-			    	Logs.d(TAG, "ConnectTimerTask :: Retry connect()");
-			    	
-					ConnectionInfo cInfo = ConnectionInfo.getInstance(null);
-					if(cInfo != null) {
-						String addrs = cInfo.getDeviceAddress();
-						BluetoothAdapter ba = BluetoothAdapter.getDefaultAdapter();
-						if(ba != null && addrs != null) {
-							BluetoothDevice device = ba.getRemoteDevice(addrs);
-							
-							if(device != null) {
-								connect(device);
-							}
-						}
-					}
-					
-					reserveRetryConnect();
-				}	// End of run()
-			});
+			synchronized (BluetoothManager.this) {
+				mIsReconnectReserved = false;
+				if(mIsServiceStopped || mState == STATE_CONNECTED || mState == STATE_CONNECTING)
+					return;
+				
+				Logs.d(TAG, "ReconnectRunnable :: Retry connect()");
+				// Failure of this attempt reserves next retry
+				connectLastDevice();
+			}
 		}
 	}
     
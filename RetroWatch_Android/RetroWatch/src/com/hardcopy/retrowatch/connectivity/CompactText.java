@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact text encoding of watch messages.
+ * Frequent words are sent as 1 byte code (0x80 + index of WORDS) and watch expands them while drawing.
+ * Watch font has ASCII glyphs only, so other characters are sent as '?' (1 byte per run)
+ * and some Korean phrases are replaced with the English word of the table.
+ * 
+ * WARNING: WORDS must match dict_table of watch. Change VERSION if the table changes.
+ */
+public class CompactText {
+	
+	public static final int VERSION = 1;
+	public static final int CODE_MIN = 0x80;
+	
+	// Code = CODE_MIN + index. Max 64 words (0x80~0xBF).
+	private static final String[] WORDS = {
+		// App generated strings (see strings.xml, ContentManager)
+		"Call received", "Call state idle", "Out of service", "Emergency only", "In service",
+		"Power off", "Battery: ", "unread email", "new SMS", "WiFi is on",
+		"Cannot use WiFi",
+		// Notifications
+		"Missed call", "Call", "Message", "message", "Notification",
+		"KakaoTalk", "Facebook", "Twitter", "Gmail", "Calendar",
+		"Reminder", "Alarm", "Download", "complete", "Update",
+		"update", "Meeting", "Today", "Tomorrow", "Photo",
+		"Video", "email", "SMS", "WiFi", "Battery",
+		// Common fragments
+		"https://", "http://", "www.", ".com", "the ",
+		"and ", "ing ", "tion", "you", "from ",
+		"new ", "New ", "sent ", "received", "with ",
+		"for ", "this ", "that ",
+	};
+	
+	// Korean phrase -> English word of WORDS
+	private static final String[][] ALIASES = {
+		{"부재중 전화", "Missed call"}, {"부재중전화", "Missed call"},
+		{"전화", "Call"}, {"문자", "SMS"}, {"메시지", "Message"},
+		{"카카오톡", "KakaoTalk"}, {"알림", "Notification"}, {"이메일", "email"},
+		{"메일", "email"}, {"배터리", "Battery"}, {"업데이트", "Update"},
+		{"다운로드", "Download"}, {"완료", "complete"}, {"일정", "Calendar"},
+		{"알람", "Alarm"}, {"회의", "Meeting"}, {"오늘", "Today"},
+		{"내일", "Tomorrow"}, {"사진", "Photo"}, {"동영상", "Video"},
+	};
+	
+	private static final byte UNKNOWN_CHAR = '?';
+	
+	// Patterns (words and aliases) sorted by length, longest first. Greedy match uses the longest one.
+	private static final String[] PATTERNS;
+	private static final byte[] PATTERN_CODES;
+	
+	static {
+		int count = WORDS.length + ALIASES.length;
+		PATTERNS = new String[count];
+		PATTERN_CODES = new byte[count];
+		int n = 0;
+		for(int i=0; i<WORDS.length; i++) {
+			PATTERNS[n] = WORDS[i];
+			PATTERN_CODES[n++] = (byte)(CODE_MIN + i);
+		}
+		for(int i=0; i<ALIASES.length; i++) {
+			PATTERNS[n] = ALIASES[i][0];
+			PATTERN_CODES[n++] = (byte)(CODE_MIN + indexOf(ALIASES[i][1]));
+		}
+		
+		// Insertion sort by length. Small table, runs once.
+		for(int i=1; i<count; i++) {
+			String p = PATTERNS[i];
+			byte c = PATTERN_CODES[i];
+			int j = i - 1;
+			while(j > -1 && PATTERNS[j].length() < p.length()) {
+				PATTERNS[j + 1] = PATTERNS[j];
+				PATTERN_CODES[j + 1] = PATTERN_CODES[j];
+				j--;
+			}
+			PATTERNS[j + 1] = p;
+			PATTERN_CODES[j + 1] = c;
+		}
+	}
+	
+	
+	/*****************************************************
+	 *		Public methods
+	 ******************************************************/
+	
+	/**
+	 * Put compact bytes of msg until the buffer reaches limit.
+	 * Output bytes are ASCII (0x00~0x7F) or word codes (0x80~0xBF).
+	 * @param limit		position which must not be exceeded
+	 */
+	public static void encode(ByteBuffer dst, CharSequence msg, int limit) {
+		int length = msg.length();
+		int i = 0;
+		while(i < length && dst.position() < limit) {
+			int p = match(msg, i);
+			if(p > -1) {
+				dst.put(PATTERN_CODES[p]);
+				i += PATTERNS[p].length();
+				continue;
+			}
+			
+			char c = msg.charAt(i);
+			if(c < 0x80) {
+				dst.put((byte)c);
+				i++;
+				continue;
+			}
+			
+			// Watch can't draw it. Replace the run of such characters with one '?'.
+			dst.put(UNKNOWN_CHAR);
+			i++;
+			while(i < length && msg.charAt(i) >= 0x80 && match(msg, i) < 0)
+				i++;
+		}
+	}
+	
+	/**
+	 * @return	expanded text of a code, or null if it's not a word code
+	 */
+	public static String getWord(int code) {
+		int index = (code & 0xFF) - CODE_MIN;
+		if(index < 0 || index >= WORDS.length)
+			return null;
+		return WORDS[index];
+	}
+	
+	/**
+	 * Expand compact bytes. Same as the drawing routine of watch.
+	 */
+	public static String decode(byte[] src, int offset, int length) {
+		StringBuilder sb = new StringBuilder();
+		for(int i = offset; i < offset + length; i++) {
+			String word = getWord(src[i]);
+			if(word != null)
+				sb.append(word);
+			else
+				sb.append((char)(src[i] & 0x7F));
+		}
+		return sb.toString();
+	}
+	
+	
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+	
+	private static int indexOf(String word) {
+		for(int i=0; i<WORDS.length; i++) {
+			if(WORDS[i].equals(word))
+				return i;
+		}
+		throw new IllegalStateException("Alias target is not in WORDS : " + word);
+	}
+	
+	/**
+	 * @return	index of the longest pattern at position, or -1
+	 */
+	private static int match(CharSequence msg, int position) {
+		int remain = msg.length() - position;
+		char first = msg.charAt(position);
+		for(int p=0; p<PATTERNS.length; p++) {
+			String pattern = PATTERNS[p];
+			int length = pattern.length();
+			if(length > remain || pattern.charAt(0) != first)
+				continue;
+			int k = 1;
+			while(k < length && msg.charAt(position + k) == pattern.charAt(k))
+				k++;
+			if(k == length)
+				return p;
+		}
+		return -1;
+	}
+	
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Encodes transaction frames into a ByteBuffer without allocation.
+ * Use getBuffer() to reuse the pooled buffer or pass your own buffer.
+ * Not thread safe. Synchronize on the encoder if it's shared.
+ * 
+ * Frame format : [start byte 0xfc][command][data...][end byte 0xfd]
+ * Reliable frame wraps a frame : [0xfb][sequence][frame length][frame][CRC-8 of sequence~frame][0xfd]
+ * Long message is sent in chunks : [0xfc][command][ID][total length][offset][text : max 16 byte][0xfd]
+ * If compact text is enabled, text is encoded with CompactText instead of charset.
+ */
+public class FrameEncoder {
+	
+	public static final byte START_BYTE = (byte)0xfc;
+	public static final byte END_BYTE = (byte)0xfd;
+	
+	public static final byte RELIABLE_START_BYTE = (byte)0xfb;
+	
+	public static final int MAX_MESSAGE_LENGTH = 16;
+	public static final int MAX_FRAME_LENGTH = 6 + MAX_MESSAGE_LENGTH;
+	public static final int RELIABLE_OVERHEAD = 5;
+	public static final int MAX_RELIABLE_FRAME_LENGTH = MAX_FRAME_LENGTH + RELIABLE_OVERHEAD;
+	
+	// Must match LONG_MSG_MAX - 1 of watch (3 lines of text)
+	public static final int MAX_LONG_MESSAGE_LENGTH = 63;
+	public static final int CHUNK_SIZE = MAX_MESSAGE_LENGTH;
+	
+	// Watch draws raw bytes. UTF-8 keeps what the phone used to send with default charset.
+	public static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+	
+	private static final byte RESERVED_BYTE = (byte)0xF0;		// Reserved for Arduino management
+	
+	private final CharsetEncoder mEncoder;
+	private boolean mIsCompactText = false;
+	private final ByteBuffer mBuffer = ByteBuffer.allocate(MAX_FRAME_LENGTH);
+	private final ByteBuffer mLongBuffer = ByteBuffer.allocate(MAX_LONG_MESSAGE_LENGTH);
+	// Characters to encode. Each takes 1 byte at least, +1 keeps a surrogate pair whole.
+	private final CharBuffer mChars = CharBuffer.allocate(MAX_LONG_MESSAGE_LENGTH + 1);
+	
+	
+	public FrameEncoder() {
+		this(DEFAULT_CHARSET);
+	}
+	
+	public FrameEncoder(Charset charset) {
+		mEncoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+	
+	
+	/*****************************************************
+	 *		Public methods
+	 ******************************************************/
+	
+	/**
+	 * Use CompactText for messages. Enable it only if watch supports same dictionary version.
+	 */
+	public void setCompactText(boolean enable) {
+		mIsCompactText = enable;
+	}
+	
+	public boolean isCompactText() {
+		return mIsCompactText;
+	}
+	
+	/**
+	 * @return	pooled buffer which can hold the largest frame. Cleared before return.
+	 */
+	public ByteBuffer getBuffer() {
+		mBuffer.clear();
+		return mBuffer;
+	}
+	
+	/**
+	 * [start][command][end]
+	 */
+	public int encodeCommand(ByteBuffer dst, int command) {
+		int start = dst.position();
+		dst.put(START_BYTE);
+		dst.put((byte)command);
+		dst.put(END_BYTE);
+		return dst.position() - start;
+	}
+	
+	/**
+	 * [start][command][1 byte data][end]
+	 */
+	public int encodeId(ByteBuffer dst, int command, int id) {
+		int start = dst.position();
+		dst.put(START_BYTE);
+		dst.put((byte)command);
+		dst.put((byte)id);
+		dst.put(END_BYTE);
+		return dst.position() - start;
+	}
+	
+	/**
+	 * [start][command][month][day][week][noon][hour][minute][end]
+	 */
+	public int encodeTime(ByteBuffer dst, int command, byte month, byte day, byte week, 
+			byte noon, byte hour, byte minute) {
+		int start = dst.position();
+		dst.put(START_BYTE);
+		dst.put((byte)command);
+		dst.put(month);
+		dst.put(day);
+		dst.put(week);
+		dst.put(noon);
+		dst.put(hour);
+		dst.put(minute);
+		dst.put(END_BYTE);
+		return dst.position() - start;
+	}
+	
+	/**
+	 * [start][command][reserved][ID][icon][message : max 16 byte][end]
+	 * Message is cut at character boundary to fit in MAX_MESSAGE_LENGTH bytes.
+	 * @return	frame length, or 0 if message is empty
+	 */
+	public int encodeMessage(ByteBuffer dst, int command, int id, int icon, CharSequence msg) {
+		if(msg == null || msg.length() < 1)
+			return 0;
+		
+		int start = dst.position();
+		dst.put(START_BYTE);
+		dst.put((byte)command);
+		dst.put(RESERVED_BYTE);
+		dst.put((byte)id);
+		dst.put((byte)icon);
+		
+		int msgStart = dst.position();
+		putText(dst, msg, msgStart + MAX_MESSAGE_LENGTH);
+		
+		if(dst.position() == msgStart) {
+			dst.position(start);
+			return 0;
+		}
+		
+		dst.put(END_BYTE);
+		return dst.position() - start;
+	}
+	
+	/**
+	 * Encode whole text to split into chunks. Text is cut at character boundary.
+	 * @param dst		text bytes are written from current position
+	 * @param maxLength	max byte length of text
+	 * @return			text byte length
+	 */
+	public int encodeText(ByteBuffer dst, CharSequence msg, int maxLength) {
+		if(msg == null || msg.length() < 1)
+			return 0;
+		int start = dst.position();
+		putText(dst, msg, Math.min(dst.limit(), start + maxLength));
+		return dst.position() - start;
+	}
+	
+	/**
+	 * Encode text of long message. Text which fits in a message frame is sent by ADD only.
+	 * @param text		MAX_LONG_MESSAGE_LENGTH bytes or more
+	 * @return			text byte length to send in chunks, or 0 if no chunk is needed
+	 */
+	public int encodeLongText(byte[] text, CharSequence msg) {
+		mLongBuffer.clear();
+		int total = encodeText(mLongBuffer, msg, MAX_LONG_MESSAGE_LENGTH);
+		if(total <= MAX_MESSAGE_LENGTH)
+			return 0;
+		System.arraycopy(mLongBuffer.array(), 0, text, 0, total);
+		return total;
+	}
+	
+	/**
+	 * [start][command][ID][total length][offset][text : max CHUNK_SIZE byte][end]
+	 * @param text		whole text made by encodeText()
+	 * @param total		text byte length
+	 * @param offset	start position of this chunk in text
+	 * @return			frame length, or 0 if offset is out of text
+	 */
+	public int encodeChunk(ByteBuffer dst, int command, int id, byte[] text, int total, int offset) {
+		if(text == null || offset < 0 || offset >= total || total > text.length)
+			return 0;
+		
+		int length = Math.min(CHUNK_SIZE, total - offset);
+		int start = dst.position();
+		dst.put(START_BYTE);
+		dst.put((byte)command);
+		dst.put((byte)id);
+		dst.put((byte)total);
+		dst.put((byte)offset);
+		dst.put(text, offset, length);
+		dst.put(END_BYTE);
+		return dst.position() - start;
+	}
+	
+	/**
+	 * Wrap a frame into reliable frame.
+	 * @param dst		destination. Needs length + RELIABLE_OVERHEAD bytes from dstOffset.
+	 * @param seq		sequence number (lower 1 byte is used)
+	 * @return			reliable frame length
+	 */
+	public static int encodeReliable(byte[] dst, int dstOffset, int seq, byte[] frame, int offset, int length) {
+		int crc = 0;
+		int pos = dstOffset;
+		dst[pos++] = RELIABLE_START_BYTE;
+		dst[pos++] = (byte)seq;
+		crc = crc8(crc, (byte)seq);
+		dst[pos++] = (byte)length;
+		crc = crc8(crc, (byte)length);
+		for(int i=0; i<length; i++) {
+			byte b = frame[offset + i];
+			dst[pos++] = b;
+			crc = crc8(crc, b);
+		}
+		dst[pos++] = (byte)crc;
+		dst[pos++] = END_BYTE;
+		return pos - dstOffset;
+	}
+	
+	/**
+	 * CRC-8 (polynomial 0x07). Same as crc8_update() of watch.
+	 */
+	public static int crc8(int crc, byte data) {
+		crc = (crc ^ data) & 0xFF;
+		for(int i=0; i<8; i++) {
+			if((crc & 0x80) != 0)
+				crc = ((crc << 1) ^ 0x07) & 0xFF;
+			else
+				crc = (crc << 1) & 0xFF;
+		}
+		return crc;
+	}
+	
+	
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+	
+	/**
+	 * Put characters until the buffer reaches msgLimit.
+	 */
+	/**
+	 * @return	characters which can fill byteCount bytes at most, in pooled buffer if they fit
+	 */
+	private CharBuffer copyChars(CharSequence msg, int start, int byteCount) {
+		int end = Math.min(msg.length(), start + byteCount);
+		if(end < msg.length() && Character.isHighSurrogate(msg.charAt(end - 1)))
+			end++;
+		if(end - start > mChars.capacity())
+			return CharBuffer.wrap(msg, start, end);
+		
+		mChars.clear();
+		for(int i = start; i < end; i++)
+			mChars.put(msg.charAt(i));
+		mChars.flip();
+		return mChars;
+	}
+	
+	private void putText(ByteBuffer dst, CharSequence msg, int msgLimit) {
+		if(mIsCompactText) {
+			CompactText.encode(dst, msg, msgLimit);
+			return;
+		}
+		
+		// Fast path : ASCII string is copied as it is
+		int i = 0;
+		int length = msg.length();
+		for(; i < length && dst.position() < msgLimit; i++) {
+			char c = msg.charAt(i);
+			if(c >= 0x80)
+				break;
+			dst.put((byte)c);
+		}
+		
+		// Non-ASCII characters go through charset encoder
+		if(i < length && dst.position() < msgLimit) {
+			int limit = dst.limit();
+			dst.limit(msgLimit);
+			mEncoder.reset();
+			mEncoder.encode(copyChars(msg, i, msgLimit - dst.position()), dst, true);
+			dst.limit(limit);
+		}
+	}
+	
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import com.hardcopy.retrowatch.utils.Logs;
+
+/**
+ * A request running on HttpClient. Works as a Future of the parsed result.
+ * cancel() also closes the connection, so a request blocked in socket read stops at once.
+ */
+public class HttpCall<T> extends FutureTask<T> implements HttpInterface {
+	
+	private static final String TAG = "HttpCall";
+	
+	private final HttpRequest mRequest;
+	private final IHttpCallback<T> mCallback;
+	private final HttpRequester mRequester;
+	private final HttpClient mClient;
+	
+	// Written on worker thread before done()
+	private volatile int mResultCode = MSG_HTTP_RESULT_CODE_ERROR_UNKNOWN;
+	private volatile String mETag = null;			// Cache validators of response
+	private volatile String mLastModified = null;
+	private volatile long mReceivedBytes = 0;		// Body size on the wire (compressed)
+	
+	
+	HttpCall(HttpClient client, HttpRequest request, IHttpCallback<T> callback) {
+		this(client, request, callback, new HttpRequester());
+	}
+	
+	private HttpCall(HttpClient client, final HttpRequest request, final IHttpCallback<T> callback, 
+			final HttpRequester requester) {
+		super(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				return requester.requestStream(new URL(request.getURL()), request.getEncType(), 
+						request.getRequestTypeString(), request.getParams(), callback);
+			}
+		});
+		mClient = client;
+		mRequest = request;
+		mCallback = callback;
+		mRequester = requester;
+		
+		mRequester.setTimeout(request.getTimeout());
+		mRequester.setMaxResponseSize(request.getMaxResponseSize());
+		mRequester.addRequestHeader(HttpRequester.HEADER_IF_NONE_MATCH, request.getETag());
+		mRequester.addRequestHeader(HttpRequester.HEADER_IF_MODIFIED_SINCE, request.getLastModified());
+	}
+	
+	
+	/*****************************************************
+	 *		Public methods
+	 ******************************************************/
+	
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		if(cancelled)
+			mRequester.disconnect();		// Interrupt doesn't stop blocking socket read
+		return cancelled;
+	}
+	
+	/**
+	 * Same with cancel(true)
+	 */
+	public boolean cancel() {
+		return cancel(true);
+	}
+	
+	public HttpRequest getRequest() {
+		return mRequest;
+	}
+	
+	/**
+	 * @return	MSG_HTTP_RESULT_CODE_XXX. Valid after request is done.
+	 */
+	public int getResultCode() {
+		return mResultCode;
+	}
+	
+	/**
+	 * @return	parsed result or null if request failed. Doesn't block.
+	 */
+	public T getResult() {
+		if(!isDone() || isCancelled())
+			return null;
+		try {
+			return get();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	public String getETag() {
+		return mETag;
+	}
+	
+	public String getLastModified() {
+		return mLastModified;
+	}
+	
+	/**
+	 * @return	bytes of response body received, before decompression
+	 */
+	public long getReceivedBytes() {
+		return mReceivedBytes;
+	}
+	
+	
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+	
+	@Override
+	protected void set(T result) {
+		if(isCancelled())
+			return;
+		mETag = mRequester.getETag();
+		mLastModified = mRequester.getLastModified();
+		mReceivedBytes = mRequester.getReceivedBytes();
+		if(mRequester.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			Logs.d(TAG, "###### Not modified : "+mRequest.getURL());
+			mResultCode = MSG_HTTP_RESULT_CODE_NOT_MODIFIED;
+		} else {
+			mResultCode = MSG_HTTP_RESULT_CODE_OK;
+		}
+		super.set(result);
+	}
+	
+	@Override
+	protected void setException(Throwable t) {
+		if(isCancelled())
+			return;		// Closed by cancel()
+		if(t instanceof MalformedURLException)
+			mResultCode = MSG_HTTP_RESULT_CODE_INVALID_URL;
+		else if(t instanceof SocketTimeoutException)
+			mResultCode = MSG_HTTP_RESULT_CODE_TIMEOUT;
+		else if(t instanceof IOException)
+			mResultCode = MSG_HTTP_RESULT_CODE_ERROR_REQUEST_EXCEPTION;
+		else
+			mResultCode = MSG_HTTP_RESULT_CODE_ERROR_UNKNOWN;
+		Logs.d(TAG, "###### Error!!! : "+t.toString()+" , URL = "+mRequest.getURL());
+		super.setException(t);
+	}
+	
+	@Override
+	protected void done() {
+		// Runs on worker thread, or on the thread which called cancel()
+		if(isCancelled())
+			mResultCode = MSG_HTTP_RESULT_CODE_CANCELLED;
+		mClient.onCallFinished(this);
+		if(mCallback != null)
+			mCallback.OnHttpResult(this);
+	}
+	
+}
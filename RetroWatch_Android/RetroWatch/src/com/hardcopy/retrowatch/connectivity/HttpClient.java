@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs HTTP requests on its own thread pool.
+ * AsyncTask.execute() runs every task on one serial executor, so requests waited for each other.
+ * Here up to pool size requests run at the same time and the rest wait in queue.
+ */
+public class HttpClient {
+	
+	public static final int DEFAULT_POOL_SIZE = 4;
+	private static final long KEEP_ALIVE_TIME = 30;		// Idle thread is released after this time, in second
+	
+	private final ThreadPoolExecutor mExecutor;
+	private final HashSet<HttpCall<?>> mCalls = new HashSet<HttpCall<?>>();	// Queued or running
+	
+	
+	public HttpClient() {
+		this(DEFAULT_POOL_SIZE);
+	}
+	
+	public HttpClient(int poolSize) {
+		if(poolSize < 1)
+			poolSize = 1;
+		mExecutor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_TIME, TimeUnit.SECONDS, 
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger mmCount = new AtomicInteger(1);
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "HttpClient-" + mmCount.getAndIncrement());
+			}
+		});
+		mExecutor.allowCoreThreadTimeOut(true);
+	}
+	
+	
+	/*****************************************************
+	 *		Public methods
+	 ******************************************************/
+	
+	/**
+	 * Set how many requests can run at the same time
+	 */
+	public void setPoolSize(int poolSize) {
+		if(poolSize < 1)
+			poolSize = 1;
+		synchronized(mExecutor) {
+			// Core size must not exceed max size in the middle
+			if(poolSize > mExecutor.getMaximumPoolSize()) {
+				mExecutor.setMaximumPoolSize(poolSize);
+				mExecutor.setCorePoolSize(poolSize);
+			} else {
+				mExecutor.setCorePoolSize(poolSize);
+				mExecutor.setMaximumPoolSize(poolSize);
+			}
+		}
+	}
+	
+	public int getPoolSize() {
+		return mExecutor.getMaximumPoolSize();
+	}
+	
+	/**
+	 * Queue a request.
+	 * @param callback		called on worker thread. Can be null.
+	 * @return			call which can be cancelled or waited as a Future. null if client is shut down.
+	 */
+	public <T> HttpCall<T> enqueue(HttpRequest request, IHttpCallback<T> callback) {
+		HttpCall<T> call = new HttpCall<T>(this, request, callback);
+		synchronized(mCalls) {
+			if(mExecutor.isShutdown())
+				return null;
+			mCalls.add(call);
+		}
+		mExecutor.execute(call);
+		return call;
+	}
+	
+	/**
+	 * Cancel queued and running requests. Callbacks get MSG_HTTP_RESULT_CODE_CANCELLED.
+	 */
+	public void cancelAll() {
+		ArrayList<HttpCall<?>> calls;
+		synchronized(mCalls) {
+			calls = new ArrayList<HttpCall<?>>(mCalls);
+		}
+		for(HttpCall<?> call : calls)
+			call.cancel();
+	}
+	
+	/**
+	 * Cancel all requests and release threads. Client can't be used after this.
+	 */
+	public void shutdown() {
+		synchronized(mCalls) {
+			mExecutor.shutdown();
+		}
+		cancelAll();
+	}
+	
+	
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+	
+	void onCallFinished(HttpCall<?> call) {
+		synchronized(mCalls) {
+			mCalls.remove(call);
+		}
+	}
+	
+}
@@ -38,6 +38,8 @@ public interface HttpInterface {
 	public static final int MSG_HTTP_RESULT_CODE_INTERNAL_SERVER_ERROR = 5;
 	public static final int MSG_HTTP_RESULT_CODE_ERROR_UNKNOWN = 6;
 	public static final int MSG_HTTP_RESULT_CODE_ERROR_REQUEST_EXCEPTION = 7;
+	public static final int MSG_HTTP_RESULT_CODE_NOT_MODIFIED = 8;		// 304 response of conditional request
+	public static final int MSG_HTTP_RESULT_CODE_CANCELLED = 9;		// HttpCall was cancelled
 	
 	//---------- Request type (GET or POST or FILE)
 	public static final int REQUEST_TYPE_GET = 1;
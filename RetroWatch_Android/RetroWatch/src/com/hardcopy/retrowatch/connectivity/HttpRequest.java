@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.util.Map;
+
+/**
+ * Parameters of a HTTP request which is run by HttpClient.
+ */
+public class HttpRequest implements HttpInterface {
+	
+	public static final int DEFAULT_TIMEOUT = 5000;		// Connect and read timeout, in milli-second
+	
+	private final String mURL;
+	private int mRequestType = REQUEST_TYPE_GET;
+	private String mEncType = null;
+	private Map<String, Object> mParams = null;
+	private String mETag = null;
+	private String mLastModified = null;
+	private int mTimeout = DEFAULT_TIMEOUT;
+	private int mMaxResponseSize = HttpRequester.DEFAULT_MAX_RESPONSE_SIZE;
+	
+	
+	public HttpRequest(String url) {
+		mURL = url;
+	}
+	
+	/**
+	 * @param requestType		REQUEST_TYPE_GET or REQUEST_TYPE_POST
+	 */
+	public HttpRequest setRequestType(int requestType) {
+		mRequestType = requestType;
+		return this;
+	}
+	
+	/**
+	 * @param encType		charset to use when response header has no charset. null to let parser detect.
+	 */
+	public HttpRequest setEncType(String encType) {
+		mEncType = encType;
+		return this;
+	}
+	
+	/**
+	 * @param params		POST parameters
+	 */
+	public HttpRequest setParams(Map<String, Object> params) {
+		mParams = params;
+		return this;
+	}
+	
+	/**
+	 * Make conditional request with validators of previous response.
+	 * If server responds 304, result code is MSG_HTTP_RESULT_CODE_NOT_MODIFIED without parsing.
+	 */
+	public HttpRequest setCacheValidators(String etag, String lastModified) {
+		mETag = etag;
+		mLastModified = lastModified;
+		return this;
+	}
+	
+	/**
+	 * @param timeout		connect and read timeout of this request, in milli-second
+	 */
+	public HttpRequest setTimeout(int timeout) {
+		mTimeout = timeout;
+		return this;
+	}
+	
+	/**
+	 * @param size		max size of decompressed response body in bytes. Larger response fails.
+	 */
+	public HttpRequest setMaxResponseSize(int size) {
+		mMaxResponseSize = size;
+		return this;
+	}
+	
+	public String getURL() {
+		return mURL;
+	}
+	
+	public int getRequestType() {
+		return mRequestType;
+	}
+	
+	public String getRequestTypeString() {
+		return (mRequestType == REQUEST_TYPE_POST ? REQUEST_TYPE_POST_STRING : REQUEST_TYPE_GET_STRING);
+	}
+	
+	public String getEncType() {
+		return mEncType;
+	}
+	
+	public Map<String, Object> getParams() {
+		return mParams;
+	}
+	
+	public String getETag() {
+		return mETag;
+	}
+	
+	public String getLastModified() {
+		return mLastModified;
+	}
+	
+	public int getTimeout() {
+		return mTimeout;
+	}
+	
+	public int getMaxResponseSize() {
+		return mMaxResponseSize;
+	}
+	
+}
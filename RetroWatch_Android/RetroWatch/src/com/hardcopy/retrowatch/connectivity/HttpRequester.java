@@ -1,16 +1,24 @@
 package com.hardcopy.retrowatch.connectivity;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 
 import android.util.Log;
@@ -31,15 +39,33 @@ import android.util.Log;
 public class HttpRequester 
 {
 	public String m_request ;						/// 리퀘스트 내용을 통채로 저장할 스트링
-	private HttpURLConnection m_con ;		/// http방식으로 연결을 유지할 커넥션
+	private volatile HttpURLConnection m_con ;		/// http방식으로 연결을 유지할 커넥션
 	String m_cookies = "" ;							/// 세션 유지에 필요한 쿠키
 	boolean m_session = false ;					/// 로그인 해서 세션 가지고 있는지 여부
 	long m_sessionLimitTime = 600000 ; 		/// 세션 시간제한 (밀리세컨드)
 	long m_sessionTime = 0 ;						/// 세션을 얻은 시간
+	private Map<String, String> m_headers = new HashMap<String, String>( ) ;	/// 추가로 보낼 리퀘스트 헤더
+	private int m_responseCode = -1 ;			/// 마지막 응답 코드
+	private String m_eTag = null ;					/// 마지막 응답의 ETag 헤더
+	private String m_lastModified = null ;		/// 마지막 응답의 Last-Modified 헤더
+	private int m_maxResponseSize = DEFAULT_MAX_RESPONSE_SIZE ;	/// 압축 해제한 응답 본문의 최대 크기
+	private long m_receivedBytes = 0 ;				/// 마지막 응답 본문의 전송 크기 (압축된 크기)
 	
 	private static final String ENCODING_TYPE_UTF_8 = "UTF-8";
 	private static final String ENCODING_TYPE_EUC_KR = "EUC-KR";
+	private static final String CHARSET_PARAM = "charset=";
+	public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+	public static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+	public static final String HEADER_ETAG = "ETag";
+	public static final String HEADER_LAST_MODIFIED = "Last-Modified";
+	public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+	public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+	private static final String ACCEPT_ENCODING_VALUE = "gzip, deflate";
+	public static final int DEFAULT_MAX_RESPONSE_SIZE = 2*1024*1024;
+	private static final int DRAIN_LIMIT = 16*1024;		/// 연결 재사용을 위해 읽고 버릴 남은 본문의 최대 크기
 	private static int TIMEOUT_VALUE = 5000;
+	private int m_timeout = TIMEOUT_VALUE ;			/// 연결, 읽기 제한시간 (밀리세컨드)
+	private static final int STREAM_BUFFER_SIZE = 8192;
 
 	HttpRequester( )				/// 생성자
 	{}
@@ -92,53 +118,13 @@ public class HttpRequester
 		if(url == null) return "";
 		
 		InputStream in = null ;			/// 받아올 인풋스트림
-		OutputStream out = null ;		/// POST방식일 경우 데이터를 전송할 아웃풋 스트림
-	
-		/// 연결하고 메소드 셋팅함
-		m_con = (HttpURLConnection) url.openConnection( ) ;
-		///String wwwstring = URLEncoder.encode( url.toString() ) ;
-		m_con.setRequestMethod(method);
-		m_con.setConnectTimeout(TIMEOUT_VALUE);
-		m_con.setReadTimeout(TIMEOUT_VALUE);
+		LimitedInputStream raw = null ;	/// 전송되는 그대로의 본문 스트림
+		boolean reusable = false ;		/// 본문을 끝까지 읽으면 연결을 재사용한다
 	
-		/// 인코딩 정의 HTTP방식으로 전송할때는 urlencoded방식으로 인코딩해서 전송해야한다.
-		m_con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-		
-		/// 인풋스트림 쓸거라고 지정
-		m_con.setDoInput(true);
-		
-		if( m_session ) {
-			m_con.setRequestProperty( "cookie", m_cookies ) ;
-		}
-		
-		/// 포스트방식일 경우 변수를 outputStream생성해서 서버로 전송
-		if (method.equals("POST")) 
-		{
-			/// 데이터를 주소와 별개로 전송한다.
-			m_con.setDoOutput(true);							/// 아웃풋 스트림 쓰기위에 아웃풋을 true로 켬
-			
-			String paramstr = buildParameters( params ) ;	/// 파라메터를 문자열로 치환
-			
-			out = m_con.getOutputStream( ) ;				/// 아웃풋 스트림 생성
-			out.write( paramstr.getBytes( "UTF-8" ) ) ;		/// UTF-8포멧으로 변경해서 변수를 쓴다.
-			out.flush( ) ;									/// 플러쉬~
-			out.close( ) ;									/// 스트림 닫기
-			// Log.d( "jsonPrint", "post succes" ) ;			/// 로그출력
-		}
+		openConnection( url, method, params ) ;
 		
 		// SuhYB. Find encoding type to prevent broken 2-byte character
-		String encodingType = ENCODING_TYPE_EUC_KR;
-		try {
-			String headerType = m_con.getContentType();
-			if(encType!=null && encType.length()>0)
-				encodingType = encType;
-			if(headerType !=null && headerType.toUpperCase().indexOf(ENCODING_TYPE_UTF_8) != -1) {
-				encodingType = ENCODING_TYPE_UTF_8;
-			}
-		} catch(Exception e) {
-			e.printStackTrace();
-			encodingType = ENCODING_TYPE_UTF_8;
-		}
+		String encodingType = getEncodingType( encType ) ;
 	
 		/// 받아온 데이터를 씍위한 스트림
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -147,7 +133,8 @@ public class HttpRequester
 		byte[] buf = new byte[131072];
 		try 
 		{
-			in = m_con.getInputStream();						/// 인풋스트림 생성
+			raw = new LimitedInputStream( m_con.getInputStream(), LimitedInputStream.NO_LIMIT ) ;	/// 인풋스트림 생성
+			in = new LimitedInputStream( decodeBody( raw ), m_maxResponseSize ) ;		/// gzip, deflate 압축 해제
 			//Log.d( "---recTime---", "" + (System.currentTimeMillis( ) - ti) ) ; /// == 시간 체크용 == inputstream얻는 요기서 시간 10초이상 넘어가면 큰일남
 																				/// 갤럭시 S에서 어떤앱은 WebView라던가 Http통신에서 15초인가 넘어가면 세션 끊기는
 																				/// 원인을 알 수 없는 경우도 있었음 다른기기 다 잘되는데 오로지 갤럭시 S만!!! 그랬음 참고 바람요
@@ -160,6 +147,7 @@ public class HttpRequester
 					break;
 				bos.write(buf, 0, readlen);
 			}
+			reusable = drain( raw ) ;
 			
 			m_request = new String( bos.toByteArray( ), encodingType ) ;				// SuhYB. 특정 페이지들의 글자 깨짐 방지를 위해 지정한 인코딩 타입으로 수신
 			/////// 리퀘스트 받은 내용을 UTF-8로 변경해서 문자열로 저장 /////////////////
@@ -195,13 +183,237 @@ public class HttpRequester
 			}
 			throw e;
 		} 
-		finally /// 500에러도 아니면 그냥 접속 끊어버림.... -_- 안되는데 답있나?
+		finally /// 본문을 다 읽었으면 연결은 풀로 돌아가고, 아니면 끊는다.
+		{
+			releaseConnection( in, raw, reusable ) ;
+		}
+	}
+	
+	/// 리퀘스트에 헤더를 추가한다. (ex: If-None-Match)
+	public void addRequestHeader( String key, String value ) 
+	{
+		if( key != null && value != null && value.length() > 0 )
+			m_headers.put( key, value ) ;
+	}
+	
+	/// 압축 해제한 응답 본문의 최대 크기를 설정한다. 넘으면 IOException
+	public void setMaxResponseSize( int size ) 
+	{
+		if( size > 0 )
+			m_maxResponseSize = size ;
+	}
+	
+	/// 마지막 응답 본문의 전송 크기 (압축된 크기)
+	public long getReceivedBytes( ) { return m_receivedBytes ; }
+	
+	/// 연결, 읽기 제한시간을 설정한다.
+	public void setTimeout( int timeout ) 
+	{
+		if( timeout > 0 )
+			m_timeout = timeout ;
+	}
+	
+	/// 다른 스레드에서 연결을 끊는다. 읽기 대기중인 리퀘스트는 IOException으로 끝난다.
+	public void disconnect( ) 
+	{
+		HttpURLConnection con = m_con ;
+		if( con != null )
+			con.disconnect( ) ;
+	}
+	
+	/// 마지막 리퀘스트의 응답 코드와 캐시 헤더
+	public int getResponseCode( ) { return m_responseCode ; }
+	public String getETag( ) { return m_eTag ; }
+	public String getLastModified( ) { return m_lastModified ; }
+	
+	/// 리퀘스트를 보내고 응답 본문을 스트림 그대로 callback 에 넘기는 함수
+	/// Body is not copied into memory. Callback reads it on the caller's thread
+	/// and its return value is returned here.
+	/// charset : charset of Content-Type header, or encType if header has none (can be null)
+	/// Returns null without calling callback if server responds 304 (Not Modified).
+	protected <T> T requestStream( URL url, String encType, String method, Map<String, Object> params, 
+			IHttpCallback<T> callback ) throws IOException 
+	{
+		if(url == null || callback == null) return null;
+		
+		InputStream in = null ;
+		LimitedInputStream raw = null ;
+		boolean reusable = false ;
+		
+		openConnection( url, method, params ) ;
+		
+		try 
+		{
+			m_responseCode = m_con.getResponseCode( ) ;
+			m_eTag = m_con.getHeaderField( HEADER_ETAG ) ;
+			m_lastModified = m_con.getHeaderField( HEADER_LAST_MODIFIED ) ;
+			if( m_responseCode == HttpURLConnection.HTTP_NOT_MODIFIED ) {
+				reusable = true ;		/// 본문이 없으니 연결은 그대로 재사용
+				return null ;
+			}
+			
+			String charset = getHeaderCharset( ) ;
+			if(charset == null && encType != null && encType.length() > 0)
+				charset = encType;
+			
+			raw = new LimitedInputStream( m_con.getInputStream(), LimitedInputStream.NO_LIMIT ) ;
+			in = new BufferedInputStream( 
+					new LimitedInputStream( decodeBody( raw ), m_maxResponseSize ), STREAM_BUFFER_SIZE ) ;
+			T result = callback.OnReceiveHttpStream( in, charset ) ;
+			reusable = drain( raw ) ;
+			return result ;
+		} 
+		finally 
+		{
+			releaseConnection( in, raw, reusable ) ;
+		}
+	}
+	
+	/// 연결하고 메소드 셋팅함. POST 방식이면 변수도 전송한다.
+	private void openConnection( URL url, String method, Map<String, Object> params ) throws IOException 
+	{
+		OutputStream out = null ;		/// POST방식일 경우 데이터를 전송할 아웃풋 스트림
+		
+		m_con = (HttpURLConnection) url.openConnection( ) ;
+		///String wwwstring = URLEncoder.encode( url.toString() ) ;
+		m_con.setRequestMethod(method);
+		m_con.setConnectTimeout(m_timeout);
+		m_con.setReadTimeout(m_timeout);
+	
+		/// 인코딩 정의 HTTP방식으로 전송할때는 urlencoded방식으로 인코딩해서 전송해야한다.
+		m_con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+		
+		/// 인풋스트림 쓸거라고 지정
+		m_con.setDoInput(true);
+		
+		if( m_session ) {
+			m_con.setRequestProperty( "cookie", m_cookies ) ;
+		}
+		
+		/// 압축된 응답을 받는다. 직접 지정하면 HttpURLConnection이 알아서 풀지 않으므로 decodeBody()에서 푼다.
+		m_con.setRequestProperty( HEADER_ACCEPT_ENCODING, ACCEPT_ENCODING_VALUE ) ;
+		
+		for( Map.Entry<String, String> header : m_headers.entrySet( ) ) {
+			m_con.setRequestProperty( header.getKey( ), header.getValue( ) ) ;
+		}
+		
+		/// 포스트방식일 경우 변수를 outputStream생성해서 서버로 전송
+		if (method.equals("POST")) 
 		{
-			if ( in != null )
-				in.close( ) ;
-			if ( m_con != null )
-				m_con.disconnect( ) ;
+			/// 데이터를 주소와 별개로 전송한다.
+			m_con.setDoOutput(true);							/// 아웃풋 스트림 쓰기위에 아웃풋을 true로 켬
+			
+			String paramstr = buildParameters( params ) ;	/// 파라메터를 문자열로 치환
+			
+			out = m_con.getOutputStream( ) ;				/// 아웃풋 스트림 생성
+			out.write( paramstr.getBytes( "UTF-8" ) ) ;		/// UTF-8포멧으로 변경해서 변수를 쓴다.
+			out.flush( ) ;									/// 플러쉬~
+			out.close( ) ;									/// 스트림 닫기
+			// Log.d( "jsonPrint", "post succes" ) ;			/// 로그출력
+		}
+	}
+	
+	/// Content-Encoding 헤더에 맞게 본문 압축을 푸는 스트림을 만든다. 읽는 대로 풀기 때문에 본문 전체를 메모리에 두지 않는다.
+	private InputStream decodeBody( InputStream raw ) throws IOException 
+	{
+		String encoding = m_con.getHeaderField( HEADER_CONTENT_ENCODING ) ;
+		if( encoding == null )
+			return raw ;
+		encoding = encoding.trim( ) ;
+		
+		if( encoding.equalsIgnoreCase( "gzip" ) || encoding.equalsIgnoreCase( "x-gzip" ) ) {
+			return new GZIPInputStream( raw, STREAM_BUFFER_SIZE ) ;
+		}
+		else if( encoding.equalsIgnoreCase( "deflate" ) ) {
+			/// deflate는 zlib 헤더가 있어야 하지만 헤더 없이 보내는 서버도 있다.
+			PushbackInputStream in = new PushbackInputStream( raw, 2 ) ;
+			int cmf = in.read( ) ;
+			int flg = in.read( ) ;
+			if( flg > -1 ) in.unread( flg ) ;
+			if( cmf > -1 ) in.unread( cmf ) ;
+			boolean zlib = ( cmf > -1 && flg > -1 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0 ) ;
+			return new InflaterInputStream( in, new Inflater( !zlib ), STREAM_BUFFER_SIZE ) ;
+		}
+		return raw ;		/// identity
+	}
+	
+	/// 남은 본문을 읽어 버린다. 끝까지 읽었으면 true : 연결을 풀에 돌려줄 수 있다.
+	private boolean drain( InputStream raw ) 
+	{
+		try {
+			byte[] buf = new byte[1024] ;
+			long drained = 0 ;
+			while( drained <= DRAIN_LIMIT ) {
+				int readlen = raw.read( buf ) ;
+				if( readlen < 0 )
+					return true ;
+				drained += readlen ;
+			}
+		} catch( IOException e ) {
+			/// 끊긴 연결
+		}
+		return false ;
+	}
+	
+	/// 스트림을 닫는다. 재사용할 수 없는 연결은 끊는다.
+	/// in : 압축 해제 스트림 (닫으면 raw 도 닫힌다), raw : 전송되는 그대로의 본문 스트림
+	private void releaseConnection( InputStream in, LimitedInputStream raw, boolean reusable ) 
+	{
+		m_receivedBytes = ( raw != null ? raw.getCount( ) : 0 ) ;
+		/// 먼저 끊는다. 스트림을 먼저 닫으면 HttpURLConnection이 남은 본문을 마저 읽고 연결을 풀에 돌려준다.
+		if( !reusable && m_con != null )
+			m_con.disconnect( ) ;
+		InputStream stream = ( in != null ? in : raw ) ;
+		if( stream != null ) {
+			try {
+				stream.close( ) ;
+			} catch( IOException e ) {
+				if( reusable && m_con != null )
+					m_con.disconnect( ) ;
+			}
+		}
+	}
+	
+	/// 응답을 읽을 인코딩 타입 : Content-Type 헤더의 charset > encType > EUC-KR
+	private String getEncodingType( String encType ) 
+	{
+		String encodingType = getHeaderCharset( ) ;
+		if(encodingType == null) {
+			if(encType != null && encType.length() > 0)
+				encodingType = encType;
+			else
+				encodingType = ENCODING_TYPE_EUC_KR;
+		}
+		return encodingType;
+	}
+	
+	/// Content-Type 헤더에서 charset 값을 찾는다. 없거나 지원하지 않으면 null
+	/// ex) text/xml; charset=euc-kr
+	private String getHeaderCharset( ) 
+	{
+		String headerType = null;
+		try {
+			headerType = m_con.getContentType();
+		} catch(Exception e) {
+			e.printStackTrace();
+		}
+		if(headerType == null) return null;
+		
+		String[] fields = headerType.split(";");
+		for(int i=1; i<fields.length; i++) {
+			String field = fields[i].trim();
+			if(field.length() > CHARSET_PARAM.length() 
+					&& field.substring(0, CHARSET_PARAM.length()).equalsIgnoreCase(CHARSET_PARAM)) {
+				String charset = field.substring(CHARSET_PARAM.length()).replace("\"", "").trim();
+				try {
+					if(Charset.isSupported(charset))
+						return charset;
+				} catch(IllegalCharsetNameException e) {
+					e.printStackTrace();
+				}
+			}
 		}
+		return null;
 	}
 	
 	/// 파라메터 받은 값을  "변수명=변수값&" 형식의 텍스트로 변환해주는 함수
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.io.IOException;
+
+/**
+ * Listening RFCOMM socket. Calls are same as android.bluetooth.BluetoothServerSocket.
+ */
+public interface IBluetoothServerSocket {
+	/**
+	 * Blocks until a connection is accepted. close() from other thread makes it throw IOException.
+	 */
+	public IBluetoothSocket accept() throws IOException;
+
+	public void close() throws IOException;
+}
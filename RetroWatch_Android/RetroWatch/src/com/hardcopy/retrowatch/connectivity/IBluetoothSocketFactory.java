@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.io.IOException;
+
+/**
+ * Creates RFCOMM sockets for BluetoothManager.
+ * RfcommSocketFactory makes Bluetooth sockets. Tests can give fake sockets.
+ */
+public interface IBluetoothSocketFactory {
+	/**
+	 * @param address	MAC address of remote device
+	 * @return		socket which is not connected yet
+	 */
+	public IBluetoothSocket createSocket(String address) throws IOException;
+
+	/**
+	 * @return		server socket which accepts incoming connections
+	 */
+	public IBluetoothServerSocket listen() throws IOException;
+
+	/**
+	 * Stop device discovery. Discovery slows down a connection.
+	 */
+	public void cancelDiscovery();
+}
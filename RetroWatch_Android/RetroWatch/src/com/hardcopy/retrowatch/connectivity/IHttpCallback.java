@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Callback of a request made by HttpClient. Each request has its own callback object.
+ * Both methods are called on HTTP worker thread.
+ */
+public interface IHttpCallback<T> {
+	/**
+	 * Called with raw response body. Stream is closed after this call returns.
+	 * @param charset		charset of Content-Type header, or encType of request if server didn't send it
+	 * @return			result object which can be read by HttpCall.getResult()
+	 */
+	public T OnReceiveHttpStream(InputStream in, String charset) throws IOException;
+	
+	/**
+	 * Called once when request is finished, failed or cancelled.
+	 * Check HttpCall.getResultCode() : MSG_HTTP_RESULT_CODE_NOT_MODIFIED if conditional request returned 304,
+	 * MSG_HTTP_RESULT_CODE_CANCELLED if cancelled before finish.
+	 */
+	public void OnHttpResult(HttpCall<T> call);
+}
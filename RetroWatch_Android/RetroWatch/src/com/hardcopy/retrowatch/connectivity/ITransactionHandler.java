@@ -16,9 +16,11 @@
 
 package com.hardcopy.retrowatch.connectivity;
 
-public interface HttpListener {
-	// Callback methods
-	public void OnReceiveHttpResponse(int type, String strResult, int resultCode);
-	public void OnReceiveFileResponse(int type, String id, String filepath, String url, int resultCode);
-	
+public interface ITransactionHandler {
+	/**
+	 * Called on the receiver's worker thread when a frame is decoded.
+	 * @param command	command byte of the frame
+	 * @param data		payload of the frame. Empty array if the frame has no payload.
+	 */
+	public void OnTransactionReceived(int command, byte[] data);
 }
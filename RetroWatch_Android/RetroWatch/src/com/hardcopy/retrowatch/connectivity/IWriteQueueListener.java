@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.io.IOException;
+
+public interface IWriteQueueListener {
+	/**
+	 * Called on writer thread when output stream fails. Queue is closed already.
+	 */
+	public void OnWriteError(IOException e);
+
+	/**
+	 * Called on writer thread when a congested queue drains below half of capacity.
+	 */
+	public void OnWriteQueueDrained();
+
+	/**
+	 * Called on writer thread when watch didn't acknowledge reliable frames.
+	 * Those frames are lost and queue falls back to plain frames.
+	 */
+	public void OnDeliveryFailed();
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts bytes read from the stream and fails when it goes over the limit.
+ * Used to cap response body size, also after decompression.
+ */
+class LimitedInputStream extends FilterInputStream {
+	
+	public static final long NO_LIMIT = -1;
+	
+	private final long mLimit;
+	private long mCount = 0;
+	
+	/**
+	 * @param limit		max bytes to read, or NO_LIMIT to count only
+	 */
+	public LimitedInputStream(InputStream in, long limit) {
+		super(in);
+		mLimit = limit;
+	}
+	
+	/**
+	 * @return	bytes read so far
+	 */
+	public long getCount() {
+		return mCount;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if(b > -1)
+			add(1);
+		return b;
+	}
+	
+	@Override
+	public int read(byte[] buffer, int offset, int count) throws IOException {
+		int read = super.read(buffer, offset, count);
+		if(read > 0)
+			add(read);
+		return read;
+	}
+	
+	@Override
+	public long skip(long count) throws IOException {
+		long skipped = super.skip(count);
+		if(skipped > 0)
+			add(skipped);
+		return skipped;
+	}
+	
+	@Override
+	public boolean markSupported() {
+		return false;		// Count can't go back
+	}
+	
+	private void add(long count) throws IOException {
+		mCount += count;
+		if(mLimit > NO_LIMIT && mCount > mLimit)
+			throw new IOException("Response is larger than " + mLimit + " bytes");
+	}
+	
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.util.Random;
+
+/**
+ * Decides when to retry a lost connection.
+ * Delay grows exponentially up to MAX_DELAY. Half of the delay is random (jitter),
+ * so retries don't keep hitting the watch at the same moment after it's back.
+ * Uses no Android API. Pass a seeded Random to get the same delays every time.
+ */
+public class ReconnectPolicy {
+	
+	public static final long BASE_DELAY = 2*1000;
+	public static final long MAX_DELAY = 10*60*1000;
+	
+	private final Random mRandom;
+	private final long mBaseDelay;
+	private final long mMaxDelay;
+	private int mAttempts = 0;
+	
+	
+	public ReconnectPolicy() {
+		this(BASE_DELAY, MAX_DELAY, new Random());
+	}
+	
+	public ReconnectPolicy(long baseDelay, long maxDelay, Random random) {
+		mBaseDelay = baseDelay;
+		mMaxDelay = maxDelay;
+		mRandom = random;
+	}
+	
+	/**
+	 * @return	delay of next retry in milliseconds : [backoff / 2, backoff]
+	 */
+	public synchronized long nextDelay() {
+		long backoff = mBaseDelay;
+		for(int i = 0; i < mAttempts && backoff < mMaxDelay; i++)
+			backoff *= 2;
+		if(backoff > mMaxDelay)
+			backoff = mMaxDelay;
+		mAttempts++;
+		
+		long half = backoff / 2;
+		return half + (long)(mRandom.nextDouble() * (backoff - half));
+	}
+	
+	/**
+	 * Call when connected, or when retry must start from the shortest delay again.
+	 */
+	public synchronized void reset() {
+		mAttempts = 0;
+	}
+	
+	public synchronized int getAttempts() {
+		return mAttempts;
+	}
+	
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+
+/**
+ * Makes Bluetooth RFCOMM sockets of Serial Port Profile.
+ */
+public class RfcommSocketFactory implements IBluetoothSocketFactory {
+	
+	// Name for the SDP record when creating server socket
+	private static final String NAME = "BluetoothManager";
+	
+	// Unique UUID for this application
+	private static final UUID MY_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+	
+	private final BluetoothAdapter mAdapter;
+	
+	
+	public RfcommSocketFactory(BluetoothAdapter adapter) {
+		mAdapter = adapter;
+	}
+	
+	
+	/*****************************************************
+	 *		Public methods
+	 ******************************************************/
+	
+	@Override
+	public IBluetoothSocket createSocket(String address) throws IOException {
+		if(mAdapter == null)
+			throw new IOException("Bluetooth is not supported");
+		BluetoothDevice device = mAdapter.getRemoteDevice(address);
+		return new RfcommSocket(device.createRfcommSocketToServiceRecord(MY_UUID));
+	}
+	
+	@Override
+	public IBluetoothServerSocket listen() throws IOException {
+		if(mAdapter == null)
+			throw new IOException("Bluetooth is not supported");
+		return new RfcommServerSocket(mAdapter.listenUsingRfcommWithServiceRecord(NAME, MY_UUID));
+	}
+	
+	@Override
+	public void cancelDiscovery() {
+		if(mAdapter != null)
+			mAdapter.cancelDiscovery();
+	}
+	
+	
+	/*****************************************************
+	 *		Sub classes
+	 ******************************************************/
+	
+	private static class RfcommSocket implements IBluetoothSocket {
+		private final BluetoothSocket mSocket;
+		
+		public RfcommSocket(BluetoothSocket socket) {
+			mSocket = socket;
+		}
+		
+		@Override
+		public void connect() throws IOException {
+			mSocket.connect();
+		}
+		
+		@Override
+		public InputStream getInputStream() throws IOException {
+			return mSocket.getInputStream();
+		}
+		
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			return mSocket.getOutputStream();
+		}
+		
+		@Override
+		public String getRemoteAddress() {
+			return mSocket.getRemoteDevice().getAddress();
+		}
+		
+		@Override
+		public String getRemoteName() {
+			return mSocket.getRemoteDevice().getName();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			mSocket.close();
+		}
+	}
+	
+	private static class RfcommServerSocket implements IBluetoothServerSocket {
+		private final BluetoothServerSocket mServerSocket;
+		
+		public RfcommServerSocket(BluetoothServerSocket serverSocket) {
+			mServerSocket = serverSocket;
+		}
+		
+		@Override
+		public IBluetoothSocket accept() throws IOException {
+			return new RfcommSocket(mServerSocket.accept());
+		}
+		
+		@Override
+		public void close() throws IOException {
+			mServerSocket.close();
+		}
+	}
+	
+}
@@ -16,6 +16,8 @@
 
 package com.hardcopy.retrowatch.connectivity;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Calendar;
 
 import android.os.Handler;
@@ -29,6 +31,9 @@ public class TransactionBuilder {
 	private BluetoothManager mBTManager = null;
 	private Handler mHandler = null;
 	
+	// Shared by transactions of this builder. Lock it while encoding.
+	private final FrameEncoder mEncoder = new FrameEncoder();
+	
 	public TransactionBuilder(BluetoothManager bm, Handler errorHandler) {
 		mBTManager = bm;
 		mHandler = errorHandler;
@@ -38,9 +43,88 @@ public class TransactionBuilder {
 		return new Transaction();
 	}
 	
+	/**
+	 * Encode messages with CompactText dictionary. Watch reports support with capabilities frame.
+	 * Send COMMAND_TYPE_SET_TEXT_MODE before enabling it. Watch draws codes as words only after that.
+	 */
+	public void setCompactText(boolean enable) {
+		synchronized(mEncoder) {
+			mEncoder.setCompactText(enable);
+		}
+	}
+	
+	/**
+	 * Send PING as reliable mode probe. Writes become reliable if watch acknowledges it.
+	 */
+	public void probeReliableMode() {
+		if(mBTManager == null || mBTManager.getState() != BluetoothManager.STATE_CONNECTED)
+			return;
+		
+		byte[] probe;
+		synchronized(mEncoder) {
+			ByteBuffer buffer = mEncoder.getBuffer();
+			int length = mEncoder.encodeCommand(buffer, Transaction.COMMAND_TYPE_PING);
+			probe = new byte[length];
+			System.arraycopy(buffer.array(), 0, probe, 0, length);
+		}
+		mBTManager.probeReliableMode(probe);
+	}
+	
+	/**
+	 * Send full text of an object in chunks. Watch keeps the latest long message only
+	 * and shows it instead of the 16 byte message of the object with same ID.
+	 * Send the object (ADD) first. Short message is sent by ADD only.
+	 * @param id		object ID - WARNING: use lower 1 byte only
+	 * @param priority	same priority with ADD keeps chunks behind it
+	 * @return			false if a chunk is not queued
+	 */
+	public boolean sendLongMessage(int id, String msg, int priority) {
+		for(Transaction transaction : makeLongMessage(id, msg, priority)) {
+			if(!transaction.sendTransaction())
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Make chunk transactions of long message. See sendLongMessage()
+	 * @return		transactions ready to send, in sending order. Empty if text fits in ADD.
+	 */
+	public ArrayList<Transaction> makeLongMessage(int id, String msg, int priority) {
+		ArrayList<Transaction> chunks = new ArrayList<Transaction>();
+		byte[] text = new byte[FrameEncoder.MAX_LONG_MESSAGE_LENGTH];
+		int total;
+		synchronized(mEncoder) {
+			total = mEncoder.encodeLongText(text, msg);
+		}
+		if(total < 1)
+			return chunks;
+		
+		for(int offset = 0; offset < total; offset += FrameEncoder.CHUNK_SIZE) {
+			Transaction transaction = makeTransaction();
+			transaction.begin();
+			transaction.setCommand(Transaction.COMMAND_TYPE_ADD_MESSAGE_CHUNK);
+			transaction.setChunk(id, text, total, offset);
+			transaction.setPriority(priority);
+			transaction.settingFinished();
+			chunks.add(transaction);
+		}
+		return chunks;
+	}
+	
+	/**
+	 * Backpressure signal. If true, write queue dropped a transaction recently.
+	 * Stop sending until BluetoothManager.MESSAGE_WRITE_QUEUE_DRAINED arrives.
+	 */
+	public boolean isCongested() {
+		if(mBTManager == null)
+			return false;
+		return mBTManager.isWriteCongested();
+	}
+	
 	public class Transaction {
 		
-		public static final int MAX_MESSAGE_LENGTH = 16;
+		public static final int MAX_MESSAGE_LENGTH = FrameEncoder.MAX_MESSAGE_LENGTH;
 		
 		// Command types
 		public static final int COMMAND_TYPE_NONE = 0x00;
@@ -51,6 +135,7 @@ public class TransactionBuilder {
 		public static final int COMMAND_TYPE_ADD_EMERGENCY_OBJ = 0x11;
 		public static final int COMMAND_TYPE_ADD_NORMAL_OBJ = 0x12;
 		public static final int COMMAND_TYPE_ADD_USER_MESSAGE = 0x13;
+		public static final int COMMAND_TYPE_ADD_MESSAGE_CHUNK = 0x14;
 		
 		public static final int COMMAND_TYPE_DELETE_EMERGENCY_OBJ = 0x21;
 		public static final int COMMAND_TYPE_DELETE_NORMAL_OBJ = 0x22;
@@ -60,15 +145,14 @@ public class TransactionBuilder {
 		public static final int COMMAND_TYPE_REQUEST_MOVEMENT_HISTORY = 0x32;
 		public static final int COMMAND_TYPE_SET_CLOCK_STYLE = 0x33;
 		public static final int COMMAND_TYPE_SHOW_INDICATOR = 0x34;
+		public static final int COMMAND_TYPE_SET_TEXT_MODE = 0x35;		// ID : dictionary version, TEXT_MODE_PLAIN
 		
 		public static final int COMMAND_TYPE_PING = 0x51;
 		public static final int COMMAND_TYPE_AWAKE = 0x52;
 		public static final int COMMAND_TYPE_SLEEP = 0x53;
 		public static final int COMMAND_TYPE_REBOOT = 0x54;
 		
-		// byte definitions for buffer setting
-		private static final byte TRANSACTION_START_BYTE = (byte)0xfc;
-		private static final byte TRANSACTION_END_BYTE = (byte)0xfd;
+		// Frame bytes are written by FrameEncoder
 
 //		private static final int BYTE_RESET_EMERGENCY_OBJ = (byte)0x01;
 //		private static final int BYTE_RESET_NORMAL_OBJ = (byte)0x02;
@@ -86,6 +170,8 @@ public class TransactionBuilder {
 //		private static final int BYTE_SLEEP = (byte)0x53;
 //		private static final int BYTE_REBOOT = (byte)0x54;
 		
+		public static final int TEXT_MODE_PLAIN = 0x00;
+		
 		// Icon types
 		public static final int ICON_TYPE_NONE = 0;
 		public static final int ICON_TYPE_SMS = 1;
@@ -96,6 +182,11 @@ public class TransactionBuilder {
 		public static final int ICON_TYPE_CHAT = 6;
 		public static final int ICON_TYPE_EMAIL = 7;
 
+		// Coalescing key of write queue : [key group : 1byte][ID : 1byte]
+		private static final int KEY_GROUP_MASK = 0xFF00;
+		private static final int KEY_GROUP_NORMAL_OBJ = 0x0100;
+		private static final int KEY_GROUP_EMERGENCY_OBJ = 0x0200;
+
 		// Transaction instance status
 		private static final int STATE_NONE = 0;		// Instance created
 		private static final int STATE_BEGIN = 1;		// Initialize transaction
@@ -106,11 +197,10 @@ public class TransactionBuilder {
 		// Transaction parameters
 		private int mState = STATE_NONE;
 
-		private byte[] mBuffer = null;
-
 		private int mCommandType = COMMAND_TYPE_NONE;
 		private int mIconType = ICON_TYPE_NONE;
 		private int mId = 0x00;
+		private int mPriority = -1;		// -1 : decided by command
 		private byte mDateMonth = 0x00; 
 		private byte mDateDay = 0x00;
 		private byte mDateWeek = 0x00;
@@ -119,6 +209,9 @@ public class TransactionBuilder {
 		private byte mDateMinute = 0x00;
 		
 		private String mMsg = null;
+		private byte[] mChunkText = null;
+		private int mChunkTotal = 0;
+		private int mChunkOffset = 0;
 		
 		
 		public void begin() {
@@ -127,6 +220,7 @@ public class TransactionBuilder {
 			mCommandType = COMMAND_TYPE_NONE;
 			mIconType = ICON_TYPE_NONE;
 			mId = 0x00;
+			mPriority = -1;
 			
 			mDateMonth = 0x00;
 			mDateDay = 0x00;
@@ -135,8 +229,9 @@ public class TransactionBuilder {
 			mDateHour = 0x00;
 			mDateMinute = 0x00;
 			mMsg = null;
-			
-			mBuffer = null;
+			mChunkText = null;
+			mChunkTotal = 0;
+			mChunkOffset = 0;
 		}
 		
 		public void setCommand(int cmd) {
@@ -148,6 +243,7 @@ public class TransactionBuilder {
 			case COMMAND_TYPE_ADD_EMERGENCY_OBJ:
 			case COMMAND_TYPE_ADD_NORMAL_OBJ:
 			case COMMAND_TYPE_ADD_USER_MESSAGE:
+			case COMMAND_TYPE_ADD_MESSAGE_CHUNK:
 			
 			case COMMAND_TYPE_DELETE_EMERGENCY_OBJ:
 			case COMMAND_TYPE_DELETE_NORMAL_OBJ:
@@ -163,6 +259,7 @@ public class TransactionBuilder {
 				
 			case COMMAND_TYPE_SET_CLOCK_STYLE:
 			case COMMAND_TYPE_SHOW_INDICATOR:
+			case COMMAND_TYPE_SET_TEXT_MODE:
 				mCommandType = cmd;
 				break;
 			default:
@@ -211,10 +308,33 @@ public class TransactionBuilder {
 			mMsg = msg;
 		}
 		
+		/**
+		 * Set a chunk of long message
+		 * @param id		Identifier - WARNING: use lower 1 byte only
+		 * @param text		whole text bytes (FrameEncoder.encodeText)
+		 * @param total		text byte length
+		 * @param offset	start position of this chunk
+		 */
+		public void setChunk(int id, byte[] text, int total, int offset) {
+			mId = id;
+			mChunkText = text;
+			mChunkTotal = total;
+			mChunkOffset = offset;
+		}
+		
 		public void setIcon(int iconType) {
 			mIconType = iconType;
 		}
 		
+		/**
+		 * Set sending priority. If not set, emergency commands use WriteQueue.PRIORITY_EMERGENCY
+		 * and others use WriteQueue.PRIORITY_NORMAL.
+		 * @param priority	WriteQueue.PRIORITY_xxx
+		 */
+		public void setPriority(int priority) {
+			mPriority = priority;
+		}
+		
 		public void settingFinished() {
 			mState = STATE_SETTING_FINISHED;
 			
@@ -228,16 +348,15 @@ public class TransactionBuilder {
 			case COMMAND_TYPE_SLEEP:
 			case COMMAND_TYPE_REBOOT:
 			case COMMAND_TYPE_REQUEST_MOVEMENT_HISTORY:
-				// Make buffer
-				// [Transaction start signal : 1byte : 0xfd] 
-				// [command type : 1byte] 
-				// [Transaction end signal : 1byte : 0xfe]
-				mBuffer = new byte[3];
-				
-				mBuffer[0] = TRANSACTION_START_BYTE;	// Transaction start signal
-				mBuffer[1] = (byte)mCommandType;	// Command
-				mBuffer[2] = TRANSACTION_END_BYTE;
-				
+			// Command byte + Date bytes
+			case COMMAND_TYPE_SET_TIME:
+			// Command byte + Data bytes
+			case COMMAND_TYPE_DELETE_EMERGENCY_OBJ:
+			case COMMAND_TYPE_DELETE_NORMAL_OBJ:
+			case COMMAND_TYPE_DELETE_USER_MESSAGE:
+			case COMMAND_TYPE_SET_CLOCK_STYLE:
+			case COMMAND_TYPE_SHOW_INDICATOR:
+			case COMMAND_TYPE_SET_TEXT_MODE:
 				break;
 			
 			// Command byte + Message bytes
@@ -246,69 +365,15 @@ public class TransactionBuilder {
 			case COMMAND_TYPE_ADD_USER_MESSAGE:
 				if(mMsg == null || mMsg.length() < 1) {
 					mState = STATE_ERROR;
-					break;
 				}
-				
-				byte[] strBuffer = mMsg.getBytes();
-				
-				// Make buffer
-				// [Transaction start signal : 1byte : 0xfd] 
-				// [command type : 1byte] 
-				// [ID : 1byte] 
-				// [icon type : 1byte] 
-				// [data packet : various size : Currently max 16 byte] 
-				// [Transaction end signal : 1byte : 0xfe]
-				mBuffer = new byte[6+strBuffer.length];
-				
-				mBuffer[0] = TRANSACTION_START_BYTE;	// Transaction start signal
-				mBuffer[1] = (byte)mCommandType;		// Command
-				mBuffer[2] = (byte)0xF0;			// This is reserved for Arduino management
-				mBuffer[3] = (byte)mId;				// Message ID
-				mBuffer[4] = (byte)mIconType;		// mIconType : Icon type
-				System.arraycopy(strBuffer, 0, mBuffer, 5, 
-						(strBuffer.length > MAX_MESSAGE_LENGTH) ? MAX_MESSAGE_LENGTH : strBuffer.length);
-				mBuffer[mBuffer.length - 1] = TRANSACTION_END_BYTE;
-				
 				break;
-			
-			// Command byte + Date bytes
-			case COMMAND_TYPE_SET_TIME:
-				// Make buffer
-				// [Transaction start signal : 1byte : 0xfd] 
-				// [command type : 1byte] 
-				// [data packet : month(1byte), day(1byte), week(1byte), noon(1byte), hour(1byte), min(1byte) ]
-				// [Transaction end signal : 1byte : 0xfe]
-				mBuffer = new byte[9];
-				
-				mBuffer[0] = TRANSACTION_START_BYTE;	// Transaction start signal
-				mBuffer[1] = (byte)mCommandType;	// Command
-				mBuffer[2] = mDateMonth;
-				mBuffer[3] = mDateDay;
-				mBuffer[4] = mDateWeek;
-				mBuffer[5] = mDateNoon;
-				mBuffer[6] = mDateHour;
-				mBuffer[7] = mDateMinute;
-				mBuffer[8] = TRANSACTION_END_BYTE;
 				
-				break;
-			
-			// Command byte + Data bytes
-			case COMMAND_TYPE_DELETE_EMERGENCY_OBJ:
-			case COMMAND_TYPE_DELETE_NORMAL_OBJ:
-			case COMMAND_TYPE_DELETE_USER_MESSAGE:
-			case COMMAND_TYPE_SET_CLOCK_STYLE:
-			case COMMAND_TYPE_SHOW_INDICATOR:
-				// Make buffer
-				// [Transaction start signal : 1byte : 0xfd] 
-				// [command type : 1byte]
-				// [data packet : 1byte integer]
-				// [Transaction end signal : 1byte : 0xfe]
-				mBuffer = new byte[4];
-				
-				mBuffer[0] = TRANSACTION_START_BYTE;	// Transaction start signal
-				mBuffer[1] = (byte)mCommandType;	// Command
-				mBuffer[2] = (byte)mId;			// Arduino uses 2 byte integer
-				mBuffer[3] = TRANSACTION_END_BYTE;
+			// Command byte + ID, length, offset + Text bytes
+			case COMMAND_TYPE_ADD_MESSAGE_CHUNK:
+				if(mChunkText == null || mChunkOffset < 0 || mChunkOffset >= mChunkTotal
+						|| mChunkTotal > mChunkText.length) {
+					mState = STATE_ERROR;
+				}
 				break;
 				
 			default:
@@ -317,106 +382,215 @@ public class TransactionBuilder {
 			}
 		}
 		
+		/**
+		 * Allocates a new array. Use this for inspection only, sendTransaction() doesn't use it.
+		 */
 		public byte[] getPacket() {
 			if(mState == STATE_SETTING_FINISHED) {
-				return mBuffer;
+				ByteBuffer buffer = ByteBuffer.allocate(FrameEncoder.MAX_FRAME_LENGTH);
+				int length;
+				synchronized(mEncoder) {
+					length = encode(buffer);
+				}
+				if(length > 0) {
+					byte[] packet = new byte[length];
+					System.arraycopy(buffer.array(), 0, packet, 0, length);
+					return packet;
+				}
 			}
 			return null;
 		}
 		
 		public boolean sendTransaction() {
-			if(mBuffer == null) {
+			if(mState != STATE_SETTING_FINISHED) {
 				Logs.e(TAG, "##### Ooooooops!! No sending buffer!! Check command!!");
 				return false;
 			}
 			
-			// For debug
-			if(mBuffer.length > 0) {
-				StringBuilder sb = new StringBuilder();
+			if(mBTManager == null)
+				return false;
+			// Check that we're actually connected before trying anything
+			if (mBTManager.getState() != BluetoothManager.STATE_CONNECTED) {
+				mHandler.obtainMessage(Constants.MESSAGE_CMD_ERROR_NOT_CONNECTED).sendToTarget();
+				return false;
+			}
+			
+			synchronized(mEncoder) {
+				// Encode into pooled buffer. Write queue copies it.
+				ByteBuffer buffer = mEncoder.getBuffer();
+				int length = encode(buffer);
+				// Check that there's actually something to send
+				if(length < 1) {
+					Logs.e(TAG, "##### Ooooooops!! No sending buffer!! Check command!!");
+					mState = STATE_ERROR;
+					return false;
+				}
 				
-				switch(mBuffer[1]) {
-				case COMMAND_TYPE_RESET_EMERGENCY_OBJ:
-					sb.append("COMMAND_TYPE_RESET_EMERGENCY_OBJ : ");
-					break;
-				case COMMAND_TYPE_RESET_NORMAL_OBJ:
-					sb.append("COMMAND_TYPE_RESET_NORMAL_OBJ : ");
-					break;
-				case COMMAND_TYPE_RESET_USER_MESSAGE:
-					sb.append("COMMAND_TYPE_RESET_USER_MESSAGE : ");
-					break;
-				case COMMAND_TYPE_ADD_EMERGENCY_OBJ:
-					sb.append("COMMAND_TYPE_ADD_EMERGENCY_OBJ : ");
-					break;
-				case COMMAND_TYPE_ADD_NORMAL_OBJ:
-					sb.append("COMMAND_TYPE_ADD_NORMAL_OBJ : ");
-					break;
-				case COMMAND_TYPE_ADD_USER_MESSAGE:
-					sb.append("COMMAND_TYPE_ADD_USER_MESSAGE : ");
-					break;
+				// For debug
+				if(Logs.mIsEnabled)
+					logPacket(buffer.array(), length);
 				
-				case COMMAND_TYPE_DELETE_EMERGENCY_OBJ:
-					sb.append("COMMAND_TYPE_DELETE_EMERGENCY_OBJ : ");
-					break;
-				case COMMAND_TYPE_DELETE_NORMAL_OBJ:
-					sb.append("COMMAND_TYPE_DELETE_NORMAL_OBJ : ");
-					break;
-				case COMMAND_TYPE_DELETE_USER_MESSAGE:
-					sb.append("COMMAND_TYPE_DELETE_USER_MESSAGE : ");
-					break;
+				// Pending ADD/DELETE objects are meaningless after reset
+				if(mCommandType == COMMAND_TYPE_RESET_NORMAL_OBJ)
+					mBTManager.removePendingWrites(KEY_GROUP_MASK, KEY_GROUP_NORMAL_OBJ);
+				else if(mCommandType == COMMAND_TYPE_RESET_EMERGENCY_OBJ)
+					mBTManager.removePendingWrites(KEY_GROUP_MASK, KEY_GROUP_EMERGENCY_OBJ);
 				
-				case COMMAND_TYPE_SET_TIME:
-					sb.append("COMMAND_TYPE_SET_TIME : ");
-					break;
-				case COMMAND_TYPE_REQUEST_MOVEMENT_HISTORY:
-					sb.append("COMMAND_TYPE_REQUEST_MOVEMENT_HISTORY : ");
-					break;
-				case COMMAND_TYPE_PING:
-					sb.append("COMMAND_TYPE_PING : ");
-					break;
-				case COMMAND_TYPE_AWAKE:
-					sb.append("COMMAND_TYPE_AWAKE : ");
-					break;
-				case COMMAND_TYPE_SLEEP:
-					sb.append("COMMAND_TYPE_SLEEP : ");
-					break;
-				case COMMAND_TYPE_REBOOT:
-					sb.append("COMMAND_TYPE_REBOOT : ");
-					break;
-					
-				case COMMAND_TYPE_SET_CLOCK_STYLE:
-					sb.append("COMMAND_TYPE_SET_CLOCK_STYLE : ");
-					break;
-					
-				default:
-					break;
+				// Queue the message bytes. Writer thread of BluetoothManager sends it.
+				int result = mBTManager.write(buffer.array(), 0, length, getPriority(), getCoalescingKey());
+				if(result == WriteQueue.RESULT_QUEUED || result == WriteQueue.RESULT_COALESCED) {
+					mState = STATE_TRANSFERED;
+					return true;
 				}
+			}
+			// Queue is full (or closed). Caller should retry later.
+			mState = STATE_ERROR;
+			return false;
+		}
+		
+		/**
+		 * Write frame into the buffer. Call while holding mEncoder.
+		 * @return	frame length or 0 if parameters are not valid
+		 */
+		private int encode(ByteBuffer dst) {
+			switch(mCommandType) {
+			case COMMAND_TYPE_RESET_EMERGENCY_OBJ:
+			case COMMAND_TYPE_RESET_NORMAL_OBJ:
+			case COMMAND_TYPE_RESET_USER_MESSAGE:
+			case COMMAND_TYPE_PING:
+			case COMMAND_TYPE_AWAKE:
+			case COMMAND_TYPE_SLEEP:
+			case COMMAND_TYPE_REBOOT:
+			case COMMAND_TYPE_REQUEST_MOVEMENT_HISTORY:
+				return mEncoder.encodeCommand(dst, mCommandType);
 				
-				for(int i=0; i<mBuffer.length; i++) {
-					sb.append(String.format("%02X, ", mBuffer[i]));
-				}
+			case COMMAND_TYPE_ADD_EMERGENCY_OBJ:
+			case COMMAND_TYPE_ADD_NORMAL_OBJ:
+			case COMMAND_TYPE_ADD_USER_MESSAGE:
+				return mEncoder.encodeMessage(dst, mCommandType, mId, mIconType, mMsg);
+				
+			case COMMAND_TYPE_ADD_MESSAGE_CHUNK:
+				return mEncoder.encodeChunk(dst, mCommandType, mId, mChunkText, mChunkTotal, mChunkOffset);
 				
-				Logs.d(" ");
-				Logs.d(TAG, sb.toString());
+			case COMMAND_TYPE_SET_TIME:
+				return mEncoder.encodeTime(dst, mCommandType, mDateMonth, mDateDay, mDateWeek, 
+						mDateNoon, mDateHour, mDateMinute);
+				
+			case COMMAND_TYPE_DELETE_EMERGENCY_OBJ:
+			case COMMAND_TYPE_DELETE_NORMAL_OBJ:
+			case COMMAND_TYPE_DELETE_USER_MESSAGE:
+			case COMMAND_TYPE_SET_CLOCK_STYLE:
+			case COMMAND_TYPE_SHOW_INDICATOR:
+			case COMMAND_TYPE_SET_TEXT_MODE:
+				return mEncoder.encodeId(dst, mCommandType, mId);
+				
+			default:
+				return 0;
 			}
+		}
+		
+		private void logPacket(byte[] packet, int length) {
+			StringBuilder sb = new StringBuilder();
 			
-			if(mState == STATE_SETTING_FINISHED) {
-				if(mBTManager != null) {
-					// Check that we're actually connected before trying anything
-					if (mBTManager.getState() == BluetoothManager.STATE_CONNECTED) {
-						// Check that there's actually something to send
-						if (mBuffer.length > 0) {
-							// Get the message bytes and tell the BluetoothChatService to write
-							mBTManager.write(mBuffer);
-							
-							mState = STATE_TRANSFERED;
-							return true;
-						}
-						mState = STATE_ERROR;
-					}
-					mHandler.obtainMessage(Constants.MESSAGE_CMD_ERROR_NOT_CONNECTED).sendToTarget();
-				}
+			switch(packet[1]) {
+			case COMMAND_TYPE_RESET_EMERGENCY_OBJ:
+				sb.append("COMMAND_TYPE_RESET_EMERGENCY_OBJ : ");
+				break;
+			case COMMAND_TYPE_RESET_NORMAL_OBJ:
+				sb.append("COMMAND_TYPE_RESET_NORMAL_OBJ : ");
+				break;
+			case COMMAND_TYPE_RESET_USER_MESSAGE:
+				sb.append("COMMAND_TYPE_RESET_USER_MESSAGE : ");
+				break;
+			case COMMAND_TYPE_ADD_EMERGENCY_OBJ:
+				sb.append("COMMAND_TYPE_ADD_EMERGENCY_OBJ : ");
+				break;
+			case COMMAND_TYPE_ADD_NORMAL_OBJ:
+				sb.append("COMMAND_TYPE_ADD_NORMAL_OBJ : ");
+				break;
+			case COMMAND_TYPE_ADD_USER_MESSAGE:
+				sb.append("COMMAND_TYPE_ADD_USER_MESSAGE : ");
+				break;
+			case COMMAND_TYPE_ADD_MESSAGE_CHUNK:
+				sb.append("COMMAND_TYPE_ADD_MESSAGE_CHUNK : ");
+				break;
+			
+			case COMMAND_TYPE_DELETE_EMERGENCY_OBJ:
+				sb.append("COMMAND_TYPE_DELETE_EMERGENCY_OBJ : ");
+				break;
+			case COMMAND_TYPE_DELETE_NORMAL_OBJ:
+				sb.append("COMMAND_TYPE_DELETE_NORMAL_OBJ : ");
+				break;
+			case COMMAND_TYPE_DELETE_USER_MESSAGE:
+				sb.append("COMMAND_TYPE_DELETE_USER_MESSAGE : ");
+				break;
+			
+			case COMMAND_TYPE_SET_TIME:
+				sb.append("COMMAND_TYPE_SET_TIME : ");
+				break;
+			case COMMAND_TYPE_REQUEST_MOVEMENT_HISTORY:
+				sb.append("COMMAND_TYPE_REQUEST_MOVEMENT_HISTORY : ");
+				break;
+			case COMMAND_TYPE_PING:
+				sb.append("COMMAND_TYPE_PING : ");
+				break;
+			case COMMAND_TYPE_AWAKE:
+				sb.append("COMMAND_TYPE_AWAKE : ");
+				break;
+			case COMMAND_TYPE_SLEEP:
+				sb.append("COMMAND_TYPE_SLEEP : ");
+				break;
+			case COMMAND_TYPE_REBOOT:
+				sb.append("COMMAND_TYPE_REBOOT : ");
+				break;
+				
+			case COMMAND_TYPE_SET_CLOCK_STYLE:
+				sb.append("COMMAND_TYPE_SET_CLOCK_STYLE : ");
+				break;
+			case COMMAND_TYPE_SET_TEXT_MODE:
+				sb.append("COMMAND_TYPE_SET_TEXT_MODE : ");
+				break;
+				
+			default:
+				break;
+			}
+			
+			for(int i=0; i<length; i++) {
+				sb.append(String.format("%02X, ", packet[i]));
+			}
+			
+			Logs.d(" ");
+			Logs.d(TAG, sb.toString());
+		}
+		
+		private int getPriority() {
+			if(mPriority > -1)
+				return mPriority;
+			switch(mCommandType) {
+			case COMMAND_TYPE_RESET_EMERGENCY_OBJ:
+			case COMMAND_TYPE_ADD_EMERGENCY_OBJ:
+			case COMMAND_TYPE_DELETE_EMERGENCY_OBJ:
+			case COMMAND_TYPE_SET_TEXT_MODE:		// Goes before messages encoded in the new mode
+				return WriteQueue.PRIORITY_EMERGENCY;
+			default:
+				return WriteQueue.PRIORITY_NORMAL;
+			}
+		}
+		
+		/**
+		 * ADD and DELETE of same object ID share a key. Watch needs the last one only.
+		 */
+		private int getCoalescingKey() {
+			switch(mCommandType) {
+			case COMMAND_TYPE_ADD_NORMAL_OBJ:
+			case COMMAND_TYPE_DELETE_NORMAL_OBJ:
+				return KEY_GROUP_NORMAL_OBJ | (mId & 0xFF);
+			case COMMAND_TYPE_ADD_EMERGENCY_OBJ:
+			case COMMAND_TYPE_DELETE_EMERGENCY_OBJ:
+				return KEY_GROUP_EMERGENCY_OBJ | (mId & 0xFF);
+			default:
+				return WriteQueue.KEY_NONE;
 			}
-			return false;
 		}
 	}	// End of class Transaction
 
@@ -18,111 +18,266 @@ package com.hardcopy.retrowatch.connectivity;
 
 import java.util.ArrayList;
 
+import com.hardcopy.retrowatch.utils.Logs;
+
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 
+/**
+ * Incremental decoder of frames sent by the watch.
+ * Received bytes are appended to a ring buffer and decoded on a worker thread.
+ * Decoded frames are delivered to handlers registered for the command, on the same worker thread.
+ * 
+ * Frame format :
+ * 		[start byte 0xfc][command][payload : fixed length by command][end byte 0xfd]
+ * 		[start byte 0xfc][command][payload length : 1byte][payload][end byte 0xfd]	: variable length command
+ * 
+ * If a frame is broken (unknown command or no end byte at expected position),
+ * decoder drops the start byte and searches next start byte.
+ */
 public class TransactionReceiver {
 	private static final String TAG = "TransactionReceiver";
 	
-	private static final int PARSE_MODE_ERROR = 0;
-	private static final int PARSE_MODE_WAIT_START_BYTE = 1;
-	private static final int PARSE_MODE_WAIT_COMMAND = 2;
-	private static final int PARSE_MODE_WAIT_DATA = 3;
-	private static final int PARSE_MODE_WAIT_END_BYTE = 4;
+	private static final byte TRANSACTION_START_BYTE = (byte)0xfc;
+	private static final byte TRANSACTION_END_BYTE = (byte)0xfd;
 	
-	private Handler mHandler = null;
-	private ArrayList<Transaction> mTransactionQueue = new ArrayList<Transaction>();
+	// Command types (watch -> phone)
+	public static final int COMMAND_TYPE_NONE = 0x00;
+	public static final int COMMAND_TYPE_PING = 0x01;
+	public static final int COMMAND_TYPE_BUTTON_EVENT = 0x02;		// payload : button code (1byte)
+	public static final int COMMAND_TYPE_MOVEMENT_HISTORY = 0x03;	// payload : variable length
+	public static final int COMMAND_TYPE_ACK = 0x04;				// payload : sequence number (1byte)
+	public static final int COMMAND_TYPE_NAK = 0x05;				// payload : sequence number (1byte)
+	public static final int COMMAND_TYPE_CAPABILITIES = 0x06;		// payload : flags (1byte), dictionary version (1byte)
 	
-	private int mParseMode = PARSE_MODE_WAIT_START_BYTE;
-	private int mCommand = Transaction.COMMAND_TYPE_NONE;
-	private Transaction mTransaction = null;
+	// Capability flags
+	public static final int CAPABILITY_RELIABLE = 0x01;
+	public static final int CAPABILITY_COMPACT_TEXT = 0x02;
 	
-	public TransactionReceiver(Handler h) {
-		mHandler = h;
-		mParseMode = PARSE_MODE_WAIT_START_BYTE;
-	}
+	// Payload length
+	public static final int PAYLOAD_LENGTH_VARIABLE = -1;
+	private static final int PAYLOAD_LENGTH_UNKNOWN = -2;
+	
+	private static final int RING_BUFFER_SIZE = 1024;		// Must be power of 2
+	private static final int RING_BUFFER_MASK = RING_BUFFER_SIZE - 1;
+	
+	// Ring buffer. Accessed on worker thread only.
+	private final byte[] mRing = new byte[RING_BUFFER_SIZE];
+	private int mHead = 0;		// Read position (not masked)
+	private int mTail = 0;		// Write position (not masked)
+	
+	private final SparseIntArray mPayloadLength = new SparseIntArray();
+	private final SparseArray<ArrayList<ITransactionHandler>> mHandlers = new SparseArray<ArrayList<ITransactionHandler>>();
 	
-	public void setByteArray(byte[] buffer) {
-		parseStream(buffer);
+	private HandlerThread mWorkerThread = null;
+	private Handler mWorkerHandler = null;
+	
+	// Statistics
+	private long mFrameCount = 0;
+	private long mResyncCount = 0;
+	private long mOverflowCount = 0;
+	
+	
+	public TransactionReceiver() {
+		mPayloadLength.put(COMMAND_TYPE_PING, 0);
+		mPayloadLength.put(COMMAND_TYPE_BUTTON_EVENT, 1);
+		mPayloadLength.put(COMMAND_TYPE_MOVEMENT_HISTORY, PAYLOAD_LENGTH_VARIABLE);
+		mPayloadLength.put(COMMAND_TYPE_ACK, 1);
+		mPayloadLength.put(COMMAND_TYPE_NAK, 1);
+		mPayloadLength.put(COMMAND_TYPE_CAPABILITIES, 2);
+		
+		mWorkerThread = new HandlerThread("TransactionReceiver");
+		mWorkerThread.start();
+		mWorkerHandler = new Handler(mWorkerThread.getLooper());
 	}
 	
-	public void popTransaction() {
-		// TODO: 
+	
+	/*****************************************************
+	 *		Public methods
+	 ******************************************************/
+	
+	/**
+	 * Queue received bytes to decode. Returns immediately.
+	 * @param buffer	received bytes. Receiver keeps the reference, so don't reuse the array.
+	 */
+	public void setByteArray(final byte[] buffer) {
+		if(buffer == null || buffer.length < 1)
+			return;
+		
+		Handler worker;
+		synchronized(this) {
+			worker = mWorkerHandler;
+		}
+		if(worker == null)
+			return;
+		
+		worker.post(new Runnable() {
+			@Override
+			public void run() {
+				append(buffer);
+				decode();
+			}
+		});
 	}
-
-	private void parseStream(byte[] buffer) {
-		if(buffer != null && buffer.length > 0) {
-			for(int i=0; i<buffer.length; i++) {
-				
-				switch(mParseMode) {
-				case PARSE_MODE_WAIT_START_BYTE:
-					parseStartByte(buffer[i]);
-					break;
-				case PARSE_MODE_WAIT_COMMAND:
-					parseCommand(buffer[i]);
-					break;
-				case PARSE_MODE_WAIT_DATA:
-					parseData(buffer[i]);
-					break;
-				case PARSE_MODE_WAIT_END_BYTE:
-					parseEndByte(buffer[i]);
-					break;
-				}
-			}	// End of for loop
-		}	// End of if()
+	
+	/**
+	 * Define payload length of a command.
+	 * @param command	command byte
+	 * @param length	payload length or PAYLOAD_LENGTH_VARIABLE
+	 */
+	public synchronized void setPayloadLength(int command, int length) {
+		mPayloadLength.put(command, length);
 	}
 	
-	private void parseStartByte(byte packet) {
-		if(packet == Transaction.TRANSACTION_START_BYTE) {
-			mParseMode = PARSE_MODE_WAIT_COMMAND;
-			mTransaction = new Transaction();
+	public synchronized void registerHandler(int command, ITransactionHandler handler) {
+		ArrayList<ITransactionHandler> list = mHandlers.get(command);
+		if(list == null) {
+			list = new ArrayList<ITransactionHandler>();
+			mHandlers.put(command, list);
 		}
+		if(!list.contains(handler))
+			list.add(handler);
 	}
 	
-	private void parseCommand(byte cmd) {
-		mCommand = cmd;
-		switch(mCommand) {
-		case Transaction.COMMAND_TYPE_PING:
-			mParseMode = PARSE_MODE_WAIT_END_BYTE;
-			break;
-			
-		// TODO:
-			
-		default:
-			break;
-		}	// End of switch()
-	}	// End of parseCommand()
-	
-	private void parseData(byte packet) {
-		if(packet == Transaction.TRANSACTION_END_BYTE) {
-			mParseMode = PARSE_MODE_WAIT_START_BYTE;
-			pushTransaction();
+	public synchronized void unregisterHandler(int command, ITransactionHandler handler) {
+		ArrayList<ITransactionHandler> list = mHandlers.get(command);
+		if(list != null)
+			list.remove(handler);
+	}
+	
+	/**
+	 * Stop worker thread. Pending bytes are dropped.
+	 */
+	public void finalize() {
+		HandlerThread thread;
+		synchronized(this) {
+			thread = mWorkerThread;
+			mWorkerThread = null;
+			mWorkerHandler = null;
+			mHandlers.clear();
 		}
+		if(thread != null)
+			thread.quit();
 		
-		// TODO: 
+		Logs.d(TAG, "# Receiver : frames=" + mFrameCount + ", resync=" + mResyncCount + ", overflow=" + mOverflowCount);
 	}
 	
-	private void parseEndByte(byte packet) {
-		if(packet == Transaction.TRANSACTION_END_BYTE) {
-			mParseMode = PARSE_MODE_WAIT_START_BYTE;
-			pushTransaction();
+	
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+	
+	private int size() {
+		return mTail - mHead;
+	}
+	
+	private byte byteAt(int index) {
+		return mRing[(mHead + index) & RING_BUFFER_MASK];
+	}
+	
+	private void skip(int count) {
+		mHead += count;
+	}
+	
+	private void append(byte[] buffer) {
+		int length = buffer.length;
+		int offset = 0;
+		if(length > RING_BUFFER_SIZE) {
+			// Only the tail can be a valid frame
+			offset = length - RING_BUFFER_SIZE;
+			length = RING_BUFFER_SIZE;
 		}
+		
+		int overflow = size() + length - RING_BUFFER_SIZE;
+		if(overflow > 0) {
+			// Garbage which never made a frame. Drop the oldest bytes.
+			skip(overflow);
+			mOverflowCount++;
+		}
+		
+		for(int i=0; i<length; i++) {
+			mRing[mTail & RING_BUFFER_MASK] = buffer[offset + i];
+			mTail++;
+		}
+	}
+	
+	private synchronized int getPayloadLength(int command) {
+		return mPayloadLength.get(command, PAYLOAD_LENGTH_UNKNOWN);
 	}
 	
-	private void pushTransaction() {
-		if(mTransaction != null) {
-			mTransactionQueue.add(mTransaction);
-			mTransaction = null;
+	private void decode() {
+		while(size() >= 2) {
+			// Find start byte
+			if(byteAt(0) != TRANSACTION_START_BYTE) {
+				skip(1);
+				continue;
+			}
+			
+			int command = byteAt(1) & 0xFF;
+			int payloadLength = getPayloadLength(command);
+			int headerLength = 2;
+			
+			if(payloadLength == PAYLOAD_LENGTH_UNKNOWN) {
+				resync();
+				continue;
+			}
+			if(payloadLength == PAYLOAD_LENGTH_VARIABLE) {
+				if(size() < 3)
+					break;		// Wait length byte
+				payloadLength = byteAt(2) & 0xFF;
+				headerLength = 3;
+			}
+			
+			int frameLength = headerLength + payloadLength + 1;
+			if(size() < frameLength)
+				break;			// Wait rest of the frame
+			
+			if(byteAt(frameLength - 1) != TRANSACTION_END_BYTE) {
+				resync();
+				continue;
+			}
+			
+			byte[] data = new byte[payloadLength];
+			for(int i=0; i<payloadLength; i++) {
+				data[i] = byteAt(headerLength + i);
+			}
+			skip(frameLength);
+			mFrameCount++;
+			
+			dispatch(command, data);
 		}
 	}
 	
+	/**
+	 * Current start byte doesn't make a frame. Search from the next byte.
+	 */
+	private void resync() {
+		skip(1);
+		mResyncCount++;
+	}
 	
-	public class Transaction {
-		private static final byte TRANSACTION_START_BYTE = (byte)0xfc;
-		private static final byte TRANSACTION_END_BYTE = (byte)0xfd;
+	private void dispatch(int command, byte[] data) {
+		ITransactionHandler[] handlers = null;
+		synchronized(this) {
+			ArrayList<ITransactionHandler> list = mHandlers.get(command);
+			if(list != null && list.size() > 0)
+				handlers = list.toArray(new ITransactionHandler[list.size()]);
+		}
 		
-		public static final int COMMAND_TYPE_NONE = 0x00;
-		public static final int COMMAND_TYPE_PING = 0x01;
+		if(handlers == null) {
+			Logs.d(TAG, "# Receiver : no handler for command " + command);
+			return;
+		}
 		
+		for(ITransactionHandler handler : handlers) {
+			try {
+				handler.OnTransactionReceived(command, data);
+			} catch(Exception e) {
+				e.printStackTrace();
+			}
+		}
 	}
 	
 }
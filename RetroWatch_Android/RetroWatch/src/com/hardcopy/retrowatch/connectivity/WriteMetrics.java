@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+/**
+ * Snapshot of WriteQueue counters.
+ */
+public class WriteMetrics {
+	
+	public long mFlushCount = 0;		// Number of stream writes
+	public long mFrameCount = 0;		// Number of packets written
+	public long mByteCount = 0;			// Number of bytes written
+	public int mMaxBatchFrames = 0;		// Most packets in one write
+	public int mMaxBatchBytes = 0;		// Most bytes in one write
+	public long mCoalescedCount = 0;	// Packets replaced by a newer packet with same key
+	public long mDroppedCount = 0;		// Packets rejected because queue was full
+	public int mPendingCount = 0;		// Packets waiting in queue
+	public long mRetransmitCount = 0;	// Number of go-back-N retransmits
+	public long mDeliveryFailedCount = 0;	// Reliable packets given up
+	public boolean mIsReliable = false;	// Reliable mode is on
+	
+	
+	public float getAverageBatchFrames() {
+		if(mFlushCount < 1)
+			return 0;
+		return (float)mFrameCount / mFlushCount;
+	}
+	
+	public float getAverageBatchBytes() {
+		if(mFlushCount < 1)
+			return 0;
+		return (float)mByteCount / mFlushCount;
+	}
+	
+	@Override
+	public String toString() {
+		return "flush=" + mFlushCount + ", frames=" + mFrameCount + ", bytes=" + mByteCount
+				+ ", avg frames/flush=" + getAverageBatchFrames() + ", max frames/flush=" + mMaxBatchFrames
+				+ ", max bytes/flush=" + mMaxBatchBytes + ", coalesced=" + mCoalescedCount
+				+ ", dropped=" + mDroppedCount + ", pending=" + mPendingCount
+				+ ", reliable=" + mIsReliable + ", retransmit=" + mRetransmitCount
+				+ ", failed=" + mDeliveryFailedCount;
+	}
+	
+}
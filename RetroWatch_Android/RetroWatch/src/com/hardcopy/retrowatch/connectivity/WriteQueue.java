@@ -0,0 +1,620 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Bounded priority queue of packets with a dedicated writer thread.
+ * Callers never block on the output stream. Packets are written in priority order, FIFO in same priority.
+ * Pending packets with same coalescing key are replaced by the newest one (ex: ADD and DELETE of same ID).
+ * Packets are copied into pooled frame buffers, so queueing doesn't allocate in steady state.
+ * Packets queued within a short window are packed into one write. Each packet keeps its own start/end bytes,
+ * so the receiver parses them one by one as before.
+ * Uses plain OutputStream and no Android API, so it can run over piped streams.
+ * 
+ * Reliable mode (go-back-N) : each packet is wrapped with sequence number and CRC (see FrameEncoder).
+ * At most RELIABLE_WINDOW packets wait for ACK. Watch accepts packets in sequence order only,
+ * so an ACK confirms every packet up to its sequence. If the oldest packet isn't acknowledged in time,
+ * every waiting packet is sent again. Reliable mode starts when the watch acknowledges a probe packet.
+ */
+public class WriteQueue {
+
+	// Priorities (lower is sent first)
+	public static final int PRIORITY_EMERGENCY = 0;
+	public static final int PRIORITY_NORMAL = 1;
+	public static final int PRIORITY_FEED = 2;
+
+	public static final int KEY_NONE = -1;
+
+	// Results of offer()
+	public static final int RESULT_QUEUED = 0;
+	public static final int RESULT_COALESCED = 1;
+	public static final int RESULT_FULL = 2;
+	public static final int RESULT_CLOSED = 3;
+
+	public static final int DEFAULT_CAPACITY = 64;
+	
+	// Batching. Arduino SoftwareSerial has 64 byte receive buffer, so keep a batch under it.
+	public static final int BATCH_MAX_BYTES = 64;
+	public static final long BATCH_WINDOW = 20;		// ms to wait for following packets
+	
+	// Pooled frame buffer size. Larger packets get their own buffer.
+	public static final int FRAME_BUFFER_SIZE = FrameEncoder.MAX_FRAME_LENGTH;
+	
+	// Reliable mode
+	public static final int RELIABLE_WINDOW = 4;
+	public static final long RETRANSMIT_TIMEOUT = 1000;		// Watch may sleep 300ms between reads
+	public static final int MAX_RETRANSMIT = 3;
+
+	private final OutputStream mOutStream;
+	private final int mCapacity;
+	private final int mLowWatermark;
+	private final IWriteQueueListener mListener;
+
+	private final PriorityQueue<Frame> mQueue;
+	private final HashMap<Integer, Frame> mPendingByKey = new HashMap<Integer, Frame>();
+	private final ArrayList<Frame> mFramePool = new ArrayList<Frame>();
+	private long mSequence = 0;
+	private boolean mIsCongested = false;
+	private boolean mIsClosed = false;
+	private boolean mIsStarted = false;
+	
+	private final byte[] mBatchBuffer = new byte[BATCH_MAX_BYTES];
+	private int mBatchLength = 0;		// Used by writer thread only
+	private int mBatchFrames = 0;
+	
+	// Reliable mode
+	private boolean mIsReliable = false;
+	private int mNextSeq = 0;
+	private int mProbeSeq = -1;
+	private byte[] mProbePacket = null;		// Probe waiting ACK
+	private int mProbeRetries = 0;
+	private long mProbeDeadline = 0;
+	private final ArrayList<InFlight> mInFlight = new ArrayList<InFlight>();
+	private final ArrayList<InFlight> mInFlightPool = new ArrayList<InFlight>();
+	
+	// Metrics
+	private long mFlushCount = 0;
+	private long mFrameCount = 0;
+	private long mByteCount = 0;
+	private int mMaxBatchFrames = 0;
+	private int mMaxBatchBytes = 0;
+	private long mCoalescedCount = 0;
+	private long mDroppedCount = 0;
+	private long mRetransmitCount = 0;
+	private long mDeliveryFailedCount = 0;
+
+
+	public WriteQueue(OutputStream out, int capacity, IWriteQueueListener listener) {
+		mOutStream = out;
+		mCapacity = (capacity > 0) ? capacity : DEFAULT_CAPACITY;
+		mLowWatermark = mCapacity / 2;
+		mListener = listener;
+		mQueue = new PriorityQueue<Frame>(mCapacity, new Comparator<Frame>() {
+			@Override
+			public int compare(Frame lhs, Frame rhs) {
+				if(lhs.mPriority != rhs.mPriority)
+					return (lhs.mPriority < rhs.mPriority) ? -1 : 1;
+				if(lhs.mSequence != rhs.mSequence)
+					return (lhs.mSequence < rhs.mSequence) ? -1 : 1;
+				return 0;
+			}
+		});
+	}
+
+
+	/*****************************************************
+	 *		Public methods
+	 ******************************************************/
+
+	public synchronized void start() {
+		if(mIsStarted || mIsClosed)
+			return;
+		mIsStarted = true;
+		new Thread(new WriteLoop(), "WriteQueue").start();
+	}
+
+	/**
+	 * Run writer loop on a thread of the executor. The thread returns to the executor when queue is closed.
+	 */
+	public synchronized void start(Executor executor) {
+		if(mIsStarted || mIsClosed)
+			return;
+		mIsStarted = true;
+		executor.execute(new WriteLoop());
+	}
+
+	/**
+	 * Stop writer thread and drop pending packets. Output stream is not closed.
+	 */
+	public synchronized void close() {
+		mIsClosed = true;
+		mQueue.clear();
+		mPendingByKey.clear();
+		mFramePool.clear();
+		mInFlight.clear();
+		mIsReliable = false;
+		mProbePacket = null;
+		notifyAll();
+	}
+	
+	/**
+	 * Send a packet wrapped as reliable frame. If the watch acknowledges it, reliable mode starts.
+	 * Probe is sent again MAX_RETRANSMIT times at most. Old firmware never acknowledges it.
+	 * @param packet	a harmless command (ex: PING)
+	 */
+	public synchronized int offerProbe(byte[] packet) {
+		if(mIsClosed)
+			return RESULT_CLOSED;
+		if(mIsReliable)
+			return RESULT_QUEUED;
+		
+		mProbePacket = new byte[packet.length];
+		System.arraycopy(packet, 0, mProbePacket, 0, packet.length);
+		mProbeSeq = mNextSeq;
+		mNextSeq = (mNextSeq + 1) & 0xFF;
+		mProbeRetries = 0;
+		mProbeDeadline = 0;		// send now
+		notifyAll();
+		return RESULT_QUEUED;
+	}
+	
+	/**
+	 * Watch received every reliable frame up to seq.
+	 */
+	public synchronized void onAck(int seq) {
+		seq &= 0xFF;
+		if(!mIsReliable) {
+			if(mProbePacket != null && seq == mProbeSeq) {
+				mIsReliable = true;
+				mProbePacket = null;
+				notifyAll();
+			}
+			return;
+		}
+		
+		// Find acknowledged frame. Ignore stale ACK.
+		int index = -1;
+		for(int i=0; i<mInFlight.size(); i++) {
+			if(mInFlight.get(i).mSeq == seq) {
+				index = i;
+				break;
+			}
+		}
+		for(int i=0; i<=index; i++) {
+			recycleInFlight(mInFlight.remove(0));
+		}
+		if(index > -1)
+			notifyAll();
+	}
+	
+	/**
+	 * Watch received a broken frame. Send waiting frames again without waiting timeout.
+	 */
+	public synchronized void onNak(int seq) {
+		if(!mIsReliable || mInFlight.isEmpty())
+			return;
+		for(InFlight f : mInFlight) {
+			f.mNeedsSend = true;
+		}
+		mRetransmitCount++;
+		notifyAll();
+	}
+	
+	public synchronized boolean isReliable() {
+		return mIsReliable;
+	}
+	
+	public int offer(byte[] packet, int priority, int key) {
+		return offer(packet, 0, packet.length, priority, key);
+	}
+
+	/**
+	 * Queue a copy of the packet. Caller can reuse the array right after this returns.
+	 * @param packet		bytes to write
+	 * @param offset		start of packet in array
+	 * @param length		packet length
+	 * @param priority		PRIORITY_xxx
+	 * @param key			coalescing key. Pending packet with same key is replaced. KEY_NONE disables coalescing.
+	 * @return				RESULT_QUEUED, RESULT_COALESCED, or RESULT_FULL / RESULT_CLOSED if packet is rejected
+	 */
+	public synchronized int offer(byte[] packet, int offset, int length, int priority, int key) {
+		if(mIsClosed)
+			return RESULT_CLOSED;
+
+		if(key != KEY_NONE) {
+			Frame pending = mPendingByKey.get(key);
+			if(pending != null) {
+				// Keep the position in sending order, take the higher priority.
+				mQueue.remove(pending);
+				pending.set(packet, offset, length);
+				if(priority < pending.mPriority)
+					pending.mPriority = priority;
+				mQueue.add(pending);
+				mCoalescedCount++;
+				return RESULT_COALESCED;
+			}
+		}
+
+		if(mQueue.size() >= mCapacity) {
+			mIsCongested = true;
+			mDroppedCount++;
+			return RESULT_FULL;
+		}
+
+		Frame frame = obtainFrame();
+		frame.set(packet, offset, length);
+		frame.mPriority = priority;
+		frame.mKey = key;
+		frame.mSequence = mSequence++;
+		mQueue.add(frame);
+		if(key != KEY_NONE)
+			mPendingByKey.put(key, frame);
+		notifyAll();
+		return RESULT_QUEUED;
+	}
+
+	/**
+	 * Drop pending packets whose key is in the given key group.
+	 * Use this before a reset command which makes those packets meaningless.
+	 * @param keyMask		mask applied to keys
+	 * @param keyGroup		keys which (key & keyMask) == keyGroup are removed
+	 * @return				number of removed packets
+	 */
+	public synchronized int removeKeyGroup(int keyMask, int keyGroup) {
+		int count = 0;
+		Iterator<Frame> iter = mQueue.iterator();
+		while(iter.hasNext()) {
+			Frame frame = iter.next();
+			if(frame.mKey != KEY_NONE && (frame.mKey & keyMask) == keyGroup) {
+				iter.remove();
+				mPendingByKey.remove(frame.mKey);
+				recycleFrame(frame);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public synchronized int size() {
+		return mQueue.size();
+	}
+	
+	/**
+	 * @return	snapshot of write metrics
+	 */
+	public synchronized WriteMetrics getMetrics() {
+		WriteMetrics metrics = new WriteMetrics();
+		metrics.mFlushCount = mFlushCount;
+		metrics.mFrameCount = mFrameCount;
+		metrics.mByteCount = mByteCount;
+		metrics.mMaxBatchFrames = mMaxBatchFrames;
+		metrics.mMaxBatchBytes = mMaxBatchBytes;
+		metrics.mCoalescedCount = mCoalescedCount;
+		metrics.mDroppedCount = mDroppedCount;
+		metrics.mPendingCount = mQueue.size();
+		metrics.mRetransmitCount = mRetransmitCount;
+		metrics.mDeliveryFailedCount = mDeliveryFailedCount;
+		metrics.mIsReliable = mIsReliable;
+		return metrics;
+	}
+
+	/**
+	 * @return	true after a packet is rejected, until the queue drains below half of capacity
+	 */
+	public synchronized boolean isCongested() {
+		return mIsCongested;
+	}
+
+
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+
+	private void writeLoop() {
+		while(true) {
+			Frame single = null;	// packet which doesn't fit in batch buffer
+			boolean isDrained = false;
+			boolean isFailed = false;
+
+			synchronized(this) {
+				mBatchLength = 0;
+				mBatchFrames = 0;
+				
+				// Wait for packets, window space or retransmit timeout
+				while(!mIsClosed) {
+					long now = System.currentTimeMillis();
+					if(checkRetransmit(now)) {
+						isFailed = true;
+						break;
+					}
+					if(hasWork())
+						break;
+					long timeout = 0;
+					if(!mInFlight.isEmpty())
+						timeout = Math.max(1, mInFlight.get(0).mDeadline - now);
+					if(mProbePacket != null && (timeout == 0 || mProbeDeadline - now < timeout))
+						timeout = Math.max(1, mProbeDeadline - now);
+					try {
+						wait(timeout);
+					} catch (InterruptedException e) {
+						mIsClosed = true;
+					}
+				}
+				if(mIsClosed)
+					return;
+
+				// Probe and frames waiting ACK are sent first, in sequence order
+				long now = System.currentTimeMillis();
+				boolean isBatchFull = false;
+				if(mProbePacket != null && mProbeDeadline <= now) {
+					if(mProbeRetries > MAX_RETRANSMIT) {
+						mProbePacket = null;		// Watch doesn't support reliable frames
+					} else {
+						mBatchLength += FrameEncoder.encodeReliable(mBatchBuffer, mBatchLength, mProbeSeq, 
+								mProbePacket, 0, mProbePacket.length);
+						mBatchFrames++;
+						mProbeDeadline = now + (RETRANSMIT_TIMEOUT << mProbeRetries);
+						mProbeRetries++;
+					}
+				}
+				for(InFlight f : mInFlight) {
+					if(!f.mNeedsSend)
+						continue;
+					if(mBatchLength + f.mLength > mBatchBuffer.length) {
+						isBatchFull = true;
+						break;
+					}
+					System.arraycopy(f.mPacket, 0, mBatchBuffer, mBatchLength, f.mLength);
+					mBatchLength += f.mLength;
+					mBatchFrames++;
+					f.mNeedsSend = false;
+					f.mDeadline = now + (RETRANSMIT_TIMEOUT << f.mRetries);
+				}
+
+				// Pack new packets until batch buffer is full or batch window expires
+				long deadline = now + BATCH_WINDOW;
+				while(!mIsClosed && !isBatchFull) {
+					if(mIsReliable && mInFlight.size() >= RELIABLE_WINDOW)
+						break;
+					
+					Frame frame = mQueue.peek();
+					if(frame == null) {
+						long remain = deadline - System.currentTimeMillis();
+						if(remain <= 0)
+							break;
+						try {
+							wait(remain);
+						} catch (InterruptedException e) {
+							mIsClosed = true;
+						}
+						continue;
+					}
+
+					int wireLength = frame.mLength + (mIsReliable ? FrameEncoder.RELIABLE_OVERHEAD : 0);
+					if(mBatchLength + wireLength > mBatchBuffer.length) {
+						if(mBatchFrames == 0) {
+							// Too big for a batch. Send it alone as plain frame.
+							takeFrame();
+							single = frame;
+							mBatchFrames = 1;
+						}
+						break;
+					}
+
+					takeFrame();
+					if(mIsReliable) {
+						InFlight f = obtainInFlight();
+						f.mSeq = mNextSeq;
+						mNextSeq = (mNextSeq + 1) & 0xFF;
+						f.mLength = FrameEncoder.encodeReliable(f.mPacket, 0, f.mSeq, frame.mPacket, 0, frame.mLength);
+						f.mRetries = 0;
+						f.mNeedsSend = false;
+						f.mDeadline = System.currentTimeMillis() + RETRANSMIT_TIMEOUT;
+						mInFlight.add(f);
+						System.arraycopy(f.mPacket, 0, mBatchBuffer, mBatchLength, f.mLength);
+						mBatchLength += f.mLength;
+					} else {
+						System.arraycopy(frame.mPacket, 0, mBatchBuffer, mBatchLength, frame.mLength);
+						mBatchLength += frame.mLength;
+					}
+					mBatchFrames++;
+					recycleFrame(frame);
+				}
+				if(mIsClosed)
+					return;
+
+				if(mIsCongested && mQueue.size() <= mLowWatermark) {
+					mIsCongested = false;
+					isDrained = true;
+				}
+			}
+
+			if(isFailed && mListener != null)
+				mListener.OnDeliveryFailed();
+			
+			int length = mBatchLength;
+			if(single == null && length == 0)
+				continue;
+			
+			try {
+				// Only writer thread uses batch buffer
+				if(single != null) {
+					mOutStream.write(single.mPacket, 0, single.mLength);
+					length = single.mLength;
+					synchronized(this) {
+						recycleFrame(single);
+					}
+				} else {
+					mOutStream.write(mBatchBuffer, 0, length);
+				}
+				mOutStream.flush();
+			} catch (IOException e) {
+				close();
+				if(mListener != null)
+					mListener.OnWriteError(e);
+				return;
+			}
+			onFlushed(mBatchFrames, length);
+
+			if(isDrained && mListener != null)
+				mListener.OnWriteQueueDrained();
+		}
+	}
+
+	/**
+	 * Call in synchronized block.
+	 */
+	private boolean hasWork() {
+		if(mProbePacket != null && mProbeDeadline <= System.currentTimeMillis())
+			return true;
+		for(InFlight f : mInFlight) {
+			if(f.mNeedsSend)
+				return true;
+		}
+		if(mQueue.isEmpty())
+			return false;
+		return !mIsReliable || mInFlight.size() < RELIABLE_WINDOW;
+	}
+
+	/**
+	 * Check timeout of the oldest frame waiting ACK. Call in synchronized block.
+	 * @return	true if watch didn't acknowledge after MAX_RETRANSMIT. Reliable mode is stopped.
+	 */
+	private boolean checkRetransmit(long now) {
+		if(mInFlight.isEmpty())
+			return false;
+		InFlight oldest = mInFlight.get(0);
+		if(oldest.mNeedsSend || oldest.mDeadline > now)
+			return false;
+		
+		if(oldest.mRetries >= MAX_RETRANSMIT) {
+			// Give up. Frames waiting ACK are lost, fall back to plain frames.
+			mDeliveryFailedCount += mInFlight.size();
+			while(!mInFlight.isEmpty()) {
+				recycleInFlight(mInFlight.remove(0));
+			}
+			mIsReliable = false;
+			return true;
+		}
+		
+		// Go back N
+		oldest.mRetries++;
+		for(InFlight f : mInFlight) {
+			f.mNeedsSend = true;
+		}
+		mRetransmitCount++;
+		return false;
+	}
+
+	private InFlight obtainInFlight() {
+		int last = mInFlightPool.size() - 1;
+		if(last > -1)
+			return mInFlightPool.remove(last);
+		return new InFlight();
+	}
+
+	private void recycleInFlight(InFlight f) {
+		if(mInFlightPool.size() < RELIABLE_WINDOW)
+			mInFlightPool.add(f);
+	}
+
+	/**
+	 * Get a frame from pool. Call in synchronized block.
+	 */
+	private Frame obtainFrame() {
+		int last = mFramePool.size() - 1;
+		if(last > -1)
+			return mFramePool.remove(last);
+		return new Frame();
+	}
+
+	/**
+	 * Return a frame which is not in the queue any more. Call in synchronized block.
+	 */
+	private void recycleFrame(Frame frame) {
+		if(!mIsClosed && mFramePool.size() < mCapacity)
+			mFramePool.add(frame);
+	}
+
+	/**
+	 * Remove head of the queue. Call in synchronized block.
+	 */
+	private void takeFrame() {
+		Frame frame = mQueue.poll();
+		if(frame.mKey != KEY_NONE)
+			mPendingByKey.remove(frame.mKey);
+	}
+
+	private synchronized void onFlushed(int frames, int bytes) {
+		mFlushCount++;
+		mFrameCount += frames;
+		mByteCount += bytes;
+		if(frames > mMaxBatchFrames)
+			mMaxBatchFrames = frames;
+		if(bytes > mMaxBatchBytes)
+			mMaxBatchBytes = bytes;
+	}
+
+
+	/*****************************************************
+	 *		Sub classes
+	 ******************************************************/
+
+	private static class Frame {
+		public byte[] mPacket = new byte[FRAME_BUFFER_SIZE];
+		public int mLength = 0;
+		public int mPriority;
+		public int mKey;
+		public long mSequence;
+
+		public void set(byte[] packet, int offset, int length) {
+			if(length > mPacket.length)
+				mPacket = new byte[length];
+			System.arraycopy(packet, offset, mPacket, 0, length);
+			mLength = length;
+		}
+	}
+
+	private class WriteLoop implements Runnable {
+		@Override
+		public void run() {
+			writeLoop();
+		}
+	}
+
+	/**
+	 * Reliable frame waiting ACK
+	 */
+	private static class InFlight {
+		public byte[] mPacket = new byte[FrameEncoder.MAX_RELIABLE_FRAME_LENGTH];
+		public int mLength = 0;
+		public int mSeq;
+		public int mRetries;
+		public long mDeadline;
+		public boolean mNeedsSend;
+	}
+
+}
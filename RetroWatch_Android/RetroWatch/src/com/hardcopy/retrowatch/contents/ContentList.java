@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.contents;
+
+import java.util.ArrayList;
+
+import com.hardcopy.retrowatch.contents.objects.ContentDelta;
+import com.hardcopy.retrowatch.contents.objects.ContentObject;
+
+/**
+ * Content objects sorted by content type and ID. Objects of same type and ID keep inserting order.
+ * Every change is recorded in a delta which can be taken with takeDelta().
+ * Objects are compared by instance, not by value.
+ */
+public class ContentList {
+	
+	private ArrayList<ContentObject> mList = new ArrayList<ContentObject>();
+	private ContentDelta mDelta = new ContentDelta();
+	
+	
+	/*****************************************************
+	 *		Public methods
+	 ******************************************************/
+	
+	/**
+	 * Sorted content objects. Use this read-only.
+	 */
+	public ArrayList<ContentObject> getList() {
+		return mList;
+	}
+	
+	public int size() {
+		return mList.size();
+	}
+	
+	public boolean contains(ContentObject obj) {
+		return indexOf(obj) > -1;
+	}
+	
+	public void add(ContentObject obj) {
+		if(obj == null)
+			return;
+		mList.add(upperBound(obj.mContentType, obj.mId), obj);
+		mDelta.onAdded(obj);
+	}
+	
+	public boolean remove(ContentObject obj) {
+		int index = indexOf(obj);
+		if(index < 0)
+			return false;
+		mList.remove(index);
+		mDelta.onRemoved(obj);
+		return true;
+	}
+	
+	/**
+	 * Call when filtered string, icon or enabled state of a listed object is changed
+	 */
+	public void setChanged(ContentObject obj) {
+		if(contains(obj))
+			mDelta.onChanged(obj);
+	}
+	
+	public void removeByType(int type) {
+		int start = lowerBound(type, Integer.MIN_VALUE);
+		int end = lowerBound(type + 1, Integer.MIN_VALUE);
+		for(int i = end - 1; i >= start; i--)
+			mDelta.onRemoved(mList.remove(i));
+	}
+	
+	/**
+	 * Remove objects of the type whose package name contains packageName
+	 */
+	public void removeByPackage(int type, String packageName) {
+		int start = lowerBound(type, Integer.MIN_VALUE);
+		int end = lowerBound(type + 1, Integer.MIN_VALUE);
+		for(int i = end - 1; i >= start; i--) {
+			ContentObject obj = mList.get(i);
+			if(obj.mPackageName != null && obj.mPackageName.contains(packageName))
+				mDelta.onRemoved(mList.remove(i));
+		}
+	}
+	
+	/**
+	 * Returns changes since last call and starts a new delta
+	 */
+	public ContentDelta takeDelta() {
+		ContentDelta delta = mDelta;
+		mDelta = new ContentDelta();
+		return delta;
+	}
+	
+	
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+	
+	private int indexOf(ContentObject obj) {
+		if(obj == null)
+			return -1;
+		int end = upperBound(obj.mContentType, obj.mId);
+		for(int i = lowerBound(obj.mContentType, obj.mId); i < end; i++) {
+			if(mList.get(i) == obj)
+				return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * First position whose (type, id) is not less than given key
+	 */
+	private int lowerBound(int type, int id) {
+		int low = 0, high = mList.size();
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(compare(mList.get(mid), type, id) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	/**
+	 * First position whose (type, id) is greater than given key
+	 */
+	private int upperBound(int type, int id) {
+		int low = 0, high = mList.size();
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(compare(mList.get(mid), type, id) <= 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	private int compare(ContentObject obj, int type, int id) {
+		if(obj.mContentType != type)
+			return (obj.mContentType < type ? -1 : 1);
+		if(obj.mId != id)
+			return (obj.mId < id ? -1 : 1);
+		return 0;
+	}
+}
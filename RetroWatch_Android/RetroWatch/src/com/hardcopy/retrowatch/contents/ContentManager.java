@@ -19,6 +19,7 @@ package com.hardcopy.retrowatch.contents;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
@@ -34,6 +35,7 @@ import android.net.wifi.WifiManager;
 
 import com.hardcopy.retrowatch.R;
 import com.hardcopy.retrowatch.contents.objects.CPObject;
+import com.hardcopy.retrowatch.contents.objects.ContentDelta;
 import com.hardcopy.retrowatch.contents.objects.ContentObject;
 import com.hardcopy.retrowatch.contents.objects.EmergencyObject;
 import com.hardcopy.retrowatch.contents.objects.FeedObject;
@@ -53,6 +55,7 @@ public class ContentManager {
 	
 	private static final int FEED_SUBSTRING_SIZE = 50;
 	private static final int WARNING_BATTERY_LEVEL = 10;
+	private static final long STATUS_QUERY_INTERVAL = 5*60*1000;		// Gmail, WiFi status query interval
 	
 	private static ContentManager mContentManager = null;		// Singleton pattern
 	
@@ -61,13 +64,17 @@ public class ContentManager {
 	private DBHelper mDB = null;
 	private FeedManager mFeedManager;
 	
-	private ArrayList<ContentObject> mContentList;		// Cache every type of contents
+	private ContentList mContentList;		// Filtered contents of every type. Sorted by type and ID.
+	private IdentityHashMap<NotificationObject, ContentObject> mNotificationContents;	// Notification -> listed content
+	private IdentityHashMap<FeedObject, ContentObject> mFeedContents;		// Feed -> listed content
+	private long mLastStatusQueryTime = 0;
 	
 	private ArrayList<NotificationObject> mNotificationList;	// Notification type
 	private ArrayList<ContentObject> mMessagingList;	// Messaging type
 	private ArrayList<ContentObject> mEmergencyList;
 	
 	private ArrayList<FilterObject> mFilterList;
+	private volatile FilterIndex mFilterIndex;		// Compiled mFilterList
 	
 	private int mRFStatus = EmergencyObject.RF_STATE_IN_SERVICE;
 	private int mWiFiStatus = EmergencyObject.WIFI_STATE_ACTIVATED;
@@ -88,7 +95,9 @@ public class ContentManager {
 		mContext = c;
 		mContentManagerListener = l;
 		
-		mContentList = new ArrayList<ContentObject>();
+		mContentList = new ContentList();
+		mNotificationContents = new IdentityHashMap<NotificationObject, ContentObject>();
+		mFeedContents = new IdentityHashMap<FeedObject, ContentObject>();
 		mNotificationList = new ArrayList<NotificationObject>();
 		mMessagingList = new ArrayList<ContentObject>();
 		mEmergencyList = new ArrayList<ContentObject>();
@@ -104,6 +113,10 @@ public class ContentManager {
 		
 		getFiltersFromDB();
 		
+		// Make feed contents from cached feeds. This is initial state, not a change.
+		updateFeedContents(false);
+		mContentList.takeDelta();
+		
 		mGmailAddress = Settings.getInstance(mContext).getGmailAddress();
 	}
 	
@@ -152,6 +165,7 @@ public class ContentManager {
 		}
 		
 		if(c != null) c.close();
+		rebuildFilterIndex();
 	}
 	
 	private ContentObject applyFilters(NotificationObject noti) {
@@ -217,200 +231,35 @@ public class ContentManager {
 			return null;
 
 		mFilterIcon = -1;
-		strSrc.trim();
 		String strResult = strSrc;
 		
-		if(mFilterList != null && mFilterList.size() > 0) {
-			for(FilterObject filter : mFilterList) {
-				// Use specified, package name or free-type filter
-				if(filter.mType != FilterObject.FILTER_TYPE_ALL 
-						&& filter.mType != FilterObject.FILTER_TYPE_PACKAGE_NAME
-						&& filter.mType != filter_type)
-					continue;
-				// Check compare string
-				if(filter.mOriginalString == null || filter.mOriginalString.isEmpty())
-					continue;
-				
-				
-				boolean isFound = false;
-				
-				if(filter.mType == FilterObject.FILTER_TYPE_PACKAGE_NAME) {
-					// Package name filter
-					if(strPackage == null || strPackage.isEmpty())
-						continue;
-					
-					switch(filter.mCompareType) {
-					case FilterObject.MATCHING_TYPE_WHOLE_WORD:
-						if(strPackage.compareToIgnoreCase(filter.mOriginalString) == 0) {
-							/*
-							 * Disabled
-							 * 
-							// Exactly same string. so replace with filter's string.
-							if(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) {
-								strResult = "";
-							} else {
-								strResult = filter.mReplaceString;
-								mFilterIcon = filter.mIconType;
-								isFound = true;
-							}
-							*/
-							if(filter.mReplaceType == FilterObject.REPLACE_TYPE_SAME_PART) {
-								// Package matching supports 'Replace all' option only
-								//strResult = strResult.replaceAll(filter.mOriginalString, 
-								//		(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) ? "" : filter.mReplaceString );
-								mFilterIcon = filter.mIconType;
-								isFound = true;
-							} else if(filter.mReplaceType == FilterObject.REPLACE_TYPE_ALL) {
-								if(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) {
-									strResult = "";
-								} else {
-									strResult = filter.mReplaceString;
-									mFilterIcon = filter.mIconType;
-									isFound = true;
-								}
-							}
-						}
-						break;
-					case FilterObject.MATCHING_TYPE_START_WITH:
-						if(strPackage.startsWith(filter.mOriginalString)) {
-							if(filter.mReplaceType == FilterObject.REPLACE_TYPE_SAME_PART) {
-								// Package matching supports 'Replace all' option only
-								//strResult = strResult.replaceAll(filter.mOriginalString, 
-								//		(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) ? "" : filter.mReplaceString );
-								mFilterIcon = filter.mIconType;
-								isFound = true;
-							} else if(filter.mReplaceType == FilterObject.REPLACE_TYPE_ALL) {
-								if(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) {
-									strResult = "";
-								} else {
-									strResult = filter.mReplaceString;
-									mFilterIcon = filter.mIconType;
-									isFound = true;
-								}
-							}
-						}
-						break;
-					case FilterObject.MATCHING_TYPE_END_WITH:
-						if(strPackage.endsWith(filter.mOriginalString)) {
-							if(filter.mReplaceType == FilterObject.REPLACE_TYPE_SAME_PART) {
-								// Package matching supports 'Replace all' option only
-								//strResult = strResult.replaceAll(filter.mOriginalString, 
-								//		(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) ? "" : filter.mReplaceString );
-								mFilterIcon = filter.mIconType;
-								isFound = true;
-							} else if(filter.mReplaceType == FilterObject.REPLACE_TYPE_ALL) {
-								if(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) {
-									strResult = "";
-								} else {
-									strResult = filter.mReplaceString;
-									mFilterIcon = filter.mIconType;
-									isFound = true;
-								}
-							}
-						}
-						break;
-					case FilterObject.MATCHING_TYPE_PART_OF:
-						if(strPackage.contains(filter.mOriginalString)) {
-							if(filter.mReplaceType == FilterObject.REPLACE_TYPE_SAME_PART) {
-								// Package matching supports 'Replace all' option only
-								//strResult = strResult.replaceAll(filter.mOriginalString, 
-								//		(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) ? "" : filter.mReplaceString );
-								mFilterIcon = filter.mIconType;
-								isFound = true;
-							} else if(filter.mReplaceType == FilterObject.REPLACE_TYPE_ALL) {
-								if(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) {
-									strResult = "";
-								} else {
-									strResult = filter.mReplaceString;
-									mFilterIcon = filter.mIconType;
-									isFound = true;
-								}
-							}
-						}
-						break;
-					default:
-						break;
-					}	// End of switch(filter.mCompareType)
-					
-				} else {
-					
-					switch(filter.mCompareType) {
-					case FilterObject.MATCHING_TYPE_WHOLE_WORD:
-						if(strSrc.compareToIgnoreCase(filter.mOriginalString) == 0) {
-							// Exactly same string. so replace with filter's string.
-							if(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) {
-								strResult = "";
-							} else {
-								strResult = filter.mReplaceString;
-								mFilterIcon = filter.mIconType;
-								isFound = true;
-							}
-						}
-						break;
-					case FilterObject.MATCHING_TYPE_START_WITH:
-						if(strSrc.startsWith(filter.mOriginalString)) {
-							if(filter.mReplaceType == FilterObject.REPLACE_TYPE_SAME_PART) {
-								strResult = strResult.replaceAll(filter.mOriginalString, 
-										(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) ? "" : filter.mReplaceString );
-								mFilterIcon = filter.mIconType;
-								isFound = true;
-							} else if(filter.mReplaceType == FilterObject.REPLACE_TYPE_ALL) {
-								if(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) {
-									strResult = "";
-								} else {
-									strResult = filter.mReplaceString;
-									mFilterIcon = filter.mIconType;
-									isFound = true;
-								}
-							}
-						}
-						break;
-					case FilterObject.MATCHING_TYPE_END_WITH:
-						if(strSrc.endsWith(filter.mOriginalString)) {
-							if(filter.mReplaceType == FilterObject.REPLACE_TYPE_SAME_PART) {
-								strResult = strResult.replaceAll(filter.mOriginalString, 
-										(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) ? "" : filter.mReplaceString );
-								mFilterIcon = filter.mIconType;
-								isFound = true;
-							} else if(filter.mReplaceType == FilterObject.REPLACE_TYPE_ALL) {
-								if(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) {
-									strResult = "";
-								} else {
-									strResult = filter.mReplaceString;
-									mFilterIcon = filter.mIconType;
-									isFound = true;
-								}
-							}
-						}
-						break;
-					case FilterObject.MATCHING_TYPE_PART_OF:
-						if(strSrc.contains(filter.mOriginalString)) {
-							if(filter.mReplaceType == FilterObject.REPLACE_TYPE_SAME_PART) {
-								strResult = strResult.replaceAll(filter.mOriginalString, 
-										(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) ? "" : filter.mReplaceString );
-								mFilterIcon = filter.mIconType;
-								isFound = true;
-							} else if(filter.mReplaceType == FilterObject.REPLACE_TYPE_ALL) {
-								if(filter.mReplaceString == null || filter.mReplaceString.isEmpty()) {
-									strResult = "";
-								} else {
-									strResult = filter.mReplaceString;
-									mFilterIcon = filter.mIconType;
-									isFound = true;
-								}
-							}
-						}
-						break;
-					default:
-						break;
-					}	// End of switch(filter.mCompareType)
-				}
-				
-				// If below code is enabled, apply only 1 filter
-//				if(isFound)
-//					break;
-			}	// End of for loop
-		}
+		// Content filters are compared with strSrc, package filters with strPackage.
+		// Matched filters are applied in filter list order, every one of them.
+		FilterIndex index = mFilterIndex;
+		int[] matched = index.findMatches(filter_type, strSrc, strPackage);
+		for(int i=0; i<matched.length; i++) {
+			FilterObject filter = index.getFilter(matched[i]);
+			String strReplace = (filter.mReplaceString == null) ? "" : filter.mReplaceString;
+			
+			if(filter.mType != FilterObject.FILTER_TYPE_PACKAGE_NAME 
+					&& filter.mCompareType == FilterObject.MATCHING_TYPE_WHOLE_WORD) {
+				// Exactly same string. so replace with filter's string.
+				strResult = strReplace;
+				if(!strReplace.isEmpty())
+					mFilterIcon = filter.mIconType;
+			}
+			else if(filter.mReplaceType == FilterObject.REPLACE_TYPE_SAME_PART) {
+				// Package matching supports 'Replace all' option only
+				if(filter.mType != FilterObject.FILTER_TYPE_PACKAGE_NAME)
+					strResult = index.getPattern(matched[i]).matcher(strResult).replaceAll(strReplace);
+				mFilterIcon = filter.mIconType;
+			}
+			else if(filter.mReplaceType == FilterObject.REPLACE_TYPE_ALL) {
+				strResult = strReplace;
+				if(!strReplace.isEmpty())
+					mFilterIcon = filter.mIconType;
+			}
+		}	// End of for loop
 		
 		// Filtering completed. Check result string.
 		if(strResult == null || strResult.trim().isEmpty()) {
@@ -419,6 +268,13 @@ public class ContentManager {
 		return strResult;
 	}
 	
+	/**
+	 * Must be called whenever mFilterList is changed
+	 */
+	private void rebuildFilterIndex() {
+		mFilterIndex = new FilterIndex(mFilterList);
+	}
+	
 	private int onAccountResults(Account[] accounts) {
 		Logs.d(TAG, "received accounts: " + Arrays.toString(accounts));
 		int unreadCount = 0;
@@ -449,31 +305,11 @@ public class ContentManager {
 	}
 	
 	private void removeContentObject(int type) {
-		for(int i = mContentList.size() - 1; i > -1; i--) {
-			ContentObject obj = mContentList.get(i);
-			if(obj.mContentType == type) {
-				mContentList.remove(i);
-			}
-		}
-	}
-	
-	private void removeContentObject(int type, int id) {
-		for(int i = mContentList.size() - 1; i > -1; i--) {
-			ContentObject obj = mContentList.get(i);
-			if(obj.mContentType == type && obj.mId == id) {
-				mContentList.remove(i);
-			}
-		}
+		mContentList.removeByType(type);
 	}
 	
 	private void removeContentObject(int type, String packageName) {
-		for(int i = mContentList.size() - 1; i > -1; i--) {
-			ContentObject obj = mContentList.get(i);
-			if(obj.mContentType == type) {
-				if(obj.mPackageName != null && obj.mPackageName.contains(packageName))
-					mContentList.remove(i);
-			}
-		}
+		mContentList.removeByPackage(type, packageName);
 	}
 	
 	private void removeContentObject(int type, String packageName, ArrayList<ContentObject> arrayList) {
@@ -492,6 +328,171 @@ public class ContentManager {
 		mFeedManager.deleteCachedFeed(type);
 	}
 	
+	/**
+	 * Send changes of content list to listener
+	 */
+	private void notifyContentChanged() {
+		ContentDelta delta = mContentList.takeDelta();
+		if(delta.isEmpty())
+			return;
+		mContentManagerListener.OnContentCallback(IContentManagerListener.CALLBACK_CONTENT_CHANGED, 
+				delta.mAdded.size(), delta.mRemoved.size(), null, null, delta);
+	}
+	
+	/**
+	 * Put filtering result of a source object into content list.
+	 * @param current		listed content of the source. null if not listed.
+	 * @param filtered		new filtering result. null if filtered out.
+	 * @return		listed content after update
+	 */
+	private ContentObject spliceContent(ContentObject current, ContentObject filtered) {
+		if(filtered == null) {
+			if(current != null)
+				mContentList.remove(current);
+			return null;
+		}
+		if(current == null) {
+			mContentList.add(filtered);
+			return filtered;
+		}
+		// Keep listed instance. Copy filtering result only.
+		if(!isSameString(current.mFilteredString, filtered.mFilteredString)
+				|| current.mIconType != filtered.mIconType
+				|| current.mIsEnabled != filtered.mIsEnabled) {
+			current.mFilteredString = filtered.mFilteredString;
+			current.mIconType = filtered.mIconType;
+			current.mIsEnabled = filtered.mIsEnabled;
+			mContentList.setChanged(current);
+		}
+		return current;
+	}
+	
+	/**
+	 * Apply filters to messaging or emergency object again and update content list
+	 */
+	private void refilterStatusObject(ContentObject obj, int filterType) {
+		String prevString = obj.mFilteredString;
+		int prevIcon = obj.mIconType;
+		boolean prevEnabled = obj.mIsEnabled;
+		
+		boolean isVisible = (filterType == FilterObject.FILTER_TYPE_MESSAGING) 
+				? filterMessagingObject(obj) : filterEmergencyObject(obj);
+		boolean isListed = mContentList.contains(obj);
+		
+		if(!isVisible) {
+			if(isListed)
+				mContentList.remove(obj);
+		} else if(!isListed) {
+			mContentList.add(obj);
+		} else if(!isSameString(prevString, obj.mFilteredString)
+				|| prevIcon != obj.mIconType || prevEnabled != obj.mIsEnabled) {
+			mContentList.setChanged(obj);
+		}
+	}
+	
+	/**
+	 * @return	false if object is filtered out
+	 */
+	private boolean filterMessagingObject(ContentObject obj) {
+		obj.mFilteredString = applyFilters(FilterObject.FILTER_TYPE_MESSAGING, obj.mOriginalString, obj.mPackageName);
+		
+		if(mFilterIcon < 0) {
+			// This case means no filter applied
+			obj.mIsEnabled = false;
+		} else {
+			obj.mIsEnabled = true;		// Enable this object (will be shown on watch)
+			obj.mIconType = mFilterIcon;
+		}
+		
+		if(obj.mContentType == ContentObject.MESSAGING_ID_BATT_STATE && mBatteryGauge < WARNING_BATTERY_LEVEL) {
+			obj.mIsEnabled = true;		// Enable this object (will be shown on watch)
+			obj.mIconType = ContentObject.ICON_TYPE_BATT_LOW;
+		}
+		return !(obj.mFilteredString == null || obj.mFilteredString.isEmpty());
+	}
+	
+	/**
+	 * @return	false if object is filtered out
+	 */
+	private boolean filterEmergencyObject(ContentObject obj) {
+		obj.mFilteredString = applyFilters(FilterObject.FILTER_TYPE_EMERGENCY, obj.mOriginalString, obj.mPackageName);
+		
+		if(obj.mFilteredString == null || obj.mFilteredString.isEmpty())
+			return false;
+		
+		if(mFilterIcon < 0) {
+			// This case means no filter applied
+			if(obj.mContentType == ContentObject.MESSAGING_ID_BATT_STATE) {
+				obj.mIsEnabled = false;
+			}
+		} else {
+			obj.mIsEnabled = true;		// Enable this object (will be shown on watch)
+			obj.mIconType = mFilterIcon;
+		}
+		return true;
+	}
+	
+	/**
+	 * Sync feed contents with cached feed list of FeedManager.
+	 * @param refilter		apply filters to every feed again. If false, only new feeds are filtered.
+	 * @return		listed feed contents
+	 */
+	private ArrayList<ContentObject> updateFeedContents(boolean refilter) {
+		ArrayList<ContentObject> array = null;
+		IdentityHashMap<FeedObject, ContentObject> feedContents = new IdentityHashMap<FeedObject, ContentObject>();
+		final ArrayList<FeedObject> feedList = mFeedManager.getFeedList();
+		if(feedList != null) {
+			array = new ArrayList<ContentObject>();
+			
+			for(FeedObject feed : feedList) {
+				boolean isCached = mFeedContents.containsKey(feed);
+				ContentObject content = mFeedContents.remove(feed);
+				if(!isCached || refilter)
+					content = spliceContent(content, applyFilters(feed));
+				if(content == null)
+					continue;
+				feedContents.put(feed, content);
+				array.add(content);
+			}
+		}
+		
+		// Feeds which are not in the feed list anymore
+		for(ContentObject content : mFeedContents.values())
+			mContentList.remove(content);
+		mFeedContents = feedContents;
+		return array;
+	}
+	
+	/**
+	 * Apply changed filters to every cached object
+	 */
+	private void refilterContents() {
+		for(NotificationObject noti : mNotificationList) {
+			ContentObject content = spliceContent(mNotificationContents.get(noti), applyFilters(noti));
+			if(content == null)
+				mNotificationContents.remove(noti);
+			else
+				mNotificationContents.put(noti, content);
+		}
+		for(ContentObject obj : mMessagingList)
+			refilterStatusObject(obj, FilterObject.FILTER_TYPE_MESSAGING);
+		for(ContentObject obj : mEmergencyList)
+			refilterStatusObject(obj, FilterObject.FILTER_TYPE_EMERGENCY);
+		updateFeedContents(true);
+	}
+	
+	private void onFiltersChanged() {
+		rebuildFilterIndex();
+		refilterContents();
+		notifyContentChanged();
+	}
+	
+	private boolean isSameString(String str1, String str2) {
+		if(str1 == null)
+			return (str2 == null);
+		return str1.equals(str2);
+	}
+	
 	
 	
 	
@@ -502,7 +503,19 @@ public class ContentManager {
 	 ******************************************************/
 	
 	public synchronized ArrayList<ContentObject> getContentObjectList() {
-		return mContentList;
+		return mContentList.getList();
+	}
+	
+	/**
+	 * @return	copy of enabled contents (will be shown on watch) in content list order
+	 */
+	public synchronized ArrayList<ContentObject> getEnabledContentObjectList() {
+		ArrayList<ContentObject> list = new ArrayList<ContentObject>();
+		for(ContentObject obj : mContentList.getList()) {
+			if(obj.mIsEnabled)
+				list.add(obj);
+		}
+		return list;
 	}
 	
 	public synchronized ArrayList<FeedObject> getFeedObjectList() {
@@ -517,91 +530,30 @@ public class ContentManager {
 		return mFeedManager.getContentProviderList();
 	}
 	
+	/**
+	 * Contents are filtered when they are added or when filters are changed.
+	 * So this method doesn't filter again. Only Gmail and WiFi status are queried (not so often).
+	 * @return	copy of content list
+	 */
 	public synchronized ArrayList<ContentObject> refreshContentObjectList() {
-		mContentList.clear();
-		
-		// Add notifications
-		if(mNotificationList != null && mNotificationList.size() > 0) {
-			for(NotificationObject noti : mNotificationList) {
-				ContentObject content = applyFilters(noti);
-				if(content == null)
-					continue;
-				mContentList.add(content);
-			}
-		}
-		
-		// Refresh messaging list
-		if(mMessagingList != null && mMessagingList.size() > 0) {
-			for(ContentObject obj : mMessagingList) {
-				obj.mFilteredString = applyFilters(FilterObject.FILTER_TYPE_MESSAGING, obj.mOriginalString, obj.mPackageName);
-				
-				if(mFilterIcon < 0) {
-					// This case means no filter applied
-					obj.mIsEnabled = false;
-				} else {
-					obj.mIsEnabled = true;		// Enable this object (will be shown on watch)
-					obj.mIconType = mFilterIcon;
-				}
-				
-				if(obj.mContentType == ContentObject.MESSAGING_ID_BATT_STATE && mBatteryGauge < WARNING_BATTERY_LEVEL) {
-					obj.mIsEnabled = true;		// Enable this object (will be shown on watch)
-					obj.mIconType = ContentObject.ICON_TYPE_BATT_LOW;
-				}
-				if(obj.mFilteredString == null || obj.mFilteredString.isEmpty())
-					continue;
-				mContentList.add(obj);
-			}
-		}
-		
-		// Refresh emergency list
-		if(mEmergencyList != null && mEmergencyList.size() > 0) {
-			for(ContentObject obj : mEmergencyList) {
-				obj.mFilteredString = applyFilters(FilterObject.FILTER_TYPE_EMERGENCY, obj.mOriginalString, obj.mPackageName);
-				
-				if(obj.mFilteredString == null || obj.mFilteredString.isEmpty())
-					continue;
-				
-				if(mFilterIcon < 0) {
-					// This case means no filter applied
-					if(obj.mContentType == ContentObject.MESSAGING_ID_BATT_STATE) {
-						obj.mIsEnabled = false;
-					}
-				} else {
-					obj.mIsEnabled = true;		// Enable this object (will be shown on watch)
-					obj.mIconType = mFilterIcon;
-				}
-
-				mContentList.add(obj);
-			}
+		long current = System.currentTimeMillis();
+		if(current - mLastStatusQueryTime > STATUS_QUERY_INTERVAL) {
+			mLastStatusQueryTime = current;
+			
+			// Get gmail unread count. This method makes asynchronous call.
+			// Result should be handled in addGmailToContentList()
+			queryGmailLabels();
+			
+			// Query WiFi status
+			queryWiFiStatus();
 		}
 		
-		// Refresh feed list
-		refreshFeedList();
-		
-		// Get gmail unread count. This method makes asynchronous call.
-		// Result should be handled in addGmailToContentList()
-		queryGmailLabels();
-		
-		// Query WiFi status
-		queryWiFiStatus();
-		
-		return mContentList;
+		return new ArrayList<ContentObject>(mContentList.getList());
 	}
 	
-	public ArrayList<ContentObject> refreshFeedList() {
-		ArrayList<ContentObject> array = null;
-		final ArrayList<FeedObject> feedList = mFeedManager.getFeedList();
-		if(feedList != null) {
-			array = new ArrayList<ContentObject>();
-			
-			for(FeedObject feed : feedList) {
-				ContentObject content = applyFilters(feed);
-				if(content == null)
-					continue;
-				mContentList.add(content);
-				array.add(content);
-			}
-		}
+	public synchronized ArrayList<ContentObject> refreshFeedList() {
+		ArrayList<ContentObject> array = updateFeedContents(false);
+		notifyContentChanged();
 		return array;
 	}
 	
@@ -647,6 +599,7 @@ public class ContentManager {
 			mContentList.add(obj);
 			mMessagingList.add(obj);
 		}
+		notifyContentChanged();
 	}
 	
 	public int getWiFiStatus() {
@@ -721,6 +674,8 @@ public class ContentManager {
 			mMessagingList.add(obj);
 		}
 		
+		notifyContentChanged();
+		
 		// This method runs in asynchronous mode
 		// So we have to notify to callback
 		mContentManagerListener.OnContentCallback(IContentManagerListener.CALLBACK_GMAIL_UPDATED, 0, 0, null, null, obj);
@@ -757,6 +712,7 @@ public class ContentManager {
 				mMessagingList.add(obj);
 			}
 		}
+		notifyContentChanged();
 		return obj;
 	}
 	
@@ -769,8 +725,10 @@ public class ContentManager {
 		removeContentObject(ContentObject.CONTENT_TYPE_EMERGENCY, 
 				ContentObject.TELEPHONY_CALL_PACKAGE_NAME, mEmergencyList);	// Remove from emergency list
 		
-		if(state == EmergencyObject.CALL_STATE_IDLE)	// In idle state, do not add call contents
+		if(state == EmergencyObject.CALL_STATE_IDLE) {	// In idle state, do not add call contents
+			notifyContentChanged();
 			return null;
+		}
 		
 		String strResult = applyFilters(FilterObject.FILTER_TYPE_EMERGENCY, 
 				Utils.getCallTypeString(state),		// Default message string
@@ -793,6 +751,7 @@ public class ContentManager {
 			mContentList.add(obj);
 			mEmergencyList.add(obj);
 		}
+		notifyContentChanged();
 		return obj;
 	}
 	
@@ -846,6 +805,7 @@ public class ContentManager {
 			mContentList.add(obj);
 			mMessagingList.add(obj);
 		}
+		notifyContentChanged();
 		return obj;
 	}
 	
@@ -860,8 +820,10 @@ public class ContentManager {
 		removeContentObject(ContentObject.CONTENT_TYPE_EMERGENCY, 
 				ContentObject.TELEPHONY_RF_PACKAGE_NAME, mEmergencyList);	// Remove from emergency list
 		
-		if(state == EmergencyObject.RF_STATE_IN_SERVICE)	// In service state, do not add RF contents
+		if(state == EmergencyObject.RF_STATE_IN_SERVICE) {	// In service state, do not add RF contents
+			notifyContentChanged();
 			return null;
+		}
 		
 		String strResult = applyFilters(FilterObject.FILTER_TYPE_EMERGENCY, 
 				Utils.getRFTypeString(state),		// Default message string
@@ -883,6 +845,7 @@ public class ContentManager {
 			mContentList.add(obj);
 			mEmergencyList.add(obj);
 		}
+		notifyContentChanged();
 		return obj;
 	}
 	
@@ -903,6 +866,8 @@ public class ContentManager {
 			return null;
 
 		mContentList.add(content);
+		mNotificationContents.put(noti, content);
+		notifyContentChanged();
 		return content;
 	}
 	
@@ -911,14 +876,19 @@ public class ContentManager {
 			NotificationObject noti = mNotificationList.get(i);
 			if(noti.mId == id) {
 				mNotificationList.remove(i);
-				removeContentObject(ContentObject.CONTENT_TYPE_NOTIFICATION, id);
+				ContentObject content = mNotificationContents.remove(noti);
+				if(content != null)
+					mContentList.remove(content);
 			}
 		}
+		notifyContentChanged();
 	}
 	
 	public synchronized void clearAllNotifications() {
 		mNotificationList.clear();
+		mNotificationContents.clear();
 		removeContentObject(ContentObject.CONTENT_TYPE_NOTIFICATION);
+		notifyContentChanged();
 	}
 	
 	public synchronized int addCPObject(CPObject cpo) {
@@ -942,6 +912,8 @@ public class ContentManager {
 		
 		deleteCachedFeed(cp_id);
 		mFeedManager.deleteContentProvider(cp_id, true);
+		updateFeedContents(false);		// Remove feed contents of deleted content provider
+		notifyContentChanged();
 		return cp_id;
 	}
 	
@@ -958,6 +930,7 @@ public class ContentManager {
 			long id = mDB.insertFilter(filter);
 			filter.mId = (int)id;
 			mFilterList.add(filter);
+			onFiltersChanged();
 		} catch(Exception e) {
 			e.printStackTrace();
 		}
@@ -979,6 +952,7 @@ public class ContentManager {
 				if(object.mId == filter.mId)
 					filter.copyTo(object);
 			}
+			onFiltersChanged();
 		}
 
 		return filter.mId;
@@ -995,6 +969,7 @@ public class ContentManager {
 				mFilterList.remove(i);
 			}
 		}
+		onFiltersChanged();
 		
 		// remove from DB
 		try {
@@ -1019,6 +994,7 @@ public class ContentManager {
 				deletedCount++;
 			}
 		}
+		onFiltersChanged();
 		
 		// remove from DB
 		try {
@@ -1039,8 +1015,9 @@ public class ContentManager {
 				int resultCode = arg1;
 				
 				if(resultCode == FeedManager.PARSING_RESULT_OK) {
-					// notify to callback
-					mContentManagerListener.OnContentCallback(IContentManagerListener.CALLBACK_FEED_UPDATED, type, 0, null, null, null);
+					// notify to callback. arg4 has new or changed items only.
+					int changedCount = (arg4 == null ? 0 : ((ArrayList<?>) arg4).size());
+					mContentManagerListener.OnContentCallback(IContentManagerListener.CALLBACK_FEED_UPDATED, type, changedCount, null, null, null);
 				}
 				break;
 				
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.contents;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import com.hardcopy.retrowatch.contents.objects.FeedObject;
+
+/**
+ * Memory tier of feed cache. SQLite keeps every item of current feeds,
+ * this keeps the newest capacity (CPObject.mCachingCount) items of each content provider.
+ * Evicted items are still in DB. Use FeedManager.makeContentsFromDB() to read them.
+ */
+public class FeedCache {
+	
+	public static final int DEFAULT_CAPACITY = 20;
+	
+	// Items of each provider in feed order : the oldest comes first
+	private final LinkedHashMap<Integer, LinkedHashMap<String, FeedObject>> mProviders 
+			= new LinkedHashMap<Integer, LinkedHashMap<String, FeedObject>>();
+	private volatile ArrayList<FeedObject> mSnapshot = new ArrayList<FeedObject>();
+	
+	
+	/*****************************************************
+	 *		Public methods
+	 ******************************************************/
+	
+	/**
+	 * Replace cached items of a content provider with the newest items of latest feed.
+	 * Items not in feed anymore are removed. Items beyond capacity are not kept.
+	 * @param feedList		items of feed. First one is the newest.
+	 * @param capacity		max items to keep. 0 or less means DEFAULT_CAPACITY
+	 * @return			number of feed items which are not kept
+	 */
+	public synchronized int merge(int type, ArrayList<FeedObject> feedList, int capacity) {
+		if(capacity < 1)
+			capacity = DEFAULT_CAPACITY;
+		
+		// Newest first. First one wins when items are duplicated.
+		HashSet<String> seen = new HashSet<String>();
+		ArrayList<FeedObject> newest = new ArrayList<FeedObject>();
+		for(FeedObject feed : feedList) {
+			if(feed.mId == null || !seen.add(feed.mId))
+				continue;
+			newest.add(feed);
+		}
+		
+		int kept = Math.min(capacity, newest.size());
+		LinkedHashMap<String, FeedObject> items = new LinkedHashMap<String, FeedObject>();
+		for(int i = kept - 1; i > -1; i--) {
+			FeedObject feed = newest.get(i);
+			items.put(feed.mId, feed);
+		}
+		mProviders.put(type, items);
+		makeSnapshot();
+		return newest.size() - kept;
+	}
+	
+	/**
+	 * Change capacity of a content provider. (CPObject.mCachingCount changed)
+	 */
+	public synchronized int trim(int type, int capacity) {
+		LinkedHashMap<String, FeedObject> items = mProviders.get(type);
+		if(items == null)
+			return 0;
+		int evicted = evict(items, capacity);
+		if(evicted > 0)
+			makeSnapshot();
+		return evicted;
+	}
+	
+	public synchronized void remove(int type) {
+		if(mProviders.remove(type) != null)
+			makeSnapshot();
+	}
+	
+	public synchronized void clear() {
+		mProviders.clear();
+		makeSnapshot();
+	}
+	
+	public synchronized int size(int type) {
+		LinkedHashMap<String, FeedObject> items = mProviders.get(type);
+		return (items == null ? 0 : items.size());
+	}
+	
+	/**
+	 * @return	Cached items of every provider. Oldest first in each provider.
+	 * 			Returned list is not changed later. Cache makes new list when it's changed.
+	 */
+	public ArrayList<FeedObject> getList() {
+		return mSnapshot;
+	}
+	
+	
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+	
+	private int evict(LinkedHashMap<String, FeedObject> items, int capacity) {
+		if(capacity < 1)
+			capacity = DEFAULT_CAPACITY;
+		int evicted = 0;
+		Iterator<FeedObject> iterator = items.values().iterator();
+		while(items.size() > capacity && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();			// The oldest one
+			evicted++;
+		}
+		return evicted;
+	}
+	
+	private void makeSnapshot() {
+		ArrayList<FeedObject> list = new ArrayList<FeedObject>();
+		for(LinkedHashMap<String, FeedObject> items : mProviders.values())
+			list.addAll(items.values());
+		mSnapshot = list;
+	}
+	
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.contents;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import com.hardcopy.retrowatch.contents.objects.CPObject;
+import com.hardcopy.retrowatch.utils.Logs;
+
+/**
+ * Schedules content provider requests by deadline (last updated time + poll interval).
+ * Several requests run at the same time up to max concurrent count,
+ * but only one request runs per host and requests to a host keep minimum interval.
+ * Content providers with same URL and parsing type share one request (single-flight) :
+ * a provider which becomes due while its URL is being fetched joins that request.
+ * Update calls within COALESCE_WINDOW are merged into one sweep.
+ * Actual request is made by IFeedFetcher.
+ */
+public class FeedFetchScheduler extends Thread {
+	
+	private static final String TAG = "FeedFetchScheduler";
+	
+	//---------- Thread status
+	public static final int THREAD_STATUS_ERROR = -1;
+	public static final int THREAD_STATUS_IDLE = 0;
+	public static final int THREAD_STATUS_UPDATING = 1;
+	public static final int THREAD_STATUS_SLEEP = 100;
+	
+	public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+	public static final long DEFAULT_HOST_INTERVAL = 1000;		// Minimum interval between requests to same host
+	public static final long MAINTENANCE_INTERVAL = 5*60*1000;	// Also max sleep time
+	public static final long FETCH_TIMEOUT = 60*1000;			// Forget request which didn't finish in this time
+	public static final long COALESCE_WINDOW = 500;				// Update calls in this time make one sweep
+	public static final long FRESH_TIME = 30*1000;				// Forced refresh skips URL fetched in this time
+	
+	// Content provider list is shared with FeedManager
+	private final ArrayList<CPObject> mCPObjectList;
+	private final IFeedFetcher mFetcher;
+	
+	private int mMaxConcurrent = DEFAULT_MAX_CONCURRENT_REQUESTS;
+	private long mHostInterval = DEFAULT_HOST_INTERVAL;
+	
+	private final Object mLock = new Object();
+	private final HashMap<String, FetchRequest> mInFlight = new HashMap<String, FetchRequest>();	// fetch key -> request
+	private final HashMap<String, Long> mHostLastRequest = new HashMap<String, Long>();		// host -> request time
+	private final HashMap<String, Long> mLastFetched = new HashMap<String, Long>();		// fetch key -> finished time
+	private final HashSet<String> mForcedKeys = new HashSet<String>();		// fetch keys to refresh regardless of deadline
+	private long mNextWakeUpTime = 0;
+	private long mSweepTime = 0;			// Coalesced sweep reserved by requestUpdateAll(). 0 if none.
+	private long mLastMaintenance = 0;
+	private long mNextToken = 1;
+	private boolean mWakeUp = false;
+	private volatile boolean mKillSign = false;
+	private volatile int mStatus = THREAD_STATUS_IDLE;
+	
+	
+	public FeedFetchScheduler(ArrayList<CPObject> cpList, IFeedFetcher fetcher) {
+		mCPObjectList = cpList;
+		mFetcher = fetcher;
+	}
+	
+	
+	/*****************************************************
+	 *		Public methods
+	 ******************************************************/
+	
+	public int getThreadStatus() {
+		return mStatus;
+	}
+	
+	public void setMaxConcurrentRequests(int count) {
+		synchronized(mLock) {
+			mMaxConcurrent = (count < 1 ? 1 : count);
+			wakeUp();
+		}
+	}
+	
+	public void setHostInterval(long interval) {
+		synchronized(mLock) {
+			mHostInterval = (interval < 0 ? 0 : interval);
+		}
+	}
+	
+	/**
+	 * Check deadlines soon. (Content provider list or TTL changed)
+	 * Calls within COALESCE_WINDOW are handled by one sweep.
+	 */
+	public void requestUpdateAll() {
+		synchronized(mLock) {
+			reserveSweep();
+		}
+	}
+	
+	/**
+	 * Refresh every content provider regardless of deadline.
+	 * URL which is being fetched or was fetched in FRESH_TIME is not requested again.
+	 */
+	public void requestRefreshAll() {
+		long now = System.currentTimeMillis();
+		synchronized(mLock) {
+			synchronized(mCPObjectList) {
+				for(CPObject cp : mCPObjectList) {
+					if(cp.mURL == null || cp.mURL.length() < 1)
+						continue;
+					String key = getFetchKey(cp);
+					Long fetched = mLastFetched.get(key);
+					if(mInFlight.containsKey(key) || (fetched != null && now - fetched < FRESH_TIME))
+						continue;
+					mForcedKeys.add(key);
+				}
+			}
+			reserveSweep();
+		}
+	}
+	
+	/**
+	 * Must be called when request made by IFeedFetcher is finished (success or fail)
+	 * Deadline of every content provider waiting this request is moved forward here,
+	 * so they are not picked again before the result is saved.
+	 * @param key		fetch key of the request. See getFetchKey()
+	 * @param token		token given by IFeedFetcher.requestFetch()
+	 * @return			IDs of content providers waiting this request, including the one which made request.
+	 * 					Every one of them should get the result.
+	 * 					Empty if the request timed out and another request with the same key took its place.
+	 */
+	public ArrayList<Integer> onFetchFinished(String key, long token) {
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		long now = System.currentTimeMillis();
+		synchronized(mLock) {
+			FetchRequest req = mInFlight.get(key);
+			if(req != null && req.mToken == token) {
+				synchronized(mCPObjectList) {
+					for(CPObject cp : mCPObjectList) {
+						if(req.mIds.contains(cp.mId))
+							cp.mLastUpdated = now;
+					}
+				}
+				mInFlight.remove(key);
+				ids.addAll(req.mIds);
+			}
+			mLastFetched.put(key, now);
+			wakeUp();
+		}
+		return ids;
+	}
+	
+	/**
+	 * Requests to the same URL with the same parsing type get the same result.
+	 */
+	public static String getFetchKey(CPObject cp) {
+		return cp.mParsingType + ":" + cp.mURL;
+	}
+	
+	/**
+	 * Stop scheduling. No request or maintenance is started after this call.
+	 * Running requests are not cancelled. (Cancel them with HttpClient)
+	 */
+	public void setKillSign(boolean is) {
+		mKillSign = is;
+		synchronized(mLock) {
+			if(is) {
+				mForcedKeys.clear();
+				mSweepTime = 0;
+			}
+			wakeUp();
+		}
+	}
+	
+	@Override
+	public void run() 
+	{
+		mLastMaintenance = System.currentTimeMillis();
+		
+		while(!mKillSign && !Thread.interrupted())
+		{
+			mStatus = THREAD_STATUS_UPDATING;
+			long now = System.currentTimeMillis();
+			
+			// 1. Pick requests which reached deadline
+			ArrayList<FetchRequest> requests = null;
+			synchronized(mLock) {
+				if(mKillSign)
+					break;
+				removeTimedOutRequests(now);
+				requests = pickDueRequests(now);
+			}
+			
+			// 2. Start requests
+			for(FetchRequest req : requests) {
+				if(mKillSign) {
+					onFetchFinished(req.mKey, req.mToken);
+					continue;
+				}
+				CPObject cp = req.mCP;
+				Logs.d(TAG, "# Fetch content provider : id="+cp.mId+", TTL="+cp.mTTL);
+				if(!mFetcher.requestFetch(cp, req.mToken)) {
+					onFetchFinished(req.mKey, req.mToken);
+				}
+			}
+			
+			if(!mKillSign && now - mLastMaintenance >= MAINTENANCE_INTERVAL) {
+				mLastMaintenance = now;
+				mFetcher.onMaintenance();
+			}
+			
+			// 3. Sleep until next deadline, reserved sweep or wake up call
+			mStatus = THREAD_STATUS_SLEEP;
+			synchronized(mLock) {
+				long maxWakeUpTime = System.currentTimeMillis() + MAINTENANCE_INTERVAL;
+				try {
+					while(!mWakeUp && !mKillSign) {
+						long wakeUpTime = Math.min(mNextWakeUpTime, maxWakeUpTime);
+						if(mSweepTime > 0 && mSweepTime < wakeUpTime)
+							wakeUpTime = mSweepTime;
+						long waitTime = wakeUpTime - System.currentTimeMillis();
+						if(waitTime <= 0)
+							break;
+						mLock.wait(waitTime);		// requestUpdateAll() notifies to recalculate wait time
+					}
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+					break;
+				}
+				mWakeUp = false;
+				mSweepTime = 0;
+			}
+		}	// End of while() loop
+		
+		mStatus = THREAD_STATUS_IDLE;
+	}	// End of run()
+	
+	
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+	
+	// Must be called in synchronized(mLock)
+	private void wakeUp() {
+		mWakeUp = true;
+		mLock.notifyAll();
+	}
+	
+	// Must be called in synchronized(mLock)
+	private void reserveSweep() {
+		if(mSweepTime == 0) {
+			mSweepTime = System.currentTimeMillis() + COALESCE_WINDOW;
+			mLock.notifyAll();
+		}
+	}
+	
+	// Must be called in synchronized(mLock)
+	private void removeTimedOutRequests(long now) {
+		ArrayList<String> expired = null;
+		for(FetchRequest req : mInFlight.values()) {
+			if(now - req.mStartTime > FETCH_TIMEOUT) {
+				if(expired == null) expired = new ArrayList<String>();
+				expired.add(req.mKey);
+			}
+		}
+		if(expired != null) {
+			for(String key : expired) {
+				Logs.d(TAG, "# Request timed out : "+key);
+				mInFlight.remove(key);
+			}
+		}
+	}
+	
+	// Must be called in synchronized(mLock)
+	private ArrayList<FetchRequest> pickDueRequests(long now) 
+	{
+		ArrayList<CPObject> dueList = new ArrayList<CPObject>();
+		ArrayList<FetchRequest> requests = new ArrayList<FetchRequest>();
+		long nextWakeUp = now + MAINTENANCE_INTERVAL;
+		
+		synchronized(mCPObjectList) {
+			for(CPObject cp : mCPObjectList) {
+				if(cp.mURL == null || cp.mURL.length() < 1)
+					continue;
+				String key = getFetchKey(cp);
+				FetchRequest inFlight = mInFlight.get(key);
+				if(inFlight != null) {
+					// Join the running request instead of making another one
+					if(!inFlight.mIds.contains(cp.mId) && (getDeadline(cp) <= now || mForcedKeys.contains(key))) {
+						Logs.d(TAG, "# Content provider "+cp.mId+" joins request of "+inFlight.mIds.get(0));
+						inFlight.mIds.add(cp.mId);
+					}
+					continue;
+				}
+				long deadline = getDeadline(cp);
+				if(deadline <= now || mForcedKeys.contains(key))
+					dueList.add(cp);
+				else if(deadline < nextWakeUp)
+					nextWakeUp = deadline;
+			}
+		}
+		
+		// Most overdue one first
+		Collections.sort(dueList, new Comparator<CPObject>() {
+			@Override
+			public int compare(CPObject lhs, CPObject rhs) {
+				long l = getDeadline(lhs);
+				long r = getDeadline(rhs);
+				return (l < r ? -1 : (l == r ? 0 : 1));
+			}
+		});
+		
+		for(CPObject cp : dueList) {
+			String key = getFetchKey(cp);
+			FetchRequest inFlight = mInFlight.get(key);
+			if(inFlight != null) {
+				inFlight.mIds.add(cp.mId);	// Same URL is picked in this sweep already
+				continue;
+			}
+			if(mInFlight.size() >= mMaxConcurrent)
+				break;					// onFetchFinished() wakes thread up
+			
+			String host = getHost(cp.mURL);
+			if(isHostBusy(host))
+				continue;				// onFetchFinished() wakes thread up
+			Long lastRequest = mHostLastRequest.get(host);
+			if(lastRequest != null && now - lastRequest < mHostInterval) {
+				if(lastRequest + mHostInterval < nextWakeUp)
+					nextWakeUp = lastRequest + mHostInterval;
+				continue;
+			}
+			
+			FetchRequest req = new FetchRequest(key, cp, host, now, mNextToken++);
+			mInFlight.put(key, req);
+			mForcedKeys.remove(key);
+			mHostLastRequest.put(host, now);
+			requests.add(req);
+		}
+		
+		mNextWakeUpTime = nextWakeUp;
+		return requests;
+	}
+	
+	private long getDeadline(CPObject cp) {
+		return PollPlanner.getDeadline(cp);
+	}
+	
+	private boolean isHostBusy(String host) {
+		for(FetchRequest req : mInFlight.values()) {
+			if(req.mHost.equals(host))
+				return true;
+		}
+		return false;
+	}
+	
+	private String getHost(String url) {
+		try {
+			String host = new URL(url).getHost();
+			if(host != null && host.length() > 0)
+				return host.toLowerCase();
+		} catch (MalformedURLException e) {}
+		return url;
+	}
+	
+	
+	/*****************************************************
+	 *		Sub classes
+	 ******************************************************/
+	
+	private static class FetchRequest {
+		public String mKey;
+		public CPObject mCP;		// Content provider which made the request
+		public ArrayList<Integer> mIds = new ArrayList<Integer>();	// First one made the request. Others joined.
+		public String mHost;
+		public long mStartTime;
+		public long mToken;		// Tells this request from a later one with the same key
+		
+		public FetchRequest(String key, CPObject cp, String host, long time, long token) {
+			mKey = key;
+			mCP = cp;
+			mIds.add(cp.mId);
+			mHost = host;
+			mStartTime = time;
+			mToken = token;
+		}
+	}
+	
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.contents;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Ingest pipeline of feed results : HTTP worker -> ingest worker -> main thread.
+ * Single ingest worker keeps DB writes and cache merge in order.
+ * Main thread only runs the notify task posted by postToMain(), and its run time is measured.
+ */
+public class FeedIngestQueue {
+	
+	public static final String INGEST_THREAD_NAME = "FeedIngest";
+	
+	private final ExecutorService mIngestExecutor;
+	private final Executor mMainExecutor;		// Handler of main looper on device
+	private volatile long mLastMainThreadTime = 0;		// in micro-second
+	
+	
+	public FeedIngestQueue(Executor mainExecutor) {
+		mMainExecutor = mainExecutor;
+		mIngestExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, INGEST_THREAD_NAME);
+			}
+		});
+	}
+	
+	
+	/*****************************************************
+	 *		Public methods
+	 ******************************************************/
+	
+	/**
+	 * Run task on ingest worker after previous tasks.
+	 * @return		false if queue is shut down. Task is dropped.
+	 */
+	public boolean submit(Runnable task) {
+		if(mIngestExecutor.isShutdown())
+			return false;
+		try {
+			mIngestExecutor.execute(task);
+		} catch(RejectedExecutionException e) {
+			return false;		// Shut down meanwhile
+		}
+		return true;
+	}
+	
+	/**
+	 * Run task on main thread. Time spent by the task is kept in getLastMainThreadTime().
+	 */
+	public void postToMain(final Runnable task) {
+		mMainExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				long startTime = System.nanoTime();
+				try {
+					task.run();
+				} finally {
+					mLastMainThreadTime = (System.nanoTime() - startTime) / 1000;
+				}
+			}
+		});
+	}
+	
+	/**
+	 * @return	Main thread time spent by the last task of postToMain(), in micro-second
+	 */
+	public long getLastMainThreadTime() {
+		return mLastMainThreadTime;
+	}
+	
+	/**
+	 * Stop taking tasks. Queued tasks still run, and lastTask runs after them.
+	 * @param lastTask		can be null
+	 */
+	public void shutdown(Runnable lastTask) {
+		if(lastTask != null)
+			submit(lastTask);
+		mIngestExecutor.shutdown();
+	}
+	
+	public boolean isShutdown() {
+		return mIngestExecutor.isShutdown();
+	}
+	
+}
@@ -16,59 +16,72 @@
 
 package com.hardcopy.retrowatch.contents;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.HashSet;
+import java.util.concurrent.Executor;
 
-import com.hardcopy.retrowatch.connectivity.HttpAsyncTask;
+import com.hardcopy.retrowatch.connectivity.HttpCall;
+import com.hardcopy.retrowatch.connectivity.HttpClient;
 import com.hardcopy.retrowatch.connectivity.HttpInterface;
-import com.hardcopy.retrowatch.connectivity.HttpListener;
+import com.hardcopy.retrowatch.connectivity.HttpRequest;
+import com.hardcopy.retrowatch.connectivity.IHttpCallback;
 import com.hardcopy.retrowatch.contents.objects.CPObject;
 import com.hardcopy.retrowatch.contents.objects.FeedObject;
 import com.hardcopy.retrowatch.database.DBHelper;
 import com.hardcopy.retrowatch.utils.Constants;
 import com.hardcopy.retrowatch.utils.Logs;
 
-import android.app.ActivityManager;
-import android.app.ActivityManager.RunningTaskInfo;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
 
 public class FeedManager {
 	
 	// Global
 	public static final String TAG = "FeedManager";
 	
-	public static final long TIME_INTERVAL_UPDATE_REQUEST = 1000;
-	public static final long REMOVE_CACHE_TIME = 2*24*60*60*1000;	// Cache data erasing time
+	public static final long REMOVE_CACHE_TIME = 2*24*60*60*1000;	// Items not in feed for this time are erased from DB
+	public static final int PRUNE_BATCH_COUNT = 100;		// Max items erased at a maintenance
 	
 	public static final int DB_QUERY_LIMIT_DEFAULT = 20;
 	
-	private long mLastFeedInitTime = 0L;
-	private long mLastUpdateRequestTime = 0L;				// To prevent duplicated update request
-
 	private ArrayList<CPObject> mCPObjectList = new ArrayList<CPObject>();
-	private ArrayList<FeedObject> mFeedList = new ArrayList<FeedObject>();
+	private FeedCache mFeedCache = new FeedCache();		// Memory tier. DB keeps every item.
 
 	
 	// Context, system
 	private Context mContext;
-	private DBHelper mDB;
-	private HttpListener mHTTPListener;		// To receive HTTP response result
+	private volatile DBHelper mDB;
+	private HttpClient mHttpClient;		// Runs feed requests in parallel
 	private IFeedListener mFeedListener;	// Send callback to		
 
 	private FeedParser mParser;
-	private DataExtractThread mThread;
+	private PollPlanner mPollPlanner;
+	private FeedFetchScheduler mScheduler;
+	
+	// Ingest pipeline : fetch and parse on HTTP worker -> persist on ingest worker -> notify on main thread.
+	private FeedIngestQueue mIngestQueue;
 	
 	
 	// Constructor
 	public FeedManager(Context c, IFeedListener l) {
 		mContext = c;
 		mFeedListener = l;
-		mHTTPListener = new HttpResponseListener();		
+		mHttpClient = new HttpClient(FeedFetchScheduler.DEFAULT_MAX_CONCURRENT_REQUESTS);
 		mParser = new FeedParser();
+		mPollPlanner = new PollPlanner();
+		final Handler mainHandler = new Handler(Looper.getMainLooper());
+		mIngestQueue = new FeedIngestQueue(new Executor() {
+			@Override
+			public void execute(Runnable r) {
+				mainHandler.post(r);
+			}
+		});
 		initialize();
 	}
 	
@@ -80,11 +93,8 @@ public class FeedManager {
 		mDB = new DBHelper(mContext);
 		mDB.openWritable();
 		
-		// 1. get last updated time
+		// 1. Check preference
 		SharedPreferences prefs = mContext.getSharedPreferences(Constants.PREFERENCE_NAME, Context.MODE_PRIVATE);
-		mLastFeedInitTime = prefs.getLong(Constants.PREFERENCE_KEY_LAST_LAST_INIT_TIME, 0);
-		
-		// 2. Check preference
 		boolean isFirstExec = prefs.getBoolean(Constants.PREFERENCE_KEY_IS_FIRST_EXEC, true);		// Is this first time?
 		if(isFirstExec) {
 			setupApplicationData();
@@ -94,41 +104,51 @@ public class FeedManager {
 			editor.commit();
 		}
 		
-		// 3. Get contents from DB (and caching it)
+		// 2. Get contents from DB (and caching it)
 		makeAllContentsFromDB();
 		
-		// 4. Start thread. 
+		// 3. Start thread. 
 		// This thread send HTTP requests periodically.
 		restartDataExtractThread();
 	}
 	
 	public void finalize() {
-		if(mDB != null) {
-			mDB.close();
-			mDB = null;
-		}
 		stopThreads();
+		if(mHttpClient != null) {
+			mHttpClient.shutdown();
+			mHttpClient = null;
+		}
+		final DBHelper db = mDB;
+		mDB = null;		// DB writes of pending ingest tasks are skipped
+		if(mIngestQueue != null) {
+			// Close DB after the running ingest task
+			mIngestQueue.shutdown(new Runnable() {
+				@Override
+				public void run() {
+					if(db != null)
+						db.close();
+				}
+			});
+			mIngestQueue = null;
+		} else if(db != null) {
+			db.close();
+		}
 	}
 	
 	public ArrayList<CPObject> getContentProviderList() {
 		return mCPObjectList;
 	}
 	
+	/**
+	 * @return	Cached items. Newest item of each content provider comes last.
+	 * 			List is not changed after return. Use this read-only.
+	 */
 	public ArrayList<FeedObject> getFeedList() {
-		return mFeedList;		// Use this read-only. Or could cause concurrent modification exception
+		return mFeedCache.getList();
 	}
 	
 	public void deleteCachedFeed(int type) {
-		synchronized(mFeedList) {
-			// Delete cached feed
-			if(mFeedList != null) {
-				for(int i = mFeedList.size() - 1; i > -1; i--) {
-					FeedObject feed = mFeedList.get(i);
-					if(feed.mType == type)
-						mFeedList.remove(i);
-				}
-			}
-		}
+		mFeedCache.remove(type);
 	}
 	
 	/**
@@ -146,8 +166,11 @@ public class FeedManager {
 			cp.mId = (int)idnum;
 		}
 
-		mCPObjectList.add(cp);
-		mThread.requestUpdateAll();
+		synchronized(mCPObjectList) {		// Scheduler thread reads this list
+			mCPObjectList.add(cp);
+		}
+		if(mScheduler != null)
+			mScheduler.requestUpdateAll();
 		return cp.mId;
 	}
 	
@@ -160,7 +183,10 @@ public class FeedManager {
 			mDB.deleteFeedWithType(cp.mId);	// Feed use Content Provider's ID as type
 		}
 
-		mCPObjectList.remove(cp);
+		synchronized(mCPObjectList) {
+			mCPObjectList.remove(cp);
+		}
+		mPollPlanner.remove(cp.mId);
 	}
 	
 	public void deleteContentProvider(int cp_id, boolean updateDB) {
@@ -171,25 +197,37 @@ public class FeedManager {
 			mDB.deleteCP(cp_id);
 			mDB.deleteFeedWithType(cp_id);	// Feed use Content Provider's ID as type
 		}
+		mPollPlanner.remove(cp_id);
 
-		for(int i=mCPObjectList.size()-1; i>-1; i--) {
-			CPObject cpo = mCPObjectList.get(i);
-			if(cpo.mId == cp_id)
-				mCPObjectList.remove(i);
-		} // End of for loop
+		synchronized(mCPObjectList) {
+			for(int i=mCPObjectList.size()-1; i>-1; i--) {
+				CPObject cpo = mCPObjectList.get(i);
+				if(cpo.mId == cp_id)
+					mCPObjectList.remove(i);
+			} // End of for loop
+		}
 	}
 	
 	public void updateContentProvider(CPObject cp, boolean updateDB) {
 		if(cp == null || mDB == null) 
 			return;
-		for(int i=mCPObjectList.size()-1; i>-1; i--) {
-			CPObject temp = mCPObjectList.get(i);
-			if(temp.mId == cp.mId) {
-				temp.softCopy(cp);					// update cache
+		boolean urlChanged = false;
+		synchronized(mCPObjectList) {
+			for(int i=mCPObjectList.size()-1; i>-1; i--) {
+				CPObject temp = mCPObjectList.get(i);
+				if(temp.mId == cp.mId) {
+					if(temp.mURL == null || !temp.mURL.equals(cp.mURL))
+						urlChanged = true;
+					temp.softCopy(cp);					// update cache
+				}
 			}
 		}
-		if(updateDB)
+		mFeedCache.trim(cp.mId, cp.mCachingCount);		// Caching count can be changed
+		if(updateDB) {
 			mDB.updateCP(cp);
+			if(urlChanged)
+				mDB.updateCacheValidator(cp.mId, null, null);		// Do not send validators of old URL
+		}
 	}
 	
 	
@@ -247,32 +285,12 @@ public class FeedManager {
 			} // End of for loop
 		} // End of if()
 		
-		
-		Cursor cursor = null; 
-		try {
-			if(mDB != null) {
-				cursor = mDB.selectFeedAll();
-				if(cursor != null) Logs.d(TAG, "# Query result count =" + cursor.getCount());
-				else Logs.d(TAG, "# Query result count = null");
-			}
-		} 
-		catch (IllegalStateException e) { e.printStackTrace(); }		// HTTP Task could access this query even though application is terminated.
-		
-		ArrayList<FeedObject> feedList = null;
-		if(cursor != null && cursor.getCount() > 0) {
-			feedList = extractFeedFromCursor(cursor);		// Convert cursor to feedList
-			cursor.close();
-		} else {
-			if( cursor != null ) cursor.close();
-		}
-		
-		synchronized(mFeedList) {
-			if(mFeedList != null && feedList != null) {
-				for(int i=feedList.size()-1; i>-1; i--) {
-					FeedObject pro = feedList.get(i);
-					mFeedList.add(pro);
-				} // End of for loop
-			} // End of if()
+		// Load only the items memory cache can hold. The others stay in DB.
+		for(CPObject cpo : mCPObjectList) {
+			int capacity = (cpo.mCachingCount < 1 ? FeedCache.DEFAULT_CAPACITY : cpo.mCachingCount);
+			ArrayList<FeedObject> feedList = makeContentsFromDB(cpo.mId, capacity);
+			if(feedList != null)
+				mFeedCache.merge(cpo.mId, feedList, capacity);
 		}
 	}	// End of makeAllContentsFromDB()
 	
@@ -282,17 +300,21 @@ public class FeedManager {
 	 */
 	public boolean forcedUpdate()
 	{
-		long current = System.currentTimeMillis();
-		if(mLastUpdateRequestTime > 0 && TIME_INTERVAL_UPDATE_REQUEST > current - mLastUpdateRequestTime) 	// Prevent duplicated request
+		if(mScheduler == null)
 			return false;
-		
-		// Set updated time as 0 to trigger update instantly
-		mLastUpdateRequestTime = current;
-		
-		reserveUpdateAll();
+		// Scheduler skips URLs being fetched or fetched recently, and merges repeated calls
+		mScheduler.requestRefreshAll();
 		return true;
 	}
 	
+	/**
+	 * @return	Main thread time spent on the last feed update (notify of changed items), in micro-second
+	 */
+	public long getLastMainThreadTime() {
+		FeedIngestQueue queue = mIngestQueue;
+		return (queue == null ? 0 : queue.getLastMainThreadTime());
+	}
+	
 	// Returns feed item count of selected content provider type
 	public int getFeedCountFromDB(int type) {
 		int result = -1;
@@ -303,27 +325,39 @@ public class FeedManager {
 	}
 	
 	public void restartDataExtractThread() {
-		if(mThread == null)	{
-			mThread = new DataExtractThread();
-			mThread.start();
-		} else if(mThread.getThreadStatus() == DataExtractThread.THREAD_STATUS_SLEEP) {
-			mThread.requestUpdateAll();
+		if(mScheduler == null)	{
+			mScheduler = new FeedFetchScheduler(mCPObjectList, new FeedFetcher());
+			mScheduler.start();
+		} else if(mScheduler.getThreadStatus() == FeedFetchScheduler.THREAD_STATUS_SLEEP) {
+			mScheduler.requestUpdateAll();
 		}
 	}
 	
 	public void reserveUpdateAll() 
 	{
-		mThread.requestUpdateAll();
+		if(mScheduler != null)
+			mScheduler.requestUpdateAll();
+	}
+	
+	/**
+	 * Set how many content providers can be requested at the same time
+	 */
+	public void setMaxConcurrentRequests(int count) 
+	{
+		if(mScheduler != null)
+			mScheduler.setMaxConcurrentRequests(count);
+		if(mHttpClient != null)
+			mHttpClient.setPoolSize(count);
 	}
 	
 	public void stopThreads() 
 	{
-		if(mThread != null) {
-			mThread.setKillSign(true);
-			if(mThread.isAlive()) {
-				mThread.interrupt();
+		if(mScheduler != null) {
+			mScheduler.setKillSign(true);
+			if(mScheduler.isAlive()) {
+				mScheduler.interrupt();
 			}
-			mThread = null;
+			mScheduler = null;
 		}
 	}
 	
@@ -332,12 +366,6 @@ public class FeedManager {
 	 *		Private methods
 	 ******************************************************/
 	
-	private void addFeed(FeedObject feed) {
-		synchronized(mFeedList) {
-			mFeedList.add(feed);
-		}
-	}
-	
 	private void setUpdateStatus(boolean clearPrevAndMergeCount, int type, int parsingType, int count, String logoUrl) 
 	{
 		//ArrayList<CPObject> objList = mSettings.getContentProviderSettings();
@@ -371,50 +399,47 @@ public class FeedManager {
 	
 	private void setUpdatedTime(int type, long time, int newItemCount, String logoUrl, boolean updateDB) 
 	{
-		for(CPObject cp : mCPObjectList) {
-			if(cp.mId == type) {
-				cp.mLastUpdated = time;
-				cp.mNewItemCount = newItemCount;
+		synchronized(mCPObjectList) {		// Called on scheduler thread and ingest worker
+			for(CPObject cp : mCPObjectList) {
+				if(cp.mId == type) {
+					cp.mLastUpdated = time;
+					cp.mNewItemCount = newItemCount;
+				}
 			}
 		}
 		
-		if(updateDB && mDB != null) {
-			mDB.updateLastUpdatedTime(type, time, newItemCount);
+		DBHelper db = mDB;
+		if(updateDB && db != null) {
+			db.updateLastUpdatedTime(type, time, newItemCount);
 		}
 	}	// End of setUpdateStatus()
 	
-	private void removeOldData() 
+	/**
+	 * Erase items which were not in feed for REMOVE_CACHE_TIME. (Deleted or disabled content provider, dead feed)
+	 * Erases PRUNE_BATCH_COUNT items at most. The rest is erased at next maintenance.
+	 */
+	private void pruneOldData() 
 	{
-		long current = System.currentTimeMillis();
-		if(current - mLastFeedInitTime > REMOVE_CACHE_TIME) {
-			if(current - mLastFeedInitTime < REMOVE_CACHE_TIME * 2) {
-				// Do not erase DB when activity is running
-				ActivityManager activityManager = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
-				List<RunningTaskInfo> info = activityManager.getRunningTasks(20);
-				
-				for (Iterator<RunningTaskInfo> iterator = info.iterator(); iterator.hasNext();) {
-					RunningTaskInfo runningTaskInfo = (RunningTaskInfo) iterator.next();
-					String pkgName = runningTaskInfo.topActivity.getPackageName();
-					String className = runningTaskInfo.topActivity.getClassName();
-					if( pkgName.equals("com.tortuga.hotclip") && className.equals("com.tortuga.hotclip.HotClipMain") ) {
-						return;
+		DBHelper db = mDB;
+		if(db == null) return;
+		
+		long cutoff = (System.currentTimeMillis() - REMOVE_CACHE_TIME) / 1000;
+		HashSet<Integer> prunedTypes = new HashSet<Integer>();
+		if(db.deleteFeedOlderThan(cutoff, PRUNE_BATCH_COUNT, prunedTypes) < 1)
+			return;
+		
+		for(Integer type : prunedTypes) {
+			// Saved items are gone. Next request must download full contents.
+			db.updateCacheValidator(type, null, null);
+			synchronized(mCPObjectList) {
+				for(CPObject cp : mCPObjectList) {
+					if(cp.mId == type) {
+						cp.mETag = null;
+						cp.mLastModified = null;
 					}
 				}
 			}
-			
-			if(mDB == null) return;
-			
-			// 1. Erase DB
-			mDB.deleteFeedAll();
-			// 2. Erase image files
-			// Utils.initFileDirectory();
-			// 3. Set updated time as 0 to trigger update
-			mLastFeedInitTime = current;
-			
-			SharedPreferences prefs = mContext.getSharedPreferences(Constants.PREFERENCE_NAME, Context.MODE_PRIVATE);
-			SharedPreferences.Editor editor = prefs.edit();
-			editor.putLong(Constants.PREFERENCE_KEY_LAST_LAST_INIT_TIME, mLastFeedInitTime);
-			editor.commit();
+			mFeedCache.remove(type);
 		}
 	}
 	
@@ -452,7 +477,10 @@ public class FeedManager {
 			obj.mSystemProperty = cursor.getInt(DBHelper.INDEX_CP_SYS_PROP);
 			obj.mShowInWidget = ( cursor.getInt(DBHelper.INDEX_CP_WIDGET_ITEM) == 0 ? false : true );
 			obj.mNewItemCount = cursor.getInt(DBHelper.INDEX_CP_ARG0);		// New item count
+			obj.mPollInterval = cursor.getInt(DBHelper.INDEX_CP_ARG1);		// Poll interval
 			obj.mLogoImage = cursor.getString(DBHelper.INDEX_CP_ARG2);		// Logo image
+			obj.mETag = cursor.getString(DBHelper.INDEX_CP_ETAG);
+			obj.mLastModified = cursor.getString(DBHelper.INDEX_CP_LAST_MODIFIED);
 			
 			cpList.add(obj);
 			cursor.moveToNext();
@@ -530,235 +558,262 @@ public class FeedManager {
 	public static final int PARSING_RESULT_NO_NEW_ITEM = -4;
 	public static final int PARSING_RESULT_CANNOT_FIND_SETTING = -5;
 	
-	class HttpResponseListener implements HttpListener 
+	/**
+	 * Callback of a feed request. Parses the body on HTTP worker and hands the result to ingest worker.
+	 */
+	class FeedResponseCallback implements IHttpCallback<ArrayList<FeedObject>> 
 	{
+		private final int mType;		// ID of content provider which made request
+		private final String mFetchKey;	// Other content providers with same key get the same result
+		private final long mToken;		// Given by FeedFetchScheduler
+		
+		public FeedResponseCallback(CPObject cp, long token) {
+			mType = cp.mId;
+			mFetchKey = FeedFetchScheduler.getFetchKey(cp);
+			mToken = token;
+		}
+		
 		@Override
-		public void OnReceiveHttpResponse(int type, String strResult, int resultCode) 
+		public ArrayList<FeedObject> OnReceiveHttpStream(InputStream in, String charset) throws IOException 
 		{
-			int resultCodeToUI = PARSING_RESULT_OK;
+			// This code runs on worker thread. Parse body while it's being downloaded.
+			CPObject cp_obj = findContentProvider(mType);
+			if(cp_obj == null) {
+				Logs.d(TAG, "###### Cannot find Content Provider object...");
+				return null;
+			}
 			
-			if(strResult != null && strResult.length() > 0 
-					&& resultCode == HttpInterface.MSG_HTTP_RESULT_CODE_OK){
-				// 1. Get content provider setting
-				CPObject cp_obj = null;
-				for(CPObject cp : mCPObjectList) {
-					if(cp.mId == type)
-						cp_obj = cp;
+			final ArrayList<FeedObject> feedList = new ArrayList<FeedObject>();
+			int count = mParser.parseStream(cp_obj, in, charset, new IFeedParserListener() {
+				@Override
+				public boolean OnFeedParsed(FeedObject feed) {
+					feedList.add(feed);
+					return true;
 				}
-				
-				if(cp_obj == null) {
-					resultCodeToUI = PARSING_RESULT_CANNOT_FIND_SETTING;
-					Logs.d(TAG, "###### Cannot find Content Provider object...");
-				} else {
-					// 2. parse result string
-					ArrayList<FeedObject> feedList = mParser.parseResultString(cp_obj, strResult);
-						
-					if(feedList != null && feedList.size() > 0) 
-					{
-						try {
-							if(mDB != null) {
-								// 3. Delete previous and insert contents to DB
-								mDB.deleteFeedWithType( type );
-								mDB.insertBulkItems( feedList );
-								
-								synchronized(mFeedList) {
-									// 4. Delete previous cached
-//									for(FeedObject _feed: mFeedList) {
-//										if(_feed.mType == cp_obj.mId) {
-//											mFeedList.remove(_feed);
-//										}
-//									}
-									deleteCachedFeed(type);
-									
-									// 5. Update status
-									setUpdateStatus(true, type, cp_obj.mParsingType, feedList.size(), cp_obj.mLogoImage);
-									
-									// 6. Add new items to cache
-									mFeedList.addAll(feedList);
-								}
-								
-								// 9. Send message to callback
-								resultCodeToUI = PARSING_RESULT_OK;
-								mFeedListener.OnFeedCallback(IFeedListener.MSG_FEED_UPDATED, type, PARSING_RESULT_OK, null, null, feedList);
-							}
-							else {
-								Logs.d(TAG, "###### DBHelper is null...");
-								resultCodeToUI = PARSING_RESULT_INSERT_DB_ERROR;
-							}
-
-						} catch (Exception e) {
-							e.printStackTrace(); 
-							resultCodeToUI = PARSING_RESULT_INSERT_DB_ERROR; 
+			});
+			
+			if(count < 0)
+				return null;
+			return feedList;
+		}
+		
+		@Override
+		public void OnHttpResult(final HttpCall<ArrayList<FeedObject>> call) 
+		{
+			// This code runs on HTTP worker thread. Hand off to ingest worker.
+			final ArrayList<Integer> ids;
+			FeedFetchScheduler scheduler = mScheduler;
+			if(scheduler != null) {
+				ids = scheduler.onFetchFinished(mFetchKey, mToken);
+			} else {
+				ids = new ArrayList<Integer>();
+			}
+			if(!ids.contains(mType))
+				ids.add(0, mType);
+			if(call.getResultCode() == HttpInterface.MSG_HTTP_RESULT_CODE_CANCELLED)
+				return;
+			
+			submitIngest(new Runnable() {
+				@Override
+				public void run() {
+					ArrayList<FeedObject> result = call.getResult();
+					for(Integer id : ids) {
+						if(id == mType) {
+							ingestFeeds(mType, result, call.getResultCode(), call.getETag(), call.getLastModified());
+							continue;
 						}
-					}
-					else {
-						Logs.d(TAG, "###### Cannot parse result...");
-						resultCodeToUI = PARSING_RESULT_PARSING_ERROR; 
+						// Content provider which joined this request. Scheduler moved its deadline already.
+						CPObject cp = findContentProvider(id);
+						if(cp == null)
+							continue;
+						if(call.getResultCode() == HttpInterface.MSG_HTTP_RESULT_CODE_NOT_MODIFIED
+								&& !(isSameString(cp.mETag, call.getRequest().getETag()) 
+										&& isSameString(cp.mLastModified, call.getRequest().getLastModified()))) {
+							// 304 is about the cached copy of requester. This one is fetched again with its own validators.
+							setUpdatedTime(id, 0L, cp.mNewItemCount, cp.mLogoImage, false);
+							FeedFetchScheduler retry = mScheduler;
+							if(retry != null)
+								retry.requestUpdateAll();
+							continue;
+						}
+						ArrayList<FeedObject> copied = null;
+						if(result != null) {
+							copied = new ArrayList<FeedObject>(result.size());
+							for(FeedObject feed : result)
+								copied.add(feed.copy(id));
+						}
+						ingestFeeds(id, copied, call.getResultCode(), call.getETag(), call.getLastModified());
 					}
 				}
+			});
+		}
+		
+		private boolean isSameString(String a, String b) {
+			return (a == null ? b == null : a.equals(b));
+		}
+		
+		/**
+		 * Persist parsed items and update poll plan. Runs on ingest worker.
+		 */
+		private void ingestFeeds(int type, ArrayList<FeedObject> result, int resultCode, 
+				String etag, String lastModified) 
+		{
+			DBHelper db = mDB;		// Can be closed by finalize() meanwhile
+			CPObject cp_obj = findContentProvider(type);
+			if(cp_obj == null) {
+				Logs.d(TAG, "###### Cannot find Content Provider object...");
+				return;
+			}
+			
+			if(resultCode == HttpInterface.MSG_HTTP_RESULT_CODE_NOT_MODIFIED) {
+				// Cached items are still valid. Nothing to parse. Keep them from age pruning.
+				Logs.d(TAG, "# Content provider "+type+" is not modified");
+				if(db != null)
+					db.touchFeedItems(type);
+				mPollPlanner.onNotChanged(cp_obj);
+			}
+			else if(resultCode == HttpInterface.MSG_HTTP_RESULT_CODE_OK) {
+				// Merge touches every item in feed, changed or not
+				int parsingResult = updateFeeds(type, cp_obj, result);
+				if(parsingResult == PARSING_RESULT_OK || parsingResult == PARSING_RESULT_NO_NEW_ITEM) {
+					// Keep validators only when contents are saved
+					cp_obj.mETag = etag;
+					cp_obj.mLastModified = lastModified;
+					if(db != null)
+						db.updateCacheValidator(type, etag, lastModified);
+				}
+				
+				if(parsingResult == PARSING_RESULT_OK)
+					mPollPlanner.onChanged(cp_obj, System.currentTimeMillis());
+				else if(parsingResult == PARSING_RESULT_NO_NEW_ITEM)
+					mPollPlanner.onNotChanged(cp_obj);
+				else
+					mPollPlanner.onError(cp_obj);
 			}
 			else {
-				Logs.d(TAG, "###### Result string is null. Cannot show keyword result...");
-				resultCodeToUI = PARSING_RESULT_NO_RESULT_DATA;
+				Logs.d(TAG, "###### HTTP request failed. Cannot show keyword result...");
+				mPollPlanner.onError(cp_obj);
 			}
-
-
-		}	// End of OnReceiveHttpRequestResult()
-		
-		@Override
-		public void OnReceiveFileResponse(int type, String id, String filepath, String url, int resultCode) {
-			// Disabled
+			
+			if(db != null)
+				db.updatePollInterval(type, cp_obj.mPollInterval);
 		}
 		
-	}	// End of class HPHttpListener
-	
-	
-	
-	public class DataExtractThread extends Thread {
-		//---------- Thread status
-		public static final int THREAD_STATUS_ERROR = -1;
-		public static final int THREAD_STATUS_IDLE = 0;
-		public static final int THREAD_STATUS_UPDATING = 1;
-		public static final int THREAD_STATUS_WAITING = 2;
-		public static final int THREAD_STATUS_SLEEP = 100;
-		//---------- Content refresh time
-		public static final long EXTRACT_THREAD_SLEEP_TIME = 5*60*1000;
-		public static final long REQUEST_INTERVAL_TIME = 500;	// Wait a moment after sending request
-		public static final long THREAD_WAITING_TIME_UNIT = 1000;	// Wait a moment after sending request
-		public static final int TEXT_REQUEST_MAX = 10;
-		
-		private int mStatus = THREAD_STATUS_IDLE;
-		private boolean mKillSign = false;
-		private boolean mTextRequestReceived = false;
-		private long mSleepTime = 0;
-		
-		public DataExtractThread() {
+		private void submitIngest(Runnable task) {
+			FeedIngestQueue queue = mIngestQueue;
+			if(queue == null || !queue.submit(task)) {
+				Logs.d(TAG, "###### Ingest worker is stopped. Drop result...");
+			}
 		}
-
-		@Override
-		public void run() 
+		
+		private void postFeedUpdated(final int type, final int resultCode, final ArrayList<FeedObject> changedList) 
 		{
-			while(!Thread.interrupted())
-			{
-				mStatus = THREAD_STATUS_UPDATING;
-				
-				Logs.d(TAG, "# DataExtractThread() - loop start....");
-				int tcount = getTextContents();
-				// int mcount = checkAndRequestMediaDownload();		// Disabled
-				
-				Logs.d(TAG, "# Requested "+tcount+" contents");
-
-				if(tcount > 0) {		// Images are downloading. Wait a moment and run again 
-					mStatus = THREAD_STATUS_WAITING;
-					try {
-						Thread.sleep(THREAD_WAITING_TIME_UNIT);		// To prevent excessive request, sleep here.
-						continue;
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-						return;
-					}
+			FeedIngestQueue queue = mIngestQueue;
+			if(queue == null)
+				return;
+			queue.postToMain(new Runnable() {
+				@Override
+				public void run() {
+					mFeedListener.OnFeedCallback(IFeedListener.MSG_FEED_UPDATED, type, resultCode, null, null, changedList);
 				}
-
-				mStatus = THREAD_STATUS_SLEEP;
-				while(mSleepTime < EXTRACT_THREAD_SLEEP_TIME && mTextRequestReceived == false) {
-					//Logs.d(TAG, "# DataExtractThread() - sleeping....");
-					if(mKillSign)
-						return;
-					try {
-						Thread.sleep(THREAD_WAITING_TIME_UNIT);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-						return;
-					}
-					mSleepTime+=THREAD_WAITING_TIME_UNIT;
+			});
+			Logs.d(TAG, "# Feed "+type+" updated. "+changedList.size()+" changed");
+		}
+		
+		private CPObject findContentProvider(int type) {
+			CPObject cp_obj = null;
+			synchronized(mCPObjectList) {
+				for(CPObject cp : mCPObjectList) {
+					if(cp.mId == type)
+						cp_obj = cp;
 				}
-				
-				// Delete caching file and DB, once a day
-				if(mSleepTime > EXTRACT_THREAD_SLEEP_TIME)
-					removeOldData();
-				
-				mSleepTime = 0;					// Initialize sleep time.
-				mTextRequestReceived = false;
-				
-			}	// End of while() loop
-		}	// End of run()
+			}
+			return cp_obj;
+		}
 		
-		private int getTextContents()
+		private int updateFeeds(int type, CPObject cp_obj, ArrayList<FeedObject> feedList) 
 		{
-			int count = 0;
-			long now = System.currentTimeMillis();
-			
-			Logs.d(TAG, "# ");
-			Logs.d(TAG, "# getTextContents() start....");
-
-			if(mCPObjectList == null) return count;
+			int resultCodeToUI = PARSING_RESULT_OK;
+			DBHelper db = mDB;
 			
-			for(int i=mCPObjectList.size()-1; i>-1; i--) 
+			if(feedList != null && feedList.size() > 0) 
 			{
-				CPObject obj = mCPObjectList.get(i);
-				Logs.d(TAG, "# Time interval="+((now - obj.mLastUpdated)/1000)+", TTL="+obj.mTTL);
-				Logs.d(TAG, "# ");
-				
-				if(now - obj.mLastUpdated > obj.mTTL * 1000)
-				{
-					if( requestContentsWithType(obj.mId, obj.mURL) ) {
-						setUpdatedTime(obj.mId, now, obj.mNewItemCount, obj.mLogoImage, false);		// Set update time to prevent recursive request
-						
-						try {
-							Thread.sleep(500);
-						} catch (InterruptedException e) {
-							e.printStackTrace();
-							break;
+				try {
+					if(db != null) {
+						// 3. Merge with saved items. Only new or changed items are written.
+						ArrayList<FeedObject> changedList = new ArrayList<FeedObject>();
+						int changedCount = db.mergeFeedItems( type, feedList, changedList );
+						if(changedCount < 0) {
+							Logs.d(TAG, "###### Cannot merge items to DB...");
+							return PARSING_RESULT_INSERT_DB_ERROR;
 						}
-						count++;
 						
-						if(count >= TEXT_REQUEST_MAX)		// Text request limit
-							return count;
+						// 4. Merge cached items. Items over caching count are evicted from memory only.
+						int evicted = mFeedCache.merge(type, feedList, cp_obj.mCachingCount);
+						if(evicted > 0)
+							Logs.d(TAG, "# Feed "+type+" : "+evicted+" items evicted from memory cache");
+						
+						// 5. Update status
+						setUpdateStatus(true, type, cp_obj.mParsingType, changedCount, cp_obj.mLogoImage);
+						
+						// 9. Send message to callback on main thread. Changed items only.
+						resultCodeToUI = (changedCount > 0 ? PARSING_RESULT_OK : PARSING_RESULT_NO_NEW_ITEM);
+						postFeedUpdated(type, resultCodeToUI, changedList);
+					}
+					else {
+						Logs.d(TAG, "###### DBHelper is null...");
+						resultCodeToUI = PARSING_RESULT_INSERT_DB_ERROR;
 					}
+
+				} catch (Exception e) {
+					e.printStackTrace(); 
+					resultCodeToUI = PARSING_RESULT_INSERT_DB_ERROR; 
 				}
 			}
+			else {
+				Logs.d(TAG, "###### Cannot parse result...");
+				resultCodeToUI = PARSING_RESULT_PARSING_ERROR; 
+			}
 			
-			return count;
+			return resultCodeToUI;
 		}
 		
-		private int Type = FeedObject.REQUEST_TYPE_NONE;
-		private String URL = null;
-		private boolean requestContentsWithType(int type, String requestURL)
+	}	// End of class FeedResponseCallback
+	
+	
+	
+	/**
+	 * Makes HTTP request when FeedFetchScheduler decides content provider should be refreshed
+	 */
+	class FeedFetcher implements IFeedFetcher 
+	{
+		@Override
+		public boolean requestFetch(CPObject cp, long token) 
 		{
-
-			if(requestURL == null || requestURL.length() < 1)
+			if(cp.mURL == null || cp.mURL.length() < 1)
 				return false;
 			
-			Type = type;
-			URL = requestURL;
-			Logs.d(TAG, "# HTTP Request... type = "+Type);
-			
-			HttpAsyncTask task = new HttpAsyncTask(mHTTPListener, type, requestURL, HttpInterface.REQUEST_TYPE_GET);
-			task.execute();
+			Logs.d(TAG, "# HTTP Request... type = "+cp.mId);
+			// Set update time to prevent recursive request
+			setUpdatedTime(cp.mId, System.currentTimeMillis(), cp.mNewItemCount, cp.mLogoImage, false);
 			
-			try {
-				Thread.sleep(REQUEST_INTERVAL_TIME);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}		// To prevent excessive request
+			HttpClient client = mHttpClient;
+			if(client == null)
+				return false;
 			
-			return true;
+			// Response body is parsed while downloading. Charset comes from response header.
+			HttpRequest request = new HttpRequest(cp.mURL)
+					.setCacheValidators(cp.mETag, cp.mLastModified);		// Server returns 304 if nothing changed
+			return client.enqueue(request, new FeedResponseCallback(cp, token)) != null;
 		}
 		
-		//---------- Public methods
-		public int getThreadStatus() {
-			return mStatus;
-		}
-	
-		public void requestUpdateAll(){
-			mTextRequestReceived = true;
-			mSleepTime = EXTRACT_THREAD_SLEEP_TIME;
-		}
-		
-		public void setKillSign(boolean is) {
-			mKillSign = is;
+		@Override
+		public void onMaintenance() 
+		{
+			// Erase old items in DB, a batch at a time
+			pruneOldData();
 		}
-	}	// End of class DataExtractThread
+	}	// End of class FeedFetcher
 	
 	private void setupApplicationData() 
 	{
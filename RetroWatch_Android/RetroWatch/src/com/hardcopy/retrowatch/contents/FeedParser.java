@@ -16,29 +16,27 @@
 
 package com.hardcopy.retrowatch.contents;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 import com.hardcopy.retrowatch.contents.objects.CPObject;
 import com.hardcopy.retrowatch.contents.objects.FeedObject;
 import com.hardcopy.retrowatch.utils.Logs;
 
 import android.text.Html;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
+import android.util.Xml;
 
 public class FeedParser {
 
@@ -88,6 +86,9 @@ public class FeedParser {
 	private static final String PARSING_TAG_GUID = "guid";
 	private static final String PARSING_TAG_THUMBNAIL = "thumbnail";
 	private static final String PARSING_TAG_ENCLOSURE = "enclosure";
+	private static final String PARSING_TAG_TTL = "ttl";
+	private static final String PARSING_TAG_UPDATE_PERIOD = "updatePeriod";			// sy:updatePeriod
+	private static final String PARSING_TAG_UPDATE_FREQUENCY = "updateFrequency";		// sy:updateFrequency
 	
 	private static final String PARSING_TAG_K = "K";
 	private static final String PARSING_TAG_S = "S";
@@ -121,603 +122,863 @@ public class FeedParser {
 	/*****************************************************
 	 *		Public methods
 	 ******************************************************/
-	
+
+	/**
+	 * Parse whole response string and collect results.
+	 * Kept for callers which already have the response body in memory.
+	 * @return		parsed item list or null if parsing failed
+	 */
 	public ArrayList<FeedObject> parseResultString(CPObject CpObj, String strResult)
 	{
-		if(CpObj == null) return null;
-		
+		if(CpObj == null || strResult == null) return null;
+
+		final ArrayList<FeedObject> feedList = new ArrayList<FeedObject>();
+		int count = parseStream(CpObj, new StringReader(strResult), new IFeedParserListener() {
+			@Override
+			public boolean OnFeedParsed(FeedObject feed) {
+				feedList.add(feed);
+				return true;
+			}
+		});
+
+		if(count < 0)
+			return null;
+		return feedList;
+
+	}	// End of parseResultString()
+
+	/**
+	 * Streaming parser. Reads the document with a pull parser and passes each item to listener
+	 * as soon as its closing tag (or object) is read. Only one item is kept in memory at a time.
+	 * Parsing stops when caching count is reached or listener returns false.
+	 * @param CpObj		content provider which owns the response
+	 * @param reader		decoded character stream of response body
+	 * @param listener		receives parsed items
+	 * @return		number of items passed to listener, or -1 if parsing failed
+	 */
+	public int parseStream(CPObject CpObj, Reader reader, IFeedParserListener listener)
+	{
+		if(reader == null) return -1;
+		return parseStream(CpObj, reader, null, null, listener);
+	}
+
+	/**
+	 * Streaming parser which reads raw bytes of response body.
+	 * @param in		response body
+	 * @param charset		charset from response header. If null, XML parser detects it from
+	 * 					xml declaration and JSON is read as UTF-8.
+	 * @return		number of items passed to listener, or -1 if parsing failed
+	 */
+	public int parseStream(CPObject CpObj, InputStream in, String charset, IFeedParserListener listener)
+	{
+		if(in == null) return -1;
+		return parseStream(CpObj, null, in, charset, listener);
+	}
+
+
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+
+	private int parseStream(CPObject CpObj, Reader reader, InputStream in, String charset, IFeedParserListener listener)
+	{
+		if(CpObj == null || listener == null) return -1;
+
+		int count = 0;
+
+		Logs.d(TAG, "# Parsing stream :: CP type = "+CpObj.mId+", parsing type = "+CpObj.mParsingType);
+
+		try {
+			switch(CpObj.mParsingType)
+			{
+				case FeedObject.REQUEST_TYPE_DAUM_REALTIME_KEYWORDS:
+					count = parseDaumRealtimeKeywords(CpObj, newXmlParser(reader, in, charset), listener);
+					break;
+
+				case FeedObject.REQUEST_TYPE_NAVER_REALTIME_KEYWORDS:
+					count = parseNaverRealtimeKeywords(CpObj, newXmlParser(reader, in, charset), listener);
+					break;
+
+				case FeedObject.REQUEST_TYPE_DAUM_SOCIAL_PICK:
+					count = parseDaumSocialPick(CpObj, newJsonReader(reader, in, charset), listener);
+					break;
+
+				case FeedObject.REQUEST_TYPE_TWITTER_HOTTEST:
+				case FeedObject.REQUEST_TYPE_TWITTER_REALTIME:
+				case FeedObject.REQUEST_TYPE_TWITTER_TODAY:
+				case FeedObject.REQUEST_TYPE_TWITTER_IMAGE:
+					count = parseTwitter(CpObj, newJsonReader(reader, in, charset), listener);
+					break;
+
+				case FeedObject.REQUEST_TYPE_NAVER_RELATED_KEYWORDS:
+					count = parseNaverRelatedKeywords(CpObj, newXmlParser(reader, in, charset), listener);
+					break;
+
+				case FeedObject.REQUEST_TYPE_9GAG_HOT:
+				case FeedObject.REQUEST_TYPE_9GAG_TREND:
+					count = parse9Gag(CpObj, newJsonReader(reader, in, charset), listener);
+					break;
+
+				case FeedObject.REQUEST_TYPE_NOTICE:
+					count = parseNotice(CpObj, newJsonReader(reader, in, charset), listener);
+					break;
+
+				case FeedObject.REQUEST_TYPE_RSS_DEFAULT:
+				case FeedObject.REQUEST_TYPE_RSS_FEED43:
+					count = parseRss(CpObj, newXmlParser(reader, in, charset), listener);
+					break;
+
+			}	// End of switch(type)
+
+		} catch (Exception e) {
+			Logs.d(TAG, e.getMessage()==null ? "Unknown error while parsing stream" : e.getMessage() );
+			e.printStackTrace();
+			count = -1;
+		}
+
+		return count;
+
+	}	// End of parseStream()
+
+
+	//---------- XML
+
+	private XmlPullParser newXmlParser(Reader reader, InputStream in, String charset) throws XmlPullParserException {
+		XmlPullParser parser = Xml.newPullParser();
+		// Use raw tag names. (ex: media:thumbnail)
+		parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+		if(reader != null)
+			parser.setInput(reader);
+		else
+			parser.setInput(in, charset);		// null charset : use encoding of xml declaration
+		return parser;
+	}
+
+	/**
+	 * Move to next child element of the element at parentDepth.
+	 * @return		true if parser is on a child START_TAG, false if parent element is closed
+	 */
+	private boolean nextChildElement(XmlPullParser parser, int parentDepth) throws XmlPullParserException, IOException {
+		int eventType = parser.next();
+		while(eventType != XmlPullParser.END_DOCUMENT) {
+			if(eventType == XmlPullParser.START_TAG && parser.getDepth() == parentDepth + 1)
+				return true;
+			if(eventType == XmlPullParser.END_TAG && parser.getDepth() == parentDepth)
+				return false;
+			eventType = parser.next();
+		}
+		return false;
+	}
+
+	/**
+	 * Read text of current element. Parser must be on START_TAG and stops on matching END_TAG.
+	 * Text of nested elements is ignored.
+	 */
+	private String readText(XmlPullParser parser) throws XmlPullParserException, IOException {
+		String text = null;
+		int depth = parser.getDepth();
+		int eventType = parser.next();
+		while(eventType != XmlPullParser.END_DOCUMENT) {
+			if(eventType == XmlPullParser.END_TAG && parser.getDepth() == depth)
+				break;
+			if(eventType == XmlPullParser.TEXT && parser.getDepth() == depth)
+				text = (text == null) ? parser.getText() : text + parser.getText();
+			eventType = parser.next();
+		}
+		return text;
+	}
+
+	/**
+	 * Skip current element and its children. Parser must be on START_TAG and stops on matching END_TAG.
+	 */
+	private void skipElement(XmlPullParser parser) throws XmlPullParserException, IOException {
+		int depth = parser.getDepth();
+		int eventType = parser.next();
+		while(eventType != XmlPullParser.END_DOCUMENT) {
+			if(eventType == XmlPullParser.END_TAG && parser.getDepth() == depth)
+				break;
+			eventType = parser.next();
+		}
+	}
+
+	private String readAttribute(XmlPullParser parser, String name) {
+		for(int k=0; k<parser.getAttributeCount(); k++) {
+			if(name.equalsIgnoreCase(parser.getAttributeName(k)))
+				return parser.getAttributeValue(k);
+		}
+		return null;
+	}
+
+	private int parseDaumRealtimeKeywords(CPObject CpObj, XmlPullParser parser, IFeedParserListener listener)
+			throws XmlPullParserException, IOException
+	{
 		int type = CpObj.mId;
-		ArrayList<FeedObject> feedList = new ArrayList<FeedObject>();
-		
-		Logs.d(TAG, "# Parsing string :: CP type = "+CpObj.mId+", parsing type = "+CpObj.mParsingType);
-		
-		switch(CpObj.mParsingType)
+		int itemCount = 0;
+		int parsedCount = 0;
+
+		// <realtime/>[ <word/> {<rank/><keyword/><value/><type/><linkurl/>} ]
+		int eventType = parser.getEventType();
+		while(eventType != XmlPullParser.END_DOCUMENT)
 		{
-			case FeedObject.REQUEST_TYPE_DAUM_REALTIME_KEYWORDS:
+			if(eventType == XmlPullParser.START_TAG && parser.getName().equalsIgnoreCase(PARSING_TAG_WORD))
 			{
-				try{
-					DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-					DocumentBuilder db = factory.newDocumentBuilder();
-					
-					InputSource is = new InputSource();
-					is.setCharacterStream(new StringReader(strResult));
-					
-					Document doc = db.parse(is); 
-					Element element = doc.getDocumentElement();
-
-					NodeList items = element.getElementsByTagName(PARSING_TAG_WORD);	// <realtime/>[ <word/> {<rank/><keyword/><value/><type/><linkurl/>} ]
-
-					for(int i=0 ; i < items.getLength() ; i++)
-					{
-						String link = null;
-						String keyword = null;
-						String content = null;
-						String thumbnail = null;
-						int rankType = RANK_TYPE_NONE;
-						int rankUpAndDown = 0;
-						int commentCount = 0;
-						
-						Node item = items.item(i);					// 알고 싶은 Node의 인덱스 번호를 전달한다.
-						NodeList children = item.getChildNodes();	// 자식 Node를 가져옴
-						
-						for(int j=0; j < children.getLength(); j++)
-						{
-							Node child = children.item(j);
-							String nodeName = child.getNodeName();
-							if(nodeName.equalsIgnoreCase(PARSING_TAG_KEYWORD)) {
-								String temp = child.getFirstChild().getNodeValue();
-								if(temp != null)
-									keyword = new String( temp.getBytes() );
-							}
-							else if(nodeName.equalsIgnoreCase(PARSING_TAG_LINKURL)) {
-								String temp = child.getFirstChild().getNodeValue();
-								if(temp != null)
-									link = new String( temp.getBytes(), ENCODING_TYPE_UTF_8 );
-							}
-							else if(nodeName.equalsIgnoreCase(PARSING_TAG_TYPE)) {
-								String temp = child.getFirstChild().getNodeValue();
-								if(temp != null) {
-									String temp2 = new String( temp.getBytes(), ENCODING_TYPE_UTF_8 );		// <type> value : "new" or "++"
-									if(temp2.equalsIgnoreCase(PARSING_TAG_NEW))	
-										rankType = RANK_TYPE_NEW;
-								}
-							}
-							else if(nodeName.equalsIgnoreCase(PARSING_TAG_VALUE)) {
-								try {
-									String temp = child.getFirstChild().getNodeValue();
-									if(temp != null && temp.length() > 0) {
-										String temp2 = new String( temp.getBytes(), ENCODING_TYPE_UTF_8 );	// <value> : 
-										rankUpAndDown = Integer.parseInt(temp2) / RANK_MODIFIER_DAUM_REALTIME_KEYWORD;	// TODO:
-										if( rankUpAndDown > 10 ) rankUpAndDown = 10;
-									}
-								} catch (Exception e) {}
+				String link = null;
+				String keyword = null;
+				int rankType = RANK_TYPE_NONE;
+				int rankUpAndDown = 0;
+				int commentCount = 0;
+
+				int depth = parser.getDepth();
+				while(nextChildElement(parser, depth))
+				{
+					String nodeName = parser.getName();
+					if(nodeName.equalsIgnoreCase(PARSING_TAG_KEYWORD)) {
+						keyword = readText(parser);
+					}
+					else if(nodeName.equalsIgnoreCase(PARSING_TAG_LINKURL)) {
+						link = readText(parser);
+					}
+					else if(nodeName.equalsIgnoreCase(PARSING_TAG_TYPE)) {
+						String temp = readText(parser);		// <type> value : "new" or "++"
+						if(temp != null && temp.equalsIgnoreCase(PARSING_TAG_NEW))
+							rankType = RANK_TYPE_NEW;
+					}
+					else if(nodeName.equalsIgnoreCase(PARSING_TAG_VALUE)) {
+						String temp = readText(parser);
+						try {
+							if(temp != null && temp.length() > 0) {
+								rankUpAndDown = Integer.parseInt(temp.trim()) / RANK_MODIFIER_DAUM_REALTIME_KEYWORD;	// TODO:
+								if( rankUpAndDown > 10 ) rankUpAndDown = 10;
 							}
-						}	// End of for loop
-						
-						if(keyword!=null && link!=null) 
-						{
-							String idStr = keyword;
-							FeedObject feed = new FeedObject(type, idStr, link, keyword, null, null);
-							feed.mDownloadStatus = FeedObject.CONTENT_DOWNLOAD_STATUS_INIT;
-							feed.setRankInfo(rankType, rankUpAndDown, commentCount);
-							feedList.add(feed);
-						}
-						
-						if(i >= CpObj.mCachingCount - 1) {		// Break loop if count has reached caching count
-							break;
-						}
-					}	// End of for loop
+						} catch (NumberFormatException e) {}
+					}
+					else {
+						skipElement(parser);
+					}
+				}	// End of while loop
 
-				}catch (Exception e) {
-					Logs.d(TAG, e.getMessage()==null ? "Unknown error while parsing xml" : e.getMessage() );
-					e.printStackTrace();
-					feedList = null;
+				if(keyword!=null && link!=null)
+				{
+					String idStr = keyword;
+					FeedObject feed = new FeedObject(type, idStr, link, keyword, null, null);
+					feed.mDownloadStatus = FeedObject.CONTENT_DOWNLOAD_STATUS_INIT;
+					feed.setRankInfo(rankType, rankUpAndDown, commentCount);
+					parsedCount++;
+					if(!listener.OnFeedParsed(feed))
+						break;
+				}
+
+				itemCount++;
+				if(itemCount >= CpObj.mCachingCount) {		// Break loop if count has reached caching count
+					break;
 				}
-				break;
 			}
-			
-			case FeedObject.REQUEST_TYPE_NAVER_REALTIME_KEYWORDS:
+			eventType = parser.next();
+		}	// End of while loop
+
+		return parsedCount;
+	}
+
+	private int parseNaverRealtimeKeywords(CPObject CpObj, XmlPullParser parser, IFeedParserListener listener)
+			throws XmlPullParserException, IOException
+	{
+		int type = CpObj.mId;
+		int itemCount = 0;
+		int parsedCount = 0;
+
+		// result -> item -> R1, R2... -> <K> <S> <V>
+		int eventType = parser.getEventType();
+		while(eventType != XmlPullParser.END_DOCUMENT)
+		{
+			if(eventType == XmlPullParser.START_TAG && parser.getName().equalsIgnoreCase(PARSING_TAG_ITEM))
+				break;
+			eventType = parser.next();
+		}
+		if(eventType == XmlPullParser.END_DOCUMENT)
+			return parsedCount;
+
+		int itemDepth = parser.getDepth();
+		while(nextChildElement(parser, itemDepth))		// <Rn> : 	n-th R tag
+		{
+			String keyword = null;
+			int rankType = RANK_TYPE_NONE;
+			int rankUpAndDown = 0;
+			int commentCount = 0;
+
+			int depth = parser.getDepth();
+			while(nextChildElement(parser, depth))
 			{
-				try{
-					DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-					DocumentBuilder db = factory.newDocumentBuilder();
-					
-					InputSource is = new InputSource();
-					is.setCharacterStream(new StringReader(strResult));
-					
-					Document doc = db.parse(is); 
-					Element element = doc.getDocumentElement();
-
-					NodeList temp = element.getElementsByTagName(PARSING_TAG_ITEM);		// result -> item 
-					NodeList items = temp.item(0).getChildNodes();			// List contains R1, R2...
-
-					//반복문을 돌면서 각각의 Node 읽어오기
-					for(int i=0 ; i < items.getLength() ; i++)
-					{
-						String link = null;
-						String keyword = null;
-						String content = null;
-						String thumbnail = null;
-						int rankType = RANK_TYPE_NONE;
-						int rankUpAndDown = 0;
-						int commentCount = 0;
-						
-						Node item = items.item(i);								// <Rn> : 	n-th R tag
-						NodeList children = item.getChildNodes();		// <k> <s> <v>
-						
-						for(int j=0; j < children.getLength(); j++)
-						{
-							Node child = children.item(j);
-							String nodeName = child.getNodeName();
-							if(nodeName.equalsIgnoreCase(PARSING_TAG_K)) {
-								String tempStr = child.getFirstChild().getNodeValue();
-								if(tempStr != null)
-									keyword = new String( tempStr.getBytes() );
-							}
-							else if(nodeName.equalsIgnoreCase(PARSING_TAG_V)) {
-								String tempStr = child.getFirstChild().getNodeValue();
-								rankUpAndDown = Integer.parseInt(tempStr) / RANK_MODIFIER_NAVER_REALTIME_KEYWORD;	// TODO: 
-								if( rankUpAndDown > 10 ) rankUpAndDown = 10;
-							}
-						}
-						
-						if(keyword!=null) 
-						{
-							String idStr = keyword;
-							FeedObject feed = new FeedObject(type, idStr, null, keyword, null, null);
-							feed.mDownloadStatus = FeedObject.CONTENT_DOWNLOAD_STATUS_INIT;
-							feed.setRankInfo(rankType, rankUpAndDown, commentCount);
-							feedList.add(feed);
-						}
-						
-						if(i >= CpObj.mCachingCount - 1) {		// Break loop if count has reached caching count
-							break;
+				String nodeName = parser.getName();
+				if(nodeName.equalsIgnoreCase(PARSING_TAG_K)) {
+					keyword = readText(parser);
+				}
+				else if(nodeName.equalsIgnoreCase(PARSING_TAG_V)) {
+					String temp = readText(parser);
+					try {
+						if(temp != null && temp.length() > 0) {
+							rankUpAndDown = Integer.parseInt(temp.trim()) / RANK_MODIFIER_NAVER_REALTIME_KEYWORD;	// TODO:
+							if( rankUpAndDown > 10 ) rankUpAndDown = 10;
 						}
-					}	// End of for loop
-					
-				}catch (Exception e) {
-					Logs.d(TAG, e.getMessage()==null ? "Unknown error while parsing xml" : e.getMessage() );
-					e.printStackTrace();
-					feedList = null;
+					} catch (NumberFormatException e) {}
+				}
+				else {
+					skipElement(parser);
 				}
+			}
+
+			if(keyword!=null)
+			{
+				String idStr = keyword;
+				FeedObject feed = new FeedObject(type, idStr, null, keyword, null, null);
+				feed.mDownloadStatus = FeedObject.CONTENT_DOWNLOAD_STATUS_INIT;
+				feed.setRankInfo(rankType, rankUpAndDown, commentCount);
+				parsedCount++;
+				if(!listener.OnFeedParsed(feed))
+					break;
+			}
+
+			itemCount++;
+			if(itemCount >= CpObj.mCachingCount) {		// Break loop if count has reached caching count
 				break;
 			}
-			
-			case FeedObject.REQUEST_TYPE_DAUM_SOCIAL_PICK:
+		}	// End of while loop
+
+		return parsedCount;
+	}
+
+	private int parseNaverRelatedKeywords(CPObject CpObj, XmlPullParser parser, IFeedParserListener listener)
+			throws XmlPullParserException, IOException
+	{
+		int type = CpObj.mId;
+		int itemCount = 0;
+		int parsedCount = 0;
+
+		// result -> item
+		int eventType = parser.getEventType();
+		while(eventType != XmlPullParser.END_DOCUMENT)
+		{
+			if(eventType == XmlPullParser.START_TAG && parser.getName().equalsIgnoreCase(PARSING_TAG_ITEM))
 			{
-				try {
-					JSONObject	jsonRoot = new JSONObject(strResult);		// root { 
-					JSONObject	jsonObjSocialPick = jsonRoot.getJSONObject(PARSING_TAG_SOCIALPICK);		// { socialpick :
-					JSONArray 	jsonArray = jsonObjSocialPick.getJSONArray(PARSING_TAG_ITEM);			// {item: [
-					
-					for(int i=0; i<jsonArray.length(); i++)
-					{
-						String link = null;
-						String keyword = null;
-						String content = null;
-						String thumbnail = null;
-						int rankType = RANK_TYPE_NONE;
-						int rankUpAndDown = 0;
-						int commentCount = 0;
-						
-						JSONObject obj = jsonArray.getJSONObject(i);		// {rank:1, link:"xx", keyword:"xx", content:"xx", count:30000, quotation_cnt:1345, comment_cnt:13816, rank_diff:3, category:"c" }
-						link = obj.getString(PARSING_TAG_LINK);
-						keyword = obj.getString(PARSING_TAG_KEYWORD);
-						content = obj.getString(PARSING_TAG_CONTENT);
-						commentCount = obj.getInt(PARSING_TAG_COMMENT_CNT) / RANK_MODIFIER_DAUM_SOCIALPICK;
-						commentCount = commentCount * 2;					// To encourage rank priority
-						if( commentCount > 10 ) commentCount = 10;
-						
-						if(link!=null && keyword!=null && content!=null) 
-						{
-							String idStr = keyword;
-							FeedObject feed = new FeedObject(type, idStr, link, keyword, content, null);
-							feed.mDownloadStatus = FeedObject.CONTENT_DOWNLOAD_STATUS_INIT;
-							feed.setRankInfo(rankType, rankUpAndDown, commentCount);
-							feedList.add(feed);
-						}
-						
-						if(i >= CpObj.mCachingCount - 1) {		// Break loop if count has reached caching count
-							break;
-						}
-					}	// End of for loop
-				} catch (JSONException e) {
-					Logs.d(TAG, "##### JSON Parsing stopped with error :");
-					e.printStackTrace();
-					feedList = null;
+				String keyword = readText(parser);
+				if(keyword != null && keyword.length() > 0)
+				{
+					FeedObject feed = new FeedObject(type, keyword, null, keyword, null, null);
+					parsedCount++;
+					if(!listener.OnFeedParsed(feed))
+						break;
 				}
-				break;
+
+				itemCount++;
+				if(itemCount >= CpObj.mCachingCount) {		// Break loop if count has reached caching count
+					break;
+				}
+			}
+			eventType = parser.next();
+		}	// End of while loop
+
+		return parsedCount;
+	}
+
+	private int parseRss(CPObject CpObj, XmlPullParser parser, IFeedParserListener listener)
+			throws XmlPullParserException, IOException
+	{
+		int type = CpObj.mId;
+		int itemCount = 0;
+		int parsedCount = 0;
+		boolean logoFound = false;
+		int ttl = 0;				// <ttl> in minute
+		int updatePeriod = 0;		// <sy:updatePeriod> in second
+		int updateFrequency = 1;	// <sy:updateFrequency>
+
+		// channel -> <ttl> <image> <item> <item> ...
+		int eventType = parser.getEventType();
+		while(eventType != XmlPullParser.END_DOCUMENT)
+		{
+			if(eventType != XmlPullParser.START_TAG) {
+				eventType = parser.next();
+				continue;
+			}
+
+			String tagName = parser.getName();
+			if(!logoFound && tagName.equalsIgnoreCase(PARSING_TAG_IMAGE))
+			{
+				// Extract logo image
+				logoFound = true;
+				int depth = parser.getDepth();
+				while(nextChildElement(parser, depth)) {
+					if(parser.getName().equalsIgnoreCase(PARSING_TAG_URL)) {
+						String tempStr = readText(parser);
+						if(tempStr != null && tempStr.length() > 0)
+							CpObj.mLogoImage = tempStr.trim();
+					} else {
+						skipElement(parser);
+					}
+				}
+			}
+			else if(tagName.equalsIgnoreCase(PARSING_TAG_TTL))
+			{
+				ttl = parseInt(readText(parser), 0);
+			}
+			else if(tagName.endsWith(PARSING_TAG_UPDATE_PERIOD))
+			{
+				updatePeriod = parseUpdatePeriod(readText(parser));
 			}
-			
-			case FeedObject.REQUEST_TYPE_TWITTER_HOTTEST:
-			case FeedObject.REQUEST_TYPE_TWITTER_REALTIME:
-			case FeedObject.REQUEST_TYPE_TWITTER_TODAY:
-			case FeedObject.REQUEST_TYPE_TWITTER_IMAGE:
+			else if(tagName.endsWith(PARSING_TAG_UPDATE_FREQUENCY))
 			{
+				updateFrequency = parseInt(readText(parser), 1);
+			}
+			else if(tagName.equalsIgnoreCase(PARSING_TAG_ITEM))
+			{
+				int version = 0;
+				String guid = null;
+				String name = null;
+				String date = null;
 				String link = null;
 				String keyword = null;
 				String content = null;
 				String thumbnail = null;
-				
-				try {
-					JSONObject	jsonRoot = new JSONObject(strResult);		// root { 
-					JSONArray	jsonObjList = jsonRoot.getJSONArray(PARSING_TAG_RANKED_TWIT_LIST);	// { rankedTwitList : [
-					
-					for(int i=0; i<jsonObjList.length(); i++)
-					{
-						JSONObject obj = jsonObjList.getJSONObject(i);		// id, owner, body, rtRank, rtCount, registDate, links:{}, rtTwitCount, twitId
-						
-						//---------- make content
-						String idStr = obj.getString(PARSING_TAG_ID);
-						String name = obj.getString(PARSING_TAG_OWNER);
-						content = obj.getString(PARSING_TAG_BODY);
-
-						JSONObject linkObj = obj.getJSONObject(PARSING_TAG_LINKS);
-						if(linkObj != null) {
-							try{			// If there is no <image> object, skip below routine
-								JSONArray imageObjList = linkObj.getJSONArray(PARSING_TAG_IMAGE);
-								if(imageObjList != null) {
-									// Multiple images can be found, but we'll take only first one.
-									JSONObject objImg = imageObjList.getJSONObject(0);
-									thumbnail = objImg.getString(PARSING_TAG_THUMBNAIL_URL);
-									link = objImg.getString(PARSING_TAG_URL);
+
+				int depth = parser.getDepth();
+				while(nextChildElement(parser, depth))		// <title> <author> <link> <description> <pubDate>
+				{
+					String nodeName = parser.getName();
+					if(nodeName.equalsIgnoreCase(PARSING_TAG_LINK)) {
+						link = readText(parser);
+					}
+					else if(nodeName.equalsIgnoreCase(PARSING_TAG_TITLE)) {
+						keyword = readText(parser);
+					}
+					else if(nodeName.equalsIgnoreCase(PARSING_TAG_DESCRIPTION)) {
+						String tempStr = readText(parser);
+						try {		// If error occurs in this block, skip description and go next
+							if(tempStr != null) {
+								String[] strArray = tempStr.split(STRING_RSS_SPLIT_TAG);
+								if(strArray[0] != null && strArray[0].length() > 0) {
+									strArray[0] = Html.fromHtml(strArray[0]).toString();
+									strArray[0] = strArray[0].replaceAll(REG_EXP_REMOVE_TAG, "");
+									strArray[0] = strArray[0].replaceAll(REG_EXP_REMOVE_NEWLINE, "");
+									content = strArray[0];
 								}
-							} catch(Exception e) {}
-						}
-						
-						if(idStr != null && content != null) 
-						{
-							FeedObject feed = new FeedObject(type, idStr, link, keyword, content, thumbnail);
-							if(name != null)
-								feed.setName(name);
-							else Log.d(TAG, "+++ Parsing :: id is null");
-							
-							feed.mDownloadStatus = FeedObject.CONTENT_DOWNLOAD_STATUS_INIT;
-							feedList.add(feed);
-						}
-						
-						if(i >= CpObj.mCachingCount - 1) {		// Break loop if count has reached caching count
-							break;
+								if(strArray.length > 1 && strArray[1] != null && strArray[1].length() > 0) {
+									thumbnail = strArray[1];
+								}
+							}
+						} catch(Exception e) {
+							Logs.d(TAG, e.getMessage()==null ? "Unknown error while parsing xml" : e.getMessage() );
+							e.printStackTrace();
 						}
-					}	// End of for loop
-				} catch (JSONException e) {
-					Logs.d(TAG, "##### JSON Parsing stopped with error :");
-					e.printStackTrace();
-					feedList = null;
+					}
+					else if(nodeName.equalsIgnoreCase(PARSING_TAG_AUTHOR)) {
+						name = readText(parser);
+					}
+					else if(nodeName.equalsIgnoreCase(PARSING_TAG_PUBDATE)) {
+						date = readText(parser);
+					}
+					else if(nodeName.equalsIgnoreCase(PARSING_TAG_GUID)) {
+						guid = readText(parser);
+					}
+					else if(nodeName.equalsIgnoreCase(PARSING_TAG_APP_VERSION)) {
+						String tempStr = readText(parser);
+						try {
+							if(tempStr != null && tempStr.length() > 0)
+								version = Integer.parseInt(tempStr.trim());
+						} catch(NumberFormatException e) {}
+					}
+					else if(nodeName.contains(PARSING_TAG_THUMBNAIL) || nodeName.contains(PARSING_TAG_ENCLOSURE)) {
+						String url = readAttribute(parser, PARSING_TAG_URL);
+						if(url != null)
+							thumbnail = url;
+						skipElement(parser);
+					}
+					else {
+						skipElement(parser);
+					}
+				}	// End of while loop.... parsing each item
+
+				if(link != null && keyword != null && content != null)
+				{
+					StringBuilder sb = new StringBuilder();
+					if(guid != null) {
+						sb.append("rss_").append(removeSpecialChars(guid));
+					}
+					else if(date != null) {
+						sb.append("rss_").append(date.replace(",", "").replace(":", "").trim());
+					} else {
+						String temp1 = null;
+						if(keyword.length() > 50) temp1 = keyword.substring(0, 50);
+						else temp1 = keyword;
+						temp1 = URLEncoder.encode(temp1, ENCODING_TYPE_UTF_8).replace("+", "%20").replace("*", "%2A").replace("%7E", "~");
+						if(temp1.length() > PARSER_ID_SUBSTRING_MAX)
+							temp1 = temp1.substring(0, PARSER_ID_SUBSTRING_MAX - 1);
+						temp1 = temp1.trim();
+						sb.append("rss_").append(temp1);
+					}
+
+					FeedObject feed = new FeedObject(type, sb.toString(), link, keyword, content, thumbnail);
+					feed.mDownloadStatus = FeedObject.CONTENT_DOWNLOAD_STATUS_INIT;
+					feed.setDate(date);
+					feed.setName(name);
+					if(CpObj.mParsingType == FeedObject.REQUEST_TYPE_NOTICE && version > 0)
+						feed.setVersion(version);
+					parsedCount++;
+					if(!listener.OnFeedParsed(feed))
+						break;
 				}
-				break;
-			}
-			
-			case FeedObject.REQUEST_TYPE_NAVER_RELATED_KEYWORDS:
-			{
-				try{
-					DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-					DocumentBuilder db = factory.newDocumentBuilder();
-					
-					InputSource is = new InputSource();
-					is.setCharacterStream(new StringReader(strResult));
-					
-					// Document와 Element 는 w3c dom에 있는것을 임포트 한다.
-					Document doc = db.parse(is); 
-					Element element = doc.getDocumentElement();
-
-					NodeList temp = element.getElementsByTagName(PARSING_TAG_ITEM);		// result -> item 
-
-					//반복문을 돌면서 각각의 Node 읽어오기
-					for(int i=0 ; i < temp.getLength() ; i++)
-					{
-						String keyword = null;
-						Node item = temp.item(i);
-						String tempStr = item.getFirstChild().getNodeValue();
-						if(tempStr != null && tempStr.length() > 0)
-							keyword = new String( tempStr.getBytes() );
-						
-						if(keyword!=null) 
-						{
-							FeedObject feed = new FeedObject(type, keyword, null, keyword, null, null);
-							feedList.add(feed);
-						}
-						
-						if(i >= CpObj.mCachingCount - 1) {		// Break loop if count has reached caching count
-							break;
-						}
-					}	// End of for loop
 
-				}catch (Exception e) {
-					Logs.d(TAG, e.getMessage()==null ? "Unknown error while parsing xml" : e.getMessage() );
-					e.printStackTrace();
-					feedList = null;
+				itemCount++;
+				if(itemCount >= CpObj.mCachingCount) {		// Break loop if count has reached caching count
+					break;
 				}
-				break;
 			}
-			
-			case FeedObject.REQUEST_TYPE_9GAG_HOT:
-			case FeedObject.REQUEST_TYPE_9GAG_TREND:
-			{
-				try {
-					JSONObject	jsonRoot = new JSONObject(strResult);				// root { 
-					JSONArray 	jsonArray = jsonRoot.getJSONArray(PARSING_TAG_DATA);			// {data: [
-					
-					long current = System.currentTimeMillis();
-					for(int i=0; i<jsonArray.length(); i++)
-					{
-						String id = null;
-						String link = null;
-						String keyword = null;
-						String content = null;
-						String thumbnail = null;
-						String fullSizeImage = null;
-						// {id:xx, from:{name:xx}, caption:xx, images:{small:xx, normal:xx, large:xx}, link:xx, action:{like:xx, dislike:xx, unlike:xx}, vote:{count:xx}
-						JSONObject obj = jsonArray.getJSONObject(i); 
-						id = obj.getString(PARSING_TAG_ID);
-						link = obj.getString(PARSING_TAG_LINK);
-						keyword = obj.getString(PARSING_TAG_CAPTION);
-						JSONObject objImage = obj.getJSONObject(PARSING_TAG_IMAGES);
-						thumbnail = objImage.getString(PARSING_TAG_SMALL);
-						fullSizeImage = objImage.getString(PARSING_TAG_NORMAL);
-						
-						if(id != null && link != null && keyword != null && thumbnail != null) 
-						{
-							FeedObject feed = new FeedObject(type, id, link, keyword, null, thumbnail);
-							feed.setFullSizeImageURL(fullSizeImage);
-							feedList.add(feed);
-						}
-						
-						if(i >= CpObj.mCachingCount - 1) {		// Break loop if count has reached caching count
-							break;
-						}
-					}	// End of for loop
-				} catch (JSONException e) {
-					Logs.d(TAG, "##### JSON Parsing stopped with error :");
-					e.printStackTrace();
-					feedList = null;
+			eventType = parser.next();
+		}	// End of while loop
+
+		// Remember the longest update interval that feed recommends
+		int feedTTL = ttl * 60;
+		if(updatePeriod > 0 && updateFrequency > 0 && updatePeriod / updateFrequency > feedTTL)
+			feedTTL = updatePeriod / updateFrequency;
+		CpObj.mFeedTTL = feedTTL;
+
+		return parsedCount;
+	}
+
+	private int parseInt(String text, int defaultValue) {
+		if(text == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(text.trim());
+		} catch(NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Convert sy:updatePeriod value to second.
+	 */
+	private int parseUpdatePeriod(String text) {
+		if(text == null)
+			return 0;
+		text = text.trim();
+		if(text.equalsIgnoreCase("hourly"))
+			return 60*60;
+		else if(text.equalsIgnoreCase("daily"))
+			return 24*60*60;
+		else if(text.equalsIgnoreCase("weekly"))
+			return 7*24*60*60;
+		else if(text.equalsIgnoreCase("monthly"))
+			return 30*24*60*60;
+		else if(text.equalsIgnoreCase("yearly"))
+			return 365*24*60*60;
+		return 0;
+	}
+
+
+	//---------- JSON
+
+	private JsonReader newJsonReader(Reader reader, InputStream in, String charset) throws UnsupportedEncodingException {
+		if(reader == null)
+			reader = new InputStreamReader(in, (charset == null ? ENCODING_TYPE_UTF_8 : charset));
+		JsonReader jsonReader = new JsonReader(reader);
+		jsonReader.setLenient(true);
+		return jsonReader;
+	}
+
+	/**
+	 * Skip members of current object until name is found.
+	 * @return		true if reader is on the value of name
+	 */
+	private boolean findName(JsonReader reader, String name) throws IOException {
+		while(reader.hasNext()) {
+			if(reader.nextName().equals(name))
+				return true;
+			reader.skipValue();
+		}
+		return false;
+	}
+
+	/**
+	 * Move into array which is found with path of object names from current position.
+	 * ex) root { socialpick : { item : [
+	 * @return		true if reader is inside the array
+	 */
+	private boolean openArray(JsonReader reader, String... path) throws IOException {
+		for(int i=0; i<path.length; i++) {
+			if(reader.peek() != JsonToken.BEGIN_OBJECT)
+				return false;
+			reader.beginObject();
+			if(!findName(reader, path[i]))
+				return false;
+		}
+		if(reader.peek() != JsonToken.BEGIN_ARRAY)
+			return false;
+		reader.beginArray();
+		return true;
+	}
+
+	private String readString(JsonReader reader) throws IOException {
+		JsonToken token = reader.peek();
+		if(token == JsonToken.STRING || token == JsonToken.NUMBER) {
+			return reader.nextString();
+		} else if(token == JsonToken.BOOLEAN) {
+			return String.valueOf(reader.nextBoolean());
+		}
+		reader.skipValue();		// null, object or array
+		return null;
+	}
+
+	private int readInt(JsonReader reader) throws IOException {
+		String temp = readString(reader);
+		if(temp != null) {
+			try {
+				return (int) Double.parseDouble(temp);
+			} catch(NumberFormatException e) {}
+		}
+		return 0;
+	}
+
+	private int parseDaumSocialPick(CPObject CpObj, JsonReader reader, IFeedParserListener listener) throws IOException
+	{
+		int type = CpObj.mId;
+		int itemCount = 0;
+		int parsedCount = 0;
+
+		// root { socialpick : { item : [
+		if(!openArray(reader, PARSING_TAG_SOCIALPICK, PARSING_TAG_ITEM))
+			throw new IOException("Cannot find social pick item list");
+
+		while(reader.hasNext())
+		{
+			String link = null;
+			String keyword = null;
+			String content = null;
+			int rankType = RANK_TYPE_NONE;
+			int rankUpAndDown = 0;
+			int commentCount = 0;
+
+			// {rank:1, link:"xx", keyword:"xx", content:"xx", count:30000, quotation_cnt:1345, comment_cnt:13816, rank_diff:3, category:"c" }
+			reader.beginObject();
+			while(reader.hasNext()) {
+				String name = reader.nextName();
+				if(name.equals(PARSING_TAG_LINK)) link = readString(reader);
+				else if(name.equals(PARSING_TAG_KEYWORD)) keyword = readString(reader);
+				else if(name.equals(PARSING_TAG_CONTENT)) content = readString(reader);
+				else if(name.equals(PARSING_TAG_COMMENT_CNT)) {
+					commentCount = readInt(reader) / RANK_MODIFIER_DAUM_SOCIALPICK;
+					commentCount = commentCount * 2;					// To encourage rank priority
+					if( commentCount > 10 ) commentCount = 10;
 				}
-				break;
+				else reader.skipValue();
 			}
-			
-			case FeedObject.REQUEST_TYPE_NOTICE:
+			reader.endObject();
+
+			if(link!=null && keyword!=null && content!=null)
 			{
-				try {
-					JSONObject	jsonRoot = new JSONObject(strResult);				// root { 
-					JSONArray 	jsonArray = jsonRoot.getJSONArray(PARSING_TAG_NOTICE);			// {notice: [
-					
-					long current = System.currentTimeMillis();
-					for(int i=0; i<jsonArray.length(); i++)
-					{
-						int version = 0;
-						String id = null;
-						String link = null;
-						String name = null;
-						String keyword = null;
-						String content = null;
-						String thumbnail = null;
-						String fullSizeImage = null;
-						// {title:XXX, LINK:XXX, description:XXX, author:XXX, appversion:XXX, pubDate:XXX
-						JSONObject obj = jsonArray.getJSONObject(i); 
-
-						keyword = obj.getString(PARSING_TAG_TITLE);
-						link = obj.getString(PARSING_TAG_LINK);
-						content = obj.getString(PARSING_TAG_DESCRIPTION);
-						name = obj.getString(PARSING_TAG_AUTHOR);
-						version = obj.getInt(PARSING_TAG_APP_VERSION);
-						id = obj.getString(PARSING_TAG_PUBDATE);
-						
-						if(id != null && link != null && keyword != null) 
-						{
-							FeedObject feed = new FeedObject(type, id, link, keyword, content, null);
-							feed.setName(name);
-							feed.setDate(id);
-							feed.setVersion(version);
-							feedList.add(feed);
-						}
-						
-						if(i >= CpObj.mCachingCount - 1) {		// Break loop if count has reached caching count
-							break;
-						}
-					}	// End of for loop
-				} catch (JSONException e) {
-					Logs.d(TAG, "##### JSON Parsing stopped with error :");
-					e.printStackTrace();
-					feedList = null;
-				}
+				String idStr = keyword;
+				FeedObject feed = new FeedObject(type, idStr, link, keyword, content, null);
+				feed.mDownloadStatus = FeedObject.CONTENT_DOWNLOAD_STATUS_INIT;
+				feed.setRankInfo(rankType, rankUpAndDown, commentCount);
+				parsedCount++;
+				if(!listener.OnFeedParsed(feed))
+					break;
+			}
+
+			itemCount++;
+			if(itemCount >= CpObj.mCachingCount) {		// Break loop if count has reached caching count
 				break;
 			}
-			
-			case FeedObject.REQUEST_TYPE_RSS_DEFAULT:
-			case FeedObject.REQUEST_TYPE_RSS_FEED43:
-			{
-				try{
-					DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-					DocumentBuilder db = factory.newDocumentBuilder();
-					
-					InputSource is = new InputSource();
-					is.setCharacterStream(new StringReader(strResult));
-					
-					// Document와 Element 는 w3c dom에 있는것을 임포트 한다.
-					Document doc = db.parse(is);
-					Element element = doc.getDocumentElement();
-
-					// Extract logo image
-					try {
-						NodeList logoImage = element.getElementsByTagName(PARSING_TAG_IMAGE);
-						if(logoImage != null && logoImage.getLength() > 0) {
-							Node logoitem = logoImage.item(0);
-							NodeList logochildren = logoitem.getChildNodes();
-							for(int j=0; j < logochildren.getLength(); j++) {
-								Node logochild = logochildren.item(j);
-								String logoName = logochild.getNodeName();
-								if(logoName.equalsIgnoreCase(PARSING_TAG_URL)) {
-									String tempStr = logochild.getFirstChild().getNodeValue();
-									if(tempStr != null && tempStr.length() > 0)
-										CpObj.mLogoImage = tempStr;
-								}
-							}
-						}
-					} catch(Exception e) {}
-					
-					NodeList temp = element.getElementsByTagName(PARSING_TAG_ITEM);		// channel -> item 
-
-					long current = System.currentTimeMillis();
-					for(int i=0 ; i < temp.getLength() ; i++)
-					{
-						int version = 0;
-						String guid = null;
-						String name = null;
-						String date = null;
-						String link = null;
-						String keyword = null;
-						String content = null;
-						String thumbnail = null;
-						Node item = temp.item(i);							// <item> : 	n-th item tag
-						NodeList children = item.getChildNodes();			// <title> <author> <link> <description> <pubDate>
-						
-						for(int j=0; j < children.getLength(); j++)
-						{
-							try {		// If error occurs in this block, skip current item parsing and go next
-								Node child = children.item(j);
-								String nodeName = child.getNodeName();
-								if(nodeName.equalsIgnoreCase(PARSING_TAG_LINK)) {
-									String tempStr = child.getFirstChild().getNodeValue();
-									if(tempStr != null)
-										link = new String( tempStr.getBytes() );
-								}
-								else if(nodeName.equalsIgnoreCase(PARSING_TAG_TITLE)) {
-									String tempStr = child.getFirstChild().getNodeValue();
-									if(tempStr != null) {
-										keyword = new String( tempStr.getBytes() );
-									}
-								} 
-								else if(nodeName.equalsIgnoreCase(PARSING_TAG_DESCRIPTION)) {
-									String tempStr = child.getFirstChild().getNodeValue();
-									if(tempStr != null) {
-										String[] strArray = tempStr.split(STRING_RSS_SPLIT_TAG);
-										if(strArray[0] != null && strArray[0].length() > 0) {
-											strArray[0] = Html.fromHtml(strArray[0]).toString();
-											strArray[0] = strArray[0].replaceAll(REG_EXP_REMOVE_TAG, "");
-											strArray[0] = strArray[0].replaceAll(REG_EXP_REMOVE_NEWLINE, "");
-											content = strArray[0];
-										}
-										if(strArray.length > 1 && strArray[1] != null && strArray[1].length() > 0) {
-											thumbnail = strArray[1];
-										}
-									}
-								}
-								else if(nodeName.equalsIgnoreCase(PARSING_TAG_AUTHOR)) {
-									if(child != null && child.getFirstChild() != null) {
-										String tempStr = child.getFirstChild().getNodeValue();
-										if(tempStr != null)
-											name = new String( tempStr.getBytes() );
-									}
-								}
-								else if(nodeName.equalsIgnoreCase(PARSING_TAG_PUBDATE)) {
-									if(child != null && child.getFirstChild() != null) {
-										String tempStr = child.getFirstChild().getNodeValue();
-										if(tempStr != null)
-											date = new String( tempStr.getBytes() );
-									}
-								}
-								else if(nodeName.equalsIgnoreCase(PARSING_TAG_GUID)) {
-									if(child != null && child.getFirstChild() != null) {
-										String tempStr = child.getFirstChild().getNodeValue();
-										if(tempStr != null)
-											guid = new String( tempStr.getBytes() );
-									}
-								}
-								else if(nodeName.equalsIgnoreCase(PARSING_TAG_APP_VERSION)) {
-									if(child != null && child.getFirstChild() != null) {
-										String tempStr = child.getFirstChild().getNodeValue();
-										if(tempStr != null && tempStr.length() > 0)
-											version = Integer.parseInt(tempStr);
-									}
-								}
-								else if(nodeName.contains(PARSING_TAG_THUMBNAIL)) {
-									try {
-										if(child != null && child.hasAttributes()) {
-											NamedNodeMap attrs = child.getAttributes();
-											for(int k=0; k<attrs.getLength(); k++) {
-												Node attr = attrs.item(k);
-												if(attr.getNodeName().equalsIgnoreCase(PARSING_TAG_URL)) {
-													thumbnail = attr.getNodeValue();
-												}
-											}
-										}
-									} catch(Exception e) {
-										thumbnail = null;
-									}
+		}	// End of while loop
 
-								}
-								else if(nodeName.contains(PARSING_TAG_ENCLOSURE)) {
-									try {
-										if(child != null && child.hasAttributes()) {
-											NamedNodeMap attrs = child.getAttributes();
-											for(int k=0; k<attrs.getLength(); k++) {
-												Node attr = attrs.item(k);
-												if(attr.getNodeName().equalsIgnoreCase(PARSING_TAG_URL)) {
-													thumbnail = attr.getNodeValue();
-												}
-											}
-										}
-									} catch(Exception e) {
-										thumbnail = null;
-									}
+		return parsedCount;
+	}
 
+	private int parseTwitter(CPObject CpObj, JsonReader reader, IFeedParserListener listener) throws IOException
+	{
+		int type = CpObj.mId;
+		int itemCount = 0;
+		int parsedCount = 0;
+
+		// root { rankedTwitList : [
+		if(!openArray(reader, PARSING_TAG_RANKED_TWIT_LIST))
+			throw new IOException("Cannot find twit list");
+
+		while(reader.hasNext())
+		{
+			String idStr = null;
+			String name = null;
+			String link = null;
+			String keyword = null;
+			String content = null;
+			String thumbnail = null;
+
+			// id, owner, body, rtRank, rtCount, registDate, links:{}, rtTwitCount, twitId
+			reader.beginObject();
+			while(reader.hasNext()) {
+				String member = reader.nextName();
+				if(member.equals(PARSING_TAG_ID)) idStr = readString(reader);
+				else if(member.equals(PARSING_TAG_OWNER)) name = readString(reader);
+				else if(member.equals(PARSING_TAG_BODY)) content = readString(reader);
+				else if(member.equals(PARSING_TAG_LINKS) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+					// links : { image : [ {thumbnailUrl, url}, ... ] }
+					// Multiple images can be found, but we'll take only first one.
+					reader.beginObject();
+					while(reader.hasNext()) {
+						if(reader.nextName().equals(PARSING_TAG_IMAGE) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+							reader.beginArray();
+							if(reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+								reader.beginObject();
+								while(reader.hasNext()) {
+									String imgMember = reader.nextName();
+									if(imgMember.equals(PARSING_TAG_THUMBNAIL_URL)) thumbnail = readString(reader);
+									else if(imgMember.equals(PARSING_TAG_URL)) link = readString(reader);
+									else reader.skipValue();
 								}
-								
+								reader.endObject();
 							}
-							catch(Exception e) {
-								Logs.d(TAG, e.getMessage()==null ? "Unknown error while parsing xml" : e.getMessage() );
-								e.printStackTrace();
-							}
-							
-						}	// End of for loop.... parsing each item
-						
-						if(link != null && keyword != null && content != null) 
-						{
-							StringBuilder sb = new StringBuilder();
-							if(guid != null) {
-								sb.append("rss_").append(removeSpecialChars(guid));
-							} 
-							else if(date != null) {
-								sb.append("rss_").append(date.replace(",", "").replace(":", "").trim());
-							} else {
-								String temp1 = null;
-								if(keyword.length() > 50) temp1 = keyword.substring(0, 50);
-								else temp1 = keyword;
-								temp1 = URLEncoder.encode(temp1, ENCODING_TYPE_UTF_8).replace("+", "%20").replace("*", "%2A").replace("%7E", "~");
-								if(temp1.length() > PARSER_ID_SUBSTRING_MAX)
-									temp1 = temp1.substring(0, PARSER_ID_SUBSTRING_MAX - 1);
-								temp1 = temp1.trim();
-								sb.append("rss_").append(temp1);
-							}
-							
-							FeedObject feed = new FeedObject(type, sb.toString(), link, keyword, content, thumbnail);
-							feed.mDownloadStatus = FeedObject.CONTENT_DOWNLOAD_STATUS_INIT;
-							feed.setDate(date);
-							feed.setName(name);
-							if(CpObj.mParsingType == FeedObject.REQUEST_TYPE_NOTICE && version > 0)
-								feed.setVersion(version);
-							feedList.add(feed);
-						}
-						
-						if(i >= CpObj.mCachingCount - 1) {		// Break loop if count has reached caching count
-							break;
+							while(reader.hasNext())
+								reader.skipValue();
+							reader.endArray();
+						} else {
+							reader.skipValue();
 						}
-					}	// End of for loop
+					}
+					reader.endObject();
+				}
+				else reader.skipValue();
+			}
+			reader.endObject();
+
+			if(idStr != null && content != null)
+			{
+				FeedObject feed = new FeedObject(type, idStr, link, keyword, content, thumbnail);
+				if(name != null)
+					feed.setName(name);
+				else Log.d(TAG, "+++ Parsing :: id is null");
+
+				feed.mDownloadStatus = FeedObject.CONTENT_DOWNLOAD_STATUS_INIT;
+				parsedCount++;
+				if(!listener.OnFeedParsed(feed))
+					break;
+			}
+
+			itemCount++;
+			if(itemCount >= CpObj.mCachingCount) {		// Break loop if count has reached caching count
+				break;
+			}
+		}	// End of while loop
+
+		return parsedCount;
+	}
+
+	private int parse9Gag(CPObject CpObj, JsonReader reader, IFeedParserListener listener) throws IOException
+	{
+		int type = CpObj.mId;
+		int itemCount = 0;
+		int parsedCount = 0;
+
+		// root { data : [
+		if(!openArray(reader, PARSING_TAG_DATA))
+			throw new IOException("Cannot find data list");
 
-				}catch (Exception e) {
-					Logs.d(TAG, e.getMessage()==null ? "Unknown error while parsing xml" : e.getMessage() );
-					e.printStackTrace();
-					feedList = null;
+		while(reader.hasNext())
+		{
+			String id = null;
+			String link = null;
+			String keyword = null;
+			String thumbnail = null;
+			String fullSizeImage = null;
+
+			// {id:xx, from:{name:xx}, caption:xx, images:{small:xx, normal:xx, large:xx}, link:xx, action:{like:xx, dislike:xx, unlike:xx}, vote:{count:xx}
+			reader.beginObject();
+			while(reader.hasNext()) {
+				String name = reader.nextName();
+				if(name.equals(PARSING_TAG_ID)) id = readString(reader);
+				else if(name.equals(PARSING_TAG_LINK)) link = readString(reader);
+				else if(name.equals(PARSING_TAG_CAPTION)) keyword = readString(reader);
+				else if(name.equals(PARSING_TAG_IMAGES) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+					reader.beginObject();
+					while(reader.hasNext()) {
+						String imgName = reader.nextName();
+						if(imgName.equals(PARSING_TAG_SMALL)) thumbnail = readString(reader);
+						else if(imgName.equals(PARSING_TAG_NORMAL)) fullSizeImage = readString(reader);
+						else reader.skipValue();
+					}
+					reader.endObject();
 				}
+				else reader.skipValue();
+			}
+			reader.endObject();
+
+			if(id != null && link != null && keyword != null && thumbnail != null)
+			{
+				FeedObject feed = new FeedObject(type, id, link, keyword, null, thumbnail);
+				feed.setFullSizeImageURL(fullSizeImage);
+				parsedCount++;
+				if(!listener.OnFeedParsed(feed))
+					break;
+			}
+
+			itemCount++;
+			if(itemCount >= CpObj.mCachingCount) {		// Break loop if count has reached caching count
 				break;
-			}	// End of default block
+			}
+		}	// End of while loop
+
+		return parsedCount;
+	}
+
+	private int parseNotice(CPObject CpObj, JsonReader reader, IFeedParserListener listener) throws IOException
+	{
+		int type = CpObj.mId;
+		int itemCount = 0;
+		int parsedCount = 0;
+
+		// root { notice : [
+		if(!openArray(reader, PARSING_TAG_NOTICE))
+			throw new IOException("Cannot find notice list");
+
+		while(reader.hasNext())
+		{
+			int version = 0;
+			String id = null;
+			String link = null;
+			String name = null;
+			String keyword = null;
+			String content = null;
+
+			// {title:XXX, LINK:XXX, description:XXX, author:XXX, appversion:XXX, pubDate:XXX
+			reader.beginObject();
+			while(reader.hasNext()) {
+				String member = reader.nextName();
+				if(member.equals(PARSING_TAG_TITLE)) keyword = readString(reader);
+				else if(member.equals(PARSING_TAG_LINK)) link = readString(reader);
+				else if(member.equals(PARSING_TAG_DESCRIPTION)) content = readString(reader);
+				else if(member.equals(PARSING_TAG_AUTHOR)) name = readString(reader);
+				else if(member.equals(PARSING_TAG_APP_VERSION)) version = readInt(reader);
+				else if(member.equals(PARSING_TAG_PUBDATE)) id = readString(reader);
+				else reader.skipValue();
+			}
+			reader.endObject();
+
+			if(id != null && link != null && keyword != null)
+			{
+				FeedObject feed = new FeedObject(type, id, link, keyword, content, null);
+				feed.setName(name);
+				feed.setDate(id);
+				feed.setVersion(version);
+				parsedCount++;
+				if(!listener.OnFeedParsed(feed))
+					break;
+			}
+
+			itemCount++;
+			if(itemCount >= CpObj.mCachingCount) {		// Break loop if count has reached caching count
+				break;
+			}
+		}	// End of while loop
+
+		return parsedCount;
+	}
 
-		}	// End of switch(type)
-		
-		return feedList;
-		
-	}	// End of parseResultString()
-	
 	public static String removeSpecialChars(String str) {
 		String match = "[^\uAC00-\uD7A3xfe0-9a-zA-Z\\s]";
 		str =str.replaceAll(match, " ");
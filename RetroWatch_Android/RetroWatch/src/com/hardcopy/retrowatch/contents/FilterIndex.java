@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.contents;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.hardcopy.retrowatch.contents.objects.FilterObject;
+import com.hardcopy.retrowatch.utils.Logs;
+
+/**
+ * Compiled form of filter list. Built once when filter list changes.
+ * - Whole word filters : hash map (case-insensitive)
+ * - Start with, end with, part of filters : Aho-Corasick automaton (one scan of target string)
+ * - Same part replacement : pre-compiled Pattern
+ * Matched filters are returned in filter list order, so the result of applying them
+ * is same as checking every filter one by one.
+ */
+public class FilterIndex {
+	
+	private static final String TAG = "FilterIndex";
+	
+	private FilterObject[] mFilters;
+	private Pattern[] mPatterns;
+	private int[] mCompareTypes;		// Matching conditions when index is built
+	private int[] mLengths;				// Length of original string when index is built
+	
+	private HashMap<String, int[]> mContentWords = new HashMap<String, int[]>();
+	private HashMap<String, int[]> mPackageWords = new HashMap<String, int[]>();
+	private Automaton mContentAutomaton = new Automaton();
+	private Automaton mPackageAutomaton = new Automaton();
+	
+	
+	public FilterIndex(ArrayList<FilterObject> filterList) {
+		int count = (filterList == null ? 0 : filterList.size());
+		mFilters = new FilterObject[count];
+		mPatterns = new Pattern[count];
+		mCompareTypes = new int[count];
+		mLengths = new int[count];
+		
+		for(int i=0; i<count; i++) {
+			FilterObject filter = filterList.get(i);
+			mFilters[i] = filter;
+			if(filter.mOriginalString == null || filter.mOriginalString.isEmpty())
+				continue;
+			mCompareTypes[i] = filter.mCompareType;
+			mLengths[i] = filter.mOriginalString.length();
+			
+			boolean isPackage = (filter.mType == FilterObject.FILTER_TYPE_PACKAGE_NAME);
+			switch(filter.mCompareType) {
+			case FilterObject.MATCHING_TYPE_WHOLE_WORD:
+				addWord(isPackage ? mPackageWords : mContentWords, filter.mOriginalString, i);
+				break;
+			case FilterObject.MATCHING_TYPE_START_WITH:
+			case FilterObject.MATCHING_TYPE_END_WITH:
+			case FilterObject.MATCHING_TYPE_PART_OF:
+				if(isPackage) {
+					mPackageAutomaton.add(filter.mOriginalString, i);
+				} else {
+					mContentAutomaton.add(filter.mOriginalString, i);
+					if(filter.mReplaceType == FilterObject.REPLACE_TYPE_SAME_PART)
+						mPatterns[i] = compilePattern(filter.mOriginalString);
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		
+		mContentAutomaton.build();
+		mPackageAutomaton.build();
+	}
+	
+	
+	/*****************************************************
+	 *		Public methods
+	 ******************************************************/
+	
+	public FilterObject getFilter(int index) {
+		return mFilters[index];
+	}
+	
+	/**
+	 * Pattern for same part replacement. Available for content filters only.
+	 */
+	public Pattern getPattern(int index) {
+		return mPatterns[index];
+	}
+	
+	/**
+	 * Find filters which match target string or package name.
+	 * @param filterType		target type. Filters of this type, FILTER_TYPE_ALL and FILTER_TYPE_PACKAGE_NAME are checked.
+	 * @param strSrc			target string
+	 * @param strPackage		package name of target. Can be null.
+	 * @return		indexes of matched filters in filter list order
+	 */
+	public int[] findMatches(int filterType, String strSrc, String strPackage) {
+		Matches matches = new Matches();
+		
+		if(strSrc != null && !strSrc.isEmpty()) {
+			int[] ids = mContentWords.get(foldCase(strSrc));
+			if(ids != null) {
+				for(int id : ids)
+					addIfTypeMatches(matches, id, filterType);
+			}
+			mContentAutomaton.search(strSrc, matches, filterType);
+		}
+		if(strPackage != null && !strPackage.isEmpty()) {
+			int[] ids = mPackageWords.get(foldCase(strPackage));
+			if(ids != null) {
+				for(int id : ids)
+					matches.add(id);
+			}
+			mPackageAutomaton.search(strPackage, matches, filterType);
+		}
+		
+		return matches.toSortedArray();
+	}
+	
+	
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+	
+	private void addWord(HashMap<String, int[]> map, String word, int id) {
+		String key = foldCase(word);
+		int[] ids = map.get(key);
+		if(ids == null) {
+			ids = new int[] { id };
+		} else {
+			ids = Arrays.copyOf(ids, ids.length + 1);
+			ids[ids.length - 1] = id;
+		}
+		map.put(key, ids);
+	}
+	
+	private void addIfTypeMatches(Matches matches, int id, int filterType) {
+		int type = mFilters[id].mType;
+		if(type == FilterObject.FILTER_TYPE_ALL || type == FilterObject.FILTER_TYPE_PACKAGE_NAME || type == filterType)
+			matches.add(id);
+	}
+	
+	private Pattern compilePattern(String regex) {
+		try {
+			return Pattern.compile(regex);
+		} catch(PatternSyntaxException e) {
+			// Not a valid regular expression. Replace the literal string.
+			Logs.d(TAG, "# Invalid filter pattern : "+regex);
+			return Pattern.compile(regex, Pattern.LITERAL);
+		}
+	}
+	
+	/**
+	 * Key which is equal for strings that String.equalsIgnoreCase() treats as same
+	 */
+	private static String foldCase(String str) {
+		char[] chars = str.toCharArray();
+		for(int i=0; i<chars.length; i++)
+			chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+		return new String(chars);
+	}
+	
+	
+	/*****************************************************
+	 *		Sub classes
+	 ******************************************************/
+	
+	/**
+	 * Matched filter indexes of a single findMatches() call
+	 */
+	private static class Matches {
+		private int[] mIds = new int[8];
+		private int mCount = 0;
+		
+		public void add(int id) {
+			if(mCount == mIds.length)
+				mIds = Arrays.copyOf(mIds, mCount * 2);
+			mIds[mCount++] = id;
+		}
+		
+		public int[] toSortedArray() {
+			Arrays.sort(mIds, 0, mCount);
+			// Remove duplicated index (same string found several times)
+			int size = 0;
+			for(int i=0; i<mCount; i++) {
+				if(size == 0 || mIds[size - 1] != mIds[i])
+					mIds[size++] = mIds[i];
+			}
+			return Arrays.copyOf(mIds, size);
+		}
+	}
+	
+	/**
+	 * Aho-Corasick automaton for start with, end with and part of filters (case-sensitive)
+	 */
+	private class Automaton {
+		private ArrayList<HashMap<Character, Integer>> mNext = new ArrayList<HashMap<Character, Integer>>();
+		private ArrayList<int[]> mOutput = new ArrayList<int[]>();		// Filter indexes which end at each node
+		private int[] mFail;
+		
+		public Automaton() {
+			addNode();		// root
+		}
+		
+		public void add(String pattern, int id) {
+			int node = 0;
+			for(int i=0; i<pattern.length(); i++) {
+				Character c = pattern.charAt(i);
+				Integer next = mNext.get(node).get(c);
+				if(next == null) {
+					next = addNode();
+					mNext.get(node).put(c, next);
+				}
+				node = next;
+			}
+			mOutput.set(node, append(mOutput.get(node), id));
+		}
+		
+		public void build() {
+			mFail = new int[mNext.size()];
+			// Breadth first. Fail link of a node always points to a shallower node.
+			int[] queue = new int[mNext.size()];
+			int head = 0, tail = 0;
+			for(Integer child : mNext.get(0).values()) {
+				mFail[child] = 0;
+				queue[tail++] = child;
+			}
+			while(head < tail) {
+				int node = queue[head++];
+				for(Character c : mNext.get(node).keySet()) {
+					int child = mNext.get(node).get(c);
+					int fail = mFail[node];
+					while(fail != 0 && mNext.get(fail).get(c) == null)
+						fail = mFail[fail];
+					Integer target = mNext.get(fail).get(c);
+					mFail[child] = (target == null || target == child) ? 0 : target;
+					// Patterns which are suffix of this node also end here
+					int[] inherited = mOutput.get(mFail[child]);
+					for(int k=0; inherited != null && k<inherited.length; k++)
+						mOutput.set(child, append(mOutput.get(child), inherited[k]));
+					queue[tail++] = child;
+				}
+			}
+		}
+		
+		public void search(String text, Matches matches, int filterType) {
+			if(mNext.size() < 2)
+				return;
+			int node = 0;
+			int length = text.length();
+			for(int i=0; i<length; i++) {
+				Character c = text.charAt(i);
+				Integer next = mNext.get(node).get(c);
+				while(next == null && node != 0) {
+					node = mFail[node];
+					next = mNext.get(node).get(c);
+				}
+				node = (next == null ? 0 : next);
+				
+				int[] ids = mOutput.get(node);
+				if(ids == null)
+					continue;
+				for(int id : ids) {
+					int end = i + 1;
+					int start = end - mLengths[id];
+					if(mCompareTypes[id] == FilterObject.MATCHING_TYPE_START_WITH && start != 0)
+						continue;
+					if(mCompareTypes[id] == FilterObject.MATCHING_TYPE_END_WITH && end != length)
+						continue;
+					addIfTypeMatches(matches, id, filterType);
+				}
+			}
+		}
+		
+		private int addNode() {
+			mNext.add(new HashMap<Character, Integer>());
+			mOutput.add(null);
+			return mNext.size() - 1;
+		}
+		
+		private int[] append(int[] array, int value) {
+			if(array == null)
+				return new int[] { value };
+			int[] result = Arrays.copyOf(array, array.length + 1);
+			result[array.length] = value;
+			return result;
+		}
+	}
+}
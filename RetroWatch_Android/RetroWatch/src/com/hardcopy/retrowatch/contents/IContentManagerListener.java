@@ -20,6 +20,7 @@ public interface IContentManagerListener {
 	public static final int CALLBACK_GMAIL_UPDATED = 1;
 	public static final int CALLBACK_SMS_RECEIVED = 2;
 	public static final int CALLBACK_FEED_UPDATED = 3;
+	public static final int CALLBACK_CONTENT_CHANGED = 4;		// arg0: added count, arg1: removed count, arg4: ContentDelta
 	
 	public void OnContentCallback(int msgType, int arg0, int arg1, String arg2, String arg3, Object arg4);
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.contents;
+
+import com.hardcopy.retrowatch.contents.objects.CPObject;
+
+public interface IFeedFetcher {
+	/**
+	 * Called by FeedFetchScheduler when content provider should be refreshed.
+	 * Request must be asynchronous. Call FeedFetchScheduler.onFetchFinished() when it's done.
+	 * @param token		identifies this request. Pass it back to onFetchFinished()
+	 * @return		false if request is not started
+	 */
+	public boolean requestFetch(CPObject cp, long token);
+	
+	/**
+	 * Called by FeedFetchScheduler periodically. (Cache maintenance)
+	 */
+	public void onMaintenance();
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.contents;
+
+import com.hardcopy.retrowatch.contents.objects.FeedObject;
+
+public interface IFeedParserListener {
+	/**
+	 * Called by FeedParser each time an item is completed.
+	 * @param feed		parsed item
+	 * @return			false to stop parsing the remaining document
+	 */
+	public boolean OnFeedParsed(FeedObject feed);
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.contents;
+
+import java.util.HashMap;
+
+import com.hardcopy.retrowatch.contents.objects.CPObject;
+import com.hardcopy.retrowatch.utils.Logs;
+
+/**
+ * Decides poll interval of each content provider.
+ * 
+ * Base interval is the larger one of user TTL (CPObject.mTTL) and feed hint (<ttl>, <sy:updatePeriod>),
+ * but not less than MIN_POLL_INTERVAL.
+ * When new items arrive, learns how often the feed actually changes and polls about twice in that period.
+ * When request fails or nothing changed, doubles the interval up to 16 times of base interval (max 1 day).
+ * Result is saved in CPObject.mPollInterval which FeedFetchScheduler uses as deadline.
+ */
+public class PollPlanner {
+	
+	private static final String TAG = "PollPlanner";
+	
+	public static final int MAX_BACKOFF_MULTIPLIER = 16;
+	public static final int MIN_POLL_INTERVAL = 5*60;			// in second. Used when TTL is not set.
+	public static final int MAX_POLL_INTERVAL = 24*60*60;		// in second
+	private static final float CADENCE_WEIGHT = 0.3f;			// Weight of latest observation
+	
+	private HashMap<Integer, PollState> mStateMap = new HashMap<Integer, PollState>();
+	
+	
+	/*****************************************************
+	 *		Public methods
+	 ******************************************************/
+	
+	/**
+	 * Time (in milli-second) when content provider should be requested
+	 */
+	public static long getDeadline(CPObject cp) {
+		int interval = (cp.mPollInterval > 0 ? cp.mPollInterval : getBaseInterval(cp));
+		return cp.mLastUpdated + interval * 1000L;
+	}
+	
+	/**
+	 * Minimum poll interval in second
+	 */
+	public static int getBaseInterval(CPObject cp) {
+		int base = (cp.mFeedTTL > cp.mTTL ? cp.mFeedTTL : cp.mTTL);
+		return (base < MIN_POLL_INTERVAL ? MIN_POLL_INTERVAL : base);
+	}
+	
+	/**
+	 * Content provider returned new or changed items
+	 */
+	public synchronized void onChanged(CPObject cp, long time) 
+	{
+		PollState state = getState(cp.mId);
+		if(state.mLastChangedTime > 0 && time > state.mLastChangedTime) {
+			long observed = (time - state.mLastChangedTime) / 1000;
+			if(state.mCadence > 0)
+				state.mCadence = (long)(state.mCadence * (1 - CADENCE_WEIGHT) + observed * CADENCE_WEIGHT);
+			else
+				state.mCadence = observed;
+		}
+		state.mLastChangedTime = time;
+		
+		int base = getBaseInterval(cp);
+		long interval = base;
+		if(state.mCadence / 2 > interval)
+			interval = state.mCadence / 2;		// Poll twice in expected change period
+		setInterval(cp, interval);
+	}
+	
+	/**
+	 * Content provider returned no new item (or 304)
+	 */
+	public synchronized void onNotChanged(CPObject cp) 
+	{
+		backOff(cp);
+	}
+	
+	/**
+	 * Request or parsing failed
+	 */
+	public synchronized void onError(CPObject cp) 
+	{
+		backOff(cp);
+	}
+	
+	public synchronized void remove(int id) 
+	{
+		mStateMap.remove(id);
+	}
+	
+	
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+	
+	private PollState getState(int id) {
+		PollState state = mStateMap.get(id);
+		if(state == null) {
+			state = new PollState();
+			mStateMap.put(id, state);
+		}
+		return state;
+	}
+	
+	private void backOff(CPObject cp) {
+		int base = getBaseInterval(cp);
+		long interval = (cp.mPollInterval > base ? cp.mPollInterval : base);
+		setInterval(cp, interval * 2);
+	}
+	
+	private void setInterval(CPObject cp, long interval) {
+		int base = getBaseInterval(cp);
+		long max = (long)base * MAX_BACKOFF_MULTIPLIER;
+		if(max > MAX_POLL_INTERVAL) max = MAX_POLL_INTERVAL;
+		if(max < base) max = base;
+		
+		if(interval > max) interval = max;
+		if(interval < base) interval = base;
+		cp.mPollInterval = (int)interval;
+		Logs.d(TAG, "# Poll interval : id="+cp.mId+", interval="+cp.mPollInterval+", base="+base);
+	}
+	
+	
+	/*****************************************************
+	 *		Sub classes
+	 ******************************************************/
+	
+	private static class PollState {
+		public long mLastChangedTime = 0;		// in milli-second
+		public long mCadence = 0;				// Average interval between changes, in second
+	}
+}
@@ -43,7 +43,23 @@ public class CPObject {
 	public int mNewItemCount = 0;
 	public String mLogoImage = null;
 	
+	public String mETag = null;				// Cache validators of last response (conditional GET)
+	public String mLastModified = null;
+	
+	public int mPollInterval = 0;		// Adaptive poll interval in second. 0 means mTTL. (see PollPlanner)
+	public int mFeedTTL = 0;			// Update interval which feed recommends. (<ttl>, <sy:updatePeriod>) in second
+	
 	public void softCopy(CPObject cp) {
+		if(this.mURL == null || !this.mURL.equals(cp.mURL)) {
+			// Validators of previous URL are meaningless
+			this.mETag = null;
+			this.mLastModified = null;
+		} else {
+			this.mETag = cp.mETag;
+			this.mLastModified = cp.mLastModified;
+		}
+		if(this.mTTL != cp.mTTL)
+			this.mPollInterval = 0;		// User changed TTL. Learn again
 		this.mURL = cp.mURL;
 		this.mName = cp.mName;
 		this.mLink = cp.mLink;
@@ -86,5 +102,9 @@ public class CPObject {
 		cp.mShowInWidget = this.mShowInWidget;
 		cp.mNewItemCount = this.mNewItemCount;
 		cp.mLogoImage = this.mLogoImage;
+		cp.mETag = this.mETag;
+		cp.mLastModified = this.mLastModified;
+		cp.mPollInterval = this.mPollInterval;
+		cp.mFeedTTL = this.mFeedTTL;
 	}
 }
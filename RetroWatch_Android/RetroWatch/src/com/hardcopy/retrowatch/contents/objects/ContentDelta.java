@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.contents.objects;
+
+import java.util.ArrayList;
+
+/**
+ * Changes of content list since last delta.
+ * An object appears in only one of added, removed and changed list.
+ */
+public class ContentDelta {
+	
+	public ArrayList<ContentObject> mAdded = new ArrayList<ContentObject>();
+	public ArrayList<ContentObject> mRemoved = new ArrayList<ContentObject>();
+	public ArrayList<ContentObject> mChanged = new ArrayList<ContentObject>();
+	
+	
+	public boolean isEmpty() {
+		return mAdded.isEmpty() && mRemoved.isEmpty() && mChanged.isEmpty();
+	}
+	
+	public void onAdded(ContentObject obj) {
+		if(removeInstance(mRemoved, obj)) {
+			mChanged.add(obj);		// Removed and added again
+			return;
+		}
+		mAdded.add(obj);
+	}
+	
+	public void onRemoved(ContentObject obj) {
+		if(removeInstance(mAdded, obj))
+			return;					// Added and removed. Nothing changed.
+		removeInstance(mChanged, obj);
+		mRemoved.add(obj);
+	}
+	
+	public void onChanged(ContentObject obj) {
+		if(containsInstance(mAdded, obj) || containsInstance(mChanged, obj))
+			return;
+		mChanged.add(obj);
+	}
+	
+	private boolean containsInstance(ArrayList<ContentObject> list, ContentObject obj) {
+		for(int i = list.size() - 1; i > -1; i--) {
+			if(list.get(i) == obj)
+				return true;
+		}
+		return false;
+	}
+	
+	private boolean removeInstance(ArrayList<ContentObject> list, ContentObject obj) {
+		for(int i = list.size() - 1; i > -1; i--) {
+			if(list.get(i) == obj) {
+				list.remove(i);
+				return true;
+			}
+		}
+		return false;
+	}
+}
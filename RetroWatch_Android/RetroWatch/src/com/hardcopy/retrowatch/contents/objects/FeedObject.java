@@ -113,6 +113,22 @@ public class FeedObject {
 		mVersion = ver;
 	}
 	
+	/**
+	 * Make a copy for another content provider which has same URL
+	 */
+	public FeedObject copy(int type) {
+		FeedObject feed = new FeedObject(type, mId, mLink, mKeyword, mContent, mThumbnailUrl);
+		feed.mName = mName;
+		feed.mDate = mDate;
+		feed.mDownloadStatus = mDownloadStatus;
+		feed.mRankType = mRankType;
+		feed.mRankUpAndDown = mRankUpAndDown;
+		feed.mCommentCount = mCommentCount;
+		feed.mVersion = mVersion;
+		feed.mFullSizeImageURL = mFullSizeImageURL;
+		return feed;
+	}
+	
 	public void printLog() {
 		Logs.d(TAG, "[+] mType = " + mType);
 		Logs.d(TAG, "[+] mId = " + mId);
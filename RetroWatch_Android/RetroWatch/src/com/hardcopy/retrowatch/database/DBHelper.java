@@ -17,6 +17,8 @@
 package com.hardcopy.retrowatch.database;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import com.hardcopy.retrowatch.connectivity.HttpInterface;
 import com.hardcopy.retrowatch.contents.objects.CPObject;
@@ -27,18 +29,18 @@ import com.hardcopy.retrowatch.utils.Logs;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
-import android.database.DatabaseUtils.InsertHelper;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
 
 public class DBHelper {
 	
 	private static final String TAG  ="DBHelper";
 	
-	private static final int DATABASE_VERSION = 4;
+	private static final int DATABASE_VERSION = 7;
 	public static final String DATABASE_NAME = "retrowatch";
 
 	//----------- Filters table parameters
@@ -82,6 +84,11 @@ public class DBHelper {
 													+ KEY_FILTER_ARG3 + " Text"
 													+ ")";
 	private static final String DATABASE_DROP_FILTERS_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME_FILTERS;
+	// Bind index of DATABASE_INSERT_FILTER starts from 1
+	private static final String DATABASE_INSERT_FILTER = "INSERT INTO " + TABLE_NAME_FILTERS + "("
+													+ KEY_FILTER_TYPE + ", " + KEY_FILTER_ICON_TYPE + ", " + KEY_FILTER_MATCHING + ", "
+													+ KEY_FILTER_REPLACE_TYPE + ", " + KEY_FILTER_ORIGINAL + ", " + KEY_FILTER_REPLACE
+													+ ") VALUES (?,?,?,?,?,?)";
 	//----------- End of Filters table parameters
 
 	//----------- Feed Item table
@@ -106,6 +113,7 @@ public class DBHelper {
 	public static final String KEY_FEED_ARG1 = "arg1";		// int 
 	public static final String KEY_FEED_ARG2 = "arg2";		// string
 	public static final String KEY_FEED_ARG3 = "arg3";		// string
+	public static final String KEY_FEED_CACHED = "cached";	// int		last time item was in feed, in second (added in version 7)
 	
 	public static final int INDEX_FEED_ID = 0;				// int
 	public static final int INDEX_FEED_TYPE = 1;		// int			not null
@@ -126,6 +134,7 @@ public class DBHelper {
 	public static final int INDEX_FEED_ARG1 = 16;		// int 
 	public static final int INDEX_FEED_ARG2 = 17;		// string
 	public static final int INDEX_FEED_ARG3 = 18;		// string
+	public static final int INDEX_FEED_CACHED = 19;		// int
 	
 	private static final String DATABASE_CREATE_FEED = "CREATE TABLE " +TABLE_NAME_FEED_ITEM+ "("
 													+ KEY_FEED_ID +" Integer primary key autoincrement, "
@@ -146,9 +155,35 @@ public class DBHelper {
 													+ KEY_FEED_ARG0 + " integer, " 	// Keyword result uses this field as <Rank type>
 													+ KEY_FEED_ARG1 + " integer, "	// Notice uses this as <version info>
 													+ KEY_FEED_ARG2 + " Text, "		// 9 Gag object uses this field as <Full size image url>
-													+ KEY_FEED_ARG3 + " Text"
+													+ KEY_FEED_ARG3 + " Text, "
+													+ KEY_FEED_CACHED + " Integer"		// Stale items are deleted by this time
 													+ ")";
+	// Same item (idstring) can exist only once in each content provider (type). Also used by type filters.
+	private static final String DATABASE_CREATE_FEED_INDEX_TYPE_ID = "CREATE UNIQUE INDEX IF NOT EXISTS idx_feed_type_idstring ON "
+													+ TABLE_NAME_FEED_ITEM + "(" + KEY_FEED_TYPE + ", " + KEY_FEED_IDSTRING + ")";
+	private static final String DATABASE_CREATE_FEED_INDEX_ID = "CREATE INDEX IF NOT EXISTS idx_feed_idstring ON "
+													+ TABLE_NAME_FEED_ITEM + "(" + KEY_FEED_IDSTRING + ")";
+	// Made by version 6. No query orders by date.
+	private static final String DATABASE_DROP_FEED_INDEX_DATE = "DROP INDEX IF EXISTS idx_feed_type_date";
+	// Keep latest row of duplicated items before making unique index
+	private static final String DATABASE_DELETE_FEED_DUPLICATES = "DELETE FROM " + TABLE_NAME_FEED_ITEM
+													+ " WHERE " + KEY_FEED_ID + " NOT IN (SELECT MAX(" + KEY_FEED_ID + ") FROM " + TABLE_NAME_FEED_ITEM
+													+ " GROUP BY " + KEY_FEED_TYPE + ", " + KEY_FEED_IDSTRING + ")";
+	private static final String DATABASE_CREATE_FEED_INDEX_CACHED = "CREATE INDEX IF NOT EXISTS idx_feed_cached ON "
+													+ TABLE_NAME_FEED_ITEM + "(" + KEY_FEED_CACHED + ")";
+	private static final String DATABASE_ALTER_FEED_ADD_CACHED = "ALTER TABLE " + TABLE_NAME_FEED_ITEM
+													+ " ADD COLUMN " + KEY_FEED_CACHED + " Integer";
+	private static final String DATABASE_TOUCH_FEED = "UPDATE " + TABLE_NAME_FEED_ITEM + " SET " + KEY_FEED_CACHED + "=?"
+													+ " WHERE " + KEY_FEED_TYPE + "=?";
 	private static final String DATABASE_DROP_FEED_ITEM_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME_FEED_ITEM;
+	// Bind index of DATABASE_INSERT_FEED starts from 1
+	private static final String DATABASE_INSERT_FEED = "INSERT OR REPLACE INTO " + TABLE_NAME_FEED_ITEM + "("
+													+ KEY_FEED_TYPE + ", " + KEY_FEED_STATUS + ", " + KEY_FEED_IDSTRING + ", "
+													+ KEY_FEED_NAME + ", " + KEY_FEED_LINK + ", " + KEY_FEED_KEYWORD + ", "
+													+ KEY_FEED_CONTENT + ", " + KEY_FEED_THUMBNAILURL + ", " + KEY_FEED_DATE + ", "
+													+ KEY_FEED_RANK + ", " + KEY_FEED_CLICK + ", " + KEY_FEED_ARG0 + ", "
+													+ KEY_FEED_ARG1 + ", " + KEY_FEED_ARG2 + ", " + KEY_FEED_CACHED
+													+ ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
 	//----------- End of Feed table parameters
 	
 	//----------- Content Provider table
@@ -173,9 +208,11 @@ public class DBHelper {
 	public static final String KEY_CP_SYS_PROP = "sysprop";						// int
 	public static final String KEY_CP_WIDGET_ITEM = "widget";						// int
 	public static final String KEY_CP_ARG0 = "arg0";		// int	
-	public static final String KEY_CP_ARG1 = "arg1";		// int 
+	public static final String KEY_CP_ARG1 = "arg1";		// int 	(poll interval)
 	public static final String KEY_CP_ARG2 = "arg2";		// string
 	public static final String KEY_CP_ARG3 = "arg3";		// string
+	public static final String KEY_CP_ETAG = "etag";		// string		(added in version 5)
+	public static final String KEY_CP_LAST_MODIFIED = "lastmodified";		// string		(added in version 5)
 	
 	public static final int INDEX_CP_ID = 0;					// int
 	public static final int INDEX_CP_URL  = 1;				// String
@@ -199,6 +236,8 @@ public class DBHelper {
 	public static final int INDEX_CP_ARG1 = 19;		// int 
 	public static final int INDEX_CP_ARG2 = 20;		// string
 	public static final int INDEX_CP_ARG3 = 21;		// string
+	public static final int INDEX_CP_ETAG = 22;		// string
+	public static final int INDEX_CP_LAST_MODIFIED = 23;		// string
 	
 	private static final String DATABASE_CREATE_CP = "CREATE TABLE " +TABLE_NAME_CONTENT_PROVIDER+ "("
 													+ KEY_CP_ID +" Integer primary key autoincrement, "
@@ -220,11 +259,28 @@ public class DBHelper {
 													+ KEY_CP_SYS_PROP + " Integer, "
 													+ KEY_CP_WIDGET_ITEM + " Integer, "
 													+ KEY_CP_ARG0 + " integer, "						// New item count
-													+ KEY_CP_ARG1 + " integer, "
+													+ KEY_CP_ARG1 + " integer, "						// Adaptive poll interval
 													+ KEY_CP_ARG2 + " Text, "			// Logo image URL
-													+ KEY_CP_ARG3 + " Text"
+													+ KEY_CP_ARG3 + " Text, "
+													+ KEY_CP_ETAG + " Text, "			// ETag of last response
+													+ KEY_CP_LAST_MODIFIED + " Text"	// Last-Modified of last response
 													+ ")";
+	private static final String DATABASE_ALTER_CP_ADD_ETAG = "ALTER TABLE " + TABLE_NAME_CONTENT_PROVIDER
+													+ " ADD COLUMN " + KEY_CP_ETAG + " Text";
+	private static final String DATABASE_ALTER_CP_ADD_LAST_MODIFIED = "ALTER TABLE " + TABLE_NAME_CONTENT_PROVIDER
+													+ " ADD COLUMN " + KEY_CP_LAST_MODIFIED + " Text";
 	private static final String DATABASE_DROP_CONTENT_PROVIDER_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME_CONTENT_PROVIDER;
+	// Bind index of DATABASE_INSERT_CP starts from 1
+	private static final String DATABASE_INSERT_CP = "INSERT INTO " + TABLE_NAME_CONTENT_PROVIDER + "("
+													+ KEY_CP_URL + ", " + KEY_CP_NAME + ", " + KEY_CP_LINK + ", "
+													+ KEY_CP_DESC + ", " + KEY_CP_LAST_BUILD + ", " + KEY_CP_LAST_UPDATED + ", "
+													+ KEY_CP_TTL + ", " + KEY_CP_VISIBLE + ", " + KEY_CP_VISIBLE_COUNT + ", "
+													+ KEY_CP_CACHING_COUNT + ", " + KEY_CP_CATEGORY + ", " + KEY_CP_CATEGORYNAME + ", "
+													+ KEY_CP_BG_DOWNLOAD + ", " + KEY_CP_DISPLAY_ORDER + ", " + KEY_CP_PARSING_TYPE + ", "
+													+ KEY_CP_SYS_PROP + ", " + KEY_CP_WIDGET_ITEM + ", " + KEY_CP_ARG0 + ", "
+													+ KEY_CP_ARG1 + ", " + KEY_CP_ARG2 + ", " + KEY_CP_ETAG + ", "
+													+ KEY_CP_LAST_MODIFIED
+													+ ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
 	//----------- End of Content provider table parameters
 	
 	
@@ -232,6 +288,9 @@ public class DBHelper {
 	private final Context mContext;
 	private SQLiteDatabase mDb;
 	private DatabaseHelper mDbHelper;
+	private SQLiteStatement mInsertFeedStatement;		// Compiled once, re-used by every feed insert
+	private SQLiteStatement mInsertFilterStatement;		// Compiled once, re-used by every filter insert
+	private SQLiteStatement mInsertCPStatement;			// Compiled once, re-used by every content provider insert
 	
 	// Constructor
 	public DBHelper(Context context) {
@@ -258,6 +317,18 @@ public class DBHelper {
 	
 	// Terminate DB
 	public void close() {
+		if(mInsertFeedStatement != null) {
+			mInsertFeedStatement.close();
+			mInsertFeedStatement = null;
+		}
+		if(mInsertFilterStatement != null) {
+			mInsertFilterStatement.close();
+			mInsertFilterStatement = null;
+		}
+		if(mInsertCPStatement != null) {
+			mInsertCPStatement.close();
+			mInsertCPStatement = null;
+		}
 		if(mDb != null) {
 			mDb.close();
 			mDb = null;
@@ -273,22 +344,9 @@ public class DBHelper {
 	//----------------------------------------------------------------------------------
 	public long insertFilter(FilterObject filter) throws SQLiteConstraintException 
 	{
-		if(filter.mType < 0 || filter.mCompareType < 0 || filter.mReplaceType < 0
-				|| filter.mOriginalString == null || filter.mOriginalString.length() < 1)
+		if(!isValidFilter(filter))
 			return -1;
 		
-		ContentValues insertValues = new ContentValues();
-		insertValues.put(KEY_FILTER_TYPE, filter.mType);
-		insertValues.put(KEY_FILTER_ICON_TYPE, filter.mIconType);
-		insertValues.put(KEY_FILTER_MATCHING, filter.mCompareType);
-		insertValues.put(KEY_FILTER_REPLACE_TYPE, filter.mReplaceType);
-		insertValues.put(KEY_FILTER_ORIGINAL, filter.mOriginalString);
-		insertValues.put(KEY_FILTER_REPLACE, filter.mReplaceString);
-//		insertValues.put(KEY_FILTER_ARG0, 0);		// for future use
-//		insertValues.put(KEY_FILTER_ARG1, 0);
-//		insertValues.put(KEY_FILTER_ARG2, "");
-//		insertValues.put(KEY_FILTER_ARG3, "");
-		
 		Logs.d(TAG, "+ Insert filter: type="+filter.mType+", icon="+filter.mIconType
 				+", compare="+filter.mCompareType+", replace type"+filter.mReplaceType
 				+", original="+filter.mOriginalString+", replace="+filter.mReplaceString);
@@ -296,8 +354,49 @@ public class DBHelper {
 		synchronized (mDb) {
 			if(mDb == null) 
 				return -1;
-			return mDb.insertOrThrow(TABLE_NAME_FILTERS, null, insertValues);
+			SQLiteStatement stmt = getInsertFilterStatement();
+			bindFilter(stmt, filter);
+			return stmt.executeInsert();
+		}
+	}
+	
+	/**
+	 * Insert filters in a single transaction with one compiled statement.
+	 * Invalid filters are skipped. mId of each inserted filter is set to its row ID.
+	 * @return		number of inserted filters, -1 if failed
+	 */
+	public int insertBulkFilters(ArrayList<FilterObject> filterList) 
+	{
+		if(filterList == null || filterList.size() < 1)
+			return 0;
+		
+		int inserted = 0;
+		synchronized (mDb) {
+			if(mDb == null) return -1;
+			try
+			{
+				mDb.beginTransaction();
+				SQLiteStatement stmt = getInsertFilterStatement();
+				for(FilterObject filter : filterList) {
+					if(!isValidFilter(filter))
+						continue;
+					bindFilter(stmt, filter);
+					filter.mId = (int)stmt.executeInsert();
+					inserted++;
+				}
+				mDb.setTransactionSuccessful();
+			}
+			catch(Exception e) {
+				e.printStackTrace();
+				return -1;
+			}
+			finally	{
+				mDb.endTransaction();
+			}
 		}
+		
+		Logs.d(TAG, "# Insert bulk filters : count = "+inserted);
+		return inserted;
 	}
 	
 	public long insertFeedItem(FeedObject feed) throws SQLiteConstraintException 
@@ -308,42 +407,18 @@ public class DBHelper {
 		
 		Logs.d(TAG, "# insert new content item : type = "+feed.mType);
 		
-		boolean isDataExist = false;
-		ContentValues insertInitialValues = new ContentValues();
-		insertInitialValues.put(KEY_FEED_TYPE, feed.mType);
-		insertInitialValues.put(KEY_FEED_STATUS, feed.mDownloadStatus);
-		insertInitialValues.put(KEY_FEED_IDSTRING, feed.mId);
-		if(feed.mName!= null && feed.mName.length()>0) {
-			insertInitialValues.put(KEY_FEED_NAME, feed.mName);
-		}
-		if(feed.mLink!=null && feed.mLink.length()>0) {
-			insertInitialValues.put(KEY_FEED_LINK, feed.mLink);
-			isDataExist= true;
-		}
-		if(feed.mKeyword!=null && feed.mKeyword.length()>0) {
-			insertInitialValues.put(KEY_FEED_KEYWORD, feed.mKeyword);
-			isDataExist= true;
-		}
-		if(feed.mContent!=null && feed.mContent.length()>0) {
-			insertInitialValues.put(KEY_FEED_CONTENT, feed.mContent);
-			isDataExist= true;
-		}
-		if(feed.mThumbnailUrl!=null && feed.mThumbnailUrl.length()>0) {
-			insertInitialValues.put(KEY_FEED_THUMBNAILURL, feed.mThumbnailUrl);
-			isDataExist= true;
-		}
-		insertInitialValues.put(KEY_FEED_DATE, feed.mDate);
-		insertInitialValues.put(KEY_FEED_RANK, feed.mRankUpAndDown);
-		insertInitialValues.put(KEY_FEED_CLICK, feed.mCommentCount);
-		insertInitialValues.put(KEY_FEED_ARG0, feed.mRankType);
-		insertInitialValues.put(KEY_FEED_ARG1, feed.mVersion);
-		insertInitialValues.put(KEY_FEED_ARG2, feed.mFullSizeImageURL);
+		// Item should have at least one of link, keyword, content and thumbnail
+		if(isEmpty(feed.mLink) && isEmpty(feed.mKeyword) 
+				&& isEmpty(feed.mContent) && isEmpty(feed.mThumbnailUrl))
+			return -1;
 		
 		synchronized (mDb) {
-			if(isDataExist == false) return -1;
 			if(mDb == null) return -1;
 			
-			return mDb.insertOrThrow(TABLE_NAME_FEED_ITEM, null, insertInitialValues);
+			// Replace previous row of same item (type, idstring)
+			SQLiteStatement stmt = getInsertFeedStatement();
+			bindFeed(stmt, feed, (int)(System.currentTimeMillis() / 1000));
+			return stmt.executeInsert();
 		}
 	}
 	
@@ -354,127 +429,135 @@ public class DBHelper {
 		
 		Logs.d(TAG, "# insert new content provider : type = "+cp.mParsingType);
 		
-		boolean isDataExist = false;
-		ContentValues insertInitialValues = new ContentValues();
-		if(cp.mURL!= null && cp.mURL.length()>0) {
-			insertInitialValues.put(KEY_CP_URL, cp.mURL);
-		}
-		if(cp.mName!= null && cp.mName.length()>0) {
-			insertInitialValues.put(KEY_CP_NAME, cp.mName);
-			isDataExist= true;
-		}
-		if(cp.mLink!=null && cp.mLink.length()>0) {
-			insertInitialValues.put(KEY_CP_LINK, cp.mLink);
-		}
-		if(cp.mDescription!=null && cp.mDescription.length()>0) {
-			insertInitialValues.put(KEY_CP_DESC, cp.mDescription);
-		}
-		if(cp.mLastBuildDate!=null && cp.mLastBuildDate.length()>0) {
-			insertInitialValues.put(KEY_CP_LAST_BUILD, cp.mLastBuildDate);
-		}
-		insertInitialValues.put(KEY_CP_LAST_UPDATED, cp.mLastUpdated);
-		insertInitialValues.put(KEY_CP_TTL, cp.mTTL);
-		insertInitialValues.put(KEY_CP_VISIBLE, (cp.mVisible ? 1 : 0) );
-		insertInitialValues.put(KEY_CP_VISIBLE_COUNT, cp.mVisibleCount);
-		insertInitialValues.put(KEY_CP_CACHING_COUNT, cp.mCachingCount);
-		insertInitialValues.put(KEY_CP_CATEGORY, cp.mCategory);
-		if(cp.mCategoryName!=null && cp.mCategoryName.length()>0) {
-			insertInitialValues.put(KEY_CP_CATEGORYNAME, cp.mCategoryName);
+		synchronized (mDb) {
+			if(mDb == null) return -1;
+			SQLiteStatement stmt = getInsertCPStatement();
+			bindCP(stmt, cp);
+			return stmt.executeInsert();
 		}
-		insertInitialValues.put(KEY_CP_BG_DOWNLOAD, (cp.mBackgroundDownload ? 1 : 0) );
-		insertInitialValues.put(KEY_CP_DISPLAY_ORDER, cp.mDisplayOrder);
-		insertInitialValues.put(KEY_CP_PARSING_TYPE, cp.mParsingType);
-		insertInitialValues.put(KEY_CP_SYS_PROP, cp.mSystemProperty);
-		insertInitialValues.put(KEY_CP_WIDGET_ITEM, (cp.mShowInWidget ? 1 : 0));
-		insertInitialValues.put(KEY_CP_ARG0, 0 );								// New item count
-		insertInitialValues.put(KEY_CP_ARG2, cp.mLogoImage );		// Logo image
+
+	}
+	
+	/**
+	 * Insert content providers in a single transaction with one compiled statement.
+	 * Content providers without name are skipped. mId of each inserted one is set to its row ID.
+	 * @return		number of inserted content providers, -1 if failed
+	 */
+	public int insertBulkCPItems(ArrayList<CPObject> cpList) 
+	{
+		if(cpList == null || cpList.size() < 1)
+			return 0;
 		
+		int inserted = 0;
 		synchronized (mDb) {
-			if(isDataExist == false) return -1;
-			
 			if(mDb == null) return -1;
-			return mDb.insertOrThrow(TABLE_NAME_CONTENT_PROVIDER, null, insertInitialValues);
+			try
+			{
+				mDb.beginTransaction();
+				SQLiteStatement stmt = getInsertCPStatement();
+				for(CPObject cp : cpList) {
+					if(cp.mName == null || cp.mName.length() < 1)
+						continue;
+					bindCP(stmt, cp);
+					cp.mId = (int)stmt.executeInsert();
+					inserted++;
+				}
+				mDb.setTransactionSuccessful();
+			}
+			catch(Exception e) {
+				e.printStackTrace();
+				return -1;
+			}
+			finally	{
+				mDb.endTransaction();
+			}
 		}
-
+		
+		Logs.d(TAG, "# Insert bulk content providers : count = "+inserted);
+		return inserted;
 	}
 	
-	public boolean insertBulkItems(ArrayList<FeedObject> feedList) 
+	/**
+	 * Merge parsed items of a content provider into saved items in a single transaction.
+	 * Items are matched with idstring. New items are inserted, changed items are updated
+	 * and saved items which are not in feedList are deleted. Unchanged rows are not touched.
+	 * @param type			content provider ID
+	 * @param feedList		parsed items. First one is recent one.
+	 * @param changedList	(out) inserted or updated items. Can be null.
+	 * @return		number of inserted and updated items, -1 if failed
+	 */
+	public int mergeFeedItems(int type, ArrayList<FeedObject> feedList, ArrayList<FeedObject> changedList) 
 	{
-		long start = System.currentTimeMillis();
-		int time = (int)(start / 1000);
-		if(feedList==null || feedList.size()<1) 
-			return false;
+		if(feedList == null) 
+			return -1;
 		
-		Logs.d(TAG, "# Insert bulk : type="+feedList.get(0).mType+", item count = "+feedList.size());
-
-		InsertHelper iHelp = new InsertHelper(mDb, TABLE_NAME_FEED_ITEM);
-		int ktype 		= iHelp.getColumnIndex(KEY_FEED_TYPE);
-		int kstatus 	= iHelp.getColumnIndex(KEY_FEED_STATUS);
-		int kid 			= iHelp.getColumnIndex(KEY_FEED_IDSTRING);
-		int kname 			= iHelp.getColumnIndex(KEY_FEED_NAME);
-		int klink 		= iHelp.getColumnIndex(KEY_FEED_LINK);
-		int kkeyword 	= iHelp.getColumnIndex(KEY_FEED_KEYWORD);
-		int kcontent 	= iHelp.getColumnIndex(KEY_FEED_CONTENT);
-		int kthumbnail 	= iHelp.getColumnIndex(KEY_FEED_THUMBNAILURL);
-		int kdate 			= iHelp.getColumnIndex(KEY_FEED_DATE);
-		int krank 			= iHelp.getColumnIndex(KEY_FEED_RANK);
-		int kclick 			= iHelp.getColumnIndex(KEY_FEED_CLICK);
-		int kranktype	= iHelp.getColumnIndex(KEY_FEED_ARG0);
-		int kversion	= iHelp.getColumnIndex(KEY_FEED_ARG1);
-		int kfullimage	= iHelp.getColumnIndex(KEY_FEED_ARG2);
+		int time = (int)(System.currentTimeMillis() / 1000);
+		int inserted = 0, updated = 0, deleted = 0;
+		
+		HashMap<String, FeedObject> parsedMap = new HashMap<String, FeedObject>();
+		for(FeedObject feed : feedList) {
+			if(feed.mId != null && feed.mId.length() > 0)
+				parsedMap.put(feed.mId, feed);
+		}
 		
 		synchronized (mDb) {
-			if(mDb == null) return false;
+			if(mDb == null) return -1;
 			try
 			{
 				mDb.beginTransaction();
-				// First one is recent one. So insert oldest first.
-				for(int i = feedList.size()-1 ; -1<i ; i--)
-				{
+				
+				// 1. Compare with saved items
+				Cursor c = mDb.query(TABLE_NAME_FEED_ITEM, null, 
+						KEY_FEED_TYPE + "=" + Integer.toString(type), 
+						null, null, null, null, null);
+				try {
+					while(c.moveToNext()) {
+						long rowId = c.getLong(INDEX_FEED_ID);
+						FeedObject feed = parsedMap.remove(c.getString(INDEX_FEED_IDSTRING));
+						if(feed == null) {
+							// Vanished item (or duplicated row)
+							mDb.delete(TABLE_NAME_FEED_ITEM, KEY_FEED_ID + "=" + rowId, null);
+							deleted++;
+						}
+						else if(isFeedChanged(c, feed)) {
+							mDb.update(TABLE_NAME_FEED_ITEM, makeFeedValues(feed), 
+									KEY_FEED_ID + "=" + rowId, null);
+							if(changedList != null) changedList.add(feed);
+							updated++;
+						}
+					}
+				} finally {
+					c.close();
+				}
+				
+				// 2. Insert new items. First one is recent one. So insert oldest first.
+				SQLiteStatement stmt = getInsertFeedStatement();
+				for(int i = feedList.size()-1 ; -1<i ; i--) {
 					FeedObject feed = feedList.get(i);
-					// need to tell the helper you are inserting (rather than replacing)
-					iHelp.prepareForInsert();
-
-					// do the equivalent of ContentValues.put("field","value") here
-					iHelp.bind(ktype, feed.mType);
-					iHelp.bind(kstatus, feed.mDownloadStatus);
-					iHelp.bind(kid, feed.mId);
-					if(feed.mName != null)
-						iHelp.bind(kname, feed.mName);
-					if(feed.mLink != null)
-						iHelp.bind(klink, feed.mLink);
-					if(feed.mKeyword != null)
-						iHelp.bind(kkeyword, feed.mKeyword);
-					if(feed.mContent != null)
-						iHelp.bind(kcontent, feed.mContent);
-					if(feed.mThumbnailUrl != null)
-						iHelp.bind(kthumbnail, feed.mThumbnailUrl);
-					if(feed.mDate != null)
-						iHelp.bind(kdate, feed.mDate);
-					else
-						iHelp.bind(kdate, time);
-
-					iHelp.bind(krank, feed.mRankUpAndDown);
-					iHelp.bind(kclick, feed.mCommentCount);
-					iHelp.bind(kranktype, feed.mRankType);
-					iHelp.bind(kversion, feed.mVersion);
-
-					if(feed.mFullSizeImageURL != null)
-						iHelp.bind(kfullimage, feed.mFullSizeImageURL);
-					
-					//the db.insert() equilvalent
-					iHelp.execute();
+					if(feed.mId == null || parsedMap.remove(feed.mId) == null)
+						continue;		// Already saved or duplicated in feedList
+					bindFeed(stmt, feed, time);
+					stmt.executeInsert();
+					if(changedList != null) changedList.add(feed);
+					inserted++;
 				}
+				
+				// 3. Every remaining item is in the feed now. Keep them from age pruning.
+				mDb.execSQL(DATABASE_TOUCH_FEED, new Object[] { time, type });
+				
 				mDb.setTransactionSuccessful();
 			}
 			catch(Exception e) {
+				e.printStackTrace();
+				return -1;
 			}
 			finally	{
 				mDb.endTransaction();
 			}
 		}
-
-		return true;
+		
+		Logs.d(TAG, "# Merge feed : type="+type+", inserted="+inserted+", updated="+updated+", deleted="+deleted);
+		return inserted + updated;
 	}
 	
 	//----------------------------------------------------------------------------------
@@ -649,6 +732,65 @@ public class DBHelper {
 		}
 	}
 	
+	/**
+	 * Save adaptive poll interval (in second) of content provider
+	 */
+	public int updatePollInterval(int type, int interval) 
+	{
+		ContentValues insertValues = new ContentValues();
+		insertValues.put(KEY_CP_ARG1, interval);
+		
+		synchronized (mDb) {
+			if(mDb == null) return -1;
+			return mDb.update( TABLE_NAME_CONTENT_PROVIDER,		// table
+									insertValues, 	// values
+									KEY_CP_ID + "='" + type + "'", 	// whereClause
+									null ); 		// whereArgs
+		}
+	}
+	
+	/**
+	 * Save cache validators of last response. Pass null to force full download at next request.
+	 * @param type		content provider ID. REQUEST_TYPE_NONE updates every content provider
+	 */
+	public int updateCacheValidator(int type, String etag, String lastModified) 
+	{
+		String where = null;
+		if(type != FeedObject.REQUEST_TYPE_NONE)
+			where = KEY_CP_ID + "='" + type + "'";
+		
+		ContentValues insertValues = new ContentValues();
+		insertValues.put(KEY_CP_ETAG, etag);
+		insertValues.put(KEY_CP_LAST_MODIFIED, lastModified);
+		
+		synchronized (mDb) {
+			if(mDb == null) return -1;
+			return mDb.update( TABLE_NAME_CONTENT_PROVIDER,		// table
+									insertValues, 	// values
+									where, 			// whereClause
+									null ); 		// whereArgs
+		}
+	}
+	
+	/**
+	 * Mark every saved item of a content provider as still in feed. Keeps them from age pruning.
+	 * mergeFeedItems() does this by itself. Call this when response has no body. (304)
+	 * @param type		content provider ID
+	 */
+	public void touchFeedItems(int type) 
+	{
+		int time = (int)(System.currentTimeMillis() / 1000);
+		
+		synchronized (mDb) {
+			if(mDb == null) return;
+			try {
+				mDb.execSQL(DATABASE_TOUCH_FEED, new Object[] { time, type });
+			} catch(Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
 	//----------------------------------------------------------------------------------
 	// Delete
 	//----------------------------------------------------------------------------------
@@ -710,6 +852,46 @@ public class DBHelper {
 								null);
 		}
 	}
+	/**
+	 * Delete items which were not in feed since cutoff time. Oldest ones first, limit rows at a time.
+	 * @param cutoff		in second
+	 * @param prunedTypes	[out] types of deleted items. Can be null.
+	 * @return		number of deleted items
+	 */
+	public int deleteFeedOlderThan(long cutoff, int limit, HashSet<Integer> prunedTypes) 
+	{
+		int deleted = 0;
+		synchronized (mDb) {
+			if(mDb == null) return 0;
+			try
+			{
+				mDb.beginTransaction();
+				Cursor c = mDb.query(TABLE_NAME_FEED_ITEM, new String[] { KEY_FEED_ID, KEY_FEED_TYPE }, 
+						KEY_FEED_CACHED + "<" + Long.toString(cutoff), 
+						null, null, null, KEY_FEED_CACHED, Integer.toString(limit));
+				try {
+					while(c.moveToNext()) {
+						deleted += mDb.delete(TABLE_NAME_FEED_ITEM, KEY_FEED_ID + "=" + c.getLong(0), null);
+						if(prunedTypes != null) prunedTypes.add(c.getInt(1));
+					}
+				} finally {
+					c.close();
+				}
+				mDb.setTransactionSuccessful();
+			}
+			catch(Exception e) {
+				e.printStackTrace();
+				return -1;
+			}
+			finally	{
+				mDb.endTransaction();
+			}
+		}
+		if(deleted > 0)
+			Logs.d(TAG, "# Prune feed : deleted="+deleted);
+		return deleted;
+	}
+	
 	public void deleteFeedAll(){				// Delete all items.
 		synchronized (mDb) {
 			if(mDb == null) return;
@@ -766,6 +948,184 @@ public class DBHelper {
 	}
 	
 
+	//----------------------------------------------------------------------------------
+	// Private methods
+	//----------------------------------------------------------------------------------
+	/**
+	 * Values to update saved item. Type, ID string, status and first received date are kept.
+	 */
+	private ContentValues makeFeedValues(FeedObject feed) 
+	{
+		ContentValues values = new ContentValues();
+		values.put(KEY_FEED_NAME, feed.mName);
+		values.put(KEY_FEED_LINK, feed.mLink);
+		values.put(KEY_FEED_KEYWORD, feed.mKeyword);
+		values.put(KEY_FEED_CONTENT, feed.mContent);
+		values.put(KEY_FEED_THUMBNAILURL, feed.mThumbnailUrl);
+		if(feed.mDate != null)
+			values.put(KEY_FEED_DATE, feed.mDate);
+		values.put(KEY_FEED_RANK, feed.mRankUpAndDown);
+		values.put(KEY_FEED_CLICK, feed.mCommentCount);
+		values.put(KEY_FEED_ARG0, feed.mRankType);
+		values.put(KEY_FEED_ARG1, feed.mVersion);
+		values.put(KEY_FEED_ARG2, feed.mFullSizeImageURL);
+		return values;
+	}
+	
+	/**
+	 * Must be called in synchronized (mDb) block
+	 */
+	private SQLiteStatement getInsertFeedStatement() 
+	{
+		if(mInsertFeedStatement == null)
+			mInsertFeedStatement = mDb.compileStatement(DATABASE_INSERT_FEED);
+		return mInsertFeedStatement;
+	}
+	
+	/**
+	 * Bind a feed item to DATABASE_INSERT_FEED. Previous bindings are cleared.
+	 * @param time		used as cached time, and as date if item has no date
+	 */
+	private void bindFeed(SQLiteStatement stmt, FeedObject feed, int time) 
+	{
+		stmt.clearBindings();
+		stmt.bindLong(1, feed.mType);
+		stmt.bindLong(2, feed.mDownloadStatus);
+		bindString(stmt, 3, feed.mId);
+		bindString(stmt, 4, feed.mName);
+		bindString(stmt, 5, feed.mLink);
+		bindString(stmt, 6, feed.mKeyword);
+		bindString(stmt, 7, feed.mContent);
+		bindString(stmt, 8, feed.mThumbnailUrl);
+		if(feed.mDate != null)
+			stmt.bindString(9, feed.mDate);
+		else
+			stmt.bindLong(9, time);
+		stmt.bindLong(10, feed.mRankUpAndDown);
+		stmt.bindLong(11, feed.mCommentCount);
+		stmt.bindLong(12, feed.mRankType);
+		stmt.bindLong(13, feed.mVersion);
+		bindString(stmt, 14, feed.mFullSizeImageURL);
+		stmt.bindLong(15, time);
+	}
+	
+	/**
+	 * Must be called in synchronized (mDb) block
+	 */
+	private SQLiteStatement getInsertFilterStatement() 
+	{
+		if(mInsertFilterStatement == null)
+			mInsertFilterStatement = mDb.compileStatement(DATABASE_INSERT_FILTER);
+		return mInsertFilterStatement;
+	}
+	
+	/**
+	 * Must be called in synchronized (mDb) block
+	 */
+	private SQLiteStatement getInsertCPStatement() 
+	{
+		if(mInsertCPStatement == null)
+			mInsertCPStatement = mDb.compileStatement(DATABASE_INSERT_CP);
+		return mInsertCPStatement;
+	}
+	
+	private boolean isValidFilter(FilterObject filter) 
+	{
+		return !(filter.mType < 0 || filter.mCompareType < 0 || filter.mReplaceType < 0
+				|| filter.mOriginalString == null || filter.mOriginalString.length() < 1);
+	}
+	
+	/**
+	 * Bind a filter to DATABASE_INSERT_FILTER. Previous bindings are cleared.
+	 */
+	private void bindFilter(SQLiteStatement stmt, FilterObject filter) 
+	{
+		stmt.clearBindings();
+		stmt.bindLong(1, filter.mType);
+		stmt.bindLong(2, filter.mIconType);
+		stmt.bindLong(3, filter.mCompareType);
+		stmt.bindLong(4, filter.mReplaceType);
+		bindString(stmt, 5, filter.mOriginalString);
+		bindString(stmt, 6, filter.mReplaceString);
+	}
+	
+	/**
+	 * Bind a content provider to DATABASE_INSERT_CP. Previous bindings are cleared.
+	 * Empty strings are saved as NULL like other optional columns.
+	 */
+	private void bindCP(SQLiteStatement stmt, CPObject cp) 
+	{
+		stmt.clearBindings();
+		bindString(stmt, 1, emptyToNull(cp.mURL));
+		bindString(stmt, 2, cp.mName);
+		bindString(stmt, 3, emptyToNull(cp.mLink));
+		bindString(stmt, 4, emptyToNull(cp.mDescription));
+		bindString(stmt, 5, emptyToNull(cp.mLastBuildDate));
+		stmt.bindLong(6, cp.mLastUpdated);
+		stmt.bindLong(7, cp.mTTL);
+		stmt.bindLong(8, (cp.mVisible ? 1 : 0));
+		stmt.bindLong(9, cp.mVisibleCount);
+		stmt.bindLong(10, cp.mCachingCount);
+		stmt.bindLong(11, cp.mCategory);
+		bindString(stmt, 12, emptyToNull(cp.mCategoryName));
+		stmt.bindLong(13, (cp.mBackgroundDownload ? 1 : 0));
+		stmt.bindLong(14, cp.mDisplayOrder);
+		stmt.bindLong(15, cp.mParsingType);
+		stmt.bindLong(16, cp.mSystemProperty);
+		stmt.bindLong(17, (cp.mShowInWidget ? 1 : 0));
+		stmt.bindLong(18, 0);						// New item count
+		stmt.bindLong(19, cp.mPollInterval);		// Poll interval
+		bindString(stmt, 20, cp.mLogoImage);		// Logo image
+		bindString(stmt, 21, cp.mETag);
+		bindString(stmt, 22, cp.mLastModified);
+	}
+	
+	private boolean isEmpty(String value) 
+	{
+		return (value == null || value.length() < 1);
+	}
+	
+	private String emptyToNull(String value) 
+	{
+		return isEmpty(value) ? null : value;
+	}
+	
+	private void bindString(SQLiteStatement stmt, int index, String value) 
+	{
+		if(value == null)
+			stmt.bindNull(index);
+		else
+			stmt.bindString(index, value);
+	}
+	
+	private boolean isFeedChanged(Cursor c, FeedObject feed) 
+	{
+		if(!isSameString(c.getString(INDEX_FEED_NAME), feed.mName)
+				|| !isSameString(c.getString(INDEX_FEED_LINK), feed.mLink)
+				|| !isSameString(c.getString(INDEX_FEED_KEYWORD), feed.mKeyword)
+				|| !isSameString(c.getString(INDEX_FEED_CONTENT), feed.mContent)
+				|| !isSameString(c.getString(INDEX_FEED_THUMBNAILURL), feed.mThumbnailUrl)
+				|| !isSameString(c.getString(INDEX_FEED_ARG2), feed.mFullSizeImageURL))
+			return true;
+		if(feed.mDate != null && !isSameString(c.getString(INDEX_FEED_DATE), feed.mDate))
+			return true;
+		if(c.getInt(INDEX_FEED_RANK) != feed.mRankUpAndDown
+				|| c.getInt(INDEX_FEED_CLICK) != feed.mCommentCount
+				|| c.getInt(INDEX_FEED_ARG0) != feed.mRankType
+				|| c.getInt(INDEX_FEED_ARG1) != feed.mVersion)
+			return true;
+		return false;
+	}
+	
+	private boolean isSameString(String saved, String parsed) 
+	{
+		// Empty string and null are same. (Old bulk insert didn't bind null values)
+		if(saved == null || saved.length() < 1)
+			return (parsed == null || parsed.length() < 1);
+		return saved.equals(parsed);
+	}
+	
+	
 	//----------------------------------------------------------------------------------
 	// SQLiteOpenHelper
 	//----------------------------------------------------------------------------------
@@ -783,19 +1143,52 @@ public class DBHelper {
 			db.execSQL(DATABASE_CREATE_FILTERS);
 			db.execSQL(DATABASE_CREATE_FEED);
 			db.execSQL(DATABASE_CREATE_CP);
+			createFeedIndexes(db);
+			db.execSQL(DATABASE_CREATE_FEED_INDEX_CACHED);
 		}
 
 		// Will be called when the version is increased
 		@Override
 		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-			// Keep previous data
-			db.execSQL(DATABASE_DROP_FILTERS_TABLE);
-			db.execSQL(DATABASE_DROP_FEED_ITEM_TABLE);
-			db.execSQL(DATABASE_DROP_CONTENT_PROVIDER_TABLE);
+			if(oldVersion < 4) {
+				// Too old. Make new tables
+				db.execSQL(DATABASE_DROP_FILTERS_TABLE);
+				db.execSQL(DATABASE_DROP_FEED_ITEM_TABLE);
+				db.execSQL(DATABASE_DROP_CONTENT_PROVIDER_TABLE);
+				
+				db.execSQL(DATABASE_CREATE_FILTERS);
+				db.execSQL(DATABASE_CREATE_FEED);
+				db.execSQL(DATABASE_CREATE_CP);
+				createFeedIndexes(db);
+				db.execSQL(DATABASE_CREATE_FEED_INDEX_CACHED);
+				return;
+			}
 			
-			db.execSQL(DATABASE_CREATE_FILTERS);
-			db.execSQL(DATABASE_CREATE_FEED);
-			db.execSQL(DATABASE_CREATE_CP);
+			// Keep previous data
+			if(oldVersion < 5) {
+				// Version 5 : cache validators for conditional GET
+				db.execSQL(DATABASE_ALTER_CP_ADD_ETAG);
+				db.execSQL(DATABASE_ALTER_CP_ADD_LAST_MODIFIED);
+			}
+			if(oldVersion < 6) {
+				// Version 6 : feed item indexes. Remove duplicated items first to make unique index.
+				// (SQLiteOpenHelper runs onUpgrade in a transaction)
+				db.execSQL(DATABASE_DELETE_FEED_DUPLICATES);
+				createFeedIndexes(db);
+			}
+			if(oldVersion < 7) {
+				// Version 7 : cached time for age pruning. Saved items start aging from now.
+				db.execSQL(DATABASE_DROP_FEED_INDEX_DATE);
+				db.execSQL(DATABASE_ALTER_FEED_ADD_CACHED);
+				db.execSQL("UPDATE " + TABLE_NAME_FEED_ITEM + " SET " + KEY_FEED_CACHED + "=?", 
+						new Object[] { System.currentTimeMillis() / 1000 });
+				db.execSQL(DATABASE_CREATE_FEED_INDEX_CACHED);
+			}
+		}
+		
+		private void createFeedIndexes(SQLiteDatabase db) {
+			db.execSQL(DATABASE_CREATE_FEED_INDEX_TYPE_ID);
+			db.execSQL(DATABASE_CREATE_FEED_INDEX_ID);
 		}
 		
 	}	// End of class DatabaseHelper
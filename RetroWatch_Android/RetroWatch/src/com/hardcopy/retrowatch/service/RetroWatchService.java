@@ -22,10 +22,13 @@ import java.util.TimerTask;
 
 import com.hardcopy.retrowatch.R;
 import com.hardcopy.retrowatch.connectivity.BluetoothManager;
+import com.hardcopy.retrowatch.connectivity.CompactText;
 import com.hardcopy.retrowatch.connectivity.ConnectionInfo;
+import com.hardcopy.retrowatch.connectivity.ITransactionHandler;
 import com.hardcopy.retrowatch.connectivity.TransactionBuilder;
 import com.hardcopy.retrowatch.connectivity.TransactionBuilder.Transaction;
 import com.hardcopy.retrowatch.connectivity.TransactionReceiver;
+import com.hardcopy.retrowatch.connectivity.WriteQueue;
 import com.hardcopy.retrowatch.contents.ContentManager;
 import com.hardcopy.retrowatch.contents.IContentManagerListener;
 import com.hardcopy.retrowatch.contents.objects.CPObject;
@@ -85,6 +88,8 @@ public class RetroWatchService extends Service implements IContentManagerListene
 	
 	// Contents
 	private ContentManager mContentManager = null;
+	private WatchSyncTracker mSyncTracker = new WatchSyncTracker();
+	private boolean mIsSyncPending = false;		// Sync postponed until write queue drains
 	
 	// Auto-refresh timer
 	private Timer mRefreshTimer = null;
@@ -159,6 +164,14 @@ public class RetroWatchService extends Service implements IContentManagerListene
 			mActivityHandler.obtainMessage(Constants.MESSAGE_FEED_UPDATED, feedList).sendToTarget();
 			break;
 			
+		case IContentManagerListener.CALLBACK_CONTENT_CHANGED:
+			if(mActivityHandler != null)
+				mActivityHandler.obtainMessage(Constants.MESSAGE_CONTENT_CHANGED, arg4).sendToTarget();
+			// Only the difference is sent. So push changes to watch without waiting periodic update.
+			if(mBtManager != null && mBtManager.getState() == BluetoothManager.STATE_CONNECTED)
+				reserveRemoteUpdate(DEFAULT_UPDATE_DELAY);
+			break;
+			
 		default:
 			break;
 		}
@@ -188,6 +201,11 @@ public class RetroWatchService extends Service implements IContentManagerListene
 		iFilter.addAction(Intent.ACTION_BATTERY_CHANGED);
 		registerReceiver(mBatteryInfoReceiver, iFilter);
 		
+		// Reconnect as soon as the watch link is back
+		IntentFilter aclFilter = new IntentFilter();
+		aclFilter.addAction(BluetoothDevice.ACTION_ACL_CONNECTED);
+		registerReceiver(mAclReceiver, aclFilter);
+		
 		// Set telephony listener
 		TelephonyStateListener telephonyListener = new TelephonyStateListener();
 		TelephonyManager telephony = (TelephonyManager) mContext.getSystemService(Context.TELEPHONY_SERVICE);
@@ -252,6 +270,10 @@ public class RetroWatchService extends Service implements IContentManagerListene
 		transaction.settingFinished();
 		transaction.sendTransaction();
 		
+		// Reliable frames are acknowledged and sent again if lost.
+		if(mBtManager != null && mBtManager.isReliableMode())
+			return;
+		
 		// Arduino doesn't catch first command's end byte. 
 		// But I don't know why.
 		// To be sure, send reset transaction again.
@@ -271,6 +293,10 @@ public class RetroWatchService extends Service implements IContentManagerListene
 		transaction.settingFinished();
 		transaction.sendTransaction();
 		
+		// Reliable frames are acknowledged and sent again if lost.
+		if(mBtManager != null && mBtManager.isReliableMode())
+			return;
+		
 		// Arduino doesn't catch first command's end byte. 
 		// But I don't know why.
 		// To be sure, send reset transaction again.
@@ -281,80 +307,78 @@ public class RetroWatchService extends Service implements IContentManagerListene
 		transaction2.sendTransaction();
 	}
 	
-	private void sendDataResetSignalToDevice() {
-		sendTimeToDevice();
-		resetNormalObjectOfDevice();
-		resetEmergencyObjectOfDevice();
-	}
-	
-	private void sendContentsToDevice(ArrayList<ContentObject> contents) {
-		for(ContentObject obj : contents) {
-			if(obj.mIsEnabled)
-				sendContentsToDevice(obj);	// Send enabled items only
+	/**
+	 * Send only the difference between watch and content list.
+	 * If watch contents are unknown (new connection), watch is reset first and every item is sent.
+	 */
+	private void syncContentsToDevice() {
+		if(mTransactionBuilder == null || mContentManager == null || mBtManager == null
+				|| mBtManager.getState() != BluetoothManager.STATE_CONNECTED)
+			return;
+		
+		// Backpressure: watch link is too slow. Try again when write queue drains.
+		if(mTransactionBuilder.isCongested()) {
+			mIsSyncPending = true;
+			return;
 		}
-	}
-	
-	private boolean sendContentsToDevice(ContentObject obj) {
-		if(obj == null || mTransactionBuilder==null || !obj.mIsEnabled
-				/*|| obj.mId < 0*/ || obj.mFilteredString == null || obj.mFilteredString.length() < 1)
-			return false;
+		mIsSyncPending = false;
 		
-		TransactionBuilder.Transaction transaction = mTransactionBuilder.makeTransaction();
-		transaction.begin();
-
-		switch(obj.mContentType) {
-		case ContentObject.CONTENT_TYPE_NOTIFICATION:
-			// Set transaction parameters
-			transaction.setCommand(Transaction.COMMAND_TYPE_ADD_NORMAL_OBJ);
-			transaction.setIcon(obj.mIconType);
-			transaction.setMessage(obj.mId, obj.mFilteredString);
-			
-			transaction.settingFinished();
-			transaction.sendTransaction();
-			break;
-			
-		case ContentObject.CONTENT_TYPE_FEED:
-		case ContentObject.CONTENT_TYPE_MESSAGING:
-			// Set transaction parameters
-			transaction.setCommand(Transaction.COMMAND_TYPE_ADD_NORMAL_OBJ);
-			transaction.setIcon(obj.mIconType);
-			transaction.setMessage(obj.mId, obj.mFilteredString);
-			
-			transaction.settingFinished();
-			transaction.sendTransaction();
-			break;
-			
-		case ContentObject.CONTENT_TYPE_EMERGENCY:
-			// Set transaction parameters
-			transaction.setCommand(Transaction.COMMAND_TYPE_ADD_EMERGENCY_OBJ);
-			transaction.setIcon(obj.mIconType);
-			transaction.setMessage(obj.mId, obj.mFilteredString);
-			
-			transaction.settingFinished();
-			transaction.sendTransaction();
-			break;
-			
-		default:
-			return false;
+		if(!mSyncTracker.isSynced()) {
+			resetNormalObjectOfDevice();
+			resetEmergencyObjectOfDevice();
+			mSyncTracker.onDeviceReset();
 		}
 		
-		return true;
-	}
-	
-	private void deleteEmergencyOfDevice(int type) {
-		if(mTransactionBuilder == null && mBtManager != null && mActivityHandler != null) {
-			mTransactionBuilder = new TransactionBuilder(mBtManager, mActivityHandler);
+		ArrayList<WatchSyncTracker.Entry> deleted = new ArrayList<WatchSyncTracker.Entry>();
+		ArrayList<WatchSyncTracker.Entry> added = new ArrayList<WatchSyncTracker.Entry>();
+		mSyncTracker.update(mContentManager.getEnabledContentObjectList(), deleted, added);
+		
+		// Delete first to make free slots on watch
+		boolean isDropped = false;
+		for(WatchSyncTracker.Entry entry : deleted) {
+			TransactionBuilder.Transaction transaction = mTransactionBuilder.makeTransaction();
+			transaction.begin();
+			transaction.setCommand(entry.isEmergency() ? Transaction.COMMAND_TYPE_DELETE_EMERGENCY_OBJ 
+					: Transaction.COMMAND_TYPE_DELETE_NORMAL_OBJ);
+			transaction.setId(entry.mHandle);
+			transaction.settingFinished();
+			if(!transaction.sendTransaction())
+				isDropped = true;
 		}
 		
-		if(mTransactionBuilder != null) {
+		for(WatchSyncTracker.Entry entry : added) {
 			TransactionBuilder.Transaction transaction = mTransactionBuilder.makeTransaction();
 			transaction.begin();
-			transaction.setCommand(TransactionBuilder.Transaction.COMMAND_TYPE_DELETE_EMERGENCY_OBJ);
-			transaction.setId(type);		// use type as ID
-			
+			transaction.setCommand(entry.isEmergency() ? Transaction.COMMAND_TYPE_ADD_EMERGENCY_OBJ 
+					: Transaction.COMMAND_TYPE_ADD_NORMAL_OBJ);
+			transaction.setIcon(entry.mIconType);
+			transaction.setMessage(entry.mHandle, entry.mMessage);
+			if(entry.mContentType == ContentObject.CONTENT_TYPE_FEED)
+				transaction.setPriority(WriteQueue.PRIORITY_FEED);
 			transaction.settingFinished();
-			transaction.sendTransaction();
+			if(!transaction.sendTransaction())
+				isDropped = true;
 		}
+		
+		// Watch keeps one long message. Send full text of the newest item if it doesn't fit in ADD.
+		if(!isDropped && added.size() > 0) {
+			WatchSyncTracker.Entry entry = added.get(added.size() - 1);
+			int priority = WriteQueue.PRIORITY_NORMAL;
+			if(entry.isEmergency())
+				priority = WriteQueue.PRIORITY_EMERGENCY;
+			else if(entry.mContentType == ContentObject.CONTENT_TYPE_FEED)
+				priority = WriteQueue.PRIORITY_FEED;
+			if(!mTransactionBuilder.sendLongMessage(entry.mHandle, entry.mMessage, priority))
+				Logs.d(TAG, "# Long message is not sent : queue is full");
+		}
+		
+		// Watch didn't get everything. Mirror is not reliable, do full sync on next update.
+		if(isDropped) {
+			mSyncTracker.clear();
+			mIsSyncPending = true;
+		}
+		
+		Logs.d(TAG, "# Sync contents : deleted="+deleted.size()+", added="+added.size()+", on watch="+mSyncTracker.size());
 	}
 	
 	private void sendClockStyleToDevice(int style) {
@@ -373,6 +397,22 @@ public class RetroWatchService extends Service implements IContentManagerListene
 		}
 	}
 	
+	/**
+	 * @param mode	dictionary version of CompactText, or Transaction.TEXT_MODE_PLAIN
+	 */
+	private boolean sendTextModeToDevice(int mode) {
+		if(mTransactionBuilder == null)
+			return false;
+		
+		TransactionBuilder.Transaction transaction = mTransactionBuilder.makeTransaction();
+		transaction.begin();
+		transaction.setCommand(TransactionBuilder.Transaction.COMMAND_TYPE_SET_TEXT_MODE);
+		transaction.setId(mode);
+		
+		transaction.settingFinished();
+		return transaction.sendTransaction();
+	}
+	
 	private void sendIndicatorSettingToDevice(int code) {
 		if(mTransactionBuilder == null && mBtManager != null && mActivityHandler != null) {
 			mTransactionBuilder = new TransactionBuilder(mBtManager, mActivityHandler);
@@ -411,6 +451,9 @@ public class RetroWatchService extends Service implements IContentManagerListene
 		if(mBatteryInfoReceiver != null)
 			unregisterReceiver(mBatteryInfoReceiver);
 		mBatteryInfoReceiver = null;
+		if(mAclReceiver != null)
+			unregisterReceiver(mAclReceiver);
+		mAclReceiver = null;
 		
 		// Stop the timer
 		if(mRefreshTimer != null) {
@@ -422,6 +465,10 @@ public class RetroWatchService extends Service implements IContentManagerListene
 			mDeleteTimer = null;
 		}
 		
+		if(mTransactionReceiver != null)
+			mTransactionReceiver.finalize();
+		mTransactionReceiver = null;
+		
 		mContentManager.finalize();
 	}
 	
@@ -435,8 +482,13 @@ public class RetroWatchService extends Service implements IContentManagerListene
 		// Initialize transaction builder & receiver
 		if(mTransactionBuilder == null)
 			mTransactionBuilder = new TransactionBuilder(mBtManager, mActivityHandler);
-		if(mTransactionReceiver == null)
-			mTransactionReceiver = new TransactionReceiver(mActivityHandler);
+		if(mTransactionReceiver == null) {
+			mTransactionReceiver = new TransactionReceiver();
+			AckHandler ackHandler = new AckHandler();
+			mTransactionReceiver.registerHandler(TransactionReceiver.COMMAND_TYPE_ACK, ackHandler);
+			mTransactionReceiver.registerHandler(TransactionReceiver.COMMAND_TYPE_NAK, ackHandler);
+			mTransactionReceiver.registerHandler(TransactionReceiver.COMMAND_TYPE_CAPABILITIES, new CapabilityHandler());
+		}
 		
 		// If ConnectionInfo holds previous connection info,
 		// try to connect using it.
@@ -528,9 +580,12 @@ public class RetroWatchService extends Service implements IContentManagerListene
 		return mConnectionInfo.getDeviceName();
 	}
 	
+	/**
+	 * Reset watch and send every content again.
+	 */
 	public boolean sendEveryContentsToDevice() {
-		ArrayList<ContentObject> contents = mContentManager.getContentObjectList();
-		sendContentsToDevice(contents);
+		mSyncTracker.clear();
+		syncContentsToDevice();
 		return true;
 	}
 	
@@ -638,6 +693,15 @@ public class RetroWatchService extends Service implements IContentManagerListene
 		mRefreshTimer.schedule(new RefreshTimerTask(), delay, SENDING_CONTENTS_INTERVAL);
 	}
 	
+	/**
+	 * Forget what watch holds and resend every content after delay.
+	 * Use this when watch contents might be out of sync (ex: user requested).
+	 */
+	public void reserveFullRemoteUpdate(long delay) {
+		mSyncTracker.clear();
+		reserveRemoteUpdate(delay);
+	}
+	
 	public void setGmailAddress(String gmailAddr) {
 		mContentManager.setGmailAddress(gmailAddr);
 	}
@@ -680,6 +744,7 @@ public class RetroWatchService extends Service implements IContentManagerListene
 				switch (msg.arg1) {
 				case BluetoothManager.STATE_NONE:
 					mActivityHandler.obtainMessage(Constants.MESSAGE_BT_STATE_INITIALIZED).sendToTarget();
+					mSyncTracker.clear();
 					if(mRefreshTimer != null) {
 						mRefreshTimer.cancel();
 						mRefreshTimer = null;
@@ -697,7 +762,15 @@ public class RetroWatchService extends Service implements IContentManagerListene
 				case BluetoothManager.STATE_CONNECTED:
 					mActivityHandler.obtainMessage(Constants.MESSAGE_BT_STATE_CONNECTED).sendToTarget();
 					
-					// Fully update remote device every 1 hour
+					// Ask watch to acknowledge packets. Old firmware ignores this.
+					// New firmware answers with capabilities frame.
+					if(mTransactionBuilder != null) {
+						mTransactionBuilder.setCompactText(false);
+						mTransactionBuilder.probeReliableMode();
+					}
+					
+					// Watch contents are unknown. First update resets watch and sends everything.
+					mSyncTracker.clear();
 					reserveRemoteUpdate(5000);
 					break;
 				}
@@ -706,12 +779,30 @@ public class RetroWatchService extends Service implements IContentManagerListene
 			case BluetoothManager.MESSAGE_WRITE:
 				Logs.d(TAG, "Service - MESSAGE_WRITE: ");
 				break;
+				
+			case BluetoothManager.MESSAGE_WRITE_QUEUE_DRAINED:
+				Logs.d(TAG, "Service - MESSAGE_WRITE_QUEUE_DRAINED: ");
+				if(mIsSyncPending)
+					syncContentsToDevice();
+				break;
+				
+			case BluetoothManager.MESSAGE_DELIVERY_FAILED:
+				Logs.d(TAG, "Service - MESSAGE_DELIVERY_FAILED: ");
+				// Some packets are lost. Watch contents are unknown.
+				// Watch leaves compact text mode when plain frame arrives. Negotiate again with probe.
+				mSyncTracker.clear();
+				if(mTransactionBuilder != null) {
+					mTransactionBuilder.setCompactText(false);
+					mTransactionBuilder.probeReliableMode();
+				}
+				reserveRemoteUpdate(5000);
+				break;
 
 			case BluetoothManager.MESSAGE_READ:
 				Logs.d(TAG, "Service - MESSAGE_READ: ");
 				
 				byte[] readBuf = (byte[]) msg.obj;
-				// construct commands from the valid bytes in the buffer
+				// Receiver decodes and dispatches commands on its own worker thread
 				if(mTransactionReceiver != null)
 					mTransactionReceiver.setByteArray(readBuf);
 				break;
@@ -851,9 +942,7 @@ public class RetroWatchService extends Service implements IContentManagerListene
 					mActivityHandler.obtainMessage(Constants.MESSAGE_CALL_STATE_RECEIVED, co).sendToTarget();
 				// send to device
 				if(co != null)
-					sendContentsToDevice(co);
-				//else
-				//	deleteEmergencyOfDevice(EmergencyObject.EMERGENCY_TYPE_CALL_STATE);
+					syncContentsToDevice();
 				break;
 			case TelephonyManager.CALL_STATE_OFFHOOK:
 			default:
@@ -879,10 +968,7 @@ public class RetroWatchService extends Service implements IContentManagerListene
 				if(mActivityHandler != null)
 					mActivityHandler.obtainMessage(Constants.MESSAGE_RF_STATE_RECEIVED, co).sendToTarget();
 				// send to device
-				if(co != null)
-					sendContentsToDevice(co);
-				else
-					deleteEmergencyOfDevice(EmergencyObject.EMERGENCY_TYPE_RF_STATE);
+				syncContentsToDevice();
 				break;
 			}
 		}
@@ -932,6 +1018,24 @@ public class RetroWatchService extends Service implements IContentManagerListene
 		}
 	};
 	
+	private BroadcastReceiver mAclReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			if (!BluetoothDevice.ACTION_ACL_CONNECTED.equals(intent.getAction()))
+				return;
+			
+			BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+			String address = mConnectionInfo.getDeviceAddress();
+			if(device == null || address == null || !address.equals(device.getAddress()))
+				return;
+			
+			// Skip the backoff delay. BluetoothManager ignores this while connecting or connected.
+			Logs.d(TAG, "# ACL connected : " + address);
+			if(mBtManager != null)
+				mBtManager.reconnectNow();
+		}
+	};
+	
     /**
      * Auto-refresh Timer
      */
@@ -942,8 +1046,51 @@ public class RetroWatchService extends Service implements IContentManagerListene
 		public void run() {
 			mServiceHandler.post(new Runnable() {
 				public void run() {
-					sendDataResetSignalToDevice();
-					sendEveryContentsToDevice();
+					sendTimeToDevice();
+					syncContentsToDevice();
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Receives ACK/NAK of reliable frames. Called on receiver worker thread.
+	 */
+	private class AckHandler implements ITransactionHandler {
+		@Override
+		public void OnTransactionReceived(int command, byte[] data) {
+			if(mBtManager == null || data == null || data.length < 1)
+				return;
+			int seq = data[0] & 0xFF;
+			if(command == TransactionReceiver.COMMAND_TYPE_ACK)
+				mBtManager.onAck(seq);
+			else if(command == TransactionReceiver.COMMAND_TYPE_NAK)
+				mBtManager.onNak(seq);
+		}
+	}
+	
+	/**
+	 * Receives features of watch firmware. Called on receiver worker thread.
+	 */
+	private class CapabilityHandler implements ITransactionHandler {
+		@Override
+		public void OnTransactionReceived(int command, byte[] data) {
+			if(mTransactionBuilder == null || data == null || data.length < 2)
+				return;
+			boolean isCompact = (data[0] & TransactionReceiver.CAPABILITY_COMPACT_TEXT) != 0
+					&& (data[1] & 0xFF) == CompactText.VERSION;
+			Logs.d(TAG, "# Watch capabilities : flags="+data[0]+", dictionary="+data[1]+", compact text="+isCompact);
+			if(!isCompact)
+				return;		// Watch stays in plain text mode
+			
+			mServiceHandler.post(new Runnable() {
+				public void run() {
+					// Watch expands codes only after this command. Messages made from now on use it.
+					if(!sendTextModeToDevice(CompactText.VERSION))
+						return;
+					mTransactionBuilder.setCompactText(true);
+					// Items sent in plain text may be drawn as words. Resend everything.
+					reserveFullRemoteUpdate(1000);
 				}
 			});
 		}
@@ -956,8 +1103,8 @@ public class RetroWatchService extends Service implements IContentManagerListene
 		public void run() {
 			mServiceHandler.post(new Runnable() {
 				public void run() {
-					sendDataResetSignalToDevice();
-					sendEveryContentsToDevice();
+					sendTimeToDevice();
+					syncContentsToDevice();
 					mDeleteTimer = null;
 				}
 			});
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.hardcopy.retrowatch.contents.objects.ContentObject;
+
+/**
+ * Mirrors the contents the watch currently holds.
+ * Each item on the watch is identified by content type, ContentObject.mId and a hash of what is drawn (icon, message).
+ * update() compares the mirror with the desired content list and returns only the items to delete and to add.
+ * Watch side uses 1 byte handle to identify items, so tracker assigns unique handle to each item.
+ */
+public class WatchSyncTracker {
+
+	// Must match MSG_COUNT_MAX, EMG_COUNT_MAX of watch
+	public static final int NORMAL_SLOT_COUNT = 7;
+	public static final int EMERGENCY_SLOT_COUNT = 3;
+
+	// 0x00 means empty slot, 0xFC~0xFF are used as control bytes on the link
+	private static final int HANDLE_MIN = 0x01;
+	private static final int HANDLE_MAX = 0xEF;
+
+	private HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+	private boolean[] mHandleInUse = new boolean[HANDLE_MAX + 1];
+	private int mNextHandle = HANDLE_MIN;
+	private boolean mIsSynced = false;
+
+
+	/*****************************************************
+	 *		Public methods
+	 ******************************************************/
+
+	/**
+	 * Forget everything. Next update() will be a full resync which starts with reset commands.
+	 * Call this when connection is lost or established.
+	 */
+	public synchronized void clear() {
+		mEntries.clear();
+		for(int i=0; i<mHandleInUse.length; i++)
+			mHandleInUse[i] = false;
+		mNextHandle = HANDLE_MIN;
+		mIsSynced = false;
+	}
+
+	/**
+	 * @return	false if watch contents are unknown and watch must be reset before update()
+	 */
+	public synchronized boolean isSynced() {
+		return mIsSynced;
+	}
+
+	/**
+	 * Call after reset commands are sent. Watch holds nothing from now on.
+	 */
+	public synchronized void onDeviceReset() {
+		clear();
+		mIsSynced = true;
+	}
+
+	public synchronized int size() {
+		return mEntries.size();
+	}
+
+	/**
+	 * Compare watch contents with desired contents and update the mirror.
+	 * Only the last NORMAL_SLOT_COUNT normal items and EMERGENCY_SLOT_COUNT emergency items are kept,
+	 * same as the ring buffer of watch keeps the latest items.
+	 * @param contents		desired contents. Disabled or empty items are ignored.
+	 * @param deleted		[out] items to delete from watch. Send these first to make free slots.
+	 * @param added			[out] items to add to watch
+	 */
+	public synchronized void update(ArrayList<ContentObject> contents,
+			ArrayList<Entry> deleted, ArrayList<Entry> added) {
+		HashMap<String, Entry> desired = new HashMap<String, Entry>();
+		ArrayList<Entry> order = new ArrayList<Entry>();
+		int normalCount = 0;
+		int emergencyCount = 0;
+
+		// Pick items from the tail
+		for(int i = contents.size() - 1; i > -1; i--) {
+			ContentObject obj = contents.get(i);
+			if(obj == null || !obj.mIsEnabled
+					|| obj.mFilteredString == null || obj.mFilteredString.length() < 1)
+				continue;
+
+			boolean isEmergency = (obj.mContentType == ContentObject.CONTENT_TYPE_EMERGENCY);
+			if(!isEmergency && obj.mContentType != ContentObject.CONTENT_TYPE_NOTIFICATION
+					&& obj.mContentType != ContentObject.CONTENT_TYPE_MESSAGING
+					&& obj.mContentType != ContentObject.CONTENT_TYPE_FEED)
+				continue;
+			if(isEmergency && emergencyCount >= EMERGENCY_SLOT_COUNT)
+				continue;
+			if(!isEmergency && normalCount >= NORMAL_SLOT_COUNT)
+				continue;
+
+			Entry entry = new Entry(obj);
+			String key = entry.getKey();
+			if(desired.containsKey(key))
+				continue;		// Same message is shown once
+
+			desired.put(key, entry);
+			order.add(0, entry);
+			if(isEmergency)
+				emergencyCount++;
+			else
+				normalCount++;
+		}
+
+		// Items on watch but not desired
+		ArrayList<String> removedKeys = new ArrayList<String>();
+		for(String key : mEntries.keySet()) {
+			if(!desired.containsKey(key))
+				removedKeys.add(key);
+		}
+		for(String key : removedKeys) {
+			Entry entry = mEntries.remove(key);
+			mHandleInUse[entry.mHandle] = false;
+			deleted.add(entry);
+		}
+
+		// Desired items not on watch yet
+		for(Entry entry : order) {
+			String key = entry.getKey();
+			if(mEntries.containsKey(key))
+				continue;
+			entry.mHandle = allocateHandle();
+			mEntries.put(key, entry);
+			added.add(entry);
+		}
+
+		mIsSynced = true;
+	}
+
+
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+
+	private int allocateHandle() {
+		// Handles are not reused right away. A delayed delete can't remove the new item.
+		for(int i = 0; i <= HANDLE_MAX - HANDLE_MIN; i++) {
+			int handle = mNextHandle;
+			mNextHandle++;
+			if(mNextHandle > HANDLE_MAX)
+				mNextHandle = HANDLE_MIN;
+
+			if(!mHandleInUse[handle]) {
+				mHandleInUse[handle] = true;
+				return handle;
+			}
+		}
+		// Cannot reach here: watch holds far fewer items than handles
+		return HANDLE_MIN;
+	}
+
+
+	/*****************************************************
+	 *		Sub classes
+	 ******************************************************/
+
+	/**
+	 * An item on the watch. Holds a copy of what was sent, so later changes of ContentObject are detected.
+	 */
+	public static class Entry {
+		public int mContentType;
+		public int mId;
+		public int mIconType;
+		public String mMessage;
+		public int mHash;
+		public int mHandle = 0;
+
+		public Entry(ContentObject obj) {
+			mContentType = obj.mContentType;
+			mId = obj.mId;
+			mIconType = obj.mIconType;
+			mMessage = obj.mFilteredString;
+			mHash = 31 * mIconType + mMessage.hashCode();
+		}
+
+		public boolean isEmergency() {
+			return mContentType == ContentObject.CONTENT_TYPE_EMERGENCY;
+		}
+
+		String getKey() {
+			return new StringBuilder().append(mContentType).append(':')
+					.append(mId).append(':').append(mHash).append(':').append(mMessage).toString();
+		}
+	}
+
+}
@@ -48,6 +48,7 @@ public class Constants {
     public static final int MESSAGE_CALL_STATE_RECEIVED = 131;
     public static final int MESSAGE_RF_STATE_RECEIVED = 141;
     public static final int MESSAGE_FEED_UPDATED = 151;
+    public static final int MESSAGE_CONTENT_CHANGED = 161;
     
     public static final int RESPONSE_ADD_FILTER_FAILED = -1;
     public static final int RESPONSE_EDIT_FILTER_FAILED = -1;
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hardcopy.retrowatch.connectivity.FakeSocketFactory.FakeSocket;
+import com.hardcopy.retrowatch.utils.Logs;
+
+/**
+ * Connect, retry and reconnect of BluetoothManager with fake sockets.
+ * Retries are run by the test instead of a Handler.
+ */
+public class BluetoothManagerTest {
+	
+	private static final String WATCH = "00:11:22:33:44:55";
+	private static final String OTHER_WATCH = "66:77:88:99:AA:BB";
+	private static final long WAIT_MS = 2000;
+	
+	private FakeSocketFactory mFactory;
+	private TestManager mManager;
+	
+	@Before
+	public void setUp() {
+		Logs.mIsEnabled = false;
+		mFactory = new FakeSocketFactory();
+		mManager = new TestManager(mFactory);
+	}
+	
+	@After
+	public void tearDown() {
+		mManager.stop();
+	}
+	
+	@Test
+	public void connectUsesSocketOfFactory() throws Exception {
+		mManager.connect(WATCH);
+		assertEquals(BluetoothManager.STATE_CONNECTING, mManager.getState());
+		
+		mFactory.awaitSocket(0).succeed();
+		
+		mManager.awaitState(BluetoothManager.STATE_CONNECTED);
+		assertEquals(WATCH, mManager.getConnectedAddress());
+		assertEquals(1, mFactory.getSocketCount());
+		assertEquals(0, mManager.getPendingRetryCount());
+	}
+	
+	@Test
+	public void failedConnectReservesOneRetry() throws Exception {
+		mManager.connect(WATCH);
+		mFactory.awaitSocket(0).fail();
+		
+		long delay = mManager.awaitRetry();
+		assertEquals(BluetoothManager.STATE_LISTEN, mManager.getState());
+		assertEquals(1, mManager.getPendingRetryCount());
+		assertInRange(delay, ReconnectPolicy.BASE_DELAY / 2, ReconnectPolicy.BASE_DELAY);
+		assertEquals(1, mManager.getToastCount());
+	}
+	
+	@Test
+	public void retryConnectsSameDeviceWithLongerDelay() throws Exception {
+		mManager.connect(WATCH);
+		mFactory.awaitSocket(0).fail();
+		mManager.awaitRetry();
+		
+		mManager.runRetry();
+		FakeSocket second = mFactory.awaitSocket(1);
+		assertEquals(WATCH, second.getRemoteAddress());
+		second.fail();
+		
+		long delay = mManager.awaitRetry();
+		assertEquals(1, mManager.getPendingRetryCount());
+		assertInRange(delay, ReconnectPolicy.BASE_DELAY, ReconnectPolicy.BASE_DELAY * 2);
+		
+		mManager.runRetry();
+		mFactory.awaitSocket(2).succeed();
+		mManager.awaitState(BluetoothManager.STATE_CONNECTED);
+		assertEquals(0, mManager.getPendingRetryCount());
+		assertEquals(3, mFactory.getSocketCount());
+	}
+	
+	@Test
+	public void secondConnectToSameDeviceIsIgnored() throws Exception {
+		mManager.connect(WATCH);
+		FakeSocket first = mFactory.awaitSocket(0);
+		
+		mManager.connect(WATCH);
+		
+		assertEquals(1, mFactory.getSocketCount());
+		assertFalse(first.isClosed());
+		first.succeed();
+		mManager.awaitState(BluetoothManager.STATE_CONNECTED);
+	}
+	
+	@Test
+	public void connectToOtherDeviceReplacesAttemptWithoutFailure() throws Exception {
+		mManager.connect(WATCH);
+		FakeSocket first = mFactory.awaitSocket(0);
+		
+		mManager.connect(OTHER_WATCH);
+		FakeSocket second = mFactory.awaitSocket(1);
+		
+		assertTrue(first.isClosed());
+		second.succeed();
+		mManager.awaitState(BluetoothManager.STATE_CONNECTED);
+		assertEquals(OTHER_WATCH, mManager.getConnectedAddress());
+		// Cancelled attempt is not a failure
+		assertEquals(0, mManager.getToastCount());
+		assertEquals(0, mManager.getPendingRetryCount());
+		assertFalse(mManager.getStates().contains(BluetoothManager.STATE_LISTEN));
+	}
+	
+	@Test
+	public void retryWhileConnectingDoesNotConnectAgain() throws Exception {
+		mManager.connect(WATCH);
+		mFactory.awaitSocket(0).fail();
+		mManager.awaitRetry();
+		
+		// User connects before the retry is due. The retry is cancelled.
+		mManager.connect(WATCH);
+		FakeSocket second = mFactory.awaitSocket(1);
+		assertEquals(0, mManager.getPendingRetryCount());
+		
+		mManager.reconnectNow();
+		assertEquals(2, mFactory.getSocketCount());
+		second.succeed();
+		mManager.awaitState(BluetoothManager.STATE_CONNECTED);
+	}
+	
+	@Test
+	public void reconnectNowSkipsBackoff() throws Exception {
+		mManager.connect(WATCH);
+		mFactory.awaitSocket(0).fail();
+		mManager.awaitRetry();
+		
+		mManager.reconnectNow();
+		
+		assertEquals(0, mManager.getPendingRetryCount());
+		mFactory.awaitSocket(1).succeed();
+		mManager.awaitState(BluetoothManager.STATE_CONNECTED);
+	}
+	
+	@Test
+	public void lostConnectionRetriesFromBaseDelay() throws Exception {
+		mManager.connect(WATCH);
+		mFactory.awaitSocket(0).fail();
+		mManager.awaitRetry();
+		mManager.runRetry();
+		FakeSocket socket = mFactory.awaitSocket(1);
+		socket.succeed();
+		mManager.awaitState(BluetoothManager.STATE_CONNECTED);
+		
+		socket.remoteClose();
+		
+		long delay = mManager.awaitRetry();
+		assertEquals(BluetoothManager.STATE_LISTEN, mManager.getState());
+		// Policy was reset by the connection
+		assertInRange(delay, ReconnectPolicy.BASE_DELAY / 2, ReconnectPolicy.BASE_DELAY);
+	}
+	
+	@Test
+	public void stopCancelsAttemptAndRetry() throws Exception {
+		mManager.connect(WATCH);
+		FakeSocket socket = mFactory.awaitSocket(0);
+		int listenCount = mFactory.getServerSocketCount();
+		
+		mManager.stop();
+		
+		assertTrue(socket.isClosed());
+		Thread.sleep(100);		// Let cancelled connect task return
+		assertEquals(BluetoothManager.STATE_NONE, mManager.getState());
+		assertEquals(0, mManager.getPendingRetryCount());
+		assertEquals(listenCount, mFactory.getServerSocketCount());
+		
+		mManager.reconnectNow();
+		assertEquals(1, mFactory.getSocketCount());
+	}
+	
+	private static void assertInRange(long value, long min, long max) {
+		assertTrue(value + " is not in [" + min + ", " + max + "]", value >= min && value <= max);
+	}
+	
+	
+	/**
+	 * Records messages instead of sending them to a Handler.
+	 */
+	private static class TestManager extends BluetoothManager {
+		private final ArrayList<Integer> mStates = new ArrayList<Integer>();
+		private final ArrayList<Runnable> mRetries = new ArrayList<Runnable>();
+		private long mLastRetryDelay = -1;
+		private String mConnectedAddress = null;
+		private int mToastCount = 0;
+		
+		public TestManager(IBluetoothSocketFactory factory) {
+			super(factory, null);
+		}
+		
+		@Override
+		synchronized void sendMessage(int what, int arg1, int arg2, Object obj) {
+			if(what == MESSAGE_STATE_CHANGE) {
+				mStates.add(arg1);
+				notifyAll();
+			}
+		}
+		
+		@Override
+		synchronized void sendDeviceName(String address, String name) {
+			mConnectedAddress = address;
+		}
+		
+		@Override
+		synchronized void sendToast(String text) {
+			mToastCount++;
+		}
+		
+		@Override
+		synchronized void postRetry(Runnable retry, long delay) {
+			mRetries.add(retry);
+			mLastRetryDelay = delay;
+			notifyAll();
+		}
+		
+		@Override
+		synchronized void removeRetry(Runnable retry) {
+			while(mRetries.remove(retry));
+		}
+		
+		synchronized ArrayList<Integer> getStates() {
+			return new ArrayList<Integer>(mStates);
+		}
+		
+		synchronized String getConnectedAddress() {
+			return mConnectedAddress;
+		}
+		
+		synchronized int getToastCount() {
+			return mToastCount;
+		}
+		
+		synchronized int getPendingRetryCount() {
+			return mRetries.size();
+		}
+		
+		/**
+		 * @return	delay of the reserved retry
+		 */
+		synchronized long awaitRetry() throws InterruptedException {
+			long end = System.currentTimeMillis() + WAIT_MS;
+			while(mRetries.isEmpty()) {
+				long left = end - System.currentTimeMillis();
+				if(left <= 0)
+					throw new AssertionError("Retry is not reserved");
+				wait(left);
+			}
+			return mLastRetryDelay;
+		}
+		
+		/** Handler runs the retry when its delay passed */
+		void runRetry() {
+			Runnable retry;
+			synchronized(this) {
+				assertEquals(1, mRetries.size());
+				retry = mRetries.remove(0);
+			}
+			retry.run();
+		}
+		
+		synchronized void awaitState(int state) throws InterruptedException {
+			long end = System.currentTimeMillis() + WAIT_MS;
+			while(getState() != state) {
+				long left = end - System.currentTimeMillis();
+				if(left <= 0)
+					throw new AssertionError("State is " + getState() + ", expected " + state);
+				wait(left);
+			}
+		}
+	}
+	
+}
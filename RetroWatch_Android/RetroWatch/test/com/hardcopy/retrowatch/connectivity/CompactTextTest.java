@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class CompactTextTest {
+	
+	private static String roundTrip(String msg, int limit) {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		CompactText.encode(buffer, msg, limit);
+		return CompactText.decode(buffer.array(), 0, buffer.position());
+	}
+	
+	@Test
+	public void wordsAreSentAsOneByte() {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		CompactText.encode(buffer, "Missed call", 64);
+		
+		assertEquals(1, buffer.position());
+		assertTrue((buffer.get(0) & 0xFF) >= CompactText.CODE_MIN);
+		assertEquals("Missed call", CompactText.decode(buffer.array(), 0, 1));
+	}
+	
+	@Test
+	public void asciiTextSurvivesRoundTrip() {
+		String msg = "New message from Bob: see you at 7";
+		assertEquals(msg, roundTrip(msg, 256));
+	}
+	
+	@Test
+	public void koreanAliasIsReplacedWithWord() {
+		assertEquals("Missed call 3", roundTrip("부재중 전화 3", 256));
+	}
+	
+	@Test
+	public void unknownCharactersBecomeOneQuestionMark() {
+		assertEquals("Hi ? there", roundTrip("Hi 안녕하 there", 256));
+	}
+	
+	@Test
+	public void outputStopsAtLimit() {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		CompactText.encode(buffer, "abcdefghijklmnopqrstuvwxyz", 16);
+		assertEquals(16, buffer.position());
+	}
+	
+	@Test
+	public void plainBytesAreNotWords() {
+		assertEquals(null, CompactText.getWord('a'));
+		assertEquals(null, CompactText.getWord(0xFF));
+	}
+	
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sockets without Bluetooth. Test decides when connect() returns and what it returns.
+ * Blocking calls throw IOException when socket is closed, same as Bluetooth sockets.
+ */
+class FakeSocketFactory implements IBluetoothSocketFactory {
+	
+	private static final long WAIT_MS = 2000;
+	
+	private final ArrayList<FakeSocket> mSockets = new ArrayList<FakeSocket>();
+	private final ArrayList<FakeServerSocket> mServerSockets = new ArrayList<FakeServerSocket>();
+	
+	@Override
+	public synchronized IBluetoothSocket createSocket(String address) throws IOException {
+		FakeSocket socket = new FakeSocket(address);
+		mSockets.add(socket);
+		notifyAll();
+		return socket;
+	}
+	
+	@Override
+	public synchronized IBluetoothServerSocket listen() throws IOException {
+		FakeServerSocket serverSocket = new FakeServerSocket();
+		mServerSockets.add(serverSocket);
+		return serverSocket;
+	}
+	
+	@Override
+	public void cancelDiscovery() {
+	}
+	
+	public synchronized int getSocketCount() {
+		return mSockets.size();
+	}
+	
+	public synchronized int getServerSocketCount() {
+		return mServerSockets.size();
+	}
+	
+	/**
+	 * Wait until index-th outgoing socket is made.
+	 */
+	public synchronized FakeSocket awaitSocket(int index) throws InterruptedException {
+		long end = System.currentTimeMillis() + WAIT_MS;
+		while(mSockets.size() <= index) {
+			long left = end - System.currentTimeMillis();
+			if(left <= 0)
+				throw new AssertionError("Socket " + index + " is not created");
+			wait(left);
+		}
+		return mSockets.get(index);
+	}
+	
+	
+	static class FakeSocket implements IBluetoothSocket {
+		private final String mAddress;
+		private final CountDownLatch mResult = new CountDownLatch(1);
+		private volatile boolean mSucceeded = false;
+		private volatile boolean mClosed = false;
+		private final FakeInputStream mIn = new FakeInputStream();
+		private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+		
+		FakeSocket(String address) {
+			mAddress = address;
+		}
+		
+		/** connect() returns */
+		void succeed() {
+			mSucceeded = true;
+			mResult.countDown();
+		}
+		
+		/** connect() throws IOException */
+		void fail() {
+			mResult.countDown();
+		}
+		
+		/** Watch goes away. Blocking read returns end of stream. */
+		void remoteClose() {
+			mIn.end(false);
+		}
+		
+		boolean isClosed() {
+			return mClosed;
+		}
+		
+		@Override
+		public void connect() throws IOException {
+			try {
+				if(!mResult.await(WAIT_MS, TimeUnit.MILLISECONDS))
+					throw new IOException("Connect timeout");
+			} catch(InterruptedException e) {
+				throw new IOException("Interrupted");
+			}
+			if(mClosed || !mSucceeded)
+				throw new IOException("Connect failed");
+		}
+		
+		@Override
+		public InputStream getInputStream() throws IOException {
+			return mIn;
+		}
+		
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			return mOut;
+		}
+		
+		@Override
+		public String getRemoteAddress() {
+			return mAddress;
+		}
+		
+		@Override
+		public String getRemoteName() {
+			return "Watch " + mAddress;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			mClosed = true;
+			mResult.countDown();
+			mIn.end(true);
+		}
+	}
+	
+	static class FakeServerSocket implements IBluetoothServerSocket {
+		private final CountDownLatch mClosed = new CountDownLatch(1);
+		
+		@Override
+		public IBluetoothSocket accept() throws IOException {
+			try {
+				mClosed.await();
+			} catch(InterruptedException e) {
+				// Closed below
+			}
+			throw new IOException("Server socket closed");
+		}
+		
+		@Override
+		public void close() throws IOException {
+			mClosed.countDown();
+		}
+	}
+	
+	/**
+	 * Blocks read until closed. Closed socket throws, closed remote returns end of stream.
+	 */
+	static class FakeInputStream extends InputStream {
+		private static final byte[] CLOSED = new byte[0];
+		private static final byte[] END = new byte[0];
+		private final BlockingQueue<byte[]> mQueue = new LinkedBlockingQueue<byte[]>();
+		
+		void end(boolean closed) {
+			mQueue.offer(closed ? CLOSED : END);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return (read(one, 0, 1) < 0 ? -1 : one[0] & 0xff);
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			byte[] next;
+			try {
+				next = mQueue.take();
+			} catch(InterruptedException e) {
+				throw new IOException("Interrupted");
+			}
+			mQueue.offer(next);		// Stays ended
+			if(next == CLOSED)
+				throw new IOException("Socket closed");
+			return -1;
+		}
+	}
+	
+}
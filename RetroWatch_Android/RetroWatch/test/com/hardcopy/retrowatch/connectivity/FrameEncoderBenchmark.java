@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time and allocation of one message frame.
+ * 
+ *   legacyFrame			String.getBytes() and new frame array per message. (settingFinished() before FrameEncoder)
+ *   legacyFrameWithDump	same, plus hex dump which sendTransaction() built even when logging was off
+ *   encodeMessage			FrameEncoder writes into its pooled buffer
+ *   encodeLongMessage		FrameEncoder text of a long message and all of its chunks
+ * 
+ * Run with: ant bench -Dbench=FrameEncoder   (gc.alloc.rate.norm is bytes per frame)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FrameEncoderBenchmark {
+	
+	private static final int COMMAND_ADD_NORMAL_OBJ = TransactionBuilder.Transaction.COMMAND_TYPE_ADD_NORMAL_OBJ;
+	private static final int COMMAND_ADD_MESSAGE_CHUNK = TransactionBuilder.Transaction.COMMAND_TYPE_ADD_MESSAGE_CHUNK;
+	
+	@Param({"ascii", "korean"})
+	public String mText;
+	
+	private String mMessage;
+	private final FrameEncoder mEncoder = new FrameEncoder();
+	private final byte[] mLongText = new byte[FrameEncoder.MAX_LONG_MESSAGE_LENGTH];
+	
+	
+	@Setup
+	public void setUp() {
+		if("korean".equals(mText))
+			mMessage = "새 메일이 도착했습니다 - 회의 일정 변경 안내";
+		else
+			mMessage = "New mail from Alice: Meeting moved to 3pm";
+	}
+	
+	
+	/*****************************************************
+	 *		Benchmarks
+	 ******************************************************/
+	@Benchmark
+	public byte[] legacyFrame() {
+		return makeLegacyFrame(mMessage);
+	}
+	
+	@Benchmark
+	public String legacyFrameWithDump() {
+		byte[] frame = makeLegacyFrame(mMessage);
+		StringBuilder sb = new StringBuilder();
+		sb.append("COMMAND_TYPE_ADD_NORMAL_OBJ : ");
+		for(int i=0; i<frame.length; i++) {
+			sb.append(String.format("%02X, ", frame[i]));
+		}
+		return sb.toString();
+	}
+	
+	@Benchmark
+	public int encodeMessage() {
+		ByteBuffer buffer = mEncoder.getBuffer();
+		return mEncoder.encodeMessage(buffer, COMMAND_ADD_NORMAL_OBJ, 1, 3, mMessage);
+	}
+	
+	@Benchmark
+	public int encodeLongMessage() {
+		int total = mEncoder.encodeLongText(mLongText, mMessage);
+		int sent = 0;
+		for(int offset = 0; offset < total; offset += FrameEncoder.CHUNK_SIZE) {
+			ByteBuffer buffer = mEncoder.getBuffer();
+			sent += mEncoder.encodeChunk(buffer, COMMAND_ADD_MESSAGE_CHUNK, 1, mLongText, total, offset);
+		}
+		return sent;
+	}
+	
+	
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+	// Same as TransactionBuilder.Transaction.settingFinished() before FrameEncoder
+	private static byte[] makeLegacyFrame(String msg) {
+		byte[] strBuffer = msg.getBytes();
+		byte[] buffer = new byte[6+strBuffer.length];
+		buffer[0] = FrameEncoder.START_BYTE;
+		buffer[1] = (byte)COMMAND_ADD_NORMAL_OBJ;
+		buffer[2] = (byte)0xF0;
+		buffer[3] = (byte)1;
+		buffer[4] = (byte)3;
+		System.arraycopy(strBuffer, 0, buffer, 5, 
+				(strBuffer.length > FrameEncoder.MAX_MESSAGE_LENGTH) ? FrameEncoder.MAX_MESSAGE_LENGTH : strBuffer.length);
+		buffer[buffer.length - 1] = FrameEncoder.END_BYTE;
+		return buffer;
+	}
+	
+}
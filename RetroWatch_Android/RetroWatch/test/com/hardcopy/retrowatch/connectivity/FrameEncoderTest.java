@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class FrameEncoderTest {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final FrameEncoder mEncoder = new FrameEncoder();
+	
+	@Test
+	public void textIsCappedAtLongMessageLength() {
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<100; i++)
+			sb.append((char)('a' + i % 26));
+		
+		byte[] text = new byte[FrameEncoder.MAX_LONG_MESSAGE_LENGTH];
+		int total = mEncoder.encodeText(ByteBuffer.wrap(text), sb, text.length);
+		
+		assertEquals(63, total);
+		assertEquals(sb.substring(0, 63), new String(text, 0, total, UTF8));
+	}
+	
+	@Test
+	public void textIsCutAtCharacterBoundary() {
+		// 3 bytes per character. 21 characters fit in 63 bytes, 22nd doesn't.
+		String msg = "가나다라마바사아자차카타파하가나다라마바사아자차";
+		byte[] text = new byte[FrameEncoder.MAX_LONG_MESSAGE_LENGTH];
+		int total = mEncoder.encodeText(ByteBuffer.wrap(text), msg, text.length);
+		
+		assertEquals(63, total);
+		assertEquals(msg.substring(0, 21), new String(text, 0, total, UTF8));
+	}
+	
+	@Test
+	public void mixedTextIsCutAtCharacterBoundary() {
+		// 62 ASCII bytes leave 1 byte. Korean character needs 3, so it is dropped.
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<62; i++)
+			sb.append('x');
+		sb.append("한글");
+		
+		byte[] text = new byte[FrameEncoder.MAX_LONG_MESSAGE_LENGTH];
+		int total = mEncoder.encodeText(ByteBuffer.wrap(text), sb, text.length);
+		
+		assertEquals(62, total);
+	}
+	
+	@Test
+	public void surrogatePairIsNotSplit() {
+		// Emoji is 2 chars and 4 bytes. It fits after 59 bytes, not after 62.
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<59; i++)
+			sb.append('x');
+		String fits = sb.toString() + "\uD83D\uDE00y";
+		byte[] text = new byte[FrameEncoder.MAX_LONG_MESSAGE_LENGTH];
+		int total = mEncoder.encodeText(ByteBuffer.wrap(text), fits, text.length);
+		assertEquals(63, total);
+		assertEquals(sb.toString() + "\uD83D\uDE00", new String(text, 0, total, UTF8));
+		
+		sb.append("xxx");
+		text = new byte[FrameEncoder.MAX_LONG_MESSAGE_LENGTH];
+		total = mEncoder.encodeText(ByteBuffer.wrap(text), sb.toString() + "\uD83D\uDE00", text.length);
+		assertEquals(62, total);
+	}
+	
+	@Test
+	public void messageIsCutAtCharacterBoundary() {
+		ByteBuffer buffer = mEncoder.getBuffer();
+		// 5 characters = 15 bytes. 6th doesn't fit in 16 bytes.
+		int length = mEncoder.encodeMessage(buffer, 0x12, 7, 1, "가나다라마바");
+		
+		assertEquals(5 + 15 + 1, length);
+		byte[] frame = buffer.array();
+		assertEquals(FrameEncoder.START_BYTE, frame[0]);
+		assertEquals(0x12, frame[1]);
+		assertEquals(7, frame[3]);
+		assertEquals(1, frame[4]);
+		assertEquals("가나다라마", new String(frame, 5, 15, UTF8));
+		assertEquals(FrameEncoder.END_BYTE, frame[length - 1]);
+	}
+	
+	@Test
+	public void chunkHasHeaderAndTextSlice() {
+		byte[] text = "0123456789abcdefghijklmnopqrstuv!".getBytes(UTF8);
+		ByteBuffer buffer = mEncoder.getBuffer();
+		int length = mEncoder.encodeChunk(buffer, 0x14, 9, text, text.length, 32);
+		
+		byte[] expected = { FrameEncoder.START_BYTE, 0x14, 9, 33, 32, '!', FrameEncoder.END_BYTE };
+		byte[] frame = new byte[length];
+		System.arraycopy(buffer.array(), 0, frame, 0, length);
+		assertArrayEquals(expected, frame);
+	}
+	
+	@Test
+	public void chunkCarriesAtMostChunkSize() {
+		byte[] text = new byte[40];
+		ByteBuffer buffer = mEncoder.getBuffer();
+		int length = mEncoder.encodeChunk(buffer, 0x14, 1, text, text.length, 0);
+		
+		assertEquals(6 + FrameEncoder.CHUNK_SIZE, length);
+		assertTrue(length <= FrameEncoder.MAX_FRAME_LENGTH);
+	}
+	
+	@Test
+	public void chunkOutOfTextIsNotEncoded() {
+		byte[] text = new byte[20];
+		assertEquals(0, mEncoder.encodeChunk(mEncoder.getBuffer(), 0x14, 1, text, 20, 20));
+		assertEquals(0, mEncoder.encodeChunk(mEncoder.getBuffer(), 0x14, 1, text, 20, -1));
+		assertEquals(0, mEncoder.encodeChunk(mEncoder.getBuffer(), 0x14, 1, text, 30, 0));
+	}
+	
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hardcopy.retrowatch.connectivity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hardcopy.retrowatch.utils.Logs;
+
+/**
+ * HttpClient and HttpRequester against a local stand-in server :
+ * connection reuse, compressed body and response size cap.
+ */
+public class HttpClientTest {
+	
+	private static final int ITEM_COUNT = 118;		// 31KB
+	private static final int REFRESH_COUNT = 20;
+	
+	private StandInHttpServer mServer;
+	private HttpClient mClient;
+	private byte[] mFeed;
+	
+	@Before
+	public void setUp() throws IOException {
+		Logs.mIsEnabled = false;
+		mServer = new StandInHttpServer();
+		mClient = new HttpClient(1);
+		mFeed = StandInHttpServer.makeRss(ITEM_COUNT);
+		mServer.setBody(mFeed);
+	}
+	
+	@After
+	public void tearDown() {
+		mClient.shutdown();
+		mServer.stop();
+	}
+	
+	@Test
+	public void connectionIsReusedWhenParserStopsAtEnd() throws Exception {
+		mServer.setChunked(true);
+		for(int i=0; i<REFRESH_COUNT; i++) {
+			HttpCall<Integer> call = refresh(new HttpRequest(getURL()));
+			assertEquals(HttpInterface.MSG_HTTP_RESULT_CODE_OK, call.getResultCode());
+		}
+		assertEquals(REFRESH_COUNT, mServer.getRequestCount());
+		assertEquals(1, mServer.getConnectionCount());
+	}
+	
+	@Test
+	public void largeLeftoverClosesConnection() throws Exception {
+		// More than HttpRequester drains after </rss>
+		byte[] body = Arrays.copyOf(mFeed, mFeed.length + 64*1024);
+		Arrays.fill(body, mFeed.length, body.length, (byte)' ');
+		mServer.setBody(body);
+		for(int i=0; i<3; i++)
+			refresh(new HttpRequest(getURL()));
+		assertEquals(3, mServer.getConnectionCount());
+	}
+	
+	@Test
+	public void gzipBodyIsDecodedAndSmallerOnWire() throws Exception {
+		mServer.setGzip(true);
+		mServer.setChunked(true);
+		HttpCall<Integer> call = refresh(new HttpRequest(getURL()));
+		
+		assertEquals(HttpInterface.MSG_HTTP_RESULT_CODE_OK, call.getResultCode());
+		assertEquals(indexOfRssEnd(mFeed), (int)call.getResult());
+		assertEquals(mServer.getSentBytes(), call.getReceivedBytes());
+		assertTrue("Received " + call.getReceivedBytes() + " bytes", call.getReceivedBytes() * 5 < mFeed.length);
+		
+		refresh(new HttpRequest(getURL()));
+		assertEquals(1, mServer.getConnectionCount());
+	}
+	
+	@Test
+	public void responseLargerThanCapFails() throws Exception {
+		HttpCall<Integer> call = refresh(new HttpRequest(getURL()).setMaxResponseSize(1024));
+		assertEquals(HttpInterface.MSG_HTTP_RESULT_CODE_ERROR_REQUEST_EXCEPTION, call.getResultCode());
+		assertNull(call.getResult());
+	}
+	
+	@Test
+	public void decompressedSizeIsCapped() throws Exception {
+		// Small on the wire, large after decompression
+		byte[] body = new byte[1024*1024];
+		Arrays.fill(body, (byte)' ');
+		mServer.setBody(body);
+		mServer.setGzip(true);
+		HttpCall<Integer> call = refresh(new HttpRequest(getURL()).setMaxResponseSize(64*1024));
+		
+		assertEquals(HttpInterface.MSG_HTTP_RESULT_CODE_ERROR_REQUEST_EXCEPTION, call.getResultCode());
+		assertTrue(mServer.getSentBytes() < 64*1024);
+	}
+	
+	private String getURL() {
+		return mServer.getURL("127.0.0.1", "/rss");
+	}
+	
+	private HttpCall<Integer> refresh(HttpRequest request) throws Exception {
+		HttpCall<Integer> call = mClient.enqueue(request, new IHttpCallback<Integer>() {
+			@Override
+			public Integer OnReceiveHttpStream(InputStream in, String charset) throws IOException {
+				return StandInHttpServer.readUntilRssEnd(in);
+			}
+			
+			@Override
+			public void OnHttpResult(HttpCall<Integer> call) {
+			}
+		});
+		try {
+			call.get();
+		} catch(Exception e) {
+			// Result code tells the reason
+		}
+		return call;
+	}
+	
+	private static int indexOfRssEnd(byte[] body) throws IOException {
+		return StandInHttpServer.readUntilRssEnd(new ByteArrayInputStream(body));
+	}
+	
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hardcopy.retrowatch.connectivity;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hardcopy.retrowatch.utils.Logs;
+
+/**
+ * 100 refreshes of a 31KB RSS feed from a local stand-in server.
+ * Feed is sent chunked with a tail after </rss>. Consumer stops at </rss>, like the pull parser.
+ * 
+ *   legacyRefresh		HttpRequester before keep-alive and gzip : no Accept-Encoding, disconnect() after each response
+ *   refresh			HttpClient and HttpRequester : drains the tail, keeps connection, accepts gzip
+ * 
+ * Run with: ant bench -Dbench=HttpRefresh
+ * connections and bodyBytes are counted by the server. JMH prints their sum over all measurement
+ * iterations, so divide by Cnt for one run of 100 refreshes.
+ * Time is mostly delayed ACK of the tail chunk on loopback. Compare the counters, not the time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class HttpRefreshBenchmark {
+	
+	private static final int ITEM_COUNT = 118;		// 31KB
+	private static final int REFRESH_COUNT = 100;
+	private static final int STREAM_BUFFER_SIZE = 8192;
+	
+	private final byte[] mFeed = StandInHttpServer.makeRss(ITEM_COUNT);
+	private StandInHttpServer mServer;
+	private HttpClient mClient;
+	private String mURL;
+	
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		Logs.mIsEnabled = false;
+		mClient = new HttpClient(1);
+	}
+	
+	/**
+	 * New server (new port) in each measurement, so pooled connections of previous one are not used
+	 */
+	@Setup(Level.Iteration)
+	public void startServer() throws IOException {
+		mServer = new StandInHttpServer();
+		mServer.setBody(mFeed);
+		mServer.setGzip(true);
+		mServer.setChunked(true);
+		mURL = mServer.getURL("127.0.0.1", "/rss");
+	}
+	
+	@TearDown(Level.Iteration)
+	public void stopServer() {
+		mServer.stop();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mClient.shutdown();
+	}
+	
+	
+	/*****************************************************
+	 *		Benchmarks
+	 ******************************************************/
+	@Benchmark
+	public int legacyRefresh(Wire wire) throws IOException {
+		int read = 0;
+		for(int i=0; i<REFRESH_COUNT; i++) {
+			HttpURLConnection con = (HttpURLConnection) new URL(mURL).openConnection();
+			con.setRequestMethod("GET");
+			con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+			con.getResponseCode();
+			InputStream in = new BufferedInputStream(con.getInputStream(), STREAM_BUFFER_SIZE);
+			try {
+				read += StandInHttpServer.readUntilRssEnd(in);
+			} finally {
+				in.close();
+				con.disconnect();
+			}
+		}
+		wire.count(mServer);
+		return read;
+	}
+	
+	@Benchmark
+	public int refresh(Wire wire) throws Exception {
+		int read = 0;
+		for(int i=0; i<REFRESH_COUNT; i++) {
+			HttpCall<Integer> call = mClient.enqueue(new HttpRequest(mURL), new IHttpCallback<Integer>() {
+				@Override
+				public Integer OnReceiveHttpStream(InputStream in, String charset) throws IOException {
+					return StandInHttpServer.readUntilRssEnd(in);
+				}
+				
+				@Override
+				public void OnHttpResult(HttpCall<Integer> call) {
+				}
+			});
+			read += call.get();
+		}
+		wire.count(mServer);
+		return read;
+	}
+	
+	
+	/*****************************************************
+	 *		Sub classes
+	 ******************************************************/
+	
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Wire {
+		public long connections;
+		public long bodyBytes;
+		
+		@Setup(Level.Iteration)
+		public void reset() {
+			connections = 0;
+			bodyBytes = 0;
+		}
+		
+		void count(StandInHttpServer server) {
+			connections += server.getConnectionCount();
+			bodyBytes += server.getSentBytes();
+		}
+	}
+	
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Long message : FrameEncoder -> WriteQueue -> LoopbackDecoder, a port of parseChunk() of watch.
+ * TransactionBuilder.makeLongMessage() makes chunks with the same encoder calls.
+ */
+public class LongMessageLoopbackTest {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int ID = 7;
+	
+	/**
+	 * parseChunk() of RetroWatchArduino.ino which LoopbackDecoder is ported from.
+	 * If this test fails, the sketch changed. Port the change to LoopbackDecoder and copy the new code here.
+	 */
+	private static final String PARSE_CHUNK = 
+			"void parseChunk(byte c) {\n" +
+			"  if(c == TRANSACTION_END_BYTE) {\n" +
+			"    if(!longComplete && longTotal > 0 && longReceived >= longTotal) {\n" +
+			"      longBuffer[longTotal] = 0x00;\n" +
+			"      longComplete = true;\n" +
+			"      setNextDisplayTime(millis(), 0);\n" +
+			"    }\n" +
+			"    TRANSACTION_POINTER = TR_MODE_IDLE;\n" +
+			"    return;\n" +
+			"  }\n" +
+			"  if(chunkParsingIndex == 0) {\n" +
+			"    chunkId = c;\n" +
+			"  }\n" +
+			"  else if(chunkParsingIndex == 1) {\n" +
+			"    chunkTotal = c;\n" +
+			"  }\n" +
+			"  else if(chunkParsingIndex == 2) {\n" +
+			"    if(c == 0) {\n" +
+			"      longId = chunkId;\n" +
+			"      longTotal = (chunkTotal < LONG_MSG_MAX) ? chunkTotal : LONG_MSG_MAX - 1;\n" +
+			"      longReceived = 0;\n" +
+			"      longComplete = false;\n" +
+			"    }\n" +
+			"    chunkSkip = (chunkId != longId || c != longReceived);\n" +
+			"  }\n" +
+			"  else if(!chunkSkip && longReceived < longTotal) {\n" +
+			"    longBuffer[longReceived++] = c;\n" +
+			"  }\n" +
+			"  if(chunkParsingIndex < 3)\n" +
+			"    chunkParsingIndex++;\n" +
+			"}";
+	
+	private static SketchSource sSketch;
+	
+	private final FrameEncoder mEncoder = new FrameEncoder();
+	private ByteArrayOutputStream mOut;
+	private WriteQueue mQueue;
+	
+	@BeforeClass
+	public static void loadSketch() throws Exception {
+		sSketch = new SketchSource();
+	}
+	
+	@Before
+	public void setUp() {
+		mOut = new ByteArrayOutputStream();
+		mQueue = new WriteQueue(mOut, WriteQueue.DEFAULT_CAPACITY, null);
+		mQueue.start();
+	}
+	
+	@After
+	public void tearDown() {
+		mQueue.close();
+	}
+	
+	@Test
+	public void decoderMatchesSketch() {
+		assertEquals("parseChunk() of sketch changed. Update LoopbackDecoder.", 
+				SketchSource.normalize(PARSE_CHUNK), sSketch.getFunction("void parseChunk(byte c)"));
+		assertEquals(FrameEncoder.MAX_LONG_MESSAGE_LENGTH, sSketch.getDefine("LONG_MSG_MAX") - 1);
+		assertEquals(FrameEncoder.START_BYTE & 0xFF, sSketch.getDefine("TRANSACTION_START_BYTE"));
+		assertEquals(FrameEncoder.END_BYTE & 0xFF, sSketch.getDefine("TRANSACTION_END_BYTE"));
+	}
+	
+	@Test
+	public void shortMessageSendsNoChunk() {
+		assertTrue(makeChunks(ID, "Exactly16bytes!!").isEmpty());
+		assertTrue(makeChunks(ID, null).isEmpty());
+	}
+	
+	@Test
+	public void asciiMessageIsCappedAt63Bytes() throws Exception {
+		String msg = "Hello world this is a long notification title that keeps going on and on";
+		ArrayList<byte[]> frames = makeChunks(ID, msg);
+		assertEquals(4, frames.size());		// 16 + 16 + 16 + 15
+		
+		LoopbackDecoder decoder = new LoopbackDecoder();
+		decoder.feed(send(frames));
+		assertEquals(msg.substring(0, 63), decoder.getMessage(ID));
+	}
+	
+	@Test
+	public void utf8CharacterIsNotSplitAtCap() throws Exception {
+		// 21 characters of 3 bytes = 63 bytes. Chunks split characters, but the whole text doesn't.
+		String msg = "안녕하세요 반갑습니다 긴 메시지를 보냅니다 테스트";
+		ArrayList<byte[]> frames = makeChunks(ID, msg);
+		
+		LoopbackDecoder decoder = new LoopbackDecoder();
+		decoder.feed(send(frames));
+		String received = decoder.getMessage(ID);
+		assertTrue(msg.startsWith(received));
+		assertTrue(received.getBytes(UTF8).length <= FrameEncoder.MAX_LONG_MESSAGE_LENGTH);
+		assertTrue(msg.substring(0, received.length() + 1).getBytes(UTF8).length > 63);		// Next one didn't fit
+	}
+	
+	@Test
+	public void chunksStayBehindAddWithSamePriority() throws Exception {
+		String msg = "A message which needs three chunks to be sent";
+		ArrayList<byte[]> frames = makeChunks(ID, msg);
+		ByteBuffer buffer = mEncoder.getBuffer();
+		int length = mEncoder.encodeMessage(buffer, 0x12, ID, 1, msg);		// ADD_NORMAL_OBJ
+		
+		byte[] wire = send(copy(buffer, length), frames, WriteQueue.PRIORITY_FEED);
+		assertEquals(0x12, wire[1]);		// ADD first
+		LoopbackDecoder decoder = new LoopbackDecoder();
+		decoder.feed(wire);
+		assertEquals(msg, decoder.getMessage(ID));
+	}
+	
+	@Test
+	public void reorderedChunksLeaveMessageIncomplete() throws Exception {
+		ArrayList<byte[]> frames = makeChunks(ID, "A message which needs three chunks to be sent");
+		Collections.swap(frames, 1, 2);
+		
+		LoopbackDecoder decoder = new LoopbackDecoder();
+		decoder.feed(send(frames));
+		assertNull(decoder.getMessage(ID));
+	}
+	
+	@Test
+	public void lostChunkLeavesMessageIncompleteUntilResent() throws Exception {
+		String msg = "A message which needs three chunks to be sent";
+		ArrayList<byte[]> frames = makeChunks(ID, msg);
+		ArrayList<byte[]> lossy = new ArrayList<byte[]>(frames);
+		lossy.remove(1);
+		
+		LoopbackDecoder decoder = new LoopbackDecoder();
+		decoder.feed(send(lossy));
+		assertNull(decoder.getMessage(ID));
+		
+		// First chunk starts the message again
+		mOut.reset();
+		decoder.feed(send(frames));
+		assertEquals(msg, decoder.getMessage(ID));
+	}
+	
+	@Test
+	public void chunkOfOtherIdIsIgnored() throws Exception {
+		String msg = "A message which needs three chunks to be sent";
+		ArrayList<byte[]> frames = makeChunks(ID, msg);
+		ArrayList<byte[]> other = makeChunks(ID + 1, msg);
+		frames.add(2, other.get(1));
+		
+		LoopbackDecoder decoder = new LoopbackDecoder();
+		decoder.feed(send(frames));
+		assertEquals(msg, decoder.getMessage(ID));
+		assertFalse(decoder.hasMessage(ID + 1));
+	}
+	
+	
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+	
+	/**
+	 * Same encoder calls as TransactionBuilder.makeLongMessage()
+	 */
+	private ArrayList<byte[]> makeChunks(int id, String msg) {
+		ArrayList<byte[]> frames = new ArrayList<byte[]>();
+		byte[] text = new byte[FrameEncoder.MAX_LONG_MESSAGE_LENGTH];
+		int total = mEncoder.encodeLongText(text, msg);
+		for(int offset = 0; offset < total; offset += FrameEncoder.CHUNK_SIZE) {
+			ByteBuffer buffer = mEncoder.getBuffer();
+			int length = mEncoder.encodeChunk(buffer, sSketch.getDefine("CMD_TYPE_ADD_MESSAGE_CHUNK"), 
+					id, text, total, offset);
+			frames.add(copy(buffer, length));
+		}
+		return frames;
+	}
+	
+	private static byte[] copy(ByteBuffer buffer, int length) {
+		byte[] frame = new byte[length];
+		System.arraycopy(buffer.array(), 0, frame, 0, length);
+		return frame;
+	}
+	
+	private byte[] send(ArrayList<byte[]> frames) throws InterruptedException {
+		return send(null, frames, WriteQueue.PRIORITY_NORMAL);
+	}
+	
+	/**
+	 * Queue frames and wait until writer thread writes them
+	 * @param first		frame queued before chunks. Can be null.
+	 */
+	private byte[] send(byte[] first, ArrayList<byte[]> frames, int priority) throws InterruptedException {
+		ArrayList<byte[]> all = new ArrayList<byte[]>(frames);
+		if(first != null)
+			all.add(0, first);
+		long expected = mQueue.getMetrics().mFrameCount + all.size();
+		for(byte[] frame : all)
+			assertEquals(WriteQueue.RESULT_QUEUED, mQueue.offer(frame, priority, WriteQueue.KEY_NONE));
+		
+		long deadline = System.currentTimeMillis() + 2000;
+		while(mQueue.getMetrics().mFrameCount < expected) {
+			assertTrue("Write timeout", System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+		return mOut.toByteArray();
+	}
+	
+	
+	/*****************************************************
+	 *		Sub classes
+	 ******************************************************/
+	
+	/**
+	 * parseChunk() of RetroWatchArduino.ino, line by line. See PARSE_CHUNK.
+	 * feed() does the part of parseByte() and parseCommand() which leads to parseChunk().
+	 */
+	private static class LoopbackDecoder {
+		private static final int TR_MODE_IDLE = 0;
+		private static final int TR_MODE_WAIT_CMD = 1;
+		private static final int TR_MODE_WAIT_CHUNK = 2;
+		private static final int TR_MODE_WAIT_COMPLETE = 3;		// Other commands. Skipped.
+		
+		private final int LONG_MSG_MAX = sSketch.getDefine("LONG_MSG_MAX");
+		private final int CMD_TYPE_ADD_MESSAGE_CHUNK = sSketch.getDefine("CMD_TYPE_ADD_MESSAGE_CHUNK");
+		private final int TRANSACTION_START_BYTE = sSketch.getDefine("TRANSACTION_START_BYTE");
+		private final int TRANSACTION_END_BYTE = sSketch.getDefine("TRANSACTION_END_BYTE");
+		
+		private int TRANSACTION_POINTER = TR_MODE_IDLE;
+		private final byte[] longBuffer = new byte[LONG_MSG_MAX];
+		private int longId = 0;
+		private int longTotal = 0;
+		private int longReceived = 0;
+		private boolean longComplete = false;
+		private int chunkParsingIndex = 0;
+		private int chunkId = 0;
+		private int chunkTotal = 0;
+		private boolean chunkSkip = false;
+		
+		public void feed(byte[] wire) {
+			for(byte b : wire) {
+				int c = b & 0xFF;
+				if(TRANSACTION_POINTER == TR_MODE_IDLE) {
+					if(c == TRANSACTION_START_BYTE)
+						TRANSACTION_POINTER = TR_MODE_WAIT_CMD;
+				}
+				else if(TRANSACTION_POINTER == TR_MODE_WAIT_CMD) {
+					if(c == CMD_TYPE_ADD_MESSAGE_CHUNK) {
+						TRANSACTION_POINTER = TR_MODE_WAIT_CHUNK;
+						chunkParsingIndex = 0;
+					} else {
+						TRANSACTION_POINTER = TR_MODE_WAIT_COMPLETE;
+					}
+				}
+				else if(TRANSACTION_POINTER == TR_MODE_WAIT_CHUNK) {
+					parseChunk(c);
+				}
+				else if(c == TRANSACTION_END_BYTE) {
+					TRANSACTION_POINTER = TR_MODE_IDLE;
+				}
+			}
+		}
+		
+		private void parseChunk(int c) {
+			if(c == TRANSACTION_END_BYTE) {
+				if(!longComplete && longTotal > 0 && longReceived >= longTotal) {
+					longComplete = true;
+				}
+				TRANSACTION_POINTER = TR_MODE_IDLE;
+				return;
+			}
+			
+			if(chunkParsingIndex == 0) {
+				chunkId = c;
+			}
+			else if(chunkParsingIndex == 1) {
+				chunkTotal = c;
+			}
+			else if(chunkParsingIndex == 2) {
+				if(c == 0) {
+					longId = chunkId;
+					longTotal = (chunkTotal < LONG_MSG_MAX) ? chunkTotal : LONG_MSG_MAX - 1;
+					longReceived = 0;
+					longComplete = false;
+				}
+				chunkSkip = (chunkId != longId || c != longReceived);
+			}
+			else if(!chunkSkip && longReceived < longTotal) {
+				longBuffer[longReceived++] = (byte)c;
+			}
+			if(chunkParsingIndex < 3)
+				chunkParsingIndex++;
+		}
+		
+		public boolean hasMessage(int id) {
+			return longComplete && id != 0 && id == longId;
+		}
+		
+		public String getMessage(int id) {
+			if(!hasMessage(id))
+				return null;
+			return new String(longBuffer, 0, longTotal, UTF8);
+		}
+	}
+	
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ReconnectPolicyTest {
+	
+	private static final long BASE = 1000;
+	private static final long MAX = 8000;
+	
+	@Test
+	public void delayDoublesUpToMaxWithJitter() {
+		ReconnectPolicy policy = new ReconnectPolicy(BASE, MAX, new Random(1));
+		long backoff = BASE;
+		for(int i=0; i<10; i++) {
+			long delay = policy.nextDelay();
+			assertTrue("attempt " + i + " : " + delay, delay >= backoff / 2 && delay <= backoff);
+			backoff = Math.min(backoff * 2, MAX);
+		}
+		assertEquals(10, policy.getAttempts());
+	}
+	
+	@Test
+	public void resetStartsFromBaseDelay() {
+		ReconnectPolicy policy = new ReconnectPolicy(BASE, MAX, new Random(2));
+		for(int i=0; i<5; i++)
+			policy.nextDelay();
+		
+		policy.reset();
+		
+		assertEquals(0, policy.getAttempts());
+		long delay = policy.nextDelay();
+		assertTrue(delay >= BASE / 2 && delay <= BASE);
+	}
+	
+	@Test
+	public void sameSeedGivesSameDelays() {
+		assertEquals(delays(new Random(3), 8), delays(new Random(3), 8));
+	}
+	
+	@Test
+	public void jitterSpreadsRetriesOfManyClients() {
+		// Clients which lost the watch at the same time don't retry at the same time
+		Random seeds = new Random(4);
+		HashSet<Long> firstDelays = new HashSet<Long>();
+		for(int i=0; i<20; i++) {
+			firstDelays.add(new ReconnectPolicy(BASE, MAX, new Random(seeds.nextLong())).nextDelay());
+		}
+		assertTrue(firstDelays.size() > 15);
+	}
+	
+	@Test
+	public void defaultPolicyStartsAtBaseDelay() {
+		ReconnectPolicy policy = new ReconnectPolicy();
+		long delay = policy.nextDelay();
+		assertTrue(delay >= ReconnectPolicy.BASE_DELAY / 2 && delay <= ReconnectPolicy.BASE_DELAY);
+	}
+	
+	private static List<Long> delays(Random random, int count) {
+		ReconnectPolicy policy = new ReconnectPolicy(BASE, MAX, random);
+		List<Long> list = new ArrayList<Long>();
+		for(int i=0; i<count; i++)
+			list.add(policy.nextDelay());
+		return list;
+	}
+	
+}
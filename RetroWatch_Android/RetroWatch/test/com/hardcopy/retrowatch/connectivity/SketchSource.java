@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.connectivity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads constants and functions of the watch sketch, so tests notice when the sketch changes.
+ * Path comes from system property "sketch.file". (test/build.xml sets it)
+ */
+class SketchSource {
+	
+	public static final String DEFAULT_PATH = "../../../RetroWatch_Arduino/RetroWatchArduino/RetroWatchArduino.ino";
+	
+	private final String mSource;
+	
+	public SketchSource() throws IOException {
+		File file = new File(System.getProperty("sketch.file", DEFAULT_PATH));
+		mSource = new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+	}
+	
+	/**
+	 * @return	value of "#define name value". Hex (0x..) or decimal.
+	 */
+	public int getDefine(String name) {
+		Matcher m = Pattern.compile("#define\\s+" + name + "\\s+(0x[0-9a-fA-F]+|\\d+)").matcher(mSource);
+		if(!m.find())
+			throw new IllegalArgumentException("No #define " + name + " in sketch");
+		String value = m.group(1);
+		return value.startsWith("0x") ? Integer.parseInt(value.substring(2), 16) : Integer.parseInt(value);
+	}
+	
+	/**
+	 * @param signature		"void parseChunk(byte c)"
+	 * @return				whole function without comments and white spaces
+	 */
+	public String getFunction(String signature) {
+		int start = mSource.indexOf(signature);
+		if(start < 0)
+			throw new IllegalArgumentException("No " + signature + " in sketch");
+		int depth = 0;
+		for(int i = mSource.indexOf('{', start); i < mSource.length(); i++) {
+			char c = mSource.charAt(i);
+			if(c == '{') {
+				depth++;
+			} else if(c == '}' && --depth == 0) {
+				return normalize(mSource.substring(start, i + 1));
+			}
+		}
+		throw new IllegalArgumentException("Unbalanced " + signature + " in sketch");
+	}
+	
+	public static String normalize(String code) {
+		return code.replaceAll("//[^\\n]*", "").replaceAll("/\\*.*?\\*/", "").replaceAll("\\s+", "");
+	}
+	
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hardcopy.retrowatch.connectivity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server which stands in for feed servers.
+ * Listens on every loopback address, so 127.0.0.1, 127.0.0.2, ... look like different hosts.
+ * Records every request. Test can hold responses to see how many requests run at the same time.
+ * Counts TCP connections and body bytes sent, so keep-alive and compression can be measured.
+ */
+public class StandInHttpServer {
+	
+	private static final long WAIT_MS = 3000;
+	private static final int CHUNKED_TAIL_SIZE = 64;		// Sent as a separate chunk after the rest
+	private static final byte[] RSS_END = "</rss>".getBytes(Charset.forName("UTF-8"));
+	
+	public static final String RSS_BODY = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<rss version=\"2.0\"><channel><title>Stand-in</title>"
+			+ "<item><title>Item</title><link>http://example.com/1</link></item>"
+			+ "</channel></rss>";
+	
+	private final HttpServer mServer;
+	private final ExecutorService mExecutor;
+	private final ArrayList<Request> mRequests = new ArrayList<Request>();
+	private byte[] mBody = RSS_BODY.getBytes(Charset.forName("UTF-8"));
+	private boolean mGzip = false;
+	private boolean mChunked = false;
+	private boolean mHold = false;
+	private final HashSet<String> mConnections = new HashSet<String>();	// Remote address and port
+	private long mSentBytes = 0;
+	private int mActive = 0;
+	private int mMaxActive = 0;
+	
+	
+	public StandInHttpServer() throws IOException {
+		mServer = HttpServer.create(new InetSocketAddress(0), 0);
+		mExecutor = Executors.newCachedThreadPool();
+		mServer.setExecutor(mExecutor);
+		mServer.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		mServer.start();
+	}
+	
+	
+	/*****************************************************
+	 *		Public methods
+	 ******************************************************/
+	
+	/**
+	 * @return	RSS document with itemCount items and a trailing comment after </rss>
+	 */
+	public static byte[] makeRss(int itemCount) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<rss version=\"2.0\"><channel>\n");
+		sb.append("<title>Stand-in</title><link>http://example.com/</link><ttl>60</ttl>\n");
+		for(int i=0; i<itemCount; i++) {
+			sb.append("<item><title>Item ").append(i).append("</title>");
+			sb.append("<link>http://example.com/item/").append(i).append("</link>");
+			sb.append("<guid>http://example.com/item/").append(i).append("</guid>");
+			sb.append("<description>Description of item ").append(i)
+					.append(" which is long enough to look like a real feed entry</description>");
+			sb.append("<pubDate>Sat, 17 Oct 2026 12:00:00 GMT</pubDate></item>\n");
+		}
+		sb.append("</channel></rss>\n<!-- generated by stand-in server -->\n");
+		return sb.toString().getBytes(Charset.forName("UTF-8"));
+	}
+	
+	/**
+	 * Read until </rss> and stop there, like the pull parser. Rest of the body is left unread.
+	 * @return	bytes read
+	 */
+	public static int readUntilRssEnd(InputStream in) throws IOException {
+		int count = 0;
+		int matched = 0;
+		int b;
+		while(matched < RSS_END.length && (b = in.read()) > -1) {
+			count++;
+			if(b == RSS_END[matched])
+				matched++;
+			else
+				matched = (b == RSS_END[0] ? 1 : 0);
+		}
+		return count;
+	}
+	
+	public void stop() {
+		release();
+		mServer.stop(0);
+		mExecutor.shutdownNow();
+	}
+	
+	public String getURL(String host, String path) {
+		return "http://" + host + ":" + mServer.getAddress().getPort() + path;
+	}
+	
+	public synchronized void setBody(byte[] body) {
+		mBody = body;
+	}
+	
+	/**
+	 * Compress body with gzip when request accepts it
+	 */
+	public synchronized void setGzip(boolean gzip) {
+		mGzip = gzip;
+	}
+	
+	/**
+	 * Send body with chunked encoding. Last bytes of body go in a separate chunk,
+	 * like a server which flushes the document and then appends a trailer.
+	 */
+	public synchronized void setChunked(boolean chunked) {
+		mChunked = chunked;
+	}
+	
+	/**
+	 * Requests wait before responding until release() is called
+	 */
+	public synchronized void hold() {
+		mHold = true;
+	}
+	
+	public synchronized void release() {
+		mHold = false;
+		notifyAll();
+	}
+	
+	public synchronized ArrayList<Request> getRequests() {
+		return new ArrayList<Request>(mRequests);
+	}
+	
+	public synchronized int getRequestCount() {
+		return mRequests.size();
+	}
+	
+	/**
+	 * @return	requests which arrived and are not responded yet
+	 */
+	public synchronized int getActiveCount() {
+		return mActive;
+	}
+	
+	/**
+	 * @return	max number of requests which were running at the same time
+	 */
+	public synchronized int getMaxActiveCount() {
+		return mMaxActive;
+	}
+	
+	/**
+	 * @return	number of TCP connections which made requests
+	 */
+	public synchronized int getConnectionCount() {
+		return mConnections.size();
+	}
+	
+	/**
+	 * @return	body bytes written to clients, after compression and without chunk headers
+	 */
+	public synchronized long getSentBytes() {
+		return mSentBytes;
+	}
+	
+	/**
+	 * Wait until count requests are waiting for response
+	 */
+	public synchronized void awaitActive(int count) throws InterruptedException {
+		long end = System.currentTimeMillis() + WAIT_MS;
+		while(mActive < count) {
+			long left = end - System.currentTimeMillis();
+			if(left <= 0)
+				throw new AssertionError(count + " requests expected, " + mActive + " running");
+			wait(left);
+		}
+	}
+	
+	
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+	
+	private void serve(HttpExchange exchange) throws IOException {
+		byte[] body;
+		boolean gzip;
+		boolean chunked;
+		synchronized(this) {
+			mRequests.add(new Request(exchange));
+			mConnections.add(exchange.getRemoteAddress().toString());
+			mActive++;
+			if(mActive > mMaxActive)
+				mMaxActive = mActive;
+			notifyAll();
+			try {
+				while(mHold)
+					wait();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			body = mBody;
+			gzip = mGzip;
+			chunked = mChunked;
+		}
+		
+		try {
+			InputStream in = exchange.getRequestBody();
+			while(in.read() > -1) {}
+			String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			if(gzip && accept != null && accept.contains("gzip")) {
+				body = gzip(body);
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			}
+			exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+			OutputStream out = exchange.getResponseBody();
+			if(chunked) {
+				exchange.sendResponseHeaders(200, 0);
+				int head = Math.max(0, body.length - CHUNKED_TAIL_SIZE);
+				write(out, body, 0, head);
+				out.flush();
+				write(out, body, head, body.length - head);
+			} else {
+				exchange.sendResponseHeaders(200, body.length);
+				write(out, body, 0, body.length);
+			}
+			out.close();
+		} finally {
+			synchronized(this) {
+				mActive--;
+				notifyAll();
+			}
+		}
+	}
+	
+	
+	private void write(OutputStream out, byte[] body, int offset, int count) throws IOException {
+		out.write(body, offset, count);
+		synchronized(this) {
+			mSentBytes += count;
+		}
+	}
+	
+	private static byte[] gzip(byte[] body) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(bos);
+		out.write(body);
+		out.close();
+		return bos.toByteArray();
+	}
+	
+	
+	/*****************************************************
+	 *		Sub classes
+	 ******************************************************/
+	
+	public static class Request {
+		public final String mHost;		// Host header without port
+		public final String mPath;
+		public final int mRemotePort;	// Tells TCP connections apart
+		public final long mTime;
+		
+		Request(HttpExchange exchange) {
+			String host = exchange.getRequestHeaders().getFirst("Host");
+			int colon = (host == null ? -1 : host.lastIndexOf(':'));
+			mHost = (colon > -1 ? host.substring(0, colon) : host);
+			mPath = exchange.getRequestURI().getPath();
+			mRemotePort = exchange.getRemoteAddress().getPort();
+			mTime = System.currentTimeMillis();
+		}
+	}
+	
+}
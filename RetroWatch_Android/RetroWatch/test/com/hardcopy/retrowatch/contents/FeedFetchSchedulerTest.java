@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hardcopy.retrowatch.contents;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hardcopy.retrowatch.connectivity.HttpCall;
+import com.hardcopy.retrowatch.connectivity.HttpClient;
+import com.hardcopy.retrowatch.connectivity.HttpRequest;
+import com.hardcopy.retrowatch.connectivity.IHttpCallback;
+import com.hardcopy.retrowatch.connectivity.StandInHttpServer;
+import com.hardcopy.retrowatch.contents.objects.CPObject;
+import com.hardcopy.retrowatch.utils.Logs;
+
+/**
+ * Runs FeedFetchScheduler against a local stand-in server.
+ * Each 127.0.0.x address is a different host.
+ */
+public class FeedFetchSchedulerTest {
+	
+	private static final int TTL = 60*60;		// in second
+	private static final long WAIT_MS = 3000;
+	
+	private StandInHttpServer mServer;
+	private HttpClient mClient;
+	private ArrayList<CPObject> mCPList;
+	private StandInFetcher mFetcher;
+	private FeedFetchScheduler mScheduler;
+	
+	@Before
+	public void setUp() throws IOException {
+		Logs.mIsEnabled = false;
+		mServer = new StandInHttpServer();
+		mClient = new HttpClient(8);		// More than the scheduler uses. Scheduler is the limit.
+		mCPList = new ArrayList<CPObject>();
+		mFetcher = new StandInFetcher();
+		mScheduler = new FeedFetchScheduler(mCPList, mFetcher);
+		mScheduler.setHostInterval(0);
+	}
+	
+	@After
+	public void tearDown() throws InterruptedException {
+		mScheduler.setKillSign(true);
+		mScheduler.join(WAIT_MS);
+		mClient.shutdown();
+		mServer.stop();
+	}
+	
+	@Test
+	public void concurrentRequestsAreLimited() throws Exception {
+		for(int i=1; i<=6; i++)
+			addProvider(i, "127.0.0." + i, "/feed", 0L);
+		mFetcher.expect(6);
+		mScheduler.setMaxConcurrentRequests(3);
+		mServer.hold();
+		mScheduler.start();
+		
+		mServer.awaitActive(3);
+		Thread.sleep(300);
+		assertEquals(3, mServer.getRequestCount());
+		
+		mServer.release();
+		mFetcher.await();
+		assertEquals(6, mServer.getRequestCount());
+		assertEquals(3, mServer.getMaxActiveCount());
+	}
+	
+	@Test
+	public void requestsToSameHostKeepInterval() throws Exception {
+		for(int i=1; i<=3; i++)
+			addProvider(i, "127.0.0.1", "/feed" + i, 0L);
+		mFetcher.expect(3);
+		mScheduler.setHostInterval(300);
+		mScheduler.start();
+		
+		mFetcher.await();
+		List<StandInHttpServer.Request> requests = mServer.getRequests();
+		assertEquals(3, requests.size());
+		assertEquals(1, mServer.getMaxActiveCount());
+		for(int i=1; i<requests.size(); i++) {
+			long gap = requests.get(i).mTime - requests.get(i-1).mTime;
+			assertTrue("Requests to same host " + gap + "ms apart", gap >= 250);
+		}
+	}
+	
+	@Test
+	public void mostOverdueProviderIsFetchedFirst() throws Exception {
+		long now = System.currentTimeMillis();
+		// Deadline is last updated time + TTL
+		addProvider(1, "127.0.0.1", "/late10", now - TTL*1000L - 10*60*1000L);
+		addProvider(2, "127.0.0.2", "/late30", now - TTL*1000L - 30*60*1000L);
+		addProvider(3, "127.0.0.3", "/notDue", now);
+		addProvider(4, "127.0.0.4", "/late20", now - TTL*1000L - 20*60*1000L);
+		mFetcher.expect(3);
+		mScheduler.setMaxConcurrentRequests(1);
+		mScheduler.start();
+		
+		mFetcher.await();
+		Thread.sleep(200);
+		ArrayList<String> paths = new ArrayList<String>();
+		for(StandInHttpServer.Request req : mServer.getRequests())
+			paths.add(req.mPath);
+		assertEquals(Arrays.asList("/late30", "/late20", "/late10"), paths);
+	}
+	
+	@Test
+	public void dueProviderJoinsRunningRequest() throws Exception {
+		CPObject first = addProvider(1, "127.0.0.1", "/shared", 0L);
+		CPObject second = addProvider(2, "127.0.0.1", "/shared", System.currentTimeMillis());
+		mFetcher.expect(1);
+		mServer.hold();
+		mScheduler.start();
+		mServer.awaitActive(1);
+		
+		// Second one becomes due while the URL is being fetched
+		synchronized(mCPList) {
+			second.mLastUpdated = 0L;
+		}
+		mScheduler.requestUpdateAll();
+		Thread.sleep(FeedFetchScheduler.COALESCE_WINDOW + 300);
+		long released = System.currentTimeMillis();
+		mServer.release();
+		
+		mFetcher.await();
+		assertEquals(Arrays.asList(1, 2), mFetcher.getJoinedIds(1));
+		synchronized(mCPList) {
+			assertTrue(first.mLastUpdated >= released);
+			assertTrue(second.mLastUpdated >= released);
+		}
+		Thread.sleep(300);
+		assertEquals(1, mServer.getRequestCount());
+	}
+	
+	@Test
+	public void killSignStopsScheduling() throws Exception {
+		for(int i=1; i<=3; i++)
+			addProvider(i, "127.0.0." + i, "/feed", 0L);
+		mFetcher.expect(1);
+		mScheduler.setMaxConcurrentRequests(1);
+		mServer.hold();
+		mScheduler.start();
+		mServer.awaitActive(1);
+		
+		// Thread ends without waiting for the running request
+		mScheduler.setKillSign(true);
+		mScheduler.join(WAIT_MS);
+		assertFalse(mScheduler.isAlive());
+		assertEquals(FeedFetchScheduler.THREAD_STATUS_IDLE, mScheduler.getThreadStatus());
+		
+		mServer.release();
+		mFetcher.await();
+		Thread.sleep(300);
+		assertEquals(1, mServer.getRequestCount());
+	}
+	
+	private CPObject addProvider(int id, String host, String path, long lastUpdated) {
+		CPObject cp = new CPObject();
+		cp.mId = id;
+		cp.mURL = mServer.getURL(host, path);
+		cp.mTTL = TTL;
+		cp.mLastUpdated = lastUpdated;
+		synchronized(mCPList) {
+			mCPList.add(cp);
+		}
+		return cp;
+	}
+	
+	
+	/**
+	 * Same work as FeedManager.FeedFetcher without parsing and DB
+	 */
+	private class StandInFetcher implements IFeedFetcher {
+		private final HashMap<Integer, ArrayList<Integer>> mmJoinedIds = new HashMap<Integer, ArrayList<Integer>>();
+		private CountDownLatch mmFinished = new CountDownLatch(0);
+		
+		public void expect(int count) {
+			mmFinished = new CountDownLatch(count);
+		}
+		
+		public void await() throws InterruptedException {
+			assertTrue("Requests are not finished", mmFinished.await(WAIT_MS, TimeUnit.MILLISECONDS));
+		}
+		
+		public synchronized ArrayList<Integer> getJoinedIds(int id) {
+			return mmJoinedIds.get(id);
+		}
+		
+		@Override
+		public boolean requestFetch(final CPObject cp, final long token) {
+			final int id = cp.mId;
+			final String key = FeedFetchScheduler.getFetchKey(cp);
+			HttpRequest request = new HttpRequest(cp.mURL);
+			return mClient.enqueue(request, new IHttpCallback<Void>() {
+				@Override
+				public Void OnReceiveHttpStream(InputStream in, String charset) throws IOException {
+					byte[] buffer = new byte[1024];
+					while(in.read(buffer) > -1) {}
+					return null;
+				}
+				
+				@Override
+				public void OnHttpResult(HttpCall<Void> call) {
+					ArrayList<Integer> ids = mScheduler.onFetchFinished(key, token);
+					synchronized(StandInFetcher.this) {
+						mmJoinedIds.put(id, ids);
+					}
+					mmFinished.countDown();
+				}
+			}) != null;
+		}
+		
+		@Override
+		public void onMaintenance() {
+		}
+	}
+	
+}
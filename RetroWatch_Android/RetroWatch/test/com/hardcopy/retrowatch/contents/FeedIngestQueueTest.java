@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.contents;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hardcopy.retrowatch.contents.objects.FeedObject;
+
+public class FeedIngestQueueTest {
+	
+	private static final String MAIN_THREAD_NAME = "Main";
+	private static final long MAIN_THREAD_BUDGET_US = 2000;	// per feed update. A frame is 16ms.
+	private static final long INGEST_WORK_MS = 30;			// Stands for DB merge of a feed
+	private static final int UPDATE_COUNT = 20;
+	private static final int ITEM_COUNT = 200;
+	
+	private ExecutorService mMain;
+	private FeedIngestQueue mQueue;
+	
+	@Before
+	public void setUp() {
+		mMain = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, MAIN_THREAD_NAME);
+			}
+		});
+		mQueue = new FeedIngestQueue(mMain);
+	}
+	
+	@After
+	public void tearDown() {
+		mQueue.shutdown(null);
+		mMain.shutdownNow();
+	}
+	
+	@Test
+	public void mainThreadTimePerUpdateIsBounded() throws Exception {
+		final FeedCache cache = new FeedCache();
+		final List<Long> mainTimes = Collections.synchronizedList(new ArrayList<Long>());
+		final List<String> ingestThreads = Collections.synchronizedList(new ArrayList<String>());
+		final AtomicInteger notified = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(UPDATE_COUNT);
+		
+		for(int n=0; n<UPDATE_COUNT; n++) {
+			final int type = n % 4;
+			mQueue.submit(new Runnable() {
+				@Override
+				public void run() {
+					// Same work as FeedManager does on ingest worker : merge, then notify changed items
+					ingestThreads.add(Thread.currentThread().getName());
+					final ArrayList<FeedObject> changedList = makeFeedList(type, ITEM_COUNT);
+					cache.merge(type, changedList, FeedCache.DEFAULT_CAPACITY);
+					sleep(INGEST_WORK_MS);
+					
+					mQueue.postToMain(new Runnable() {
+						@Override
+						public void run() {
+							// ContentManager only passes changed count to UI
+							if(MAIN_THREAD_NAME.equals(Thread.currentThread().getName()))
+								notified.addAndGet(changedList.size());
+						}
+					});
+					// Runs after the notify task on main thread
+					mMain.execute(new Runnable() {
+						@Override
+						public void run() {
+							mainTimes.add(mQueue.getLastMainThreadTime());
+							done.countDown();
+						}
+					});
+				}
+			});
+		}
+		
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(UPDATE_COUNT, mainTimes.size());
+		for(long time : mainTimes) {
+			assertTrue("Main thread time " + time + "us", time < MAIN_THREAD_BUDGET_US);
+		}
+		for(String name : ingestThreads) {
+			assertEquals(FeedIngestQueue.INGEST_THREAD_NAME, name);
+		}
+		assertEquals(UPDATE_COUNT * ITEM_COUNT, notified.get());
+		for(int type=0; type<4; type++) {
+			assertEquals(FeedCache.DEFAULT_CAPACITY, cache.size(type));
+		}
+	}
+	
+	@Test
+	public void mainThreadIsNotBlockedByIngest() throws Exception {
+		final CountDownLatch ingestStarted = new CountDownLatch(1);
+		final CountDownLatch ingestFinished = new CountDownLatch(1);
+		mQueue.submit(new Runnable() {
+			@Override
+			public void run() {
+				ingestStarted.countDown();
+				sleep(500);
+				ingestFinished.countDown();
+			}
+		});
+		assertTrue(ingestStarted.await(1, TimeUnit.SECONDS));
+		
+		// Input event on main thread while a feed is being merged
+		final CountDownLatch handled = new CountDownLatch(1);
+		long start = System.nanoTime();
+		mMain.execute(new Runnable() {
+			@Override
+			public void run() {
+				handled.countDown();
+			}
+		});
+		assertTrue(handled.await(1, TimeUnit.SECONDS));
+		long latencyMs = (System.nanoTime() - start) / 1000000;
+		
+		assertTrue("Main thread waited " + latencyMs + "ms", latencyMs < 100);
+		assertEquals(1, ingestFinished.getCount());
+	}
+	
+	@Test
+	public void tasksRunInOrderAndLastTaskRunsAfterShutdown() throws Exception {
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch closed = new CountDownLatch(1);
+		for(int i=0; i<5; i++) {
+			final int index = i;
+			assertTrue(mQueue.submit(new Runnable() {
+				@Override
+				public void run() {
+					sleep(5);
+					order.add(index);
+				}
+			}));
+		}
+		// FeedManager.finalize() closes DB this way
+		mQueue.shutdown(new Runnable() {
+			@Override
+			public void run() {
+				order.add(-1);
+				closed.countDown();
+			}
+		});
+		
+		assertTrue(closed.await(1, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4, -1), order);
+		assertTrue(mQueue.isShutdown());
+		assertFalse(mQueue.submit(new Runnable() {
+			@Override
+			public void run() {
+				order.add(99);
+			}
+		}));
+	}
+	
+	private static ArrayList<FeedObject> makeFeedList(int type, int count) {
+		ArrayList<FeedObject> list = new ArrayList<FeedObject>();
+		for(int i=0; i<count; i++) {
+			list.add(new FeedObject(type, "item" + i, "http://example.com/" + i, null, "Item " + i, null));
+		}
+		return list;
+	}
+	
+	private static void sleep(long ms) {
+		try {
+			Thread.sleep(ms);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+}
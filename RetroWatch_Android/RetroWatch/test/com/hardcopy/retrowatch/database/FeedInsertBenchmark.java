@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2014 The Retro Watch - Open source smart watch project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardcopy.retrowatch.database;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hardcopy.retrowatch.contents.objects.FeedObject;
+
+/**
+ * Inserts 1,000 feed items into a SQLite file with the feed_item table of DBHelper.
+ * 
+ *   perRowValues			one ContentValues-like map, one INSERT string and one statement per item.
+ *   						Every insert commits by itself. (insertFeedItem() called for each item)
+ *   perRowValuesInTransaction	same, but in one transaction
+ *   compiledInTransaction	one compiled statement re-bound for every item in one transaction.
+ *   						(mergeFeedItems(), insertBulkFilters(), insertBulkCPItems())
+ * 
+ * SQLiteDatabase.insert() compiles a new statement from the ContentValues keys on every call,
+ * which is what perRowValues does here with JDBC.
+ * Run with: ant bench -Dbench=FeedInsert   (gc.alloc.rate.norm is bytes per 1,000 items)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FeedInsertBenchmark {
+	
+	private static final String TABLE_NAME_FEED_ITEM = "feed_item";
+	private static final String CREATE_FEED = "CREATE TABLE " + TABLE_NAME_FEED_ITEM + "("
+			+ "id Integer primary key autoincrement, type Integer not null, status Integer not null, "
+			+ "idstring Text not null, name Text, link Text, keyword Text, content Text, thumbnailurl Text, "
+			+ "filetype Integer, fileurl Text, rank Integer, click Integer, like Integer, date Text, "
+			+ "arg0 integer, arg1 integer, arg2 Text, arg3 Text, cached Integer)";
+	private static final String CREATE_FEED_INDEX_TYPE_ID = "CREATE UNIQUE INDEX idx_feed_type_idstring ON "
+			+ TABLE_NAME_FEED_ITEM + "(type, idstring)";
+	private static final String CREATE_FEED_INDEX_ID = "CREATE INDEX idx_feed_idstring ON "
+			+ TABLE_NAME_FEED_ITEM + "(idstring)";
+	// Same as DBHelper.DATABASE_INSERT_FEED
+	private static final String INSERT_FEED = "INSERT OR REPLACE INTO " + TABLE_NAME_FEED_ITEM + "("
+			+ "type, status, idstring, name, link, keyword, content, thumbnailurl, date, "
+			+ "rank, click, arg0, arg1, arg2, cached) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+	
+	private static final int CP_ID = 1;		// type column is ID of content provider
+	
+	@Param({"1000"})
+	public int mItemCount;
+	
+	private File mFile;
+	private Connection mConnection;
+	private ArrayList<FeedObject> mFeedList;
+	
+	
+	/*****************************************************
+	 *		Setup
+	 ******************************************************/
+	@Setup(Level.Trial)
+	public void openDatabase() throws Exception {
+		mFile = File.createTempFile("feed_insert", ".db");
+		mConnection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getPath());
+		Statement stmt = mConnection.createStatement();
+		try {
+			stmt.execute(CREATE_FEED);
+			stmt.execute(CREATE_FEED_INDEX_TYPE_ID);
+			stmt.execute(CREATE_FEED_INDEX_ID);
+		} finally {
+			stmt.close();
+		}
+		
+		mFeedList = new ArrayList<FeedObject>();
+		for(int i=0; i<mItemCount; i++) {
+			FeedObject feed = new FeedObject(CP_ID, "http://example.com/item/" + i, 
+					"http://example.com/item/" + i, null, "Title of item " + i + " with some words", null);
+			feed.setName("Example feed");
+			feed.setDate("Sat, 17 Oct 2026 10:" + (i % 60) + ":00 GMT");
+			mFeedList.add(feed);
+		}
+	}
+	
+	@Setup(Level.Invocation)
+	public void clearTable() throws SQLException {
+		Statement stmt = mConnection.createStatement();
+		try {
+			stmt.execute("DELETE FROM " + TABLE_NAME_FEED_ITEM);
+		} finally {
+			stmt.close();
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void closeDatabase() throws SQLException {
+		mConnection.close();
+		mFile.delete();
+	}
+	
+	
+	/*****************************************************
+	 *		Benchmarks
+	 ******************************************************/
+	@Benchmark
+	public int perRowValues() throws SQLException {
+		int time = (int)(System.currentTimeMillis() / 1000);
+		int inserted = 0;
+		for(FeedObject feed : mFeedList) {
+			inserted += insertWithValues(makeValues(feed, time));
+		}
+		return inserted;
+	}
+	
+	@Benchmark
+	public int perRowValuesInTransaction() throws SQLException {
+		int time = (int)(System.currentTimeMillis() / 1000);
+		int inserted = 0;
+		mConnection.setAutoCommit(false);
+		try {
+			for(FeedObject feed : mFeedList) {
+				inserted += insertWithValues(makeValues(feed, time));
+			}
+			mConnection.commit();
+		} finally {
+			mConnection.setAutoCommit(true);
+		}
+		return inserted;
+	}
+	
+	@Benchmark
+	public int compiledInTransaction() throws SQLException {
+		int time = (int)(System.currentTimeMillis() / 1000);
+		int inserted = 0;
+		mConnection.setAutoCommit(false);
+		PreparedStatement stmt = mConnection.prepareStatement(INSERT_FEED);
+		try {
+			for(int i = mFeedList.size()-1 ; -1<i ; i--) {
+				bindFeed(stmt, mFeedList.get(i), time);
+				inserted += stmt.executeUpdate();
+			}
+			mConnection.commit();
+		} finally {
+			stmt.close();
+			mConnection.setAutoCommit(true);
+		}
+		return inserted;
+	}
+	
+	
+	/*****************************************************
+	 *		Private methods
+	 ******************************************************/
+	// Same columns as insertFeedItem() put before it used the compiled statement
+	private Map<String, Object> makeValues(FeedObject feed, int time) {
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("type", feed.mType);
+		values.put("status", feed.mDownloadStatus);
+		values.put("idstring", feed.mId);
+		if(feed.mName != null && feed.mName.length() > 0)
+			values.put("name", feed.mName);
+		if(feed.mLink != null && feed.mLink.length() > 0)
+			values.put("link", feed.mLink);
+		if(feed.mKeyword != null && feed.mKeyword.length() > 0)
+			values.put("keyword", feed.mKeyword);
+		if(feed.mContent != null && feed.mContent.length() > 0)
+			values.put("content", feed.mContent);
+		if(feed.mThumbnailUrl != null && feed.mThumbnailUrl.length() > 0)
+			values.put("thumbnailurl", feed.mThumbnailUrl);
+		values.put("date", feed.mDate);
+		values.put("rank", feed.mRankUpAndDown);
+		values.put("click", feed.mCommentCount);
+		values.put("arg0", feed.mRankType);
+		values.put("arg1", feed.mVersion);
+		values.put("arg2", feed.mFullSizeImageURL);
+		values.put("cached", time);
+		return values;
+	}
+	
+	// What SQLiteDatabase.insertWithOnConflict() does: build SQL, compile, bind, run, close
+	private int insertWithValues(Map<String, Object> values) throws SQLException {
+		StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ").append(TABLE_NAME_FEED_ITEM).append('(');
+		StringBuilder args = new StringBuilder(" VALUES (");
+		int i = 0;
+		for(String key : values.keySet()) {
+			if(i++ > 0) {
+				sql.append(',');
+				args.append(',');
+			}
+			sql.append(key);
+			args.append('?');
+		}
+		sql.append(')').append(args).append(')');
+		
+		PreparedStatement stmt = mConnection.prepareStatement(sql.toString());
+		try {
+			i = 1;
+			for(Object value : values.values()) {
+				stmt.setObject(i++, value);
+			}
+			return stmt.executeUpdate();
+		} finally {
+			stmt.close();
+		}
+	}
+	
+	// Same bindings as DBHelper.bindFeed()
+	private void bindFeed(PreparedStatement stmt, FeedObject feed, int time) throws SQLException {
+		stmt.clearParameters();
+		stmt.setInt(1, feed.mType);
+		stmt.setInt(2, feed.mDownloadStatus);
+		stmt.setString(3, feed.mId);
+		stmt.setString(4, feed.mName);
+		stmt.setString(5, feed.mLink);
+		stmt.setString(6, feed.mKeyword);
+		stmt.setString(7, feed.mContent);
+		stmt.setString(8, feed.mThumbnailUrl);
+		if(feed.mDate != null)
+			stmt.setString(9, feed.mDate);
+		else
+			stmt.setInt(9, time);
+		stmt.setInt(10, feed.mRankUpAndDown);
+		stmt.setInt(11, feed.mCommentCount);
+		stmt.setInt(12, feed.mRankType);
+		stmt.setInt(13, feed.mVersion);
+		stmt.setString(14, feed.mFullSizeImageURL);
+		stmt.setInt(15, time);
+	}
+	
+}
@@ -55,10 +55,20 @@ SoftwareSerial BTSerial(2, 3); //Connect HC-06, RX, TX
 #define TR_MODE_WAIT_MESSAGE 101
 #define TR_MODE_WAIT_TIME 111
 #define TR_MODE_WAIT_ID 121
+#define TR_MODE_WAIT_CHUNK 131
 #define TR_MODE_WAIT_COMPLETE 201
 
 #define TRANSACTION_START_BYTE 0xfc
 #define TRANSACTION_END_BYTE 0xfd
+#define TRANSACTION_START_RELIABLE 0xfb
+
+// Reliable frame : [0xfb][seq][length][frame][CRC-8][0xfd]
+#define REL_MODE_NONE 0
+#define REL_MODE_WAIT_SEQ 1
+#define REL_MODE_WAIT_LENGTH 2
+#define REL_MODE_WAIT_DATA 3
+#define REL_MODE_WAIT_CRC 4
+#define REL_MODE_WAIT_END 5
 
 #define CMD_TYPE_NONE 0x00
 #define CMD_TYPE_RESET_EMERGENCY_OBJ 0x05
@@ -68,6 +78,7 @@ SoftwareSerial BTSerial(2, 3); //Connect HC-06, RX, TX
 #define CMD_TYPE_ADD_EMERGENCY_OBJ 0x11
 #define CMD_TYPE_ADD_NORMAL_OBJ 0x12
 #define CMD_TYPE_ADD_USER_MESSAGE 0x13
+#define CMD_TYPE_ADD_MESSAGE_CHUNK 0x14
 
 #define CMD_TYPE_DELETE_EMERGENCY_OBJ 0x21
 #define CMD_TYPE_DELETE_NORMAL_OBJ 0x22
@@ -77,15 +88,36 @@ SoftwareSerial BTSerial(2, 3); //Connect HC-06, RX, TX
 #define CMD_TYPE_REQUEST_MOVEMENT_HISTORY 0x32
 #define CMD_TYPE_SET_CLOCK_STYLE 0x33
 #define CMD_TYPE_SET_INDICATOR 0x34
+#define CMD_TYPE_SET_TEXT_MODE 0x35    // data : dictionary version to use compact text, 0 for plain text
 
 #define CMD_TYPE_PING 0x51
 #define CMD_TYPE_AWAKE 0x52
 #define CMD_TYPE_SLEEP 0x53
 #define CMD_TYPE_REBOOT 0x54
 
+// Watch -> phone
+#define CMD_TYPE_ACK 0x04
+#define CMD_TYPE_NAK 0x05
+#define CMD_TYPE_CAPABILITIES 0x06
+
+// Capability flags sent to phone
+#define CAPABILITY_RELIABLE 0x01
+#define CAPABILITY_COMPACT_TEXT 0x02
+
 byte TRANSACTION_POINTER = TR_MODE_IDLE;
 byte TR_COMMAND = CMD_TYPE_NONE;
 
+//----- Reliable frame buffer
+#define REL_BUFFER_MAX 24
+byte REL_POINTER = REL_MODE_NONE;
+byte relBuffer[REL_BUFFER_MAX];
+byte relSeq = 0;
+byte relLength = 0;
+byte relIndex = 0;
+byte relCrc = 0;
+boolean relCrcOk = false;
+int relLastSeq = -1;    // Last applied sequence. -1 until phone sends a probe.
+
 //----- Message item buffer
 #define MSG_COUNT_MAX 7
 #define MSG_BUFFER_MAX 19
@@ -102,6 +134,94 @@ char emgParsingLine = 0;
 char emgParsingChar = 0;
 char emgCurDisp = 0;
 
+//----- Long message buffer
+// Full text of one item, sent in chunks : [ID][total length][offset][text...]
+// Item with longId shows this text instead of its 16 byte message.
+#define LONG_MSG_MAX 64    // 3 lines of text + null
+char longBuffer[LONG_MSG_MAX];
+byte longId = 0x00;
+byte longTotal = 0;
+byte longReceived = 0;
+boolean longComplete = false;
+byte chunkParsingIndex = 0;
+byte chunkId = 0x00;
+byte chunkTotal = 0;
+boolean chunkSkip = false;
+
+//----- Compact text dictionary
+// Byte 0x80 + index is drawn as the word. Must match CompactText.WORDS of phone app.
+// Change DICT_VERSION if the table changes.
+#define DICT_VERSION 1
+#define DICT_CODE_MIN 0x80
+#define DICT_COUNT 54
+#define UNKNOWN_CHAR '?'
+// Codes are expanded only after phone turns compact text on. Plain text is UTF-8 and
+// each non-ASCII character is drawn as UNKNOWN_CHAR. Probe and plain (not reliable) frame turn it off.
+boolean compactText = false;
+const char dict_00[] PROGMEM = "Call received";
+const char dict_01[] PROGMEM = "Call state idle";
+const char dict_02[] PROGMEM = "Out of service";
+const char dict_03[] PROGMEM = "Emergency only";
+const char dict_04[] PROGMEM = "In service";
+const char dict_05[] PROGMEM = "Power off";
+const char dict_06[] PROGMEM = "Battery: ";
+const char dict_07[] PROGMEM = "unread email";
+const char dict_08[] PROGMEM = "new SMS";
+const char dict_09[] PROGMEM = "WiFi is on";
+const char dict_10[] PROGMEM = "Cannot use WiFi";
+const char dict_11[] PROGMEM = "Missed call";
+const char dict_12[] PROGMEM = "Call";
+const char dict_13[] PROGMEM = "Message";
+const char dict_14[] PROGMEM = "message";
+const char dict_15[] PROGMEM = "Notification";
+const char dict_16[] PROGMEM = "KakaoTalk";
+const char dict_17[] PROGMEM = "Facebook";
+const char dict_18[] PROGMEM = "Twitter";
+const char dict_19[] PROGMEM = "Gmail";
+const char dict_20[] PROGMEM = "Calendar";
+const char dict_21[] PROGMEM = "Reminder";
+const char dict_22[] PROGMEM = "Alarm";
+const char dict_23[] PROGMEM = "Download";
+const char dict_24[] PROGMEM = "complete";
+const char dict_25[] PROGMEM = "Update";
+const char dict_26[] PROGMEM = "update";
+const char dict_27[] PROGMEM = "Meeting";
+const char dict_28[] PROGMEM = "Today";
+const char dict_29[] PROGMEM = "Tomorrow";
+const char dict_30[] PROGMEM = "Photo";
+const char dict_31[] PROGMEM = "Video";
+const char dict_32[] PROGMEM = "email";
+const char dict_33[] PROGMEM = "SMS";
+const char dict_34[] PROGMEM = "WiFi";
+const char dict_35[] PROGMEM = "Battery";
+const char dict_36[] PROGMEM = "https://";
+const char dict_37[] PROGMEM = "http://";
+const char dict_38[] PROGMEM = "www.";
+const char dict_39[] PROGMEM = ".com";
+const char dict_40[] PROGMEM = "the ";
+const char dict_41[] PROGMEM = "and ";
+const char dict_42[] PROGMEM = "ing ";
+const char dict_43[] PROGMEM = "tion";
+const char dict_44[] PROGMEM = "you";
+const char dict_45[] PROGMEM = "from ";
+const char dict_46[] PROGMEM = "new ";
+const char dict_47[] PROGMEM = "New ";
+const char dict_48[] PROGMEM = "sent ";
+const char dict_49[] PROGMEM = "received";
+const char dict_50[] PROGMEM = "with ";
+const char dict_51[] PROGMEM = "for ";
+const char dict_52[] PROGMEM = "this ";
+const char dict_53[] PROGMEM = "that ";
+const char* const dict_table[] PROGMEM = {
+  dict_00, dict_01, dict_02, dict_03, dict_04, dict_05, dict_06, dict_07,
+  dict_08, dict_09, dict_10, dict_11, dict_12, dict_13, dict_14, dict_15,
+  dict_16, dict_17, dict_18, dict_19, dict_20, dict_21, dict_22, dict_23,
+  dict_24, dict_25, dict_26, dict_27, dict_28, dict_29, dict_30, dict_31,
+  dict_32, dict_33, dict_34, dict_35, dict_36, dict_37, dict_38, dict_39,
+  dict_40, dict_41, dict_42, dict_43, dict_44, dict_45, dict_46, dict_47,
+  dict_48, dict_49, dict_50, dict_51, dict_52, dict_53
+};
+
 //----- Time
 #define UPDATE_TIME_INTERVAL 60000
 byte iMonth = 1;
@@ -214,6 +334,7 @@ void init_msg_array() {
   msgParsingLine = 0;
   msgParsingChar = 0;    // First 2 byte is management byte
   msgCurDisp = 0;
+  clear_long_msg();
 }
 
 void init_emg_array() {
@@ -225,6 +346,65 @@ void init_emg_array() {
   emgParsingLine = 0;
   emgParsingChar = 0;    // First 2 byte is management byte
   emgCurDisp = 0;
+  clear_long_msg();
+}
+
+void clear_long_msg() {
+  longId = 0x00;
+  longTotal = 0;
+  longReceived = 0;
+  longComplete = false;
+}
+
+// Returns true if the item has complete long message
+boolean has_long_msg(byte id) {
+  return longComplete && id != 0x00 && id == longId;
+}
+
+// Byte 0 is used flag, byte 1 is ID given by phone.
+// Find the line which has same ID, or an empty line. If not found, use ring buffer position.
+char find_msg_line(byte id) {
+  for(int i=0; i<MSG_COUNT_MAX; i++) {
+    if(msgBuffer[i][0] != 0x00 && msgBuffer[i][1] == id) return i;
+  }
+  for(int i=0; i<MSG_COUNT_MAX; i++) {
+    if(msgBuffer[i][0] == 0x00) return i;
+  }
+  return msgParsingLine;
+}
+
+char find_emg_line(byte id) {
+  for(int i=0; i<EMG_COUNT_MAX; i++) {
+    if(emgBuffer[i][0] != 0x00 && (byte)emgBuffer[i][1] == id) return i;
+  }
+  for(int i=0; i<EMG_COUNT_MAX; i++) {
+    if(emgBuffer[i][0] == 0x00) return i;
+  }
+  return emgParsingLine;
+}
+
+void delete_msg(byte id) {
+  for(int i=0; i<MSG_COUNT_MAX; i++) {
+    if(msgBuffer[i][0] != 0x00 && msgBuffer[i][1] == id) {
+      for(int j=0; j<MSG_BUFFER_MAX; j++) {
+        msgBuffer[i][j] = 0x00;
+      }
+    }
+  }
+  if(id == longId)
+    clear_long_msg();
+}
+
+void delete_emg(byte id) {
+  for(int i=0; i<EMG_COUNT_MAX; i++) {
+    if(emgBuffer[i][0] != 0x00 && (byte)emgBuffer[i][1] == id) {
+      for(int j=0; j<EMG_BUFFER_MAX; j++) {
+        emgBuffer[i][j] = 0x00;
+      }
+    }
+  }
+  if(id == longId)
+    clear_long_msg();
 }
 
 ///////////////////////////////////
@@ -279,27 +459,25 @@ boolean receiveBluetoothData() {
     if(BTSerial.available()) {
       byte c = BTSerial.read();
       
+      // Sequence, length and CRC of reliable frame can be any value
+      if(REL_POINTER != REL_MODE_NONE) {
+        isTransactionEnded = parseReliable(c);
+        continue;
+      }
+      
       if(c == 0xFF && TRANSACTION_POINTER != TR_MODE_WAIT_MESSAGE) return false;
       
-      if(TRANSACTION_POINTER == TR_MODE_IDLE) {
-        parseStartSignal(c);
-      }
-      else if(TRANSACTION_POINTER == TR_MODE_WAIT_CMD) {
-        parseCommand(c);
-      }
-      else if(TRANSACTION_POINTER == TR_MODE_WAIT_MESSAGE) {
-        parseMessage(c);
-      }
-      else if(TRANSACTION_POINTER == TR_MODE_WAIT_TIME) {
-        parseTime(c);
-      }
-      else if(TRANSACTION_POINTER == TR_MODE_WAIT_ID) {
-        parseId(c);
-      }
-      else if(TRANSACTION_POINTER == TR_MODE_WAIT_COMPLETE) {
-        isTransactionEnded = parseEndSignal(c);
+      if(c == TRANSACTION_START_RELIABLE && TRANSACTION_POINTER == TR_MODE_IDLE) {
+        REL_POINTER = REL_MODE_WAIT_SEQ;
+        continue;
       }
       
+      // Plain frame comes from a phone which didn't negotiate text mode
+      if(c == TRANSACTION_START_BYTE && TRANSACTION_POINTER == TR_MODE_IDLE)
+        compactText = false;
+      
+      isTransactionEnded = parseByte(c);
+      
     }  // End of if(BTSerial.available())
     else {
       isTransactionEnded = true;
@@ -308,6 +486,131 @@ boolean receiveBluetoothData() {
   return true;
 }  // End of receiveBluetoothData()
 
+// Returns true if transaction is ended
+boolean parseByte(byte c) {
+  if(TRANSACTION_POINTER == TR_MODE_IDLE) {
+    parseStartSignal(c);
+  }
+  else if(TRANSACTION_POINTER == TR_MODE_WAIT_CMD) {
+    parseCommand(c);
+  }
+  else if(TRANSACTION_POINTER == TR_MODE_WAIT_MESSAGE) {
+    parseMessage(c);
+  }
+  else if(TRANSACTION_POINTER == TR_MODE_WAIT_TIME) {
+    parseTime(c);
+  }
+  else if(TRANSACTION_POINTER == TR_MODE_WAIT_ID) {
+    parseId(c);
+  }
+  else if(TRANSACTION_POINTER == TR_MODE_WAIT_CHUNK) {
+    parseChunk(c);
+  }
+  else if(TRANSACTION_POINTER == TR_MODE_WAIT_COMPLETE) {
+    return parseEndSignal(c);
+  }
+  return false;
+}
+
+// Collect reliable frame. Returns true if a frame is completed.
+boolean parseReliable(byte c) {
+  if(REL_POINTER == REL_MODE_WAIT_SEQ) {
+    relSeq = c;
+    relCrc = crc8_update(0, c);
+    REL_POINTER = REL_MODE_WAIT_LENGTH;
+  }
+  else if(REL_POINTER == REL_MODE_WAIT_LENGTH) {
+    relLength = c;
+    relIndex = 0;
+    relCrc = crc8_update(relCrc, c);
+    if(relLength == 0 || relLength > REL_BUFFER_MAX)
+      REL_POINTER = REL_MODE_NONE;    // Broken. Phone sends it again.
+    else
+      REL_POINTER = REL_MODE_WAIT_DATA;
+  }
+  else if(REL_POINTER == REL_MODE_WAIT_DATA) {
+    relBuffer[relIndex++] = c;
+    relCrc = crc8_update(relCrc, c);
+    if(relIndex >= relLength)
+      REL_POINTER = REL_MODE_WAIT_CRC;
+  }
+  else if(REL_POINTER == REL_MODE_WAIT_CRC) {
+    relCrcOk = (c == relCrc);
+    REL_POINTER = REL_MODE_WAIT_END;
+  }
+  else if(REL_POINTER == REL_MODE_WAIT_END) {
+    REL_POINTER = REL_MODE_NONE;
+    if(c != TRANSACTION_END_BYTE)
+      return false;
+    if(!relCrcOk) {
+      sendAck(CMD_TYPE_NAK, relSeq);
+      return false;
+    }
+    processReliable();
+    return true;
+  }
+  return false;
+}
+
+// Apply frames in sequence order only, then acknowledge.
+void processReliable() {
+  boolean isProbe = (relLength >= 2 && relBuffer[1] == CMD_TYPE_PING);
+  if(isProbe) {
+    // Probe starts a new sequence. Phone negotiates text mode again.
+    relLastSeq = relSeq;
+    compactText = false;
+  }
+  else if(relLastSeq < 0) {
+    return;
+  }
+  else if(relSeq == (byte)relLastSeq) {
+    // Duplicated. ACK was lost, acknowledge again.
+  }
+  else if(relSeq == (byte)(relLastSeq + 1)) {
+    TRANSACTION_POINTER = TR_MODE_IDLE;
+    for(byte i = 0; i < relLength; i++)
+      parseByte(relBuffer[i]);
+    TRANSACTION_POINTER = TR_MODE_IDLE;
+    relLastSeq = relSeq;
+  }
+  else {
+    // Previous frame is lost. Phone sends every frame again from the lost one.
+    return;
+  }
+  sendAck(CMD_TYPE_ACK, relSeq);
+  
+  // Tell phone what this firmware supports
+  if(isProbe)
+    sendCapabilities();
+}
+
+void sendCapabilities() {
+  BTSerial.write(TRANSACTION_START_BYTE);
+  BTSerial.write(CMD_TYPE_CAPABILITIES);
+  BTSerial.write(CAPABILITY_RELIABLE | CAPABILITY_COMPACT_TEXT);
+  BTSerial.write(DICT_VERSION);
+  BTSerial.write(TRANSACTION_END_BYTE);
+}
+
+void sendAck(byte cmd, byte seq) {
+  BTSerial.write(TRANSACTION_START_BYTE);
+  BTSerial.write(cmd);
+  BTSerial.write(seq);
+  BTSerial.write(TRANSACTION_END_BYTE);
+}
+
+// CRC-8, polynomial 0x07
+byte crc8_update(byte crc, byte data) {
+  crc ^= data;
+  for(byte i = 0; i < 8; i++) {
+    if(crc & 0x80)
+      crc = (crc << 1) ^ 0x07;
+    else
+      crc <<= 1;
+  }
+  return crc;
+}
+
 void parseStartSignal(byte c) {
   //drawLogChar(c);
   if(c == TRANSACTION_START_BYTE) {
@@ -327,7 +630,7 @@ void parseCommand(byte c) {
     TR_COMMAND = c;
     if(c == CMD_TYPE_ADD_EMERGENCY_OBJ) {
       emgParsingChar = 0;
-      if(emgParsingLine >= MSG_COUNT_MAX || emgParsingLine < 0)
+      if(emgParsingLine >= EMG_COUNT_MAX || emgParsingLine < 0)
         emgParsingLine = 0;
     }
     else if(c == CMD_TYPE_ADD_NORMAL_OBJ) {
@@ -337,14 +640,19 @@ void parseCommand(byte c) {
     }
   }
   else if(c == CMD_TYPE_DELETE_EMERGENCY_OBJ || c == CMD_TYPE_DELETE_NORMAL_OBJ || c == CMD_TYPE_DELETE_USER_MESSAGE) {
-    TRANSACTION_POINTER = TR_MODE_WAIT_COMPLETE;
+    TRANSACTION_POINTER = TR_MODE_WAIT_ID;
     TR_COMMAND = c;
   }
+  else if(c == CMD_TYPE_ADD_MESSAGE_CHUNK) {
+    TRANSACTION_POINTER = TR_MODE_WAIT_CHUNK;
+    TR_COMMAND = c;
+    chunkParsingIndex = 0;
+  }
   else if(c == CMD_TYPE_SET_TIME) {
     TRANSACTION_POINTER = TR_MODE_WAIT_TIME;
     TR_COMMAND = c;
   }
-  else if(c == CMD_TYPE_SET_CLOCK_STYLE || c == CMD_TYPE_SET_INDICATOR) {
+  else if(c == CMD_TYPE_SET_CLOCK_STYLE || c == CMD_TYPE_SET_INDICATOR || c == CMD_TYPE_SET_TEXT_MODE) {
     TRANSACTION_POINTER = TR_MODE_WAIT_ID;
     TR_COMMAND = c;
   }
@@ -358,11 +666,20 @@ void parseMessage(byte c) {
   if(c == TRANSACTION_END_BYTE) {
     processTransaction();
     TRANSACTION_POINTER = TR_MODE_IDLE;
+    return;
   }
   
   if(TR_COMMAND == CMD_TYPE_ADD_EMERGENCY_OBJ) {
     if(emgParsingChar < EMG_BUFFER_MAX - 1) {
-      if(emgParsingChar > 1) {
+      if(emgParsingChar == 1) {
+        // ID byte: replace the line with same ID or use an empty line
+        emgParsingLine = find_emg_line(c);
+        for(int j=0; j<EMG_BUFFER_MAX; j++) {
+          emgBuffer[emgParsingLine][j] = 0x00;
+        }
+        emgBuffer[emgParsingLine][1] = c;
+      }
+      else if(emgParsingChar > 1) {
         emgBuffer[emgParsingLine][emgParsingChar] = c;
       }
       emgParsingChar++;
@@ -374,7 +691,15 @@ void parseMessage(byte c) {
   }
   else if(TR_COMMAND == CMD_TYPE_ADD_NORMAL_OBJ) {
     if(msgParsingChar < MSG_BUFFER_MAX - 1) {
-      if(msgParsingChar > 1) {
+      if(msgParsingChar == 1) {
+        // ID byte: replace the line with same ID or use an empty line
+        msgParsingLine = find_msg_line(c);
+        for(int j=0; j<MSG_BUFFER_MAX; j++) {
+          msgBuffer[msgParsingLine][j] = 0x00;
+        }
+        msgBuffer[msgParsingLine][1] = c;
+      }
+      else if(msgParsingChar > 1) {
         msgBuffer[msgParsingLine][msgParsingChar] = c;
       }
       msgParsingChar++;
@@ -390,6 +715,42 @@ void parseMessage(byte c) {
   }
 }
 
+// Chunks must arrive in order. If a chunk is lost, the message stays incomplete
+// and the item shows its 16 byte message.
+void parseChunk(byte c) {
+  if(c == TRANSACTION_END_BYTE) {
+    if(!longComplete && longTotal > 0 && longReceived >= longTotal) {
+      longBuffer[longTotal] = 0x00;
+      longComplete = true;
+      setNextDisplayTime(millis(), 0);  // update screen immediately
+    }
+    TRANSACTION_POINTER = TR_MODE_IDLE;
+    return;
+  }
+  
+  if(chunkParsingIndex == 0) {
+    chunkId = c;
+  }
+  else if(chunkParsingIndex == 1) {
+    chunkTotal = c;
+  }
+  else if(chunkParsingIndex == 2) {
+    if(c == 0) {
+      // First chunk starts a new message
+      longId = chunkId;
+      longTotal = (chunkTotal < LONG_MSG_MAX) ? chunkTotal : LONG_MSG_MAX - 1;
+      longReceived = 0;
+      longComplete = false;
+    }
+    chunkSkip = (chunkId != longId || c != longReceived);
+  }
+  else if(!chunkSkip && longReceived < longTotal) {
+    longBuffer[longReceived++] = c;
+  }
+  if(chunkParsingIndex < 3)
+    chunkParsingIndex++;
+}
+
 void parseTime(byte c) {
   if(TR_COMMAND == CMD_TYPE_SET_TIME) {
     if(timeParsingIndex >= 0 && timeParsingIndex < TIME_BUFFER_MAX) {
@@ -415,6 +776,18 @@ void parseId(byte c) {
       updateIndicator = false;
     processTransaction();
   }
+  else if(TR_COMMAND == CMD_TYPE_SET_TEXT_MODE) {
+    compactText = (c == DICT_VERSION);
+    processTransaction();
+  }
+  else if(TR_COMMAND == CMD_TYPE_DELETE_EMERGENCY_OBJ) {
+    delete_emg(c);
+    processTransaction();
+  }
+  else if(TR_COMMAND == CMD_TYPE_DELETE_NORMAL_OBJ) {
+    delete_msg(c);
+    processTransaction();
+  }
   TRANSACTION_POINTER = TR_MODE_WAIT_COMPLETE;
 }
 
@@ -457,7 +830,10 @@ void processTransaction() {
   }
   else if(TR_COMMAND == CMD_TYPE_ADD_USER_MESSAGE) {
   }
-  else if(TR_COMMAND == CMD_TYPE_DELETE_EMERGENCY_OBJ || TR_COMMAND == CMD_TYPE_DELETE_NORMAL_OBJ || TR_COMMAND == CMD_TYPE_DELETE_USER_MESSAGE) {
+  else if(TR_COMMAND == CMD_TYPE_DELETE_EMERGENCY_OBJ || TR_COMMAND == CMD_TYPE_DELETE_NORMAL_OBJ) {
+    setNextDisplayTime(millis(), 0);  // update screen immediately
+  }
+  else if(TR_COMMAND == CMD_TYPE_DELETE_USER_MESSAGE) {
     // Not available yet.
   }
   else if(TR_COMMAND == CMD_TYPE_SET_TIME) {
@@ -724,12 +1100,16 @@ void drawEmergency() {
   
   display.setTextColor(WHITE);
   display.setTextSize(1);
-  display.setCursor(getCenterAlignedXOfEmg(emgCurDisp), centerY + 10);
-  for(int i=3; i<EMG_BUFFER_MAX; i++) {
-    char curChar = emgBuffer[emgCurDisp][i];
-    if(curChar == 0x00) break;
-    if(curChar >= 0xf0) continue;
-    display.write(curChar);
+  if(has_long_msg((byte)emgBuffer[emgCurDisp][1])) {
+    drawLongMessage();
+  }
+  else {
+    display.setCursor(getCenterAlignedXOfEmg(emgCurDisp), centerY + 10);
+    for(int i=3; i<EMG_BUFFER_MAX; i++) {
+      char curChar = emgBuffer[emgCurDisp][i];
+      if(curChar == 0x00) break;
+      writeChar(curChar);
+    }
   }
 
   display.display();
@@ -750,18 +1130,65 @@ void drawMessage() {
   
   display.setTextColor(WHITE);
   display.setTextSize(1);
-  display.setCursor(getCenterAlignedXOfMsg(msgCurDisp), centerY + 10);
-//  display.print(msgCurDisp);  // For debug
-  for(int i=3; i<MSG_BUFFER_MAX; i++) {
-    char curChar = msgBuffer[msgCurDisp][i];
-    if(curChar == 0x00) break;
-    if(curChar >= 0xf0) continue;
-    display.write(curChar);
+  if(has_long_msg(msgBuffer[msgCurDisp][1])) {
+    drawLongMessage();
+  }
+  else {
+    display.setCursor(getCenterAlignedXOfMsg(msgCurDisp), centerY + 10);
+//    display.print(msgCurDisp);  // For debug
+    for(int i=3; i<MSG_BUFFER_MAX; i++) {
+      char curChar = msgBuffer[msgCurDisp][i];
+      if(curChar == 0x00) break;
+      writeChar(curChar);
+    }
   }
 
   display.display();
 }
 
+// Draw a character. Dictionary code is expanded to its word in compact text mode.
+// In plain text mode, a UTF-8 character (lead byte + continuation bytes) is drawn as one UNKNOWN_CHAR.
+void writeChar(byte c) {
+  if(c < 0x80) {
+    display.write(c);
+  }
+  else if(compactText) {
+    if(c < DICT_CODE_MIN + DICT_COUNT) {
+      const char* word = (const char*)pgm_read_word(&(dict_table[c - DICT_CODE_MIN]));
+      char d;
+      while((d = pgm_read_byte(word++)) != 0x00)
+        display.write(d);
+    }
+  }
+  else if(c >= 0xC0 && c < 0xF8) {
+    display.write(UNKNOWN_CHAR);
+  }
+}
+
+// Returns number of characters drawn by writeChar()
+byte getCharWidth(byte c) {
+  if(c < 0x80)
+    return 1;
+  if(compactText) {
+    if(c < DICT_CODE_MIN + DICT_COUNT)
+      return strlen_P((const char*)pgm_read_word(&(dict_table[c - DICT_CODE_MIN])));
+    return 0;
+  }
+  if(c >= 0xC0 && c < 0xF8)
+    return 1;
+  return 0;
+}
+
+// Draw long message under the icon. Text wraps at screen edge (3 lines).
+void drawLongMessage() {
+  display.setCursor(0, centerY + 8);
+  for(int i=0; i<LONG_MSG_MAX; i++) {
+    char curChar = longBuffer[i];
+    if(curChar == 0x00) break;
+    writeChar(curChar);
+  }
+}
+
 // Draw main clock screen
 // Clock style changes according to user selection
 void drawClock() {
@@ -855,8 +1282,7 @@ int getCenterAlignedXOfMsg(int msgIndex) {
   for(int i=3; i<MSG_BUFFER_MAX; i++) {
     char curChar = msgBuffer[msgIndex][i];
     if(curChar == 0x00) break;
-    if(curChar >= 0xf0) continue;
-    pointX -= 3;
+    pointX -= 3 * getCharWidth(curChar);
   }
   if(pointX < 0) pointX = 0;
   return pointX;
@@ -868,8 +1294,7 @@ int getCenterAlignedXOfEmg(int emgIndex) {
   for(int i=3; i<EMG_BUFFER_MAX; i++) {
     char curChar = emgBuffer[emgIndex][i];
     if(curChar == 0x00) break;
-    if(curChar >= 0xf0) continue;
-    pointX -= 3;
+    pointX -= 3 * getCharWidth(curChar);
   }
   if(pointX < 0) pointX = 0;
   return pointX;